@@ -0,0 +1,4 @@
+package bench.dr.evolution.alignment.generated;
+public class SitePatternsBenchmark_jmhType extends SitePatternsBenchmark_jmhType_B3 {
+}
+
@@ -0,0 +1,4 @@
+package bench.dr.evolution.io.generated;
+public class TreeImporterBenchmark_jmhType extends TreeImporterBenchmark_jmhType_B3 {
+}
+
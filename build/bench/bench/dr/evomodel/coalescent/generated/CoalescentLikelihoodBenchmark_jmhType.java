@@ -0,0 +1,4 @@
+package bench.dr.evomodel.coalescent.generated;
+public class CoalescentLikelihoodBenchmark_jmhType extends CoalescentLikelihoodBenchmark_jmhType_B3 {
+}
+
@@ -0,0 +1,4 @@
+package bench.dr.evomodel.operators.generated;
+public class TreeOperatorBenchmark_jmhType extends TreeOperatorBenchmark_jmhType_B3 {
+}
+
@@ -0,0 +1,4 @@
+package bench.dr.evomodel.tree.generated;
+public class TreeModelBenchmark_jmhType extends TreeModelBenchmark_jmhType_B3 {
+}
+
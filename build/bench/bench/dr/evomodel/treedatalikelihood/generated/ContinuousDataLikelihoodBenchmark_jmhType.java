@@ -0,0 +1,4 @@
+package bench.dr.evomodel.treedatalikelihood.generated;
+public class ContinuousDataLikelihoodBenchmark_jmhType extends ContinuousDataLikelihoodBenchmark_jmhType_B3 {
+}
+
@@ -0,0 +1,4 @@
+package bench.dr.evomodel.treedatalikelihood.generated;
+public class TreeDataLikelihoodBenchmark_jmhType extends TreeDataLikelihoodBenchmark_jmhType_B3 {
+}
+
@@ -0,0 +1,103 @@
+/*
+ * BenchmarkData.java
+ *
+ * Copyright (c) 2002-2017 Alexei Drummond, Andrew Rambaut and Marc Suchard
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ */
+
+package bench.dr;
+
+import dr.evolution.alignment.SimpleAlignment;
+import dr.evolution.coalescent.CoalescentSimulator;
+import dr.evolution.coalescent.ConstantPopulation;
+import dr.evolution.datatype.Nucleotides;
+import dr.evolution.sequence.Sequence;
+import dr.evolution.tree.Tree;
+import dr.evolution.util.Taxa;
+import dr.evolution.util.Taxon;
+import dr.evolution.util.Units;
+import dr.math.MathUtils;
+
+/**
+ * Synthetic datasets of controlled size for the JMH benchmarks. All data are generated
+ * from a fixed seed so that runs are comparable between releases.
+ */
+public class BenchmarkData {
+
+    public static final long SEED = 666;
+
+    public static Taxa createTaxa(int taxonCount) {
+        Taxa taxa = new Taxa();
+        for (int i = 0; i < taxonCount; i++) {
+            taxa.addTaxon(new Taxon("taxon" + (i + 1)));
+        }
+        return taxa;
+    }
+
+    /**
+     * @param taxa the taxa
+     * @param populationSize the (constant) population size
+     * @return a tree simulated under the constant size coalescent
+     */
+    public static Tree createCoalescentTree(Taxa taxa, double populationSize) {
+        MathUtils.setSeed(SEED);
+        ConstantPopulation demo = new ConstantPopulation(Units.Type.YEARS);
+        demo.setN0(populationSize);
+        return new CoalescentSimulator().simulateTree(taxa, demo);
+    }
+
+    /**
+     * @param taxa the taxa
+     * @param siteCount the number of sites
+     * @return a nucleotide alignment with independent and uniformly drawn states (so nearly all
+     * sites will be unique patterns when there are more than a few taxa)
+     */
+    public static SimpleAlignment createNucleotideAlignment(Taxa taxa, int siteCount) {
+        MathUtils.setSeed(SEED);
+        final char[] states = {'A', 'C', 'G', 'T'};
+        SimpleAlignment alignment = new SimpleAlignment();
+        alignment.setDataType(Nucleotides.INSTANCE);
+        for (int i = 0; i < taxa.getTaxonCount(); i++) {
+            StringBuilder sb = new StringBuilder(siteCount);
+            for (int j = 0; j < siteCount; j++) {
+                sb.append(states[MathUtils.nextInt(states.length)]);
+            }
+            alignment.addSequence(new Sequence(taxa.getTaxon(i), sb.toString()));
+        }
+        return alignment;
+    }
+
+    /**
+     * @param taxonCount the number of taxa
+     * @param traitDimension the dimension of the trait
+     * @return normally distributed trait values, one row per taxon
+     */
+    public static double[][] createContinuousTraits(int taxonCount, int traitDimension) {
+        MathUtils.setSeed(SEED);
+        double[][] traits = new double[taxonCount][traitDimension];
+        for (int i = 0; i < taxonCount; i++) {
+            for (int j = 0; j < traitDimension; j++) {
+                traits[i][j] = MathUtils.nextGaussian();
+            }
+        }
+        return traits;
+    }
+}
@@ -0,0 +1,67 @@
+/*
+ * SitePatternsBenchmark.java
+ *
+ * Copyright (c) 2002-2017 Alexei Drummond, Andrew Rambaut and Marc Suchard
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ */
+
+package bench.dr.evolution.alignment;
+
+import bench.dr.BenchmarkData;
+import dr.evolution.alignment.SimpleAlignment;
+import dr.evolution.alignment.SitePatterns;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks compressing the sites of a nucleotide alignment into unique site patterns.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class SitePatternsBenchmark {
+
+    @Param({"100"})
+    public int taxonCount;
+
+    @Param({"10000", "100000"})
+    public int siteCount;
+
+    @Param({"1", "4"})
+    public int threadCount;
+
+    private SimpleAlignment alignment;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        alignment = BenchmarkData.createNucleotideAlignment(BenchmarkData.createTaxa(taxonCount), siteCount);
+        System.setProperty(SitePatterns.PATTERN_THREADS, Integer.toString(threadCount));
+    }
+
+    @Benchmark
+    public int compressPatterns() {
+        return new SitePatterns(alignment, null, 0, -1, 1, true).getPatternCount();
+    }
+}
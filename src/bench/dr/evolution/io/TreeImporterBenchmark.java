@@ -0,0 +1,131 @@
+/*
+ * TreeImporterBenchmark.java
+ *
+ * Copyright (c) 2002-2017 Alexei Drummond, Andrew Rambaut and Marc Suchard
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ */
+
+package bench.dr.evolution.io;
+
+import bench.dr.BenchmarkData;
+import dr.app.tools.NexusExporter;
+import dr.evolution.io.CompactTreeImporter;
+import dr.evolution.io.NewickImporter;
+import dr.evolution.io.NexusImporter;
+import dr.evolution.tree.SimpleTree;
+import dr.evolution.tree.Tree;
+import dr.evolution.tree.TreeUtils;
+import dr.evolution.util.Taxa;
+import dr.math.MathUtils;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.io.StringReader;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks parsing a posterior sample of trees (with [&rate=...] node annotations) with the
+ * NexusImporter, the CompactTreeImporter (with and without the annotations) and the same trees
+ * as plain Newick with the NewickImporter. The score is in trees read per second.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@OperationsPerInvocation(TreeImporterBenchmark.TREE_COUNT)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class TreeImporterBenchmark {
+
+    static final int TREE_COUNT = 100;
+
+    @Param({"100", "1000"})
+    public int taxonCount;
+
+    private String nexusText;
+    private byte[] nexusBytes;
+    private String newickText;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Taxa taxa = BenchmarkData.createTaxa(taxonCount);
+        SimpleTree tree = (SimpleTree) BenchmarkData.createCoalescentTree(taxa, 1.0);
+        for (int i = 0; i < tree.getNodeCount(); i++) {
+            tree.setNodeAttribute(tree.getNode(i), "rate", MathUtils.nextDouble());
+        }
+
+        Tree[] trees = new Tree[TREE_COUNT];
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < TREE_COUNT; i++) {
+            trees[i] = tree;
+            sb.append(TreeUtils.newick(tree)).append("\n");
+        }
+        newickText = sb.toString();
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        PrintStream out = new PrintStream(bytes);
+        new NexusExporter(out).exportTrees(trees, true);
+        out.close();
+        nexusText = bytes.toString();
+        nexusBytes = bytes.toByteArray();
+    }
+
+    @Benchmark
+    public int nexusImport() throws Exception {
+        NexusImporter importer = new NexusImporter(new StringReader(nexusText));
+        int count = 0;
+        while (importer.hasTree()) {
+            count += importer.importNextTree().getNodeCount();
+        }
+        return count;
+    }
+
+    @Benchmark
+    public int compactImport() throws Exception {
+        return compactImport(false);
+    }
+
+    @Benchmark
+    public int compactImportIgnoreMetaComments() throws Exception {
+        return compactImport(true);
+    }
+
+    private int compactImport(boolean ignoreMetaComments) throws Exception {
+        CompactTreeImporter importer = new CompactTreeImporter(new ByteArrayInputStream(nexusBytes), ignoreMetaComments);
+        int count = 0;
+        while (importer.hasTree()) {
+            count += importer.importNextTree().getNodeCount();
+        }
+        return count;
+    }
+
+    @Benchmark
+    public int newickImport() throws Exception {
+        NewickImporter importer = new NewickImporter(new StringReader(newickText));
+        int count = 0;
+        while (importer.hasTree()) {
+            count += importer.importNextTree().getNodeCount();
+        }
+        return count;
+    }
+}
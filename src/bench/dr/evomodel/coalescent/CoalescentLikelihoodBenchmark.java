@@ -0,0 +1,115 @@
+/*
+ * CoalescentLikelihoodBenchmark.java
+ *
+ * Copyright (c) 2002-2017 Alexei Drummond, Andrew Rambaut and Marc Suchard
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ */
+
+package bench.dr.evomodel.coalescent;
+
+import bench.dr.BenchmarkData;
+import dr.evolution.tree.NodeRef;
+import dr.evolution.util.Taxa;
+import dr.evolution.util.Units;
+import dr.evomodel.coalescent.CoalescentLikelihood;
+import dr.evomodel.coalescent.ConstantPopulationModel;
+import dr.evomodel.coalescent.GMRFSkyrideLikelihood;
+import dr.evomodel.tree.TreeModel;
+import dr.inference.model.Parameter;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks the constant size coalescent and the GMRF skyride likelihoods.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+public class CoalescentLikelihoodBenchmark {
+
+    @Param({"100", "1000", "5000"})
+    public int taxonCount;
+
+    private TreeModel treeModel;
+    private CoalescentLikelihood coalescentLikelihood;
+    private GMRFSkyrideLikelihood skyrideLikelihood;
+    private NodeRef node;
+    private double height;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        Taxa taxa = BenchmarkData.createTaxa(taxonCount);
+        treeModel = new TreeModel(BenchmarkData.createCoalescentTree(taxa, 1.0));
+
+        coalescentLikelihood = new CoalescentLikelihood(treeModel, null, null,
+                new ConstantPopulationModel(new Parameter.Default(1.0), Units.Type.YEARS));
+
+        Parameter popSizes = new Parameter.Default(taxonCount - 1, 0.0);
+        skyrideLikelihood = new GMRFSkyrideLikelihood(treeModel, popSizes, null,
+                new Parameter.Default(1.0), new Parameter.Default(1.0), null, null, true, false);
+
+        node = treeModel.getParent(treeModel.getExternalNode(0));
+        height = 0.5 * (treeModel.getNodeHeight(node) + Math.max(
+                treeModel.getNodeHeight(treeModel.getChild(node, 0)),
+                treeModel.getNodeHeight(treeModel.getChild(node, 1))));
+
+        coalescentLikelihood.getLogLikelihood();
+        skyrideLikelihood.getLogLikelihood();
+    }
+
+    @Benchmark
+    public double coalescentFullEvaluation() {
+        coalescentLikelihood.makeDirty();
+        return coalescentLikelihood.getLogLikelihood();
+    }
+
+    @Benchmark
+    public double coalescentNodeHeightUpdate() {
+        treeModel.storeModelState();
+        coalescentLikelihood.storeModelState();
+        treeModel.setNodeHeight(node, height);
+        double logL = coalescentLikelihood.getLogLikelihood();
+        treeModel.restoreModelState();
+        coalescentLikelihood.restoreModelState();
+        return logL;
+    }
+
+    @Benchmark
+    public double skyrideFullEvaluation() {
+        skyrideLikelihood.makeDirty();
+        return skyrideLikelihood.getLogLikelihood();
+    }
+
+    @Benchmark
+    public double skyrideNodeHeightUpdate() {
+        treeModel.storeModelState();
+        skyrideLikelihood.storeModelState();
+        treeModel.setNodeHeight(node, height);
+        double logL = skyrideLikelihood.getLogLikelihood();
+        treeModel.restoreModelState();
+        skyrideLikelihood.restoreModelState();
+        return logL;
+    }
+}
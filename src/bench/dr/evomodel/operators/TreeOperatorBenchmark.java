@@ -0,0 +1,89 @@
+/*
+ * TreeOperatorBenchmark.java
+ *
+ * Copyright (c) 2002-2017 Alexei Drummond, Andrew Rambaut and Marc Suchard
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ */
+
+package bench.dr.evomodel.operators;
+
+import bench.dr.BenchmarkData;
+import dr.evomodel.operators.ExchangeOperator;
+import dr.evomodel.operators.SubtreeSlideOperator;
+import dr.evomodel.operators.WilsonBalding;
+import dr.evomodel.tree.TreeModel;
+import dr.inference.operators.AdaptationMode;
+import dr.inference.operators.MCMCOperator;
+import dr.math.MathUtils;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks a proposal (plus the restore of the tree) for the common tree operators.
+ * No likelihood is attached so this measures the operator and TreeModel event overhead only.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+public class TreeOperatorBenchmark {
+
+    @Param({"100", "1000"})
+    public int taxonCount;
+
+    @Param({"narrowExchange", "wideExchange", "subtreeSlide", "wilsonBalding"})
+    public String operatorName;
+
+    private TreeModel treeModel;
+    private MCMCOperator operator;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        treeModel = new TreeModel(BenchmarkData.createCoalescentTree(BenchmarkData.createTaxa(taxonCount), 1.0));
+
+        if (operatorName.equals("narrowExchange")) {
+            operator = new ExchangeOperator(ExchangeOperator.NARROW, treeModel, 1.0);
+        } else if (operatorName.equals("wideExchange")) {
+            operator = new ExchangeOperator(ExchangeOperator.WIDE, treeModel, 1.0);
+        } else if (operatorName.equals("subtreeSlide")) {
+            operator = new SubtreeSlideOperator(treeModel, 1.0, 0.1, true, false, false, false,
+                    AdaptationMode.ADAPTATION_OFF, 0.234);
+        } else if (operatorName.equals("wilsonBalding")) {
+            operator = new WilsonBalding(treeModel, 1.0);
+        } else {
+            throw new IllegalArgumentException("Unknown operator: " + operatorName);
+        }
+
+        MathUtils.setSeed(BenchmarkData.SEED);
+    }
+
+    @Benchmark
+    public double proposeAndRestore() {
+        treeModel.storeModelState();
+        double hastingsRatio = operator.operate();
+        operator.reject();
+        treeModel.restoreModelState();
+        return hastingsRatio;
+    }
+}
@@ -0,0 +1,67 @@
+/*
+ * TreeModelBenchmark.java
+ *
+ * Copyright (c) 2002-2017 Alexei Drummond, Andrew Rambaut and Marc Suchard
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ */
+
+package bench.dr.evomodel.tree;
+
+import bench.dr.BenchmarkData;
+import dr.evomodel.tree.TreeModel;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks the store/restore/accept cycle of TreeModel which is paid on every MCMC
+ * state that touches the tree.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+public class TreeModelBenchmark {
+
+    @Param({"100", "1000", "10000"})
+    public int taxonCount;
+
+    private TreeModel treeModel;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        treeModel = new TreeModel(BenchmarkData.createCoalescentTree(BenchmarkData.createTaxa(taxonCount), 1.0));
+    }
+
+    @Benchmark
+    public void storeRestore() {
+        treeModel.storeModelState();
+        treeModel.restoreModelState();
+    }
+
+    @Benchmark
+    public void storeAccept() {
+        treeModel.storeModelState();
+        treeModel.acceptModelState();
+    }
+}
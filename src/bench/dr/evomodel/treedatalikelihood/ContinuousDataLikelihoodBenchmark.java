@@ -0,0 +1,123 @@
+/*
+ * ContinuousDataLikelihoodBenchmark.java
+ *
+ * Copyright (c) 2002-2017 Alexei Drummond, Andrew Rambaut and Marc Suchard
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ */
+
+package bench.dr.evomodel.treedatalikelihood;
+
+import bench.dr.BenchmarkData;
+import dr.evolution.util.Taxa;
+import dr.evolution.util.Taxon;
+import dr.evomodel.branchratemodel.BranchRateModel;
+import dr.evomodel.branchratemodel.StrictClockBranchRates;
+import dr.evomodel.continuous.MultivariateDiffusionModel;
+import dr.evomodel.tree.TreeModel;
+import dr.evomodel.treedatalikelihood.TreeDataLikelihood;
+import dr.evomodel.treedatalikelihood.continuous.*;
+import dr.evomodel.treedatalikelihood.continuous.cdi.PrecisionType;
+import dr.inference.model.CompoundParameter;
+import dr.inference.model.MatrixParameter;
+import dr.inference.model.Parameter;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks a fully observed multivariate Brownian TreeDataLikelihood using the
+ * ContinuousDataLikelihoodDelegate.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+public class ContinuousDataLikelihoodBenchmark {
+
+    @Param({"100", "1000", "5000"})
+    public int taxonCount;
+
+    @Param({"2", "10"})
+    public int traitDimension;
+
+    private TreeDataLikelihood likelihood;
+    private MatrixParameter precision;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Taxa taxa = BenchmarkData.createTaxa(taxonCount);
+        TreeModel treeModel = new TreeModel(BenchmarkData.createCoalescentTree(taxa, 1.0));
+
+        double[][] traits = BenchmarkData.createContinuousTraits(taxonCount, traitDimension);
+        Parameter[] tipParameters = new Parameter[taxonCount];
+        for (int i = 0; i < taxonCount; i++) {
+            // tip parameters are indexed by external node number and named after the taxon
+            Taxon taxon = treeModel.getNodeTaxon(treeModel.getExternalNode(i));
+            tipParameters[i] = new Parameter.Default(traits[taxa.getTaxonIndex(taxon)]);
+            tipParameters[i].setId(taxon.getId());
+        }
+        CompoundParameter traitParameter = new CompoundParameter("trait", tipParameters);
+
+        Parameter[] rows = new Parameter[traitDimension];
+        for (int i = 0; i < traitDimension; i++) {
+            double[] row = new double[traitDimension];
+            row[i] = 1.0;
+            rows[i] = new Parameter.Default(row);
+        }
+        precision = new MatrixParameter("precision", rows);
+        MultivariateDiffusionModel diffusionModel = new MultivariateDiffusionModel(precision);
+
+        BranchRateModel rateModel = new StrictClockBranchRates(new Parameter.Default(1.0));
+
+        ContinuousTraitDataModel dataModel = new ContinuousTraitDataModel("trait", traitParameter,
+                new ArrayList<Integer>(), false, traitDimension, PrecisionType.SCALAR);
+
+        ContinuousDataLikelihoodDelegate delegate = new ContinuousDataLikelihoodDelegate(treeModel,
+                new HomogeneousDiffusionModelDelegate(treeModel, diffusionModel),
+                dataModel,
+                new ConjugateRootTraitPrior(new double[traitDimension], 0.001),
+                new ContinuousRateTransformation.Default(treeModel, false, false),
+                rateModel, false);
+
+        likelihood = new TreeDataLikelihood(delegate, treeModel, rateModel);
+        likelihood.getLogLikelihood();
+    }
+
+    @Benchmark
+    public double fullEvaluation() {
+        likelihood.makeDirty();
+        return likelihood.getLogLikelihood();
+    }
+
+    @Benchmark
+    public double precisionUpdate() {
+        precision.storeParameterValues();
+        likelihood.storeModelState();
+        precision.setParameterValue(0, 1.1);
+        double logL = likelihood.getLogLikelihood();
+        precision.restoreParameterValues();
+        likelihood.restoreModelState();
+        return logL;
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * TreeDataLikelihoodBenchmark.java
+ *
+ * Copyright (c) 2002-2017 Alexei Drummond, Andrew Rambaut and Marc Suchard
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ */
+
+package bench.dr.evomodel.treedatalikelihood;
+
+import bench.dr.BenchmarkData;
+import dr.evolution.alignment.SitePatterns;
+import dr.evolution.datatype.Nucleotides;
+import dr.evolution.tree.NodeRef;
+import dr.evolution.util.Taxa;
+import dr.evomodel.branchmodel.HomogeneousBranchModel;
+import dr.evomodel.branchratemodel.StrictClockBranchRates;
+import dr.evomodel.siteratemodel.GammaSiteRateModel;
+import dr.evomodel.substmodel.FrequencyModel;
+import dr.evomodel.substmodel.nucleotide.HKY;
+import dr.evomodel.tree.TreeModel;
+import dr.evomodel.treedatalikelihood.BeagleDataLikelihoodDelegate;
+import dr.evomodel.treedatalikelihood.DataLikelihoodDelegate;
+import dr.evomodel.treedatalikelihood.JavaBeagleImpl;
+import dr.evomodel.treedatalikelihood.TreeDataLikelihood;
+import dr.evomodel.treelikelihood.PartialsRescalingScheme;
+import dr.inference.model.Parameter;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks the evaluation of a nucleotide TreeDataLikelihood (HKY+G4, strict clock).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+public class TreeDataLikelihoodBenchmark {
+
+    @Param({"100", "1000"})
+    public int taxonCount;
+
+    @Param({"1000", "10000"})
+    public int siteCount;
+
+    @Param({"beagle", "java"})
+    public String delegate;
+
+    private TreeModel treeModel;
+    private TreeDataLikelihood likelihood;
+    private NodeRef node;
+    private double height; // the proposed height for node
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Taxa taxa = BenchmarkData.createTaxa(taxonCount);
+        treeModel = new TreeModel(BenchmarkData.createCoalescentTree(taxa, 1.0));
+
+        SitePatterns patterns = new SitePatterns(BenchmarkData.createNucleotideAlignment(taxa, siteCount),
+                null, 0, -1, 1, true);
+
+        FrequencyModel frequencies = new FrequencyModel(Nucleotides.INSTANCE, new double[]{0.25, 0.25, 0.25, 0.25});
+        HKY hky = new HKY(2.0, frequencies);
+        GammaSiteRateModel siteRateModel = new GammaSiteRateModel("siteModel", 0.5, 4);
+        siteRateModel.setSubstitutionModel(hky);
+
+        DataLikelihoodDelegate dataLikelihoodDelegate = createDelegate(patterns, hky, siteRateModel);
+
+        likelihood = new TreeDataLikelihood(dataLikelihoodDelegate, treeModel,
+                new StrictClockBranchRates(new Parameter.Default(1.0)));
+
+        // a node just above the tips whose height can be moved without violating constraints
+        node = treeModel.getParent(treeModel.getExternalNode(0));
+        height = 0.5 * (treeModel.getNodeHeight(node) + Math.max(
+                treeModel.getNodeHeight(treeModel.getChild(node, 0)),
+                treeModel.getNodeHeight(treeModel.getChild(node, 1))));
+
+        likelihood.getLogLikelihood();
+    }
+
+    protected DataLikelihoodDelegate createDelegate(SitePatterns patterns, HKY hky, GammaSiteRateModel siteRateModel) {
+        if (delegate.equals("beagle")) {
+            return new BeagleDataLikelihoodDelegate(treeModel, patterns, new HomogeneousBranchModel(hky),
+                    siteRateModel, false, PartialsRescalingScheme.DEFAULT, false);
+        } else if (delegate.equals("java")) {
+            BeagleDataLikelihoodDelegate javaDelegate = new BeagleDataLikelihoodDelegate(treeModel, patterns,
+                    new HomogeneousBranchModel(hky), siteRateModel, false, PartialsRescalingScheme.DEFAULT, false,
+                    JavaBeagleImpl.FACTORY);
+            javaDelegate.setThreadCount(Runtime.getRuntime().availableProcessors());
+            return javaDelegate;
+        }
+        throw new IllegalArgumentException("Unknown delegate: " + delegate);
+    }
+
+    @Benchmark
+    public double fullEvaluation() {
+        likelihood.makeDirty();
+        return likelihood.getLogLikelihood();
+    }
+
+    @Benchmark
+    public double nodeHeightUpdate() {
+        treeModel.storeModelState();
+        likelihood.storeModelState();
+        treeModel.setNodeHeight(node, height);
+        double logL = likelihood.getLogLikelihood();
+        treeModel.restoreModelState();
+        likelihood.restoreModelState();
+        return logL;
+    }
+}
@@ -0,0 +1,363 @@
+/*
+ * AlignmentStreamWriter.java
+ *
+ * Copyright (c) 2002-2017 Alexei Drummond, Andrew Rambaut and Marc Suchard
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ */
+
+package dr.app.beagle.tools;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.Charset;
+import java.util.List;
+
+import dr.evolution.datatype.AminoAcids;
+import dr.evolution.datatype.Codons;
+import dr.evolution.datatype.DataType;
+import dr.evolution.datatype.HiddenDataType;
+import dr.evolution.datatype.Nucleotides;
+
+/**
+ * Writes a simulated alignment to a file block by block of sites, in any
+ * order and from any thread, so the whole alignment never has to be held in
+ * memory. Every state has the same number of characters so the position of
+ * each block of each sequence in the file is known in advance.
+ * 
+ * FASTA has one line for each sequence, NEXUS is written interleaved (one
+ * block of sites at a time) and BINARY has a header followed by the sequences
+ * with one byte for each state (-1 for a gap):
+ * 
+ * <pre>
+ * "BSSB" int:version int:sequenceCount int:siteCount int:stateCount
+ * UTF:name (for each sequence)
+ * byte:state (for each site of each sequence)
+ * </pre>
+ * 
+ * @version $Id$
+ */
+public class AlignmentStreamWriter {
+
+	public static final String BINARY_MAGIC = "BSSB";
+	public static final int BINARY_VERSION = 1;
+	public static final byte BINARY_GAP = -1;
+
+	private static final Charset CHARSET = Charset.forName("UTF-8");
+
+	public enum Format {
+
+		FASTA("fasta"), NEXUS("nexus"), BINARY("binary");
+
+		private final String text;
+
+		private Format(String text) {
+			this.text = text;
+		}
+
+		public String getText() {
+			return text;
+		}
+
+		public static Format parseFromString(String text) {
+			for (Format format : Format.values()) {
+				if (format.getText().compareToIgnoreCase(text) == 0) {
+					return format;
+				}
+			}
+			return null;
+		}
+
+	}// END: Format enum
+
+	private final RandomAccessFile file;
+	private final Format format;
+	private final DataType dataType;
+
+	private final int sequenceCount;
+	private final int siteCount;
+	private final int blockSize;
+
+	// the characters of each state (and of a gap)
+	private final int stateWidth;
+	private final byte[][] stateCodes;
+	private final byte[] gapCode;
+
+	// FASTA and BINARY: where each sequence starts
+	private long[] sequenceOffsets;
+
+	// NEXUS: where the matrix starts, the (padded) names and the size of each line
+	private long matrixOffset;
+	private byte[][] paddedNames;
+	private long blockLength;
+
+	public AlignmentStreamWriter(File outputFile, //
+			Format format, //
+			List<String> sequenceNames, //
+			int siteCount, //
+			int blockSize, //
+			DataType dataType //
+	) throws IOException {
+
+		this.format = format;
+		this.dataType = dataType;
+		this.sequenceCount = sequenceNames.size();
+		this.siteCount = siteCount;
+		this.blockSize = blockSize;
+
+		int stateCount = dataType.getStateCount();
+		stateWidth = (dataType instanceof Codons ? 3 : 1);
+		stateCodes = new byte[stateCount][];
+		for (int state = 0; state < stateCount; state++) {
+			stateCodes[state] = getCode(state);
+		}
+		gapCode = getCode(dataType.getGapState());
+
+		if (format == Format.BINARY && stateCount > Byte.MAX_VALUE) {
+			throw new IllegalArgumentException("Too many states (" + stateCount + ") for binary output");
+		}
+
+		if (outputFile.exists() && !outputFile.delete()) {
+			throw new IOException("Unable to replace " + outputFile);
+		}
+		file = new RandomAccessFile(outputFile, "rw");
+
+		switch (format) {
+		case FASTA:
+			writeFastaLayout(sequenceNames);
+			break;
+		case NEXUS:
+			writeNexusLayout(sequenceNames);
+			break;
+		case BINARY:
+			writeBinaryHeader(sequenceNames);
+			break;
+		}// END: format switch
+
+	}// END: Constructor
+
+	/**
+	 * Writes the states of a block of sites of all the sequences (with
+	 * BeagleSequenceSimulator.gapFlag for gaps).
+	 * 
+	 * @param from
+	 *            the first site of the block (a multiple of the block size)
+	 * @param states
+	 *            the states for each sequence
+	 * @param count
+	 *            the number of sites in the block
+	 */
+	public synchronized void writeBlock(int from, int[][] states, int count) throws IOException {
+
+		if (format == Format.NEXUS && from % blockSize != 0) {
+			throw new IllegalArgumentException("NEXUS blocks must start at a multiple of the block size");
+		}
+
+		byte[] buffer = new byte[count * stateWidth];
+
+		// NEXUS: the lines of the block follow each other
+		long lineOffset = matrixOffset + (from / blockSize) * blockLength;
+
+		for (int i = 0; i < sequenceCount; i++) {
+
+			int[] sequence = states[i];
+
+			if (format == Format.BINARY) {
+
+				for (int j = 0; j < count; j++) {
+					buffer[j] = (sequence[j] == BeagleSequenceSimulator.gapFlag ? BINARY_GAP : (byte) sequence[j]);
+				}
+
+			} else {
+
+				for (int j = 0; j < count; j++) {
+					byte[] code = (sequence[j] == BeagleSequenceSimulator.gapFlag ? gapCode : stateCodes[sequence[j]]);
+					System.arraycopy(code, 0, buffer, j * stateWidth, stateWidth);
+				}
+
+			}// END: format check
+
+			switch (format) {
+			case FASTA:
+				file.seek(sequenceOffsets[i] + (long) from * stateWidth);
+				file.write(buffer);
+				break;
+			case NEXUS:
+				file.seek(lineOffset);
+				file.write(paddedNames[i]);
+				file.write(buffer);
+				file.write('\n');
+				lineOffset += getNexusLineLength(i, count);
+				break;
+			case BINARY:
+				file.seek(sequenceOffsets[i] + from);
+				file.write(buffer);
+				break;
+			}// END: format switch
+
+		}// END: sequences loop
+
+		if (format == Format.NEXUS) {
+			// a blank line between blocks
+			file.write('\n');
+		}
+
+	}// END: writeBlock
+
+	public void close() throws IOException {
+
+		if (format == Format.NEXUS) {
+			int blockCount = (siteCount + blockSize - 1) / blockSize;
+			file.seek(matrixOffset + (blockCount - 1) * blockLength
+					+ getNexusBlockLength(siteCount - (blockCount - 1) * blockSize));
+			file.write(";\nend;\n".getBytes(CHARSET));
+		}
+
+		file.close();
+	}// END: close
+
+	private void writeFastaLayout(List<String> sequenceNames) throws IOException {
+
+		sequenceOffsets = new long[sequenceCount];
+
+		long offset = 0;
+		for (int i = 0; i < sequenceCount; i++) {
+
+			byte[] header = (">" + sequenceNames.get(i) + "\n").getBytes(CHARSET);
+			file.seek(offset);
+			file.write(header);
+
+			sequenceOffsets[i] = offset + header.length;
+			offset = sequenceOffsets[i] + (long) siteCount * stateWidth;
+
+			file.seek(offset);
+			file.write('\n');
+			offset++;
+
+		}// END: sequences loop
+
+	}// END: writeFastaLayout
+
+	private void writeNexusLayout(List<String> sequenceNames) throws IOException {
+
+		String[] names = new String[sequenceCount];
+		int width = 0;
+		for (int i = 0; i < sequenceCount; i++) {
+			names[i] = sequenceNames.get(i);
+			if (!names[i].matches("[A-Za-z0-9_.|]+")) {
+				names[i] = "'" + names[i].replace("'", "''") + "'";
+			}
+			width = Math.max(width, names[i].getBytes(CHARSET).length);
+		}
+
+		paddedNames = new byte[sequenceCount][];
+		for (int i = 0; i < sequenceCount; i++) {
+			StringBuilder sb = new StringBuilder("\t").append(names[i]);
+			for (int k = names[i].getBytes(CHARSET).length; k <= width; k++) {
+				sb.append(' ');
+			}
+			paddedNames[i] = sb.toString().getBytes(CHARSET);
+		}
+
+		StringBuilder header = new StringBuilder();
+		header.append("#NEXUS\n\n");
+		header.append("begin data;\n");
+		header.append("\tdimensions ntax=").append(sequenceCount).append(" nchar=")
+				.append((long) siteCount * stateWidth).append(";\n");
+		header.append("\tformat datatype=").append(getNexusDataType());
+		header.append(" missing=? gap=").append(new String(getCode(dataType.getGapState()), CHARSET).charAt(0));
+		header.append(" interleave;\n");
+		header.append("\tmatrix\n");
+
+		byte[] bytes = header.toString().getBytes(CHARSET);
+		file.write(bytes);
+
+		matrixOffset = bytes.length;
+		blockLength = getNexusBlockLength(blockSize);
+
+	}// END: writeNexusLayout
+
+	private String getNexusDataType() {
+		if (dataType instanceof Nucleotides || dataType instanceof Codons) {
+			return "dna";
+		} else if (dataType instanceof AminoAcids) {
+			return "protein";
+		}
+
+		StringBuilder symbols = new StringBuilder();
+		for (byte[] code : stateCodes) {
+			symbols.append(new String(code, CHARSET));
+		}
+		return "standard symbols=\"" + symbols + "\"";
+	}// END: getNexusDataType
+
+	private long getNexusLineLength(int sequence, int count) {
+		return paddedNames[sequence].length + (long) count * stateWidth + 1;
+	}
+
+	private long getNexusBlockLength(int count) {
+		long length = 1;
+		for (int i = 0; i < sequenceCount; i++) {
+			length += getNexusLineLength(i, count);
+		}
+		return length;
+	}// END: getNexusBlockLength
+
+	private void writeBinaryHeader(List<String> sequenceNames) throws IOException {
+
+		file.write(BINARY_MAGIC.getBytes(CHARSET));
+		file.writeInt(BINARY_VERSION);
+		file.writeInt(sequenceCount);
+		file.writeInt(siteCount);
+		file.writeInt(dataType.getStateCount());
+		for (String name : sequenceNames) {
+			file.writeUTF(name);
+		}
+
+		long dataOffset = file.getFilePointer();
+		sequenceOffsets = new long[sequenceCount];
+		for (int i = 0; i < sequenceCount; i++) {
+			sequenceOffsets[i] = dataOffset + (long) i * siteCount;
+		}
+
+	}// END: writeBinaryHeader
+
+	private byte[] getCode(int state) {
+
+		String code;
+		if (dataType instanceof Codons) {
+			code = dataType.getTriplet(state);
+		} else if (dataType instanceof HiddenDataType && state != dataType.getGapState()) {
+			code = dataType.getCode(state
+					% (dataType.getStateCount() / ((HiddenDataType) dataType).getHiddenClassCount()));
+		} else {
+			code = dataType.getCode(state);
+		}
+
+		byte[] bytes = code.getBytes(CHARSET);
+		if (bytes.length != stateWidth) {
+			throw new IllegalArgumentException("States of data type " + dataType.getDescription()
+					+ " are not all written with " + stateWidth + " character(s)");
+		}
+		return bytes;
+	}// END: getCode
+
+}// END: class
@@ -25,6 +25,8 @@
 
 package dr.app.beagle.tools;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Iterator;
@@ -33,8 +35,12 @@ import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.commons.math.random.MersenneTwister;
 
 import dr.app.bss.Utils;
 import dr.evolution.alignment.SimpleAlignment;
@@ -42,6 +48,7 @@ import dr.evolution.datatype.DataType;
 import dr.evolution.sequence.Sequence;
 import dr.evolution.tree.NodeRef;
 import dr.evolution.util.Taxon;
+import dr.evomodel.tree.TreeModel;
 
 /**
  * @author Filip Bielejec
@@ -144,6 +151,184 @@ public class BeagleSequenceSimulator {
 		return alignment;
 	}// END: simulate
 
+	/**
+	 * Simulates the alignment in blocks of sites on a number of threads and
+	 * writes each block to a file as soon as it is done, so only the blocks
+	 * being simulated are held in memory. Each block of each partition has its
+	 * own random number stream made from the seed, the partition and the block
+	 * so the alignment doesn't depend on the number of threads.
+	 * 
+	 * @param outputFile
+	 *            the file to write
+	 * @param format
+	 *            FASTA, NEXUS or BINARY
+	 * @param threadCount
+	 *            the number of threads (if less than 1, the number of processors)
+	 * @param blockSize
+	 *            the number of sites in each block
+	 * @param seed
+	 *            the seed for the random number streams
+	 * @param outputAncestralSequences
+	 *            whether to write the sequences at the internal nodes too
+	 */
+	public void simulate(File outputFile, //
+			AlignmentStreamWriter.Format format, //
+			int threadCount, //
+			final int blockSize, //
+			final long seed, //
+			boolean outputAncestralSequences //
+	) throws IOException {
+
+		if (threadCount < 1) {
+			threadCount = Runtime.getRuntime().availableProcessors();
+		}
+
+		// the rows of the alignment: the tips are matched by taxon across partitions
+		final List<String> sequenceNames = new ArrayList<String>();
+		final int[][] nodeRows = new int[partitions.size()][];
+
+		Map<String, Integer> taxonRows = new LinkedHashMap<String, Integer>();
+
+		int partitionCount = 0;
+		for (Partition partition : partitions) {
+
+			partition.setPartitionNumber(partitionCount);
+			partition.prepareSiteBlocks();
+
+			TreeModel tree = partition.getTreeModel();
+			int[] rows = new int[tree.getNodeCount()];
+			Arrays.fill(rows, -1);
+
+			for (int i = 0; i < tree.getNodeCount(); i++) {
+
+				NodeRef node = tree.getNode(i);
+				if (tree.isExternal(node)) {
+
+					String id = tree.getNodeTaxon(node).getId();
+					Integer row = taxonRows.get(id);
+					if (row == null) {
+						row = sequenceNames.size();
+						taxonRows.put(id, row);
+						sequenceNames.add(id);
+					}
+					rows[i] = row;
+
+				} else if (outputAncestralSequences && !tree.isRoot(node)) {
+
+					rows[i] = sequenceNames.size();
+					sequenceNames.add("internalNodeHeight" + tree.getNodeHeight(node));
+
+				}
+			}// END: nodes loop
+
+			nodeRows[partitionCount] = rows;
+			partitionCount++;
+
+		}// END: partitions loop
+
+		final AlignmentStreamWriter writer = new AlignmentStreamWriter(outputFile,
+				format, sequenceNames, siteCount, blockSize, dataType);
+
+		final int blockCount = (siteCount + blockSize - 1) / blockSize;
+
+		ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+
+		try {
+
+			// only as many blocks as there are threads are held at once
+			for (int first = 0; first < blockCount; first += threadCount) {
+
+				List<Callable<Void>> simulateBlockCallers = new ArrayList<Callable<Void>>();
+
+				for (int block = first; block < Math.min(first + threadCount, blockCount); block++) {
+
+					final int blockNumber = block;
+					simulateBlockCallers.add(new Callable<Void>() {
+						public Void call() throws Exception {
+							simulateBlock(blockNumber, blockSize, seed,
+									sequenceNames.size(), nodeRows, writer);
+							return null;
+						}
+					});
+
+				}// END: blocks loop
+
+				for (Future<Void> future : executor.invokeAll(simulateBlockCallers)) {
+					try {
+						future.get();
+					} catch (ExecutionException e) {
+						throw new RuntimeException("Error simulating sequences: " + e.getCause().getMessage(), e.getCause());
+					}
+				}
+
+			}// END: block windows loop
+
+		} catch (InterruptedException e) {
+			throw new RuntimeException("Sequence simulation interrupted");
+		} finally {
+			executor.shutdown();
+			writer.close();
+		}
+
+	}// END: simulate
+
+	private void simulateBlock(int blockNumber, //
+			int blockSize, //
+			long seed, //
+			int rowCount, //
+			int[][] nodeRows, //
+			AlignmentStreamWriter writer //
+	) throws IOException {
+
+		int blockFrom = blockNumber * blockSize;
+		int blockTo = Math.min(siteCount, blockFrom + blockSize);
+		int blockSiteCount = blockTo - blockFrom;
+
+		int[][] states = new int[rowCount][blockSiteCount];
+		for (int[] row : states) {
+			Arrays.fill(row, gapFlag);
+		}
+
+		for (Partition partition : partitions) {
+
+			// the partition sites within this block
+			int from = Math.max(0, (blockFrom - partition.from + partition.every - 1) / partition.every);
+			int to = Math.min(partition.getPartitionSiteCount(),
+					(blockTo - partition.from + partition.every - 1) / partition.every);
+			if (blockTo <= partition.from || from >= to) {
+				continue;
+			}
+
+			int partitionNumber = partition.getPartitionNumber();
+			int[] rows = nodeRows[partitionNumber];
+
+			int[][] nodeSequences = new int[rows.length][];
+			for (int i = 0; i < rows.length; i++) {
+				if (rows[i] >= 0) {
+					nodeSequences[i] = new int[to - from];
+				}
+			}
+
+			MersenneTwister random = new MersenneTwister(new int[] {
+					(int) (seed >>> 32), (int) seed, partitionNumber, blockNumber });
+
+			partition.simulateSites(from, to, random, nodeSequences);
+
+			for (int i = 0; i < rows.length; i++) {
+				if (rows[i] >= 0) {
+					int[] row = states[rows[i]];
+					for (int j = from; j < to; j++) {
+						row[partition.from + j * partition.every - blockFrom] = nodeSequences[i][j - from];
+					}
+				}
+			}// END: nodes loop
+
+		}// END: partitions loop
+
+		writer.writeBlock(blockFrom, states, blockSiteCount);
+
+	}// END: simulateBlock
+
 	private class SimulatePartitionCallable implements Callable<Void> {
 
 		private Partition partition;
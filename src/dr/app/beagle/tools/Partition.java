@@ -96,6 +96,9 @@ public class Partition {
 	// Random number generation
 	private MersenneTwister random;
 
+	// Simulation of blocks of sites
+	private SiteBlocks siteBlocks = null;
+
 	// Annotating trees
 //	private boolean annotateTree = true;
 
@@ -288,6 +291,203 @@ public class Partition {
 
 	}// END: simulatePartition
 
+	/**
+	 * Computes the transition probabilities of all the branches once so that
+	 * blocks of sites can then be simulated on any number of threads (see
+	 * simulateSites).
+	 */
+	public void prepareSiteBlocks() {
+
+		siteBlocks = createSiteBlocks();
+		finalizeBeagle();
+
+	}// END: prepareSiteBlocks
+
+	/**
+	 * Simulates the partition sites from (inclusive) to to (exclusive) with
+	 * the given random number stream. The states of each node with a non-null
+	 * entry in nodeSequences are put there. This can be called for different
+	 * blocks of sites at the same time once prepareSiteBlocks has been called.
+	 */
+	public void simulateSites(int from, int to, MersenneTwister random,
+							  int[][] nodeSequences) {
+		siteBlocks.simulateSites(from, to, random, nodeSequences);
+	}// END: simulateSites
+
+	/**
+	 * Takes a copy of the tree and the transition probabilities of all the
+	 * branches as they are now. The tree and the model parameters can then be
+	 * changed and another copy made while the sites of this one are simulated
+	 * (e.g., for replicates). The beagle instance is kept for the next call so
+	 * finalizeBeagle must be called when done.
+	 */
+	public SiteBlocks createSiteBlocks() {
+
+		// as in simulatePartition
+		if (hasRootSequence
+				&& rootSequence.getLength() != partitionSiteCount
+				&& !(dataType instanceof Codons && rootSequence.getLength() == 3 * partitionSiteCount)) {
+
+			throw new RuntimeException("Ancestral sequence length of "
+					+ rootSequence.getLength()
+					+ " does not match partition site count of "
+					+ partitionSiteCount + ".");
+
+		}
+
+		try {
+
+			double[] categoryRates = siteRateModel.getCategoryRates();
+			beagle.setCategoryRates(categoryRates);
+
+			substitutionModelDelegate.updateSubstitutionModels(beagle);
+
+			double[][][] probabilities = new double[nodeCount][][];
+			int[][] children = new int[nodeCount][];
+			for (int i = 0; i < nodeCount; i++) {
+
+				NodeRef node = treeModel.getNode(i);
+				if (!treeModel.isRoot(node)) {
+					probabilities[i] = getTransitionProbabilities(node);
+				}
+
+				children[i] = new int[treeModel.getChildCount(node)];
+				for (int j = 0; j < children[i].length; j++) {
+					children[i][j] = treeModel.getChild(node, j).getNumber();
+				}
+
+			}// END: nodes loop
+
+			return new SiteBlocks(probabilities, //
+					children, //
+					treeModel.getRoot().getNumber(), //
+					siteRateModel.getCategoryProportions(), //
+					freqModel.getFrequencies(), //
+					hasRootSequence ? sequence2intArray(rootSequence) : null //
+			);
+
+		} catch (Throwable e) {
+			throw new RuntimeException("BeagleException: " + e.getMessage());
+		}
+
+	}// END: createSiteBlocks
+
+	public void finalizeBeagle() {
+
+		try {
+			beagle.finalize();
+		} catch (Throwable e) {
+			throw new RuntimeException("BeagleException: " + e.getMessage());
+		}
+
+	}// END: finalizeBeagle
+
+	/**
+	 * The tree and the transition probabilities of a partition at one time,
+	 * from which blocks of sites are simulated. Nothing is changed by
+	 * simulateSites so it can be called from any number of threads.
+	 */
+	public class SiteBlocks {
+
+		private final double[][][] probabilities;
+		private final int[][] children;
+		private final int rootNumber;
+		private final double[] categoryProbs;
+		private final double[] frequencies;
+		private final int[] rootSequence;
+
+		private SiteBlocks(double[][][] probabilities, //
+						   int[][] children, //
+						   int rootNumber, //
+						   double[] categoryProbs, //
+						   double[] frequencies, //
+						   int[] rootSequence //
+		) {
+
+			this.probabilities = probabilities;
+			this.children = children;
+			this.rootNumber = rootNumber;
+			this.categoryProbs = categoryProbs;
+			this.frequencies = frequencies;
+			this.rootSequence = rootSequence;
+
+		}// END: Constructor
+
+		/**
+		 * Simulates the partition sites from (inclusive) to to (exclusive)
+		 * with the given random number stream. The states of each node with a
+		 * non-null entry in nodeSequences are put there (no arrays are
+		 * allocated for the nodes when they all have one).
+		 */
+		public void simulateSites(int from, int to, MersenneTwister random,
+								  int[][] nodeSequences) {
+
+			int blockSiteCount = to - from;
+
+			int[] category = new int[blockSiteCount];
+			for (int i = 0; i < blockSiteCount; i++) {
+				category[i] = randomChoicePDF(categoryProbs, random,
+						partitionNumber, "categories");
+			}
+
+			int[] sequence = nodeSequences[rootNumber];
+			if (sequence == null) {
+				sequence = new int[blockSiteCount];
+			}
+
+			if (rootSequence != null) {
+				System.arraycopy(rootSequence, from, sequence, 0,
+						blockSiteCount);
+			} else {
+				for (int i = 0; i < blockSiteCount; i++) {
+					sequence[i] = randomChoicePDF(frequencies, random,
+							partitionNumber, "root");
+				}
+			}
+
+			traverseSites(rootNumber, sequence, blockSiteCount, category,
+					random, nodeSequences);
+
+		}// END: simulateSites
+
+		private void traverseSites(int node, //
+								   int[] parentSequence, //
+								   int blockSiteCount, //
+								   int[] category, //
+								   MersenneTwister random, //
+								   int[][] nodeSequences //
+		) {
+
+			double[] cProb = new double[stateCount];
+
+			for (int child : children[node]) {
+
+				int[] sequence = nodeSequences[child];
+				if (sequence == null) {
+					sequence = new int[blockSiteCount];
+				}
+
+				double[][] childProbabilities = probabilities[child];
+
+				for (int i = 0; i < blockSiteCount; i++) {
+
+					System.arraycopy(childProbabilities[category[i]],
+							parentSequence[i] * stateCount, cProb, 0,
+							stateCount);
+					sequence[i] = randomChoicePDF(cProb, random,
+							partitionNumber, "seq");
+
+				}// END: i loop
+
+				traverseSites(child, sequence, blockSiteCount, category,
+						random, nodeSequences);
+
+			}// END: child nodes loop
+
+		}// END: traverseSites
+
+	}// END: SiteBlocks class
+
 	private void traverse(NodeRef node, //
 						  int[] parentSequence, //
 						  int[] category //
@@ -515,6 +715,11 @@ public class Partition {
 	}// END: sequence2intArray
 
 	private int randomChoicePDF(double[] pdf, int partitionNumber, String error) {
+		return randomChoicePDF(pdf, random, partitionNumber, error);
+	}// END: randomChoicePDF
+
+	private int randomChoicePDF(double[] pdf, MersenneTwister random,
+								int partitionNumber, String error) {
 
 		int samplePos = -Integer.MAX_VALUE;
 		double cumProb = 0.0;
@@ -0,0 +1,386 @@
+/*
+ * ReplicateSimulator.java
+ *
+ * Copyright (c) 2002-2017 Alexei Drummond, Andrew Rambaut and Marc Suchard
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ */
+
+package dr.app.beagle.tools;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.commons.math.random.MersenneTwister;
+
+import dr.evolution.coalescent.CoalescentSimulator;
+import dr.evolution.datatype.DataType;
+import dr.evolution.tree.NodeRef;
+import dr.evolution.tree.SimpleTree;
+import dr.evolution.tree.TreeUtils;
+import dr.evomodel.coalescent.DemographicModel;
+import dr.evomodel.tree.TreeModel;
+import dr.inference.model.Parameter;
+import dr.inference.trace.LogFileTraces;
+
+/**
+ * Simulates many replicate alignments from one set of partitions (e.g., for
+ * posterior predictive checks), each written to its own file. Optionally each
+ * replicate first takes the parameter values of a state of a posterior sample
+ * (a BEAST log file) and/or a new coalescent tree.
+ *
+ * The model objects can't be shared between threads so the parameters, the
+ * tree and the transition probabilities of each replicate are set up in turn
+ * and the sites of the replicates are then simulated on a thread pool (which
+ * is where the time goes). Each thread keeps its sequence buffers and random
+ * number stream from one replicate to the next. Each replicate has its own
+ * random number stream made from the seed and the replicate number so the
+ * replicates don't depend on the number of threads.
+ *
+ * Next to the alignments an index file (the file stem with '.txt') has a row
+ * for each replicate with the file name, the number of the state in the
+ * posterior sample (after the burn-in) and the tree (if simulated).
+ *
+ * @version $Id$
+ */
+public class ReplicateSimulator {
+
+	private final List<Partition> partitions;
+	private final int siteCount;
+	private final DataType dataType;
+
+	// the rows of the alignment: the tips are matched by taxon across partitions
+	private final List<String> sequenceNames = new ArrayList<String>();
+	private final int[][] nodeRows;
+
+	// coalescent trees
+	private TreeModel treeModel = null;
+	private DemographicModel demographicModel = null;
+
+	// posterior sample
+	private LogFileTraces traces = null;
+	private List<Parameter> parameters = null;
+	private int[][] parameterTraces = null;
+
+	public ReplicateSimulator(List<Partition> partitions) {
+
+		this.partitions = partitions;
+
+		int siteCount = 0;
+		DataType dataType = null;
+		nodeRows = new int[partitions.size()][];
+
+		Map<String, Integer> taxonRows = new LinkedHashMap<String, Integer>();
+
+		int partitionCount = 0;
+		for (Partition partition : partitions) {
+
+			if (partition.to + 1 > siteCount) {
+				siteCount = partition.to + 1;
+			}
+
+			if (dataType == null) {
+				dataType = partition.getDataType();
+			} else if (dataType.getType() != partition.getDataType().getType()) {
+				throw new RuntimeException("Partitions must have the same data type.");
+			}
+
+			partition.setPartitionNumber(partitionCount);
+
+			TreeModel tree = partition.getTreeModel();
+			int[] rows = new int[tree.getNodeCount()];
+			Arrays.fill(rows, -1);
+
+			for (int i = 0; i < tree.getExternalNodeCount(); i++) {
+
+				NodeRef node = tree.getExternalNode(i);
+				String id = tree.getNodeTaxon(node).getId();
+				Integer row = taxonRows.get(id);
+				if (row == null) {
+					row = sequenceNames.size();
+					taxonRows.put(id, row);
+					sequenceNames.add(id);
+				}
+				rows[node.getNumber()] = row;
+
+			}// END: tips loop
+
+			nodeRows[partitionCount] = rows;
+			partitionCount++;
+
+		}// END: partitions loop
+
+		this.siteCount = siteCount;
+		this.dataType = dataType;
+
+	}// END: Constructor
+
+	/**
+	 * Simulates a new tree for each replicate. The tree is simulated with the
+	 * tip heights of the tree model and then copied into it (so the partitions
+	 * on this tree use it).
+	 */
+	public void setCoalescentTree(TreeModel treeModel, DemographicModel demographicModel) {
+		this.treeModel = treeModel;
+		this.demographicModel = demographicModel;
+	}// END: setCoalescentTree
+
+	/**
+	 * Sets the parameters to the values of a state of the posterior sample
+	 * before each replicate. The traces are found by name: the id of the
+	 * parameter or, if it has more than one dimension, the id followed by the
+	 * dimension (from 1) as BEAST logs them.
+	 */
+	public void setPosteriorSample(LogFileTraces traces, List<Parameter> parameters) {
+
+		parameterTraces = new int[parameters.size()][];
+
+		for (int i = 0; i < parameters.size(); i++) {
+
+			Parameter parameter = parameters.get(i);
+			parameterTraces[i] = new int[parameter.getDimension()];
+
+			for (int j = 0; j < parameter.getDimension(); j++) {
+
+				String name = (parameter.getDimension() == 1 ? parameter.getId() : parameter.getId() + (j + 1));
+				parameterTraces[i][j] = traces.getTraceIndex(name);
+				if (parameterTraces[i][j] < 0) {
+					throw new IllegalArgumentException("The trace '" + name + "' is not in the log file " + traces.getName());
+				}
+
+			}// END: dimensions loop
+
+		}// END: parameters loop
+
+		this.traces = traces;
+		this.parameters = parameters;
+
+	}// END: setPosteriorSample
+
+	/**
+	 * @return the number of states in the posterior sample (0 if there isn't one)
+	 */
+	public int getStateCount() {
+		return (traces != null ? traces.getStateCount() : 0);
+	}// END: getStateCount
+
+	/**
+	 * Simulates the replicates. With a posterior sample the states are spread
+	 * evenly over the replicates (each is used once if the numbers are equal).
+	 *
+	 * @param fileStem
+	 *            the start of the file names (followed by '_' and the
+	 *            replicate number)
+	 * @param format
+	 *            FASTA, NEXUS or BINARY
+	 * @param replicateCount
+	 *            the number of replicates
+	 * @param threadCount
+	 *            the number of threads (if less than 1, the number of
+	 *            processors)
+	 * @param seed
+	 *            the seed for the random number streams
+	 */
+	public void simulate(String fileStem, //
+			AlignmentStreamWriter.Format format, //
+			int replicateCount, //
+			int threadCount, //
+			long seed //
+	) throws IOException {
+
+		if (threadCount < 1) {
+			threadCount = Runtime.getRuntime().availableProcessors();
+		}
+		threadCount = Math.min(threadCount, replicateCount);
+
+		final String numberFormat = "%0" + Integer.toString(replicateCount).length() + "d";
+		final String extension = "." + format.getText();
+
+		// the buffers and random number stream of each thread
+		final ReplicateBuffers[] buffers = new ReplicateBuffers[threadCount];
+		for (int k = 0; k < threadCount; k++) {
+			buffers[k] = new ReplicateBuffers();
+		}
+
+		PrintWriter index = new PrintWriter(new FileWriter(fileStem + ".txt"));
+		index.println("replicate\tfile" + (traces != null ? "\tsample" : "") + (treeModel != null ? "\ttree" : ""));
+
+		ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+
+		try {
+
+			// only as many replicates as there are threads are held at once
+			for (int first = 0; first < replicateCount; first += threadCount) {
+
+				List<Callable<Void>> simulateReplicateCallers = new ArrayList<Callable<Void>>();
+
+				for (int replicate = first; replicate < Math.min(first + threadCount, replicateCount); replicate++) {
+
+					final ReplicateBuffers replicateBuffers = buffers[replicate - first];
+					final File file = new File(fileStem + "_" + String.format(numberFormat, replicate + 1) + extension);
+
+					replicateBuffers.random.setSeed(new int[] { (int) (seed >>> 32), (int) seed, replicate });
+
+					index.print((replicate + 1) + "\t" + file.getName());
+					prepareReplicate(replicate, replicateCount, replicateBuffers, index);
+					index.println();
+
+					final AlignmentStreamWriter.Format replicateFormat = format;
+					simulateReplicateCallers.add(new Callable<Void>() {
+						public Void call() throws Exception {
+							simulateReplicate(replicateBuffers, file, replicateFormat);
+							return null;
+						}
+					});
+
+				}// END: replicates loop
+
+				for (Future<Void> future : executor.invokeAll(simulateReplicateCallers)) {
+					try {
+						future.get();
+					} catch (ExecutionException e) {
+						throw new RuntimeException("Error simulating replicates: " + e.getCause().getMessage(), e.getCause());
+					}
+				}
+
+			}// END: replicate windows loop
+
+		} catch (InterruptedException e) {
+			throw new RuntimeException("Replicate simulation interrupted");
+		} finally {
+			executor.shutdown();
+			index.close();
+			for (Partition partition : partitions) {
+				partition.finalizeBeagle();
+			}
+		}
+
+	}// END: simulate
+
+	/**
+	 * Sets the parameters and the tree of a replicate and takes the
+	 * transition probabilities of the partitions (on this thread).
+	 */
+	private void prepareReplicate(int replicate, int replicateCount, ReplicateBuffers buffers, PrintWriter index) {
+
+		if (traces != null) {
+
+			int state = (int) ((long) replicate * traces.getStateCount() / replicateCount);
+
+			for (int i = 0; i < parameters.size(); i++) {
+				Parameter parameter = parameters.get(i);
+				for (int j = 0; j < parameter.getDimension(); j++) {
+					parameter.setParameterValue(j, traces.getStateValue(parameterTraces[i][j], state));
+				}
+			}// END: parameters loop
+
+			index.print("\t" + (state + 1));
+
+		}// END: posterior sample check
+
+		if (treeModel != null) {
+
+			SimpleTree tree = buffers.coalescentSimulator.simulateTree(treeModel,
+					demographicModel.getDemographicFunction());
+
+			treeModel.beginTreeEdit();
+			treeModel.adoptTreeStructure(tree);
+			treeModel.setRoot(treeModel.getNode(tree.getRoot().getNumber()));
+			treeModel.endTreeEdit();
+
+			index.print("\t" + TreeUtils.newick(treeModel));
+
+		}// END: coalescent tree check
+
+		for (int i = 0; i < partitions.size(); i++) {
+			buffers.siteBlocks[i] = partitions.get(i).createSiteBlocks();
+		}
+
+	}// END: prepareReplicate
+
+	private void simulateReplicate(ReplicateBuffers buffers, File file, AlignmentStreamWriter.Format format) throws IOException {
+
+		for (int[] row : buffers.states) {
+			Arrays.fill(row, BeagleSequenceSimulator.gapFlag);
+		}
+
+		for (int p = 0; p < partitions.size(); p++) {
+
+			Partition partition = partitions.get(p);
+			int partitionSiteCount = partition.getPartitionSiteCount();
+			int[][] nodeSequences = buffers.nodeSequences[p];
+
+			buffers.siteBlocks[p].simulateSites(0, partitionSiteCount, buffers.random, nodeSequences);
+
+			int[] rows = nodeRows[p];
+			for (int i = 0; i < rows.length; i++) {
+				if (rows[i] >= 0) {
+					int[] row = buffers.states[rows[i]];
+					for (int j = 0; j < partitionSiteCount; j++) {
+						row[partition.from + j * partition.every] = nodeSequences[i][j];
+					}
+				}
+			}// END: nodes loop
+
+		}// END: partitions loop
+
+		AlignmentStreamWriter writer = new AlignmentStreamWriter(file, format, sequenceNames, siteCount, siteCount, dataType);
+		try {
+			writer.writeBlock(0, buffers.states, siteCount);
+		} finally {
+			writer.close();
+		}
+
+	}// END: simulateReplicate
+
+	/**
+	 * What each thread keeps from one replicate to the next.
+	 */
+	private class ReplicateBuffers {
+
+		private final MersenneTwister random = new MersenneTwister();
+		private final CoalescentSimulator coalescentSimulator = new CoalescentSimulator(random);
+
+		private final Partition.SiteBlocks[] siteBlocks = new Partition.SiteBlocks[partitions.size()];
+		private final int[][][] nodeSequences = new int[partitions.size()][][];
+		private final int[][] states = new int[sequenceNames.size()][siteCount];
+
+		private ReplicateBuffers() {
+			for (int p = 0; p < partitions.size(); p++) {
+				Partition partition = partitions.get(p);
+				nodeSequences[p] = new int[partition.getTreeModel().getNodeCount()][partition.getPartitionSiteCount()];
+			}
+		}// END: Constructor
+
+	}// END: ReplicateBuffers class
+
+}// END: class
@@ -25,15 +25,21 @@
 
 package dr.app.beagle.tools.parsers;
 
+import dr.app.beagle.tools.AlignmentStreamWriter;
 import dr.app.beagle.tools.BeagleSequenceSimulator;
 import dr.app.beagle.tools.Partition;
 import dr.evolution.alignment.Alignment;
 import dr.evolution.alignment.SimpleAlignment;
 import dr.evolution.datatype.Codons;
 import dr.evolution.datatype.Nucleotides;
+import dr.math.MathUtils;
+import dr.util.FileHelpers;
 import dr.xml.*;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.List;
 import java.util.logging.Logger;
 
 /**
@@ -46,6 +52,10 @@ public class BeagleSequenceSimulatorParser extends AbstractXMLObjectParser {
     public static final String PARALLEL = "parallel";
     public static final String OUTPUT_ANCESTRAL_SEQUENCES = "outputAncestralSequences";
     public static final String OUTPUT = "output";
+    public static final String FILE_NAME = "fileName";
+    public static final String BLOCK_SIZE = "blockSize";
+
+    private static final int DEFAULT_BLOCK_SIZE = 10000;
 
     public String getParserName() {
         return BEAGLE_SEQUENCE_SIMULATOR;
@@ -70,13 +80,24 @@ public class BeagleSequenceSimulatorParser extends AbstractXMLObjectParser {
                 AttributeRule.newBooleanRule(PARALLEL, true, "Whether to use multiple Beagle instances for simulation, default is false (sequential execution)."),
                 new StringAttributeRule(OUTPUT, "Possible output formats",
                         
-                		SimpleAlignment.OutputType.values(), //TODO: this should ignore upper/lower cas
+                		getOutputFormats(), //TODO: this should ignore upper/lower cas
                         false),
+                new StringAttributeRule(FILE_NAME, "A file to write the sequences to as blocks of sites are simulated (rather than holding the alignment in memory)", true),
+                AttributeRule.newIntegerRule(BLOCK_SIZE, true, "The number of sites simulated at once when writing to a file (default " + DEFAULT_BLOCK_SIZE + ")"),
                         
                 new ElementRule(Partition.class, 1, Integer.MAX_VALUE)
         };
     }// END: getSyntaxRules
 
+    private static String[] getOutputFormats() {
+        List<String> formats = new ArrayList<String>();
+        for (SimpleAlignment.OutputType type : SimpleAlignment.OutputType.values()) {
+            formats.add(type.getText());
+        }
+        formats.add(AlignmentStreamWriter.Format.BINARY.getText());
+        return formats.toArray(new String[formats.size()]);
+    }// END: getOutputFormats
+
     @Override
     public Object parseXMLObject(XMLObject xo) throws XMLParseException {
 
@@ -92,10 +113,12 @@ public class BeagleSequenceSimulatorParser extends AbstractXMLObjectParser {
         	outputAncestralSequences = xo.getBooleanAttribute(OUTPUT_ANCESTRAL_SEQUENCES);
         }
         
-        SimpleAlignment.OutputType output = SimpleAlignment.OutputType.FASTA;
-        if (xo.hasAttribute(OUTPUT)) {
-            output = SimpleAlignment.OutputType.parseFromString(
-                    xo.getStringAttribute(OUTPUT));
+        String outputText = xo.getAttribute(OUTPUT, SimpleAlignment.OutputType.FASTA.getText());
+        SimpleAlignment.OutputType output = SimpleAlignment.OutputType.parseFromString(outputText);
+        if (output == null && !xo.hasAttribute(FILE_NAME)) {
+            // binary is only a format for the file
+            throw new XMLParseException("The " + OUTPUT + " attribute can only be " + outputText
+                    + " when the sequences are written to a file (with the " + FILE_NAME + " attribute)");
         }
 
         int siteCount = 0;
@@ -163,6 +186,37 @@ public class BeagleSequenceSimulatorParser extends AbstractXMLObjectParser {
         }
 
         BeagleSequenceSimulator s = new BeagleSequenceSimulator(partitionsList);
+
+        if (xo.hasAttribute(FILE_NAME)) {
+
+            AlignmentStreamWriter.Format format = AlignmentStreamWriter.Format.parseFromString(outputText);
+            if (format == null) {
+                throw new XMLParseException("Sequences can only be written to a file as fasta, nexus or binary");
+            }
+
+            int blockSize = xo.getAttribute(BLOCK_SIZE, DEFAULT_BLOCK_SIZE);
+            if (blockSize < 1) {
+                throw new XMLParseException("The " + BLOCK_SIZE + " attribute must be positive");
+            }
+
+            File file = FileHelpers.getFile(xo.getStringAttribute(FILE_NAME));
+            int threadCount = (parallel ? Runtime.getRuntime().availableProcessors() : 1);
+
+            Logger.getLogger("dr.app.beagle.tools").info("\tWriting sequences to " + file + " in blocks of "
+                    + blockSize + " sites on " + threadCount + (threadCount > 1 ? " threads" : " thread") + "\n");
+
+            try {
+                s.simulate(file, format, threadCount, blockSize, MathUtils.nextLong(), outputAncestralSequences);
+            } catch (IOException ioe) {
+                throw new XMLParseException("Unable to write sequences to " + file + ": " + ioe.getMessage());
+            }
+
+            // the sequences are in the file
+            SimpleAlignment alignment = new SimpleAlignment();
+            alignment.setReportCountStatistics(false);
+            return alignment;
+        }
+
         SimpleAlignment alignment = s.simulate(parallel, outputAncestralSequences);
 
         alignment.setOutputType(output);
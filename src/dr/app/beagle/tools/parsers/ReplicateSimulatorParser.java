@@ -0,0 +1,214 @@
+/*
+ * ReplicateSimulatorParser.java
+ *
+ * Copyright (c) 2002-2017 Alexei Drummond, Andrew Rambaut and Marc Suchard
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ */
+
+package dr.app.beagle.tools.parsers;
+
+import dr.app.beagle.tools.AlignmentStreamWriter;
+import dr.app.beagle.tools.Partition;
+import dr.app.beagle.tools.ReplicateSimulator;
+import dr.evomodel.coalescent.DemographicModel;
+import dr.evomodel.tree.TreeModel;
+import dr.inference.model.Parameter;
+import dr.inference.trace.LogFileTraces;
+import dr.inference.trace.TraceException;
+import dr.math.MathUtils;
+import dr.util.FileHelpers;
+import dr.xml.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Logger;
+
+/**
+ * @version $Id$
+ */
+public class ReplicateSimulatorParser extends AbstractXMLObjectParser {
+
+    public static final String REPLICATE_SIMULATOR = "replicateSimulator";
+    public static final String REPLICATES = "replicates";
+    public static final String THREADS = "threads";
+    public static final String SEED = "seed";
+    public static final String FILE_STEM = "fileStem";
+    public static final String OUTPUT = "output";
+    public static final String COALESCENT_TREE = "coalescentTree";
+    public static final String POSTERIOR_SAMPLE = "posteriorSample";
+    public static final String FILE_NAME = "fileName";
+    public static final String BURN_IN = "burnIn";
+
+    public String getParserName() {
+        return REPLICATE_SIMULATOR;
+    }
+
+    @Override
+    public String getParserDescription() {
+        return "Simulates replicate alignments from a set of partitions on a number of threads and writes each to a file";
+    }
+
+    @Override
+    public Class getReturnType() {
+        return ReplicateSimulator.class;
+    }
+
+    @Override
+    public XMLSyntaxRule[] getSyntaxRules() {
+        return rules;
+    }
+
+    private final XMLSyntaxRule[] rules = {
+            AttributeRule.newIntegerRule(REPLICATES, true, "The number of replicates (default is the number of states in the posterior sample)"),
+            AttributeRule.newIntegerRule(THREADS, true, "The number of threads (default is the number of processors)"),
+            AttributeRule.newLongIntegerRule(SEED, true, "The seed for the random number streams of the replicates"),
+            AttributeRule.newStringRule(FILE_STEM, false, "The start of the file names (followed by the replicate number)"),
+            new StringAttributeRule(OUTPUT, "The format of the files (fasta, nexus or binary)",
+                    new String[]{
+                            AlignmentStreamWriter.Format.FASTA.getText(),
+                            AlignmentStreamWriter.Format.NEXUS.getText(),
+                            AlignmentStreamWriter.Format.BINARY.getText()
+                    }, true),
+            new ElementRule(Partition.class, 1, Integer.MAX_VALUE),
+            new ElementRule(COALESCENT_TREE, new XMLSyntaxRule[]{
+                    new ElementRule(TreeModel.class),
+                    new ElementRule(DemographicModel.class)
+            }, "Simulates a new tree for each replicate", true),
+            new ElementRule(POSTERIOR_SAMPLE, new XMLSyntaxRule[]{
+                    AttributeRule.newStringRule(FILE_NAME, false, "The log file with the posterior sample"),
+                    AttributeRule.newLongIntegerRule(BURN_IN, true, "The number of states to discard (default is 10%)"),
+                    new ElementRule(Parameter.class, 1, Integer.MAX_VALUE)
+            }, "Sets the parameters to the values of a state of the posterior sample for each replicate", true)
+    };
+
+    @Override
+    public Object parseXMLObject(XMLObject xo) throws XMLParseException {
+
+        List<Partition> partitions = new ArrayList<Partition>();
+        int siteCount = 0;
+        for (int i = 0; i < xo.getChildCount(); i++) {
+            if (xo.getChild(i) instanceof Partition) {
+                Partition partition = (Partition) xo.getChild(i);
+                partitions.add(partition);
+                siteCount = Math.max(siteCount, partition.to + 1);
+            }
+        }
+
+        for (Partition partition : partitions) {
+            if (partition.to == -1) {
+                partition.to = siteCount - 1;
+            }
+        }
+
+        ReplicateSimulator simulator = new ReplicateSimulator(partitions);
+
+        String msg = "\n\t" + partitions.size() + (partitions.size() > 1 ? " partitions" : " partition");
+
+        if (xo.hasChildNamed(COALESCENT_TREE)) {
+            XMLObject cxo = xo.getChild(COALESCENT_TREE);
+            TreeModel treeModel = (TreeModel) cxo.getChild(TreeModel.class);
+            DemographicModel demographicModel = (DemographicModel) cxo.getChild(DemographicModel.class);
+
+            boolean found = false;
+            for (Partition partition : partitions) {
+                found = found || partition.getTreeModel() == treeModel;
+            }
+            if (!found) {
+                throw new XMLParseException("The tree of the " + COALESCENT_TREE + " element is not the tree of any partition");
+            }
+
+            simulator.setCoalescentTree(treeModel, demographicModel);
+            msg += "\n\tsimulating a coalescent tree for each replicate";
+        }
+
+        if (xo.hasChildNamed(POSTERIOR_SAMPLE)) {
+            XMLObject cxo = xo.getChild(POSTERIOR_SAMPLE);
+            String fileName = cxo.getStringAttribute(FILE_NAME);
+
+            try {
+                File file = FileHelpers.getFile(fileName);
+
+                LogFileTraces traces = new LogFileTraces(fileName, file);
+                traces.loadTraces();
+                long maxState = traces.getMaxState();
+
+                // leaving the burnin attribute off will result in 10% being used
+                long burnin = cxo.getAttribute(BURN_IN, maxState / 10);
+                if (burnin < 0 || burnin >= maxState) {
+                    throw new XMLParseException("The " + BURN_IN + " attribute must be less than the last state (" + maxState + ")");
+                }
+                traces.setBurnIn(burnin);
+
+                List<Parameter> parameters = new ArrayList<Parameter>();
+                for (int i = 0; i < cxo.getChildCount(); i++) {
+                    if (cxo.getChild(i) instanceof Parameter) {
+                        parameters.add((Parameter) cxo.getChild(i));
+                    }
+                }
+
+                simulator.setPosteriorSample(traces, parameters);
+                msg += "\n\twith the parameters of " + traces.getStateCount() + " states from " + fileName;
+
+            } catch (IOException ioe) {
+                throw new XMLParseException("File '" + fileName + "' can not be read for " + getParserName() + " element: " + ioe.getMessage());
+            } catch (TraceException te) {
+                throw new XMLParseException(te.getMessage());
+            } catch (IllegalArgumentException iae) {
+                throw new XMLParseException(iae.getMessage());
+            }
+        }
+
+        int replicateCount;
+        if (xo.hasAttribute(REPLICATES)) {
+            replicateCount = xo.getIntegerAttribute(REPLICATES);
+        } else if (simulator.getStateCount() > 0) {
+            replicateCount = simulator.getStateCount();
+        } else {
+            throw new XMLParseException("The " + REPLICATES + " attribute is needed without a " + POSTERIOR_SAMPLE + " element");
+        }
+        if (replicateCount < 1) {
+            throw new XMLParseException("The " + REPLICATES + " attribute must be positive");
+        }
+
+        int threadCount = xo.getAttribute(THREADS, -1);
+        long seed = xo.getAttribute(SEED, MathUtils.nextLong());
+
+        String outputText = xo.getAttribute(OUTPUT, AlignmentStreamWriter.Format.FASTA.getText());
+        AlignmentStreamWriter.Format format = AlignmentStreamWriter.Format.parseFromString(outputText);
+
+        String fileStem = FileHelpers.getFile(xo.getStringAttribute(FILE_STEM)).getPath();
+
+        Logger.getLogger("dr.app.beagle.tools").info("\nUsing Replicate Simulator for " + replicateCount
+                + (replicateCount > 1 ? " replicates" : " replicate") + msg
+                + "\n\twriting to " + fileStem + "_*." + format.getText() + "\n");
+
+        try {
+            simulator.simulate(fileStem, format, replicateCount, threadCount, seed);
+        } catch (IOException ioe) {
+            throw new XMLParseException("Unable to write replicates to " + fileStem + ": " + ioe.getMessage());
+        }
+
+        return simulator;
+    }// END: parseXMLObject
+
+}// END: class
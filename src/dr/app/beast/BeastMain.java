@@ -32,6 +32,7 @@ import dr.app.plugin.Plugin;
 import dr.app.plugin.PluginLoader;
 import dr.app.util.Arguments;
 import dr.app.util.Utils;
+import dr.inference.markovchain.Profiler;
 import dr.inference.mcmc.MCMC;
 import dr.inference.mcmcmc.MCMCMC;
 import dr.inference.mcmcmc.MCMCMCOptions;
@@ -338,6 +339,11 @@ public class BeastMain {
                         new Arguments.Option("java", "Use Java only, no native implementations"),
                         new Arguments.LongOption("tests", "The number of full evaluation tests to perform (default 1000)"),
                         new Arguments.RealOption("threshold", 0.0, Double.MAX_VALUE, "Full evaluation test threshold (default 0.1)"),
+                        new Arguments.Option("profile", "Record wall and cpu time spent in each operator, likelihood and MCMC phase"),
+                        new Arguments.StringOption("profile_file", "FILENAME", "Periodically write the profile to a JSON file (implies -profile)"),
+                        new Arguments.LongOption("profile_every", "Specify the frequency (in states) to write the profile file"),
+                        new Arguments.Option("parser_timing", "Report the time spent constructing each type of XML element"),
+                        new Arguments.IntegerOption("parser_threads", 1, Integer.MAX_VALUE, "The number of threads used to construct data elements from the XML (default 1)"),
 
                         new Arguments.Option("adaptation_off", "Don't adapt operator sizes"),
                         new Arguments.RealOption("adaptation_target", 0.0, 1.0, "Target acceptance rate for adaptive operators (default 0.234)"),
@@ -619,6 +625,24 @@ public class BeastMain {
             }
         }
 
+        if (arguments.hasOption("profile") || arguments.hasOption("profile_file")) {
+            System.setProperty(Profiler.PROFILE, Boolean.TRUE.toString());
+            Profiler.setEnabled(true);
+        }
+        if (arguments.hasOption("profile_file")) {
+            System.setProperty(Profiler.PROFILE_FILE, arguments.getStringOption("profile_file"));
+        }
+        if (arguments.hasOption("profile_every")) {
+            System.setProperty(Profiler.PROFILE_EVERY, Long.toString(arguments.getLongOption("profile_every")));
+        }
+
+        if (arguments.hasOption("parser_timing")) {
+            System.setProperty(XMLParser.PARSER_TIMING, Boolean.TRUE.toString());
+        }
+        if (arguments.hasOption("parser_threads")) {
+            System.setProperty(XMLParser.PARSER_THREADS, Integer.toString(arguments.getIntegerOption("parser_threads")));
+        }
+
         if (arguments.hasOption("adaptation_off")) {
             System.setProperty("mcmc.use_adaptation", Boolean.FALSE.toString());
         }
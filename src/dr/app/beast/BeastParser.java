@@ -52,6 +52,8 @@ public class BeastParser extends XMLParser {
     public static final String RELEASE ="release";
     public static final String DEV = "development";
     public static final String PARSER_PROPERTIES_SUFFIX ="_parsers.properties";
+    // set to false to load every parser class at startup even if an index is available
+    public static final String LAZY_PARSERS = "parsers.lazy";
     public String parsers;
 
     public BeastParser(String[] args, List<String> additionalParsers, boolean verbose, boolean parserWarnings, boolean strictXML, Version version) {
@@ -141,6 +143,11 @@ public class BeastParser extends XMLParser {
         if (stream == null) {
             throw new RuntimeException("Parsers file not found: " + parsersFile);
         }
+
+        // if there is an index of element names then the parsers are only loaded when needed
+        final Properties index = Boolean.parseBoolean(System.getProperty(LAZY_PARSERS, "true")) ?
+                ParserIndex.readIndex(c, parsersFile) : null;
+
         BufferedReader reader = new BufferedReader(new InputStreamReader(stream));
         String line = reader.readLine();
 
@@ -152,6 +159,19 @@ public class BeastParser extends XMLParser {
                     if (line.contains("Vector")) {
                         System.out.println("");
                     }
+                    String parserNames = index != null ? index.getProperty(line.trim()) : null;
+                    if (parserNames != null) {
+                        boolean replaced = addLazyXMLObjectParser(line.trim(), parserNames.split(","), canReplace);
+                        if (verbose) {
+                            System.out.println((replaced ? "Replaced" : "Registered") + " parser: " + line.trim());
+                        } else if (parserWarning && replaced) {
+                            System.out.println("WARNING: parser - " + line.trim() + " in " + parsersFile +" is duplicated, "
+                                    + "which is REPLACING the same parser loaded previously.\n");
+                        }
+                        line = reader.readLine();
+                        continue;
+                    }
+
                     Class parser = Class.forName(line);
                     if (XMLObjectParser.class.isAssignableFrom(parser)) {
                         // if this class is an XMLObjectParser then create an instance
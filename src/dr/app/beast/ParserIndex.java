@@ -0,0 +1,158 @@
+/*
+ * ParserIndex.java
+ *
+ * Copyright (c) 2002-2017 Alexei Drummond, Andrew Rambaut and Marc Suchard
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ */
+
+package dr.app.beast;
+
+import dr.xml.XMLObjectParser;
+
+import java.io.*;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * Builds and reads the parser index files that sit next to each *_parsers.properties file.
+ * An index maps each parser class listed in the properties file to the element names it
+ * handles so that BeastParser can register the names without loading the classes. The
+ * index is generated at build time (by the compile-all target of build.xml) and if it is
+ * missing the parsers are all loaded up front as before.
+ */
+public class ParserIndex {
+
+    public static final String PARSER_INDEX_SUFFIX = "_parsers.index";
+
+    private ParserIndex() {
+    }
+
+    /**
+     * @param c           the class used to find the resource
+     * @param parsersFile the name of the *_parsers.properties file
+     * @return the index as class name to comma separated element names or null if there is none
+     */
+    public static Properties readIndex(Class c, String parsersFile) {
+        String indexFile = getIndexFileName(parsersFile);
+        InputStream stream = c.getResourceAsStream(indexFile);
+        if (stream == null) {
+            return null;
+        }
+        Properties index = new Properties();
+        try {
+            index.load(stream);
+            stream.close();
+        } catch (IOException ioe) {
+            return null;
+        }
+        return index;
+    }
+
+    public static String getIndexFileName(String parsersFile) {
+        return parsersFile.substring(0, parsersFile.length() - BeastParser.PARSER_PROPERTIES_SUFFIX.length())
+                + PARSER_INDEX_SUFFIX;
+    }
+
+    /**
+     * @param className a class listed in a properties file
+     * @return the element names of the parser, or of the static parser fields of the class
+     * @throws Exception if the class can't be loaded
+     */
+    public static List<String> getParserNames(String className) throws Exception {
+        List<String> names = new ArrayList<String>();
+        Class parserClass = Class.forName(className);
+        if (XMLObjectParser.class.isAssignableFrom(parserClass)) {
+            for (String name : ((XMLObjectParser) parserClass.newInstance()).getParserNames()) {
+                names.add(name);
+            }
+        } else {
+            for (Field field : parserClass.getDeclaredFields()) {
+                if (XMLObjectParser.class.isAssignableFrom(field.getType())) {
+                    for (String name : ((XMLObjectParser) field.get(null)).getParserNames()) {
+                        names.add(name);
+                    }
+                }
+            }
+        }
+        return names;
+    }
+
+    private static void writeIndex(File parsersFile, File indexFile) throws IOException {
+        Properties index = new Properties();
+
+        BufferedReader reader = new BufferedReader(new FileReader(parsersFile));
+        String line = reader.readLine();
+        while (line != null) {
+            line = line.trim();
+            if (line.length() > 0 && !line.startsWith("#")) {
+                try {
+                    List<String> names = getParserNames(line);
+                    if (names.size() > 0) {
+                        StringBuilder sb = new StringBuilder();
+                        for (String name : names) {
+                            if (sb.length() > 0) {
+                                sb.append(",");
+                            }
+                            sb.append(name);
+                        }
+                        index.setProperty(line, sb.toString());
+                    }
+                } catch (Throwable t) {
+                    // leave it out of the index so it is loaded (and the error reported) at run time
+                    System.err.println("Not indexing parser " + line + ": " + t);
+                }
+            }
+            line = reader.readLine();
+        }
+        reader.close();
+
+        OutputStream out = new FileOutputStream(indexFile);
+        index.store(out, "Generated from " + parsersFile.getName() + " - do not edit");
+        out.close();
+    }
+
+    /**
+     * Write an index for each *_parsers.properties file in a directory.
+     *
+     * @param args the directory containing the properties files and the output directory
+     * @throws IOException if a file can't be read or written
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.err.println("Usage: ParserIndex <properties directory> <output directory>");
+            System.exit(1);
+        }
+
+        File outputDirectory = new File(args[1]);
+        outputDirectory.mkdirs();
+
+        File[] files = new File(args[0]).listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (file.getName().endsWith(BeastParser.PARSER_PROPERTIES_SUFFIX)) {
+                    writeIndex(file, new File(outputDirectory, getIndexFileName(file.getName())));
+                }
+            }
+        }
+    }
+}
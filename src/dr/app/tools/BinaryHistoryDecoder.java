@@ -0,0 +1,187 @@
+/*
+ * BinaryHistoryDecoder.java
+ *
+ * Copyright (c) 2002-2017 Alexei Drummond, Andrew Rambaut and Marc Suchard
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ */
+
+package dr.app.tools;
+
+import dr.app.util.Arguments;
+import dr.evomodel.treelikelihood.utilities.BinaryHistoryLogger;
+import dr.evomodel.treelikelihood.utilities.CompleteHistoryLogger;
+import dr.inference.markovjumps.BranchStateChanges;
+import dr.inference.markovjumps.StateHistory;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+
+/**
+ * Turns the binary file of a binaryHistoryLogger into the text log of the complete histories that
+ * a completeHistoryLogger writes (a column for each site with the changes on all the branches and
+ * the number of them). The samples are decoded one at a time so any length of file can be decoded.
+ */
+public class BinaryHistoryDecoder {
+
+    /**
+     * @param internal include the changes on the branches above internal nodes
+     * @param external include the changes on the branches above the tips
+     */
+    public BinaryHistoryDecoder(boolean internal, boolean external) {
+        this.internal = internal;
+        this.external = external;
+    }
+
+    /**
+     * Decodes all the samples of a file.
+     *
+     * @return the number of samples
+     */
+    public int decode(File inputFile, PrintWriter out) throws IOException {
+        BinaryHistoryLogger.Reader reader = new BinaryHistoryLogger.Reader(inputFile);
+
+        try {
+            out.print("state");
+            for (int site = 0; site < reader.getSiteCount(); site++) {
+                out.print("\t" + CompleteHistoryLogger.COMPLETE_HISTORY_NAME + "_" + (site + 1));
+            }
+            out.println();
+
+            int sampleCount = 0;
+            StringBuilder sb = new StringBuilder();
+            while (reader.next()) {
+                sb.setLength(0);
+                sb.append(reader.getState());
+                for (int site = 0; site < reader.getSiteCount(); site++) {
+                    sb.append("\t");
+                    appendHistory(sb, reader, site);
+                }
+                out.println(sb.toString());
+                sampleCount++;
+            }
+            out.flush();
+            return sampleCount;
+        } finally {
+            reader.close();
+        }
+    }
+
+    private void appendHistory(StringBuilder sb, BinaryHistoryLogger.Reader reader, int site) {
+        BranchStateChanges changes = reader.getChanges();
+
+        sb.append("{");
+        int count = 0;
+        for (int node = 0; node < reader.getNodeCount(); node++) {
+            boolean isExternal = reader.isExternal(node);
+            if (node != reader.getRootNumber() && ((isExternal && external) || (!isExternal && internal))) {
+                for (int i = changes.getFirstChange(node, site);
+                     i < changes.getChangeCount(node) && changes.getSite(node, i) == site; i++) {
+                    if (count > 0) {
+                        sb.append(",");
+                    }
+                    StateHistory.addEventToStringBuilder(sb,
+                            reader.getCode(changes.getFromState(node, i)), reader.getCode(changes.getToState(node, i)),
+                            changes.getTime(node, i), site + 1);
+                    count++;
+                }
+            }
+        }
+        sb.append("}").append(" ").append(count);
+    }
+
+    private final boolean internal;
+    private final boolean external;
+
+    public static void printUsage(Arguments arguments) {
+
+        arguments.printUsage("binaryhistorydecoder", "<input-file-name> [<output-file-name>]");
+        System.out.println();
+        System.out.println("  Example: binaryhistorydecoder histories.bin histories.log");
+        System.out.println();
+
+    }
+
+    public static void main(String[] args) {
+
+        Arguments arguments = new Arguments(
+                new Arguments.Option[]{
+                        new Arguments.Option("noInternal", "leave out the changes on the branches above internal nodes"),
+                        new Arguments.Option("noExternal", "leave out the changes on the branches above the tips"),
+                        new Arguments.Option("help", "option to print this message"),
+                });
+
+        try {
+            arguments.parseArguments(args);
+        } catch (Arguments.ArgumentException ae) {
+            System.err.println(ae);
+            printUsage(arguments);
+            System.exit(1);
+        }
+
+        if (arguments.hasOption("help")) {
+            printUsage(arguments);
+            System.exit(0);
+        }
+
+        final String[] args2 = arguments.getLeftoverArguments();
+
+        String inputFileName = null;
+        String outputFileName = null;
+
+        switch (args2.length) {
+            case 2:
+                outputFileName = args2[1];
+                // fall to
+            case 1:
+                inputFileName = args2[0];
+                break;
+            default: {
+                System.err.println("Unknown option: " + (args2.length > 2 ? args2[2] : ""));
+                System.err.println();
+                printUsage(arguments);
+                System.exit(1);
+            }
+        }
+
+        BinaryHistoryDecoder decoder = new BinaryHistoryDecoder(
+                !arguments.hasOption("noInternal"), !arguments.hasOption("noExternal"));
+
+        try {
+            PrintWriter out = (outputFileName == null ?
+                    new PrintWriter(new OutputStreamWriter(System.out)) :
+                    new PrintWriter(new BufferedWriter(new FileWriter(outputFileName))));
+            int sampleCount = decoder.decode(new File(inputFileName), out);
+            if (outputFileName != null) {
+                out.close();
+                System.err.println("Decoded " + sampleCount + " samples to " + outputFileName);
+            }
+        } catch (IOException ioe) {
+            System.err.println("Error decoding " + inputFileName + ": " + ioe.getMessage());
+            System.exit(1);
+        }
+
+        System.exit(0);
+    }
+}
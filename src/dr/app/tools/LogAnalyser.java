@@ -36,6 +36,8 @@ import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Locale;
 
 public class LogAnalyser {
@@ -45,7 +47,11 @@ public class LogAnalyser {
 
     public LogAnalyser(int burnin, String inputFileName, String outputFileName, boolean verbose,
                        boolean hpds, boolean ess, boolean stdErr,
-                       String marginalLikelihood) throws java.io.IOException, TraceException {
+                       String marginalLikelihood, List<String> traceNames,
+                       int threadCount) throws java.io.IOException, TraceException {
+
+        this.traceNames = traceNames;
+        this.threadCount = threadCount;
 
         File parentFile = new File(inputFileName);
 
@@ -68,7 +74,11 @@ public class LogAnalyser {
 
     public LogAnalyser(int burnin, File[] files, String outputFileName, boolean verbose,
                        boolean hpds, boolean ess, boolean stdErr,
-                       String marginalLikelihood) throws java.io.IOException, TraceException {
+                       String marginalLikelihood, List<String> traceNames,
+                       int threadCount) throws java.io.IOException, TraceException {
+
+        this.traceNames = traceNames;
+        this.threadCount = threadCount;
 
         for (File f : files) {
             if (f.isFile()) {
@@ -87,6 +97,10 @@ public class LogAnalyser {
             analyze(f, burnin, verbose, new boolean[]{true}, hpds, ess, stdErr, marginalLikelihood);
         }
     }
+
+    private final List<String> traceNames;
+    private final int threadCount;
+
 //
     private static File openDefaultDirectory = null;
 //
@@ -120,9 +134,10 @@ public class LogAnalyser {
 
                 String name = file.getCanonicalPath();
                 if (verbose) {
-                    TraceAnalysis.report(name, burnin, marginalLikelihood);
+                    TraceAnalysis.report(name, burnin, marginalLikelihood, true, traceNames, threadCount);
                 } else {
-                    TraceAnalysis.shortReport(name, burnin, drawHeader[0], hpds, ess, stdErr, marginalLikelihood);
+                    TraceAnalysis.shortReport(name, burnin, drawHeader[0], hpds, ess, stdErr, marginalLikelihood,
+                            traceNames, threadCount);
                     drawHeader[0] = false;
                 }
             } catch (IOException e) {
@@ -172,10 +187,11 @@ public class LogAnalyser {
 
     public static void printUsage(Arguments arguments) {
 
-        arguments.printUsage("loganalyser", "[-burnin <burnin>] [-short][-hpd] [-std] [<input-file-name> [<output-file-name>]]");
+        arguments.printUsage("loganalyser", "[-burnin <burnin>] [-short][-hpd] [-std] [-traces <name,name,...>] [-threads <n>] [<input-file-name> [<output-file-name>]]");
         System.out.println();
         System.out.println("  Example: loganalyser test.log");
         System.out.println("  Example: loganalyser -burnin 10000 trees.log out.txt");
+        System.out.println("  Example: loganalyser -short -traces posterior,treeModel.rootHeight test.log");
         System.out.println();
 
     }
@@ -197,6 +213,8 @@ public class LogAnalyser {
                         new Arguments.Option("ess", "use this option to produce ESSs for each trace"),
                         new Arguments.Option("stdErr", "use this option to produce standard Error"),
                         new Arguments.StringOption("marginal", "trace_name", "specify the trace to use to calculate the marginal likelihood"),
+                        new Arguments.StringOption("traces", "trace_names", "a comma separated list of the traces to analyse (the other columns are skipped when the log is read)"),
+                        new Arguments.IntegerOption("threads", "the number of threads used to analyse the traces [default = number of processors]"),
 //				new Arguments.Option("html", "format output as html"),
 //				new Arguments.Option("svg", "generate svg graphics"),
                         new Arguments.Option("help", "option to print this message")
@@ -230,6 +248,25 @@ public class LogAnalyser {
             marginalLikelihood = arguments.getStringOption("marginal");
         }
 
+        List<String> traceNames = null;
+        if (arguments.hasOption("traces")) {
+            traceNames = new ArrayList<String>();
+            for (String traceName : arguments.getStringOption("traces").split(",")) {
+                if (traceName.trim().length() > 0) {
+                    traceNames.add(traceName.trim());
+                }
+            }
+        }
+
+        int threadCount = TraceAnalysis.getDefaultThreadCount();
+        if (arguments.hasOption("threads")) {
+            threadCount = arguments.getIntegerOption("threads");
+            if (threadCount < 1) {
+                System.err.println("The number of threads should be at least 1");
+                System.exit(1);
+            }
+        }
+
         String inputFileName = null;
         String outputFileName = null;
 
@@ -254,11 +291,13 @@ public class LogAnalyser {
 //            inputFileName = Utils.getLoadFileName("LogAnalyser " + version.getVersionString() + " - Select log file to analyse");
             File[] files = Utils.getLoadFiles("LogAnalyser " + version.getVersionString() + " - Select log file to analyse",
                     openDefaultDirectory, "BEAST log (*.log) Files", "log", "txt");
-            new LogAnalyser(burnin, files, outputFileName, !shortReport, hpds, ess, stdErr, marginalLikelihood);
+            new LogAnalyser(burnin, files, outputFileName, !shortReport, hpds, ess, stdErr, marginalLikelihood,
+                    traceNames, threadCount);
 
         } else {
 
-            new LogAnalyser(burnin, inputFileName, outputFileName, !shortReport, hpds, ess, stdErr, marginalLikelihood);
+            new LogAnalyser(burnin, inputFileName, outputFileName, !shortReport, hpds, ess, stdErr, marginalLikelihood,
+                    traceNames, threadCount);
         }
 
         System.exit(0);
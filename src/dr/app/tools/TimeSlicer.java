@@ -27,13 +27,13 @@ package dr.app.tools;
 
 import dr.app.beast.BeastVersion;
 import dr.app.util.Arguments;
+import dr.evolution.io.CompactTreeImporter;
 import dr.evolution.io.Importer;
-import dr.evolution.io.NewickImporter;
-import dr.evolution.io.NexusImporter;
-import dr.evolution.io.TreeImporter;
+import dr.evolution.io.TreeFileIndex;
 import dr.evolution.tree.NodeRef;
 import dr.evolution.tree.Tree;
 import dr.evolution.tree.TreeUtils;
+import dr.geo.Histogram2D;
 import dr.geo.KMLCoordinates;
 import dr.geo.KernelDensityEstimator2D;
 import dr.geo.Polygon2D;
@@ -52,6 +52,7 @@ import java.awt.geom.Point2D;
 import java.io.*;
 import java.text.SimpleDateFormat;
 import java.util.*;
+import java.util.concurrent.*;
 
 /**
  * @author Marc A. Suchard
@@ -127,6 +128,10 @@ public class TimeSlicer {
     public static final String LONGMIN = "longmin";
     public static final String ICON = "http://maps.google.com/mapfiles/kml/pal4/icon49.png";
     public static final String GRIDSIZE = "gridsize";
+    public static final String BINS = "bins";
+    public static final String THREADS = "threads";
+    // the most trees sliced by a worker thread at a time
+    public static final int MAX_TREES_PER_TASK = 100;
     public static final double[] BANDWIDTHS = new double[]{1.0,1.0};
     public static final boolean BANDWIDTHLIMIT = true;
     public static final boolean GREATCIRCLEDISTANCE = true;
@@ -142,7 +147,8 @@ public class TimeSlicer {
                       boolean trueNoise, double mrsd, ContourMode contourMode, SliceMode sliceMode,
                       final boolean summarizeRoot, final boolean summarizeTips, Normalization normalize, boolean getSDR, boolean getSNR,
                       String progress, boolean branchNormalization, BranchSet branchset, Set taxaSet, int grid,
-                      double latMin, double latMax, double longMin, double longMax, Set descendentTaxaSet, String rateString) {
+                      double latMin, double latMax, double longMin, double longMax, Set descendentTaxaSet, String rateString,
+                      int binCount, int threadCount) {
 
         this.traits = traits;
         traitCount = traits.length;
@@ -171,6 +177,8 @@ public class TimeSlicer {
         rateAttributeString = rateString;
 
         gridSize = grid;
+        this.binCount = binCount;
+        this.threadCount = threadCount;
 
         if (progress != null) {
             if (progress.equalsIgnoreCase("true")) {
@@ -192,21 +200,13 @@ public class TimeSlicer {
             }
         }
 
-        values = new ArrayList<List<List<Trait>>>(sliceCount);
-        for (int i = 0; i < sliceCount; i++) {
-            List<List<Trait>> thisSlice = new ArrayList<List<Trait>>(traitCount);
-            values.add(thisSlice);
-            for (int j = 0; j < traitCount; j++) {
-                List<Trait> thisTraitSlice = new ArrayList<Trait>();
-                thisSlice.add(thisTraitSlice);
-            }
+        values = createSliceValues();
+        if (binCount > 0 && sliceMode == SliceMode.BRANCHES) {
+            // the bivariate values in each slice are binned as they are read
+            histograms = new Histogram2D[sliceCount][traitCount];
         }
         if (summarizeRoot) {
-            rootValues = new ArrayList<List<Trait>>(traitCount);
-            for (int k = 0; k < traitCount; k++) {
-                List<Trait> thisTrait = new ArrayList<Trait>();
-                rootValues.add(thisTrait);
-            }
+            rootValues = createRootValues();
         }
         if (summarizeTips) {
             tipValues = new ArrayList<List<List<Trait>>>();
@@ -368,9 +368,13 @@ public class TimeSlicer {
                 rootElement.addContent(documentElement);
             }
 
+            if (contours && outputFormat != OutputFormat.TAB) {
+                sliceContourPaths = computeSliceContours(hpdValues);
+            }
+
             if (sliceHeights == null) {
-                for (double hpdValue : hpdValues) {
-                    summarizeSlice(0, Double.NaN, contours, points, outputFormat, hpdValue);
+                for (int h = 0; h < hpdValues.length; h++) {
+                    summarizeSlice(0, Double.NaN, contours, points, outputFormat, hpdValues[h], h);
                 }
             } else {
                 if (outputFormat == OutputFormat.TAB) {
@@ -381,8 +385,8 @@ public class TimeSlicer {
                     }
                 }
                 for (int i = 0; i < sliceHeights.length; i++) {
-                    for (double hpdValue : hpdValues) {
-                        summarizeSlice(i, sliceHeights[i], contours, points, outputFormat, hpdValue);
+                    for (int h = 0; h < hpdValues.length; h++) {
+                        summarizeSlice(i, sliceHeights[i], contours, points, outputFormat, hpdValues[h], h);
                     }
                 }
             }
@@ -750,7 +754,7 @@ public class TimeSlicer {
 
                         if (contourElement != null) {
                             String name = "root_hpd" + (hpdValue * 100);
-                            generateContours(name, contourElement, null, y, -1, Double.NaN, Double.NaN, hpdValue);
+                            generateContours(name, contourElement, null, y, null, -1, Double.NaN, Double.NaN, hpdValue);
                         }
 
                         if (pointsElement != null) {
@@ -835,7 +839,7 @@ public class TimeSlicer {
 
                             if (contourElement != null) {
                                 String name = tipNames.get(tipIndex) + "_hpd";
-                                generateContours(name, contourElement, null, y, -1, Double.NaN, Double.NaN, hpdValue);
+                                generateContours(name, contourElement, null, y, null, -1, Double.NaN, Double.NaN, hpdValue);
                             }
 
                             if (pointsElement != null) {
@@ -866,7 +870,7 @@ public class TimeSlicer {
 
     }
 
-    private void summarizeSlice(int slice, double sliceValue, boolean contours, boolean points, OutputFormat outputFormat, double hpdValue) {
+    private void summarizeSlice(int slice, double sliceValue, boolean contours, boolean points, OutputFormat outputFormat, double hpdValue, int hpdIndex) {
 
         //if (outputFormat == OutputFormat.TAB)
         //    throw new RuntimeException("Only XML/KML output is implemented");
@@ -906,9 +910,10 @@ public class TimeSlicer {
 //                        hpdValue);
 //
 //            } else {
-            summarizeSliceTrait(contourElement, pointsElement, slice, thisSlice.get(traitIndex), traitIndex, sliceValue,
+            summarizeSliceTrait(contourElement, pointsElement, slice, thisSlice.get(traitIndex), getHistogram(slice, traitIndex),
+                    traitIndex, sliceValue,
                     outputFormat,
-                    hpdValue);
+                    hpdValue, hpdIndex);
 
 //            }
         }
@@ -932,17 +937,19 @@ public class TimeSlicer {
         }
     }
 
-    private void summarizeSliceTrait(Element contourElement, Element pointsElement, int slice, List<Trait> thisTrait, int traitIndex, double sliceValue,
+    private void summarizeSliceTrait(Element contourElement, Element pointsElement, int slice, List<Trait> thisTrait,
+                                     Histogram2D histogram, int traitIndex, double sliceValue,
                                      OutputFormat outputFormat,
-                                     double hpdValue) {
+                                     double hpdValue, int hpdIndex) {
 
-        if (thisTrait.size() == 0) {
+        if (thisTrait.size() == 0 && histogram == null) {
             return;
         }
 
-        boolean isNumber = thisTrait.get(0).isNumber();
-        boolean isMultivariate = thisTrait.get(0).isMultivariate();
-        int dim = thisTrait.get(0).getDim();
+        // binned values are always bivariate numbers
+        boolean isNumber = histogram != null || thisTrait.get(0).isNumber();
+        boolean isMultivariate = histogram != null || thisTrait.get(0).isMultivariate();
+        int dim = (histogram != null ? 2 : thisTrait.get(0).getDim());
         boolean isBivariate = isMultivariate && dim == 2;
         if (sliceProgressReport) {
             progressStream.print("slice " + sliceValue + "\t");
@@ -968,26 +975,35 @@ public class TimeSlicer {
                 }
             }
 
-            int count = thisTrait.size();
-//            System.out.println("count = "+count+", dim = "+dim);
-            double[][] y = new double[dim][count];
-            for (int i = 0; i < count; i++) {
-                Trait trait = thisTrait.get(i);
-                double[] value = trait.getValue();
-                for (int j = 0; j < dim; j++) {
-                    y[j][i] = value[j];
-                }
-            }
+            // the points aren't kept if they have been binned
+            double[][] y = (histogram == null ? getValues(thisTrait, dim) : null);
 //            System.out.println(y.length+"\t"+y[0].length);
 
             if (outputFormat == OutputFormat.XML || outputFormat == OutputFormat.TAB) {
                 // Compute marginal means and standard deviations
                 for (int j = 0; j < dim; j++) {
-                    List<Double> x = new ArrayList();
-                    for (int k = 0; k < y[j].length; k++) {
-                        x.add(y[j][k]);
+                    double mean;
+                    double stdError;
+                    double lowerHPD;
+                    double upperHPD;
+                    if (histogram != null) {
+                        // the HPD interval is estimated from the bins
+                        double[] hpd = histogram.getHPDInterval(j, 0.95);
+                        mean = histogram.getMean(j);
+                        stdError = Math.sqrt(histogram.getVariance(j));
+                        lowerHPD = hpd[0];
+                        upperHPD = hpd[1];
+                    } else {
+                        List<Double> x = new ArrayList();
+                        for (int k = 0; k < y[j].length; k++) {
+                            x.add(y[j][k]);
+                        }
+                        TraceDistribution trace = new TraceDistribution(x, TraceType.REAL);
+                        mean = trace.getMean();
+                        stdError = trace.getStdError();
+                        lowerHPD = trace.getLowerHPD();
+                        upperHPD = trace.getUpperHPD();
                     }
-                    TraceDistribution trace = new TraceDistribution(x, TraceType.REAL);
                     Element statsElement = new Element("stats");
                     addDimInfo(statsElement, j, dim);
                     StringBuffer sb = new StringBuffer();
@@ -1000,21 +1016,21 @@ public class TimeSlicer {
                         tabOutput.append(sliceValue + "\t");
                     }
                     sb.append(String.format(KMLCoordinates.FORMAT,
-                            trace.getMean())).append(KMLCoordinates.SEPARATOR);
+                            mean)).append(KMLCoordinates.SEPARATOR);
                     tabOutput.append(String.format(KMLCoordinates.FORMAT,
-                            trace.getMean())).append("\t");
+                            mean)).append("\t");
                     sb.append(String.format(KMLCoordinates.FORMAT,
-                            trace.getStdError())).append(KMLCoordinates.SEPARATOR);
+                            stdError)).append(KMLCoordinates.SEPARATOR);
                     tabOutput.append(String.format(KMLCoordinates.FORMAT,
-                            trace.getStdError())).append("\t");
+                            stdError)).append("\t");
                     sb.append(String.format(KMLCoordinates.FORMAT,
-                            trace.getLowerHPD())).append(KMLCoordinates.SEPARATOR);
+                            lowerHPD)).append(KMLCoordinates.SEPARATOR);
                     tabOutput.append(String.format(KMLCoordinates.FORMAT,
-                            trace.getLowerHPD())).append("\t");
+                            lowerHPD)).append("\t");
                     sb.append(String.format(KMLCoordinates.FORMAT,
-                            trace.getUpperHPD())).append(KMLCoordinates.NEWLINE);
+                            upperHPD)).append(KMLCoordinates.NEWLINE);
                     tabOutput.append(String.format(KMLCoordinates.FORMAT,
-                            trace.getUpperHPD())).append("\t");
+                            upperHPD)).append("\t");
                     statsElement.addContent(sb.toString());
                     traitElement.addContent(statsElement);
                 }
@@ -1037,14 +1053,15 @@ public class TimeSlicer {
 
                 double date = mostRecentSamplingDate - sliceValue;
 
-                if (pointsElement != null) {
+                if (pointsElement != null && y != null) {
                     String name = "" + date + "_points";
                     generatePointsElement(name, pointsElement, y, date, sliceValue);
                 }
 
                 if (contourElement != null) {
                     String name = "" + date + "_hpd" + hpdValue;
-                    generateContours(name, contourElement, traitElement, y, slice, date, sliceValue, hpdValue);
+                    generateContours(name, contourElement, traitElement, y, getSliceContourPaths(slice, traitIndex, hpdIndex),
+                            slice, date, sliceValue, hpdValue);
                 }
 
             }
@@ -1115,24 +1132,14 @@ public class TimeSlicer {
         }
     }
 
-    private void generateContours(String name, Element sliceElement, Element traitElement, double[][] y, int slice, double date, double height, double hpdValue) {
+    private void generateContours(String name, Element sliceElement, Element traitElement, double[][] y, ContourPath[] paths, int slice, double date, double height, double hpdValue) {
         //to test how much points are within the polygons
         double numberOfPointsInPolygons = 0;
         double totalArea = 0;
 
-        ContourMaker contourMaker;
-        if (contourMode == ContourMode.JAVA)
-//            contourMaker = new KernelDensityEstimator2D(y[0], y[1], gridSize);
-            contourMaker = new KernelDensityEstimator2D(y[0], y[1], BANDWIDTHLIMIT);
-        else if (contourMode == ContourMode.R)
-            contourMaker = new ContourWithR(y[0], y[1], gridSize);
-        else if (contourMode == ContourMode.SNYDER)
-//            contourMaker = new ContourWithSynder(y[0], y[1], gridSize);
-            contourMaker = new ContourWithSynder(y[0], y[1], BANDWIDTHLIMIT);
-        else
-            throw new RuntimeException("Unimplemented ContourModel!");
-
-        ContourPath[] paths = contourMaker.getContourPaths(hpdValue);
+        if (paths == null) {
+            paths = createContourMaker(y, null).getContourPaths(hpdValue);
+        }
         int pathCounter = 1;
         for (ContourPath path : paths) {
 
@@ -1153,8 +1160,8 @@ public class TimeSlicer {
 
                 Element placemarkElement = generatePlacemarkElementWithPolygon(name1, date, hpdValue, height, coords, slice, pathCounter);
 
-                //testing how many points are within the polygon
-                if (checkSliceContours) {
+                //testing how many points are within the polygon (if they have been kept)
+                if (checkSliceContours && y != null) {
                     Element testElement = new Element("test");
                     testElement.addContent(coords.toXML());
                     Polygon2D testPolygon = new Polygon2D(testElement);
@@ -1173,7 +1180,7 @@ public class TimeSlicer {
             pathCounter ++;
         }
 
-        if (checkSliceContours) {
+        if (checkSliceContours && y != null) {
             progressStream.print("numberOfContours=" + paths.length + "\tfreqOfPointsInContour=" + numberOfPointsInPolygons / y[0].length + "\ttotalArea = " + totalArea);
         }
         if (paths.length == 0 && !sliceProgressReport) {
@@ -1181,6 +1188,109 @@ public class TimeSlicer {
         }
     }
 
+    private ContourMaker createContourMaker(double[][] y, Histogram2D histogram) {
+        ContourMaker contourMaker;
+        if (histogram != null) {
+            if (contourMode == ContourMode.JAVA)
+                contourMaker = new KernelDensityEstimator2D(histogram, BANDWIDTHLIMIT);
+            else if (contourMode == ContourMode.SNYDER)
+                contourMaker = new ContourWithSynder(histogram, BANDWIDTHLIMIT);
+            else
+                throw new RuntimeException("Binned values can only be contoured in the java or snyder contour modes");
+        } else if (contourMode == ContourMode.JAVA)
+//            contourMaker = new KernelDensityEstimator2D(y[0], y[1], gridSize);
+            contourMaker = new KernelDensityEstimator2D(y[0], y[1], BANDWIDTHLIMIT);
+        else if (contourMode == ContourMode.R)
+            contourMaker = new ContourWithR(y[0], y[1], gridSize);
+        else if (contourMode == ContourMode.SNYDER)
+//            contourMaker = new ContourWithSynder(y[0], y[1], gridSize);
+            contourMaker = new ContourWithSynder(y[0], y[1], BANDWIDTHLIMIT);
+        else
+            throw new RuntimeException("Unimplemented ContourModel!");
+        return contourMaker;
+    }
+
+    /**
+     * Computes the contours of the bivariate traits in every slice for each HPD value. Each slice and
+     * trait is smoothed and contoured by a separate task so this is spread over the worker threads.
+     */
+    private ContourPath[][][][] computeSliceContours(final double[] hpdValues) {
+        ContourPath[][][][] paths = new ContourPath[sliceCount][traitCount][][];
+
+        // R is not called from more than one thread
+        int contourThreadCount = (contourMode == ContourMode.R ? 1 : threadCount);
+        ExecutorService executor = Executors.newFixedThreadPool(contourThreadCount);
+        try {
+            List<Future<ContourPath[][]>> futures = new ArrayList<Future<ContourPath[][]>>();
+            for (int i = 0; i < sliceCount; i++) {
+                for (int j = 0; j < traitCount; j++) {
+                    final List<Trait> thisTrait = values.get(i).get(j);
+                    final Histogram2D histogram = getHistogram(i, j);
+                    if (histogram == null && (thisTrait.size() == 0 || !thisTrait.get(0).isNumber() ||
+                            !thisTrait.get(0).isMultivariate() || thisTrait.get(0).getDim() != 2)) {
+                        futures.add(null);
+                        continue;
+                    }
+                    futures.add(executor.submit(new Callable<ContourPath[][]>() {
+                        public ContourPath[][] call() {
+                            double[][] y = (histogram == null ? getValues(thisTrait, 2) : null);
+                            ContourMaker contourMaker = createContourMaker(y, histogram);
+                            ContourPath[][] hpdPaths = new ContourPath[hpdValues.length][];
+                            for (int h = 0; h < hpdValues.length; h++) {
+                                hpdPaths[h] = contourMaker.getContourPaths(hpdValues[h]);
+                            }
+                            return hpdPaths;
+                        }
+                    }));
+                }
+            }
+
+            for (int i = 0; i < sliceCount; i++) {
+                for (int j = 0; j < traitCount; j++) {
+                    Future<ContourPath[][]> future = futures.get(i * traitCount + j);
+                    if (future != null) {
+                        paths[i][j] = future.get();
+                    }
+                }
+            }
+        } catch (InterruptedException ie) {
+            throw new RuntimeException("Interrupted while computing contours");
+        } catch (ExecutionException ee) {
+            if (ee.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) ee.getCause();
+            }
+            throw new RuntimeException(ee.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+        return paths;
+    }
+
+    private ContourPath[] getSliceContourPaths(int slice, int traitIndex, int hpdIndex) {
+        if (sliceContourPaths == null || sliceContourPaths[slice][traitIndex] == null) {
+            return null;
+        }
+        return sliceContourPaths[slice][traitIndex][hpdIndex];
+    }
+
+    private Histogram2D getHistogram(int slice, int traitIndex) {
+        return (histograms != null ? histograms[slice][traitIndex] : null);
+    }
+
+    private double[][] getValues(List<Trait> thisTrait, int dim) {
+        int count = thisTrait.size();
+//            System.out.println("count = "+count+", dim = "+dim);
+        double[][] y = new double[dim][count];
+        for (int i = 0; i < count; i++) {
+            Trait trait = thisTrait.get(i);
+            double[] value = trait.getValue();
+            for (int j = 0; j < dim; j++) {
+                y[j][i] = value[j];
+            }
+        }
+        return y;
+    }
+
     public static int getNumberOfPointsInPolygon(double[][] pointsArray, Polygon2D testPolygon) {
         int numberOfPointsInPolygon = 0;
         for (int x = 0; x < pointsArray[0].length; x++) {
@@ -1486,51 +1596,234 @@ public class TimeSlicer {
 //        return treeList;
 //    }
 
-    private void readAndAnalyzeTrees(String treeFileName, int burnin, int skipEvery,
-                                     String[] traits, double[] slices,
-                                     boolean impute, boolean trueNoise, Normalization normalize,
-                                     boolean divideByBranchLength, BranchSet branchset, Set taxaSet)
+    private void readAndAnalyzeTrees(String treeFileName, final int burnin, final int skipEvery,
+                                     final String[] traits, final double[] slices,
+                                     final boolean impute, final boolean trueNoise, final Normalization normalize,
+                                     final boolean divideByBranchLength, final BranchSet branchset, final Set taxaSet)
             throws IOException, Importer.ImportException {
 
-        int totalTrees = 10000;
-        int totalStars = 0;
+        final File file = new File(treeFileName);
+        final TreeFileIndex index = TreeFileIndex.getIndex(file);
+        int treeCount = index.getTreeCount();
+        treesRead = (treeCount + skipEvery - 1) / skipEvery;
 
-        progressStream.println("Reading and analyzing trees (bar assumes 10,000 trees)...");
+        int firstTree = Math.max(burnin, 0);
+        int analyzeCount = 0;
+        for (int tree = firstTree; tree < treeCount; tree++) {
+            if (tree % skipEvery == 0) {
+                analyzeCount++;
+            }
+        }
+
+        // imputing with noise draws from the shared MathUtils random number stream, which isn't safe
+        // to use from several threads, so the trees are then sliced on one thread, in order, as before
+        int treeThreadCount = (impute && trueNoise ? 1 : threadCount);
+
+        progressStream.println("Reading and analyzing " + treeCount + " trees using " + treeThreadCount +
+                (treeThreadCount > 1 ? " threads..." : " thread..."));
         progressStream.println("0              25             50             75            100");
         progressStream.println("|--------------|--------------|--------------|--------------|");
 
-        int stepSize = totalTrees / 60;
-        if (stepSize < 1) stepSize = 1;
+        // each task slices a run of consecutive trees and the results are added in order so the
+        // values are the same as if the trees had been sliced one after another
+        int treesPerTask = (analyzeCount + treeThreadCount * 4 - 1) / (treeThreadCount * 4);
+        treesPerTask = Math.max(1, Math.min(MAX_TREES_PER_TASK, treesPerTask));
+        int taskLength = treesPerTask * skipEvery;
+
+        ExecutorService executor = Executors.newFixedThreadPool(treeThreadCount);
+        try {
+            LinkedList<Future<SlicedValues>> futures = new LinkedList<Future<SlicedValues>>();
+            int nextTree = firstTree;
+            int starCount = 0;
+            while (nextTree < treeCount || futures.size() > 0) {
+                // keep a few tasks queued for each thread without reading ahead too far
+                while (nextTree < treeCount && futures.size() < treeThreadCount * 2) {
+                    final int first = nextTree;
+                    final int last = Math.min(treeCount, nextTree + taskLength);
+                    futures.add(executor.submit(new Callable<SlicedValues>() {
+                        public SlicedValues call() throws IOException, Importer.ImportException {
+                            return analyzeTrees(file, index, first, last, burnin, skipEvery, traits, slices, impute,
+                                    trueNoise, normalize, divideByBranchLength, branchset, taxaSet);
+                        }
+                    }));
+                    nextTree = last;
+                }
+
+                addSlicedValues(futures.removeFirst().get());
 
-        BufferedReader reader1 = new BufferedReader(new FileReader(treeFileName));
+                int stars = (analyzeCount > 0 ? (int) ((long) treesAnalyzed * 61 / analyzeCount) : 61);
+                while (starCount < stars) {
+                    progressStream.print("*");
+                    starCount++;
+                }
+                progressStream.flush();
+            }
+        } catch (InterruptedException ie) {
+            throw new RuntimeException("Interrupted while analyzing trees");
+        } catch (ExecutionException ee) {
+            Throwable cause = ee.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof Importer.ImportException) {
+                throw (Importer.ImportException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new RuntimeException(cause);
+        } finally {
+            executor.shutdownNow();
+        }
+        progressStream.print("\n");
+    }
 
-        String line1 = reader1.readLine();
-        TreeImporter importer1;
-        if (line1.toUpperCase().startsWith("#NEXUS")) {
-            importer1 = new NexusImporter(new FileReader(treeFileName));
-        } else {
-            importer1 = new NewickImporter(new FileReader(treeFileName));
+    /**
+     * Reads and slices a run of trees. This is called by the worker threads so the values are
+     * returned rather than added to the summaries.
+     */
+    private SlicedValues analyzeTrees(File file, TreeFileIndex index, int firstTree, int lastTree, int burnin, int skipEvery,
+                                      String[] traits, double[] slices, boolean impute, boolean trueNoise,
+                                      Normalization normalize, boolean divideByBranchLength, BranchSet branchset, Set taxaSet)
+            throws IOException, Importer.ImportException {
+
+        SlicedValues slicedValues = new SlicedValues();
+        CompactTreeImporter importer = new CompactTreeImporter(file, false);
+        try {
+            importer.setIndex(index);
+            for (int tree = firstTree; tree < lastTree; tree++) {
+                if (tree % skipEvery == 0 && tree >= burnin) {
+                    if (importer.getTreeNumber() != tree) {
+                        importer.seekToTree(tree);
+                    }
+                    Tree treeTime = importer.importNextTree();
+                    if (treeTime == null) {
+                        throw new Importer.ImportException("Tree " + (tree + 1) + " could not be read");
+                    }
+                    analyzeTree(treeTime, traits, slices, impute, trueNoise, normalize, divideByBranchLength, branchset,
+                            taxaSet, slicedValues);
+                }
+            }
+        } finally {
+            importer.close();
         }
-        totalTrees = 0;
+        return slicedValues;
+    }
 
-        while (importer1.hasTree()) {
-            Tree treeTime = importer1.importNextTree();
-            if (totalTrees % skipEvery == 0) {
-                treesRead++;
-                if (totalTrees >= burnin) {
-                    analyzeTree(treeTime, traits, slices, impute, trueNoise, normalize, divideByBranchLength, branchset, taxaSet);
+    /**
+     * Adds the values sliced from a run of trees to the summaries.
+     */
+    private void addSlicedValues(SlicedValues slicedValues) {
+        for (int i = 0; i < sliceCount; i++) {
+            for (int j = 0; j < traitCount; j++) {
+                List<Trait> traitValues = slicedValues.values.get(i).get(j);
+                if (traitValues.size() == 0) {
+                    continue;
+                }
+                List<Trait> thisTraitSlice = values.get(i).get(j);
+                if (histograms != null && histograms[i][j] == null && thisTraitSlice.size() == 0 &&
+                        traitValues.get(0).isNumber() && traitValues.get(0).getDim() == 2) {
+                    histograms[i][j] = new Histogram2D(binCount);
+                }
+                if (histograms != null && histograms[i][j] != null) {
+                    for (Trait trait : traitValues) {
+                        double[] value = trait.getValue();
+                        histograms[i][j].add(value[0], value[1]);
+                    }
+                } else {
+                    thisTraitSlice.addAll(traitValues);
                 }
             }
-            if (totalTrees > 0 && totalTrees % stepSize == 0) {
-                progressStream.print("*");
-                totalStars++;
-                if (totalStars % 61 == 0)
-                    progressStream.print("\n");
-                progressStream.flush();
+        }
+
+        if (rootValues != null) {
+            for (int j = 0; j < traitCount; j++) {
+                rootValues.get(j).addAll(slicedValues.rootValues.get(j));
             }
-            totalTrees++;
         }
-        progressStream.print("\n");
+
+        if (tipValues != null && slicedValues.tipValues.size() > 0) {
+            if (tipValues.size() == 0) {
+                tipValues.addAll(slicedValues.tipValues);
+                tipNames.addAll(slicedValues.tipNames);
+            } else {
+                for (int i = 0; i < tipValues.size(); i++) {
+                    for (int j = 0; j < traitCount; j++) {
+                        tipValues.get(i).get(j).addAll(slicedValues.tipValues.get(i).get(j));
+                    }
+                }
+            }
+        }
+
+        treeLengths.addAll(slicedValues.treeLengths);
+        sliceTreeDistanceArrays.addAll(slicedValues.sliceTreeDistanceArrays);
+        sliceTreeTimeArrays.addAll(slicedValues.sliceTreeTimeArrays);
+        sliceTreeMaxPathDistanceArrays.addAll(slicedValues.sliceTreeMaxPathDistanceArrays);
+        sliceTreeMaxDistanceFromRootArrays.addAll(slicedValues.sliceTreeMaxDistanceFromRootArrays);
+        sliceTreeTimeFromRootArrays.addAll(slicedValues.sliceTreeTimeFromRootArrays);
+        sliceTreeDiffusionCoefficientArrays.addAll(slicedValues.sliceTreeDiffusionCoefficientArrays);
+        sliceTreeDiffusionCoefficientVarianceArrays.addAll(slicedValues.sliceTreeDiffusionCoefficientVarianceArrays);
+
+        if (slicedValues.usedRateAttribute && outputRateWarning) {
+            progressStream.println("Warning: using " + rateAttributeString + " as rate attribute during imputation!");
+            outputRateWarning = false;
+        }
+
+        treesAnalyzed += slicedValues.treesAnalyzed;
+    }
+
+    private List<List<List<Trait>>> createSliceValues() {
+        List<List<List<Trait>>> sliceValues = new ArrayList<List<List<Trait>>>(sliceCount);
+        for (int i = 0; i < sliceCount; i++) {
+            List<List<Trait>> thisSlice = new ArrayList<List<Trait>>(traitCount);
+            sliceValues.add(thisSlice);
+            for (int j = 0; j < traitCount; j++) {
+                List<Trait> thisTraitSlice = new ArrayList<Trait>();
+                thisSlice.add(thisTraitSlice);
+            }
+        }
+        return sliceValues;
+    }
+
+    private List<List<Trait>> createRootValues() {
+        List<List<Trait>> traitValues = new ArrayList<List<Trait>>(traitCount);
+        for (int k = 0; k < traitCount; k++) {
+            List<Trait> thisTrait = new ArrayList<Trait>();
+            traitValues.add(thisTrait);
+        }
+        return traitValues;
+    }
+
+    /**
+     * The values sliced from a run of trees by one of the worker threads
+     */
+    private class SlicedValues {
+
+        SlicedValues() {
+            values = createSliceValues();
+            if (TimeSlicer.this.rootValues != null) {
+                rootValues = createRootValues();
+            }
+            if (TimeSlicer.this.tipValues != null) {
+                tipValues = new ArrayList<List<List<Trait>>>();
+                tipNames = new ArrayList<String>();
+            }
+        }
+
+        final List<List<List<Trait>>> values;
+        List<List<Trait>> rootValues = null;
+        List<List<List<Trait>>> tipValues = null;
+        List<String> tipNames = null;
+
+        final List<Double> treeLengths = new ArrayList<Double>();
+        final List<double[]> sliceTreeDistanceArrays = new ArrayList<double[]>();
+        final List<double[]> sliceTreeTimeArrays = new ArrayList<double[]>();
+        final List<double[]> sliceTreeMaxPathDistanceArrays = new ArrayList<double[]>();
+        final List<double[]> sliceTreeMaxDistanceFromRootArrays = new ArrayList<double[]>();
+        final List<double[]> sliceTreeTimeFromRootArrays = new ArrayList<double[]>();
+        final List<double[]> sliceTreeDiffusionCoefficientArrays = new ArrayList<double[]>();
+        final List<double[]> sliceTreeDiffusionCoefficientVarianceArrays = new ArrayList<double[]>();
+
+        boolean usedRateAttribute = false;
+        int treesAnalyzed = 0;
     }
 
     class Trait {
@@ -1612,6 +1905,10 @@ public class TimeSlicer {
     }
 
     private List<List<List<Trait>>> values;
+    // the bivariate values in each slice for each trait if they are being binned (null for a trait that isn't)
+    private Histogram2D[][] histograms = null;
+    // the contours for each slice, trait and HPD value
+    private ContourPath[][][][] sliceContourPaths = null;
     private List<List<Trait>> rootValues;
     private List<List<List<Trait>>> tipValues;
     private List<String> tipNames;
@@ -1695,7 +1992,7 @@ public class TimeSlicer {
 
     private void analyzeTree(Tree treeTime, String[] traits, double[] slices, boolean impute,
                              boolean trueNoise, Normalization normalize, boolean divideByBranchlength,
-                             BranchSet branchset, Set taxaSet) {
+                             BranchSet branchset, Set taxaSet, SlicedValues slicedValues) {
 
         double[][] precision = null;
 
@@ -1724,17 +2021,17 @@ public class TimeSlicer {
         }
 
 
-        if (tipValues != null && tipValues.size() == 0) {
+        if (slicedValues.tipValues != null && slicedValues.tipValues.size() == 0) {
             // this is the first tree so initialize the tip value lists
             for (int i = 0; i < treeTime.getExternalNodeCount(); i++) {
                 List<List<Trait>> thisTip = new ArrayList<List<Trait>>(traitCount);
-                tipValues.add(thisTip);
+                slicedValues.tipValues.add(thisTip);
                 for (int j = 0; j < traitCount; j++) {
                     List<Trait> thisTipTrait = new ArrayList<Trait>();
                     thisTip.add(thisTipTrait);
                 }
 
-                tipNames.add(treeTime.getNodeTaxon(treeTime.getExternalNode(i)).getId());
+                slicedValues.tipNames.add(treeTime.getNodeTaxon(treeTime.getExternalNode(i)).getId());
             }
 
         }
@@ -1757,7 +2054,7 @@ public class TimeSlicer {
         double[][] treeSliceDiffusionCoefficients = new double[sliceCount][treeTime.getNodeCount() - 1];
         double[] treeSliceBranchCount = new double[sliceCount];
 
-        treeLengths.add(TreeUtils.getTreeLength(treeTime, treeTime.getRoot()));
+        slicedValues.treeLengths.add(TreeUtils.getTreeLength(treeTime, treeTime.getRoot()));
 
         for (int x = 0; x < treeTime.getNodeCount(); x++) {
 
@@ -1909,7 +2206,7 @@ public class TimeSlicer {
 
                         if (proceed) {
 
-                            List<List<Trait>> thisSlice = values.get(i);
+                            List<List<Trait>> thisSlice = slicedValues.values.get(i);
                             for (int j = 0; j < traitCount; j++) {
 
                                 List<Trait> thisTraitSlice = thisSlice.get(j);
@@ -1929,10 +2226,7 @@ public class TimeSlicer {
                                         Double rateAttribute = (Double) treeTime.getNodeAttribute(node, rateAttributeString);
                                         if (rateAttribute != null) {
                                             rate = rateAttribute;
-                                            if (outputRateWarning) {
-                                                progressStream.println("Warning: using "+rateAttributeString+" as rate attribute during imputation!");
-                                                outputRateWarning = false;
-                                            }
+                                            slicedValues.usedRateAttribute = true;
                                         }
                                     }
                                     if (trueNoise && precision == null) {
@@ -1991,8 +2285,8 @@ public class TimeSlicer {
                     }
                 }
 
-                if (tipValues != null && treeTime.isExternal(node)) {
-                    List<List<Trait>> thisTip = tipValues.get(x);
+                if (slicedValues.tipValues != null && treeTime.isExternal(node)) {
+                    List<List<Trait>> thisTip = slicedValues.tipValues.get(x);
 
                     for (int j = 0; j < traitCount; j++) {
                         Object tmpTrait = treeTime.getNodeAttribute(node, traits[j]);
@@ -2014,7 +2308,7 @@ public class TimeSlicer {
                             height = slices[i + 1];
                         }
                         if ((slices[i] < nodeHeight && height >= nodeHeight)){
-                            List<List<Trait>> thisSlice = values.get(i);
+                            List<List<Trait>> thisSlice = slicedValues.values.get(i);
                             for (int j = 0; j < traitCount; j++) {
                                 List<Trait> thisTraitSlice = thisSlice.get(j);
                                 Object tmpTrait = treeTime.getNodeAttribute(node, traits[j]);
@@ -2032,9 +2326,9 @@ public class TimeSlicer {
                     }
                 }
 
-                if (rootValues != null) {
+                if (slicedValues.rootValues != null) {
                     for (int j = 0; j < traitCount; j++) {
-                        List<Trait> thisRootTrait = rootValues.get(j);
+                        List<Trait> thisRootTrait = slicedValues.rootValues.get(j);
                         Object tmpTrait = treeTime.getNodeAttribute(node, traits[j]);
                         if (tmpTrait == null) {
                             System.err.println("Trait '" + traits[j] + "' not found on root node.");
@@ -2051,12 +2345,12 @@ public class TimeSlicer {
         //System.out.println(Tree.Utils.getTreeLength(treeTime, treeTime.getRoot())+"\t"+test);
 
         if (sdr || snr) {
-            sliceTreeDistanceArrays.add(treeSliceDistance);
-            sliceTreeTimeArrays.add(treeSliceTime);
+            slicedValues.sliceTreeDistanceArrays.add(treeSliceDistance);
+            slicedValues.sliceTreeTimeArrays.add(treeSliceTime);
             if (sdr){
-                sliceTreeMaxPathDistanceArrays.add(treeSliceMaxDistance);
-                sliceTreeMaxDistanceFromRootArrays.add(maxDistanceFromRoot);
-                sliceTreeTimeFromRootArrays.add(treeTimeFromRoot);
+                slicedValues.sliceTreeMaxPathDistanceArrays.add(treeSliceMaxDistance);
+                slicedValues.sliceTreeMaxDistanceFromRootArrays.add(maxDistanceFromRoot);
+                slicedValues.sliceTreeTimeFromRootArrays.add(treeTimeFromRoot);
                 for (int i = 0; i < treeSliceDiffusionCoefficientA.length; i++) {
                     //treeSliceDiffusionCoefficientWA[i] = treeSliceDiffusionCoefficientWA[i]/treeSliceTime[i];
                     treeSliceDiffusionCoefficientA[i] = treeSliceDiffusionCoefficientA[i] / treeSliceBranchCount[i];
@@ -2066,8 +2360,8 @@ public class TimeSlicer {
                     treeSliceDiffusionCoefficientV[i] = treeSliceDiffusionCoefficientV[i] / treeSliceBranchCount[i];
                     //System.out.println(treeSliceTime[i]+"\t"+treeLengths.get(i));
                 }
-                sliceTreeDiffusionCoefficientArrays.add(treeSliceDiffusionCoefficientA);
-                sliceTreeDiffusionCoefficientVarianceArrays.add(treeSliceDiffusionCoefficientV);
+                slicedValues.sliceTreeDiffusionCoefficientArrays.add(treeSliceDiffusionCoefficientA);
+                slicedValues.sliceTreeDiffusionCoefficientVarianceArrays.add(treeSliceDiffusionCoefficientV);
             }
         }
 
@@ -2081,7 +2375,7 @@ public class TimeSlicer {
 //            dispersalrates.add(dispersalNativeRate+"\t"+dispersalKilometerRate);
 //        }
 
-        treesAnalyzed++;
+        slicedValues.treesAnalyzed++;
 
     }
 
@@ -2157,6 +2451,8 @@ public class TimeSlicer {
     private boolean ancient = false;
     private boolean useStyles = true;
     private int gridSize;
+    private int binCount;
+    private int threadCount;
     private double latMin;
     private double latMax;
     private double longMin;
@@ -2658,6 +2954,8 @@ public class TimeSlicer {
         double longMin = -Double.MAX_VALUE;
         String rateString = "location.rate";
         Set descendents = null;
+        int bins = 0;
+        int threadCount = Runtime.getRuntime().availableProcessors();
 
 //        if (args.length == 0) {
 //          // TODO Make flash GUI
@@ -2710,6 +3008,8 @@ public class TimeSlicer {
                         new Arguments.RealOption(LONGMAX, "specifies the maximum longitude for a child node for a branch to be included in the summary [default=MAX_VALUE]"),
                         new Arguments.RealOption(LONGMIN, "specifies the minimum longitude for a child node for a branch to be included in the summary [default=MIN_VALUE]"),
                         new Arguments.IntegerOption(GRIDSIZE, "the grid size for contouring [default=200]"),
+                        new Arguments.IntegerOption(BINS, "bin the bivariate values in each slice into an n x n histogram as the trees are read rather than keeping them all [default=off]"),
+                        new Arguments.IntegerOption(THREADS, "the number of threads used to analyze the trees (one when imputing with noise) and compute the contours [default=number of processors]"),
                         new Arguments.StringOption(DESCENDENTS, "descendent taxa", "specifies a branch based on the descendent taxa [default=all branches]")
 
                 });
@@ -2980,6 +3280,30 @@ public class TimeSlicer {
                 grid = arguments.getIntegerOption(GRIDSIZE);
             }
 
+            if (arguments.hasOption(BINS)) {
+                bins = arguments.getIntegerOption(BINS);
+                if (bins < 2) {
+                    progressStream.println("The number of bins should be at least 2.");
+                    System.exit(-1);
+                }
+                if (points) {
+                    progressStream.println("The points can't be included in the summary when the values are binned.");
+                    System.exit(-1);
+                }
+                if (contourMode == ContourMode.R) {
+                    progressStream.println("Binned values can only be contoured in the java or snyder contour modes.");
+                    System.exit(-1);
+                }
+            }
+
+            if (arguments.hasOption(THREADS)) {
+                threadCount = arguments.getIntegerOption(THREADS);
+                if (threadCount < 1) {
+                    progressStream.println("The number of threads should be at least 1.");
+                    System.exit(-1);
+                }
+            }
+
 
 
         } catch (Arguments.ArgumentException e) {
@@ -3011,7 +3335,8 @@ public class TimeSlicer {
 
         TimeSlicer timeSlicer = new TimeSlicer(inputFileName, burnin, skipEvery, traitNames, sliceHeights, impute,
                 trueNoise, mrsd, contourMode, sliceMode,summarizeRoot, summarizeTips, normalize, getSDR, getSNR, progress,
-                branchNormalization, set, taxaSet, grid, latMin, latMax, longMin, longMax, descendents, rateString);
+                branchNormalization, set, taxaSet, grid, latMin, latMax, longMin, longMax, descendents, rateString,
+                bins, threadCount);
         timeSlicer.output(outputFileName, summaryOnly, summarizeRoot, summarizeTips, contours, points, outputFormat, hpdValues, outputFileSDR, outputFileSNR);
 
         System.exit(0);
@@ -27,10 +27,11 @@ package dr.app.tools;
 
 import dr.app.beast.BeastVersion;
 import dr.app.util.Arguments;
+import dr.evolution.io.CompactTreeImporter;
+import dr.evolution.io.TreeFileIndex;
 import dr.evolution.io.Importer;
 import dr.evolution.io.NewickImporter;
 import dr.evolution.io.NexusImporter;
-import dr.evolution.io.TreeImporter;
 import dr.evolution.tree.*;
 import dr.evolution.util.TaxonList;
 import dr.geo.contouring.ContourMaker;
@@ -45,6 +46,7 @@ import org.rosuda.JRI.RVector;
 import org.rosuda.JRI.Rengine;
 
 import javax.swing.*;
+import java.io.File;
 import java.io.FileOutputStream;
 import java.io.FileReader;
 import java.io.IOException;
@@ -132,6 +134,13 @@ public class TreeAnnotator {
         this.posteriorLimit = posteriorLimit;
         this.hpd2D = hpd2D;
 
+        try {
+            // an index of the trees lets the burn-in be skipped in each pass through the file
+            treeFileIndex = TreeFileIndex.getIndex(new File(inputFileName));
+        } catch (IOException ioe) {
+            treeFileIndex = null;
+        }
+
         attributeNames.add("height");
         attributeNames.add("length");
 
@@ -151,10 +160,13 @@ public class TreeAnnotator {
 
         if (targetOption != Target.USER_TARGET_TREE) {
             cladeSystem = new CladeSystem();
-            FileReader fileReader = new FileReader(inputFileName);
-            TreeImporter importer = new NexusImporter(fileReader, true);
+            CompactTreeImporter importer = createImporter(inputFileName, true);
             try {
                 totalTrees = 0;
+                if (treeFileIndex != null) {
+                    totalTrees = importer.skipTrees(treeFileIndex.getBurninTreeCount(burninTrees, burninStates));
+                    printSkippedProgress(totalTrees, stepSize);
+                }
                 while (importer.hasTree()) {
                     Tree tree = importer.importNextTree();
 
@@ -194,7 +206,7 @@ public class TreeAnnotator {
                 System.err.println("Error Parsing Input Tree: " + e.getMessage());
                 return;
             }
-            fileReader.close();
+            importer.close();
             progressStream.println();
             progressStream.println();
 
@@ -271,8 +283,7 @@ public class TreeAnnotator {
         stepSize = totalTrees / 60;
         if (stepSize < 1) stepSize = 1;
 
-        FileReader fileReader = new FileReader(inputFileName);
-        NexusImporter importer = new NexusImporter(fileReader);
+        CompactTreeImporter importer = createImporter(inputFileName, false);
 
         // this call increments the clade counts and it shouldn't
         // this is remedied with removeClades call after while loop below
@@ -280,7 +291,8 @@ public class TreeAnnotator {
         totalTreesUsed = 0;
         try {
             boolean firstTree = true;
-            int counter = 0;
+            int counter = importer.skipTrees(burnin);
+            printSkippedProgress(counter, stepSize);
             while (importer.hasTree()) {
                 Tree tree = importer.importNextTree();
 
@@ -309,7 +321,7 @@ public class TreeAnnotator {
         }
         progressStream.println();
         progressStream.println();
-        fileReader.close();
+        importer.close();
 
         progressStream.println("Annotating target tree...");
 
@@ -339,6 +351,24 @@ public class TreeAnnotator {
 
     }
 
+    private CompactTreeImporter createImporter(String inputFileName, boolean ignoreMetaComments) throws IOException {
+        CompactTreeImporter importer = new CompactTreeImporter(new File(inputFileName), ignoreMetaComments);
+        importer.setIndex(treeFileIndex);
+        return importer;
+    }
+
+    /**
+     * Prints the progress stars for trees that were skipped without being read.
+     */
+    private void printSkippedProgress(int skipped, long stepSize) {
+        for (int i = 1; i < skipped; i++) {
+            if (i % stepSize == 0) {
+                progressStream.print("*");
+            }
+        }
+        progressStream.flush();
+    }
+
     private void setupAttributes(Tree tree) {
         for (int i = 0; i < tree.getNodeCount(); i++) {
             NodeRef node = tree.getNode(i);
@@ -370,10 +400,11 @@ public class TreeAnnotator {
         int stepSize = totalTrees / 60;
         if (stepSize < 1) stepSize = 1;
 
-        int counter = 0;
         int bestTreeNumber = 0;
-        TreeImporter importer = new NexusImporter(new FileReader(inputFileName), true);
+        CompactTreeImporter importer = createImporter(inputFileName, true);
         try {
+            int counter = importer.skipTrees(burnin);
+            printSkippedProgress(counter, stepSize);
             while (importer.hasTree()) {
                 Tree tree = importer.importNextTree();
 
@@ -396,6 +427,7 @@ public class TreeAnnotator {
             System.err.println("Error Parsing Input Tree: " + e.getMessage());
             return null;
         }
+        importer.close();
         progressStream.println();
         progressStream.println();
         progressStream.println("Best tree: " + bestTree.getId() + " (tree number " + bestTreeNumber + ")");
@@ -1214,6 +1246,7 @@ public class TreeAnnotator {
 
     int totalTrees = 0;
     int totalTreesUsed = 0;
+    private TreeFileIndex treeFileIndex = null;
     double posteriorLimit = 0.0;
 //PL:    double hpd2D = 0.80;
     double[] hpd2D = {0.80};
@@ -1529,8 +1562,7 @@ public class TreeAnnotator {
         int reportStepSize = totalTrees / 60;
         if (reportStepSize < 1) reportStepSize = 1;
 
-        final FileReader fileReader = new FileReader(inputFileName);
-        final NexusImporter importer = new NexusImporter(fileReader, true);
+        final CompactTreeImporter importer = createImporter(inputFileName, true);
 
         // this call increments the clade counts and it shouldn't
         // this is remedied with removeClades call after while loop below
@@ -1557,7 +1589,8 @@ public class TreeAnnotator {
 
         totalTreesUsed = 0;
 
-        int counter = 0;
+        int counter = importer.skipTrees(burnin);
+        printSkippedProgress(counter, reportStepSize);
         while (importer.hasTree()) {
             final Tree tree = importer.importNextTree();
 
@@ -1590,7 +1623,7 @@ public class TreeAnnotator {
             final NodeRef node = targetTree.getNode(k);
             targetTree.setNodeHeight(node, ths[k]);
         }
-        fileReader.close();
+        importer.close();
 
         progressStream.println();
         progressStream.println();
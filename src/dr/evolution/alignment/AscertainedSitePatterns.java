@@ -193,15 +193,15 @@ public class AscertainedSitePatterns extends SitePatterns implements Citable {
     }
 
     private int addAscertainmentPattern(int[] pattern) {
-        for (int i = 0; i < patternCount; i++) {
-            if (comparePatterns(patterns[i], pattern)) {
-                return i;
-            }
+        int i = findPattern(pattern);
+        if (i != -1) {
+            return i;
         }
         int index = patternCount;
         patterns[index] = pattern;
         weights[index] = 0.0;  /* do not affect weight */
         patternCount++;
+        indexPattern(index);
 
         return index;
     }
@@ -0,0 +1,472 @@
+/*
+ * PackedAlignment.java
+ *
+ * Copyright (c) 2002-2017 Alexei Drummond, Andrew Rambaut and Marc Suchard
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ */
+
+package dr.evolution.alignment;
+
+import dr.evolution.datatype.DataType;
+import dr.evolution.sequence.Sequence;
+import dr.evolution.util.Taxa;
+import dr.evolution.util.Taxon;
+import dr.evolution.util.TaxonList;
+
+import java.io.*;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.util.*;
+
+/**
+ * An alignment that stores the states as packed bit fields rather than as a string per
+ * sequence. The distinct states found in the alignment are given consecutive codes which
+ * are packed using 1, 2, 4, 8 or 16 bits each so, for example, nucleotide data with only
+ * ACGT uses 2 bits per state and with gaps and ambiguity codes 4 bits per state.
+ *
+ * The packed states can be written to a binary cache file and read back, optionally by
+ * mapping the file into memory so the states are kept off the Java heap. This allows a
+ * large FASTA or NEXUS file to be converted once and reused across runs.
+ *
+ * The alignment is immutable.
+ */
+public class PackedAlignment extends Alignment.Abstract {
+
+    public static final String CACHE_FILE_SUFFIX = ".packed";
+
+    private static final long MAGIC = 0x4245415354504B31L; // "BEASTPK1"
+    private static final int VERSION = 1;
+    private static final int PREAMBLE_SIZE = 8 + 4 + 4; // magic, version and offset of the states
+
+    // the words are held in blocks of at most 2^27 longs (1GB) so a file can be mapped in pieces
+    private static final int BLOCK_BITS = 27;
+    private static final long BLOCK_MASK = (1L << BLOCK_BITS) - 1;
+
+    private final TaxonList taxa;
+    private final DataType dataType;
+    private final int siteCount;
+
+    private final int[] stateCodes; // packed code -> state
+    private final int bitsPerState;
+    private final int statesPerWord;
+    private final long codeMask;
+    private final long wordsPerSequence;
+
+    private final LongBuffer[] blocks;
+
+    private Map<String, Object>[] sequenceAttributes = null;
+
+    /**
+     * Packs the states of an existing alignment.
+     *
+     * @param alignment the alignment
+     */
+    public PackedAlignment(Alignment alignment) {
+        this.taxa = new Taxa(alignment);
+        this.dataType = alignment.getDataType();
+        this.siteCount = alignment.getSiteCount();
+
+        final int sequenceCount = alignment.getSequenceCount();
+
+        // first pass finds the states that are used
+        BitSet used = new BitSet();
+        for (int i = 0; i < sequenceCount; i++) {
+            for (int j = 0; j < siteCount; j++) {
+                used.set(alignment.getState(i, j));
+            }
+        }
+        stateCodes = new int[Math.max(1, used.cardinality())];
+        int[] codes = new int[used.length()];
+        int code = 0;
+        for (int state = used.nextSetBit(0); state >= 0; state = used.nextSetBit(state + 1)) {
+            stateCodes[code] = state;
+            codes[state] = code;
+            code++;
+        }
+
+        bitsPerState = getBitsPerState(stateCodes.length);
+        statesPerWord = Long.SIZE / bitsPerState;
+        codeMask = (1L << bitsPerState) - 1;
+        wordsPerSequence = (siteCount + statesPerWord - 1) / statesPerWord;
+
+        blocks = allocateBlocks(wordsPerSequence * sequenceCount);
+
+        // second pass packs them
+        for (int i = 0; i < sequenceCount; i++) {
+            long index = i * wordsPerSequence;
+            long word = 0;
+            int offset = 0;
+            for (int j = 0; j < siteCount; j++) {
+                word |= ((long) codes[alignment.getState(i, j)]) << (offset * bitsPerState);
+                offset++;
+                if (offset == statesPerWord) {
+                    putWord(index, word);
+                    index++;
+                    word = 0;
+                    offset = 0;
+                }
+            }
+            if (offset > 0) {
+                putWord(index, word);
+            }
+        }
+    }
+
+    private PackedAlignment(TaxonList taxa, DataType dataType, int siteCount, int[] stateCodes,
+                            int bitsPerState, LongBuffer[] blocks) {
+        this.taxa = taxa;
+        this.dataType = dataType;
+        this.siteCount = siteCount;
+        this.stateCodes = stateCodes;
+        this.bitsPerState = bitsPerState;
+        this.statesPerWord = Long.SIZE / bitsPerState;
+        this.codeMask = (1L << bitsPerState) - 1;
+        this.wordsPerSequence = (siteCount + statesPerWord - 1) / statesPerWord;
+        this.blocks = blocks;
+    }
+
+    private static int getBitsPerState(int codeCount) {
+        int bits = 1;
+        while ((1 << bits) < codeCount) {
+            bits *= 2;
+        }
+        if (bits > 16) {
+            throw new IllegalArgumentException("Too many distinct states to pack: " + codeCount);
+        }
+        return bits;
+    }
+
+    private static LongBuffer[] allocateBlocks(long wordCount) {
+        int blockCount = (int) ((wordCount + BLOCK_MASK) >>> BLOCK_BITS);
+        LongBuffer[] blocks = new LongBuffer[Math.max(1, blockCount)];
+        for (int i = 0; i < blocks.length; i++) {
+            long size = Math.min(wordCount - ((long) i << BLOCK_BITS), 1L << BLOCK_BITS);
+            blocks[i] = LongBuffer.wrap(new long[(int) Math.max(0, size)]);
+        }
+        return blocks;
+    }
+
+    private long getWord(long index) {
+        return blocks[(int) (index >>> BLOCK_BITS)].get((int) (index & BLOCK_MASK));
+    }
+
+    private void putWord(long index, long word) {
+        blocks[(int) (index >>> BLOCK_BITS)].put((int) (index & BLOCK_MASK), word);
+    }
+
+    /**
+     * @return the number of bits used to store each state
+     */
+    public int getBitsPerState() {
+        return bitsPerState;
+    }
+
+    // **************************************************************
+    // Cache files
+    // **************************************************************
+
+    /**
+     * Writes the packed states to a cache file.
+     *
+     * @param file         the cache file
+     * @param sourceLength the length of the file the alignment was read from (used to check the cache is current)
+     * @param sourceTime   the modification time of the file the alignment was read from
+     * @throws IOException if the file can't be written
+     */
+    public void writeCache(File file, long sourceLength, long sourceTime) throws IOException {
+        ByteArrayOutputStream headerBytes = new ByteArrayOutputStream();
+        DataOutputStream header = new DataOutputStream(headerBytes);
+        header.writeLong(sourceLength);
+        header.writeLong(sourceTime);
+        header.writeUTF(dataType.getDescription());
+        header.writeInt(taxa.getTaxonCount());
+        for (int i = 0; i < taxa.getTaxonCount(); i++) {
+            header.writeUTF(taxa.getTaxonId(i));
+        }
+        header.writeInt(siteCount);
+        header.writeInt(bitsPerState);
+        header.writeInt(stateCodes.length);
+        for (int state : stateCodes) {
+            header.writeInt(state);
+        }
+        // align the states to 8 bytes so they can be mapped as longs
+        while ((PREAMBLE_SIZE + header.size()) % 8 != 0) {
+            header.writeByte(0);
+        }
+        header.close();
+
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16));
+        try {
+            out.writeLong(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(PREAMBLE_SIZE + headerBytes.size());
+            headerBytes.writeTo(out);
+
+            final long wordCount = wordsPerSequence * taxa.getTaxonCount();
+            for (long i = 0; i < wordCount; i++) {
+                out.writeLong(getWord(i));
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Reads a cache file written by writeCache.
+     *
+     * @param file         the cache file
+     * @param dataType     the data type of the alignment
+     * @param taxa         if not null then the taxa of the alignment are taken from this list by id
+     * @param sourceLength the length of the file the alignment was read from or -1 to not check
+     * @param sourceTime   the modification time of the file the alignment was read from
+     * @param memoryMap    map the file into memory rather than reading it into the heap
+     * @return the alignment or null if the cache doesn't match the source file or data type
+     * @throws IOException if the file can't be read or is not a cache file
+     */
+    public static PackedAlignment readCache(File file, DataType dataType, TaxonList taxa,
+                                            long sourceLength, long sourceTime,
+                                            boolean memoryMap) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(
+                    new FileInputStream(raf.getFD()), 1 << 16));
+
+            if (in.readLong() != MAGIC) {
+                throw new IOException("File, " + file.getName() + ", is not a packed alignment cache");
+            }
+            if (in.readInt() != VERSION) {
+                return null;
+            }
+            final int dataOffset = in.readInt();
+
+            long length = in.readLong();
+            long time = in.readLong();
+            if (sourceLength >= 0 && (length != sourceLength || time != sourceTime)) {
+                return null;
+            }
+            if (!in.readUTF().equals(dataType.getDescription())) {
+                return null;
+            }
+
+            int taxonCount = in.readInt();
+            Taxa alignmentTaxa = new Taxa();
+            for (int i = 0; i < taxonCount; i++) {
+                String id = in.readUTF();
+                Taxon taxon;
+                if (taxa != null) {
+                    int index = taxa.getTaxonIndex(id);
+                    if (index == -1) {
+                        throw new IOException("Taxon, " + id + ", in packed alignment cache is not in the taxon list");
+                    }
+                    taxon = taxa.getTaxon(index);
+                } else {
+                    taxon = new Taxon(id);
+                }
+                alignmentTaxa.addTaxon(taxon);
+            }
+
+            int siteCount = in.readInt();
+            int bitsPerState = in.readInt();
+            int[] stateCodes = new int[in.readInt()];
+            for (int i = 0; i < stateCodes.length; i++) {
+                stateCodes[i] = in.readInt();
+            }
+
+            final int statesPerWord = Long.SIZE / bitsPerState;
+            final long wordCount = ((siteCount + statesPerWord - 1) / statesPerWord) * (long) taxonCount;
+
+            LongBuffer[] blocks;
+            if (memoryMap) {
+                FileChannel channel = raf.getChannel();
+                int blockCount = (int) ((wordCount + BLOCK_MASK) >>> BLOCK_BITS);
+                blocks = new LongBuffer[Math.max(1, blockCount)];
+                for (int i = 0; i < blocks.length; i++) {
+                    long first = (long) i << BLOCK_BITS;
+                    long size = Math.max(0, Math.min(wordCount - first, 1L << BLOCK_BITS));
+                    // the mapping remains valid after the channel is closed
+                    blocks[i] = channel.map(FileChannel.MapMode.READ_ONLY,
+                            dataOffset + first * 8, size * 8).asLongBuffer();
+                }
+            } else {
+                // the buffered header stream will have read past the start of the states
+                raf.seek(dataOffset);
+                DataInputStream data = new DataInputStream(new BufferedInputStream(
+                        new FileInputStream(raf.getFD()), 1 << 16));
+                blocks = allocateBlocks(wordCount);
+                for (LongBuffer block : blocks) {
+                    for (int i = 0; i < block.capacity(); i++) {
+                        block.put(i, data.readLong());
+                    }
+                }
+            }
+
+            return new PackedAlignment(alignmentTaxa, dataType, siteCount, stateCodes, bitsPerState, blocks);
+        } finally {
+            raf.close();
+        }
+    }
+
+    // **************************************************************
+    // Alignment IMPLEMENTATION
+    // **************************************************************
+
+    public void setDataType(DataType dataType) {
+        if (dataType != this.dataType) {
+            throw new UnsupportedOperationException("The data type of a packed alignment can't be changed");
+        }
+    }
+
+    public String getAlignedSequenceString(int sequenceIndex) {
+        StringBuilder buffer = new StringBuilder(siteCount);
+        for (int i = 0; i < siteCount; i++) {
+            buffer.append(dataType.getCode(getState(sequenceIndex, i)));
+        }
+        return buffer.toString();
+    }
+
+    public String getUnalignedSequenceString(int sequenceIndex) {
+        StringBuilder buffer = new StringBuilder(siteCount);
+        for (int i = 0; i < siteCount; i++) {
+            int state = getState(sequenceIndex, i);
+            if (!dataType.isGapState(state)) {
+                buffer.append(dataType.getCode(state));
+            }
+        }
+        return buffer.toString();
+    }
+
+    // **************************************************************
+    // SequenceList IMPLEMENTATION
+    // **************************************************************
+
+    public int getSequenceCount() {
+        return taxa.getTaxonCount();
+    }
+
+    /**
+     * @return a new sequence built from the packed states
+     */
+    public Sequence getSequence(int index) {
+        Sequence sequence = new Sequence(taxa.getTaxon(index), getAlignedSequenceString(index));
+        sequence.setDataType(dataType);
+        return sequence;
+    }
+
+    @SuppressWarnings("unchecked")
+    public void setSequenceAttribute(int index, String name, Object value) {
+        if (sequenceAttributes == null) {
+            sequenceAttributes = new Map[getSequenceCount()];
+        }
+        if (sequenceAttributes[index] == null) {
+            sequenceAttributes[index] = new HashMap<String, Object>();
+        }
+        sequenceAttributes[index].put(name, value);
+    }
+
+    public Object getSequenceAttribute(int index, String name) {
+        if (sequenceAttributes == null || sequenceAttributes[index] == null) {
+            return null;
+        }
+        return sequenceAttributes[index].get(name);
+    }
+
+    // **************************************************************
+    // TaxonList IMPLEMENTATION
+    // **************************************************************
+
+    public int getTaxonCount() {
+        return taxa.getTaxonCount();
+    }
+
+    public Taxon getTaxon(int taxonIndex) {
+        return taxa.getTaxon(taxonIndex);
+    }
+
+    public String getTaxonId(int taxonIndex) {
+        return taxa.getTaxonId(taxonIndex);
+    }
+
+    public int getTaxonIndex(String id) {
+        return taxa.getTaxonIndex(id);
+    }
+
+    public int getTaxonIndex(Taxon taxon) {
+        return taxa.getTaxonIndex(taxon);
+    }
+
+    public List<Taxon> asList() {
+        return taxa.asList();
+    }
+
+    public Object getTaxonAttribute(int taxonIndex, String name) {
+        return taxa.getTaxonAttribute(taxonIndex, name);
+    }
+
+    public Iterator<Taxon> iterator() {
+        return taxa.iterator();
+    }
+
+    // **************************************************************
+    // SiteList IMPLEMENTATION
+    // **************************************************************
+
+    public int getSiteCount() {
+        return siteCount;
+    }
+
+    public int[] getSitePattern(int siteIndex) {
+        final int n = getSequenceCount();
+        final long wordOffset = siteIndex / statesPerWord;
+        final int shift = (siteIndex % statesPerWord) * bitsPerState;
+
+        int[] pattern = new int[n];
+        for (int i = 0; i < n; i++) {
+            long word = getWord(i * wordsPerSequence + wordOffset);
+            pattern[i] = stateCodes[(int) ((word >>> shift) & codeMask)];
+        }
+        return pattern;
+    }
+
+    public double[][] getUncertainSitePattern(int siteIndex) {
+        throw new UnsupportedOperationException("getUncertainSitePattern not implemented for packed alignments");
+    }
+
+    public int getPatternIndex(int siteIndex) {
+        return siteIndex;
+    }
+
+    public int getState(int taxonIndex, int siteIndex) {
+        long word = getWord(taxonIndex * wordsPerSequence + siteIndex / statesPerWord);
+        return stateCodes[(int) ((word >>> ((siteIndex % statesPerWord) * bitsPerState)) & codeMask)];
+    }
+
+    public double[] getUncertainState(int taxonIndex, int siteIndex) {
+        throw new UnsupportedOperationException("getUncertainState not implemented for packed alignments");
+    }
+
+    public DataType getDataType() {
+        return dataType;
+    }
+
+    public boolean areUncertain() {
+        return false;
+    }
+}
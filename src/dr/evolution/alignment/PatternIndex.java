@@ -0,0 +1,100 @@
+/*
+ * PatternIndex.java
+ *
+ * Copyright (c) 2002-2017 Alexei Drummond, Andrew Rambaut and Marc Suchard
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ */
+
+package dr.evolution.alignment;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A hash table from the states of a pattern to its index in a pattern list so that
+ * looking up a pattern doesn't require comparing it with every existing pattern.
+ * The patterns are not copied so must not be modified once they have been added.
+ */
+class PatternIndex {
+
+    private final Map<Key, Integer> map;
+
+    PatternIndex() {
+        map = new HashMap<Key, Integer>();
+    }
+
+    PatternIndex(int[][] patterns, int patternCount) {
+        map = new HashMap<Key, Integer>(Math.max(16, patternCount * 2));
+        for (int i = 0; i < patternCount; i++) {
+            if (!map.containsKey(new Key(patterns[i]))) {
+                put(patterns[i], i);
+            }
+        }
+    }
+
+    /**
+     * @return the index of the pattern or -1 if it has not been added
+     */
+    int get(int[] pattern) {
+        Integer index = map.get(new Key(pattern));
+        return index == null ? -1 : index;
+    }
+
+    void put(int[] pattern, int index) {
+        map.put(new Key(pattern), index);
+    }
+
+    void remove(int[] pattern) {
+        map.remove(new Key(pattern));
+    }
+
+    void clear() {
+        map.clear();
+    }
+
+    int size() {
+        return map.size();
+    }
+
+    private static final class Key {
+        private final int[] pattern;
+        private final int hash;
+
+        private Key(int[] pattern) {
+            this.pattern = pattern;
+            this.hash = Arrays.hashCode(pattern);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+            Key key = (Key) o;
+            return hash == key.hash && Arrays.equals(pattern, key.pattern);
+        }
+    }
+}
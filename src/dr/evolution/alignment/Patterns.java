@@ -158,6 +158,7 @@ public class Patterns implements PatternList {
             weights = newWeights;
 
             patternCount = newPatternCount;
+            patternMap = null;
         }
     }
 
@@ -260,13 +261,10 @@ public class Patterns implements PatternList {
             throw new IllegalArgumentException("Added pattern's length (" + pattern.length + ") does not match those of existing patterns (" + patternLength + ")");
         }
 
-        for (int i = 0; i < patternCount; i++) {
-
-            if (comparePatterns(patterns[i], pattern)) {
-
-                weights[i] += weight;
-                return;
-            }
+        int index = findPattern(pattern);
+        if (index != -1) {
+            weights[index] += weight;
+            return;
         }
 
         if (patternCount == patterns.length) {
@@ -282,27 +280,35 @@ public class Patterns implements PatternList {
 
         patterns[patternCount] = pattern;
         weights[patternCount] = weight;
+        patternMap.put(pattern, patternCount);
         patternCount++;
     }
 
+    /**
+     * @return the index of an identical pattern or -1 if there isn't one
+     */
+    private int findPattern(int[] pattern) {
+        if (patternMap == null) {
+            patternMap = new PatternIndex(patterns, patternCount);
+        }
+        return patternMap.get(pattern);
+    }
+
     /**
      * removes a pattern from the pattern list
      */
     public void removePattern(int[] pattern) {
 
-        int index = -1;
-        for (int i = 0; i < patternCount; i++) {
-
-            if (comparePatterns(patterns[i], pattern)) {
-                index = i;
-                break;
-            }
-        }
+        int index = findPattern(pattern);
 
         if (index == -1) throw new IllegalArgumentException("Pattern not found");
 
         weights[index] -= 1;
         if (weights[index] == 0 && patternCount > 1) {
+            patternMap.remove(patterns[index]);
+            if (index != patternCount - 1) {
+                patternMap.put(patterns[patternCount - 1], index);
+            }
             patterns[index] = patterns[patternCount - 1];
             patterns[patternCount - 1] = null;
             weights[index] = weights[patternCount - 1];
@@ -317,6 +323,7 @@ public class Patterns implements PatternList {
     public void removeAllPatterns() {
         patternCount = 0;
         for (int i = 0; i < patterns.length; i++) patterns[i] = null;
+        patternMap = null;
     }
 
     /**
@@ -610,4 +617,9 @@ public class Patterns implements PatternList {
     }
 
     private boolean areUnique = true;
+
+    /**
+     * pattern -> index of the pattern
+     */
+    private PatternIndex patternMap = null;
 }
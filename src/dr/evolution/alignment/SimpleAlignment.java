@@ -194,7 +194,12 @@ public class SimpleAlignment extends Sequences implements Alignment, dr.util.XHT
                     + " contains invalid char \'" + sequence.getChar(invalidCharAt) + "\' at index " + invalidCharAt);
 
         super.addSequence(sequence);
-        updateSiteCount();
+        if (siteCountKnown) {
+            // adding a sequence can only lengthen the alignment so there is no need to look at them all again
+            siteCount = Math.max(siteCount, sequence.getLength());
+        } else {
+            updateSiteCount();
+        }
     }
 
     /**
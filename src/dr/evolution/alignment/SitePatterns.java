@@ -35,6 +35,7 @@ import dr.inference.model.Parameter;
 import dr.inference.model.Variable;
 
 import java.util.*;
+import java.util.concurrent.*;
 
 /**
  * Stores a set of site patterns. This differs from the simple Patterns
@@ -47,6 +48,17 @@ import java.util.*;
  */
 public class SitePatterns implements SiteList, dr.util.XHTMLable {
 
+    /**
+     * system property giving the number of threads used to compress the sites into patterns (by
+     * default they are compressed on one thread)
+     */
+    public static final String PATTERN_THREADS = "patterns.threads";
+
+    /**
+     * the fewest sites given to each thread when compressing concurrently
+     */
+    private static final int MIN_SITES_PER_THREAD = 5000;
+
     /**
      * the source alignment
      */
@@ -97,6 +109,11 @@ public class SitePatterns implements SiteList, dr.util.XHTMLable {
 
     private boolean uncertainSites = false;
 
+    /**
+     * pattern -> index of the pattern (only kept while adding patterns)
+     */
+    private PatternIndex patternMap = null;
+
     /**
      * Constructor
      */
@@ -281,30 +298,161 @@ public class SitePatterns implements SiteList, dr.util.XHTMLable {
             }
         }
 
-        int site = 0;
+        int threadCount = getThreadCount(siteList, siteCount);
+        if (unique && threadCount > 1) {
+            addSitesConcurrently(siteList, from, every, threadCount);
+        } else {
+            int site = 0;
 
-        for (int i = from; i <= to; i += every) {
-            int[] pattern = siteList.getSitePattern(i);
-            double[][] probs = null;
+            for (int i = from; i <= to; i += every) {
+                int[] pattern = siteList.getSitePattern(i);
+                double[][] probs = null;
+
+                if (uncertainSites) {
+                    probs = siteList.getUncertainSitePattern(i);
+                }
+
+                if (isIncluded(pattern)) {
+
+                    sitePatternIndices[site] = addPattern(pattern, probs);
+
+                }  else {
+                    sitePatternIndices[site] = -1;
+                }
+                site++;
+            }
+        }
 
-            if (uncertainSites) {
-                probs = siteList.getUncertainSitePattern(i);
+        // the index is only needed while the patterns are being added
+        patternMap = null;
+    }
+
+    /**
+     * Other site lists (e.g., ConvertAlignment or PackedAlignment) may cache or convert states as
+     * they are read so only a SimpleAlignment, whose sequences are not changed by reading them, is
+     * read from several threads.
+     */
+    private static int getThreadCount(SiteList siteList, int siteCount) {
+        if (siteList.getClass() != SimpleAlignment.class) {
+            return 1;
+        }
+        int threads = 1;
+        String property = System.getProperty(PATTERN_THREADS);
+        if (property != null) {
+            try {
+                threads = Integer.parseInt(property.trim());
+            } catch (NumberFormatException nfe) {
+                throw new IllegalArgumentException("The system property " + PATTERN_THREADS + " should be an integer");
             }
+        }
+        return Math.max(1, Math.min(threads, siteCount / MIN_SITES_PER_THREAD));
+    }
 
-            if (!strip || !isInvariant(pattern) ||
-                    (!isGapped(pattern) &&
-                            !isAmbiguous(pattern) &&
-                            !isUnknown(pattern))) {
+    /**
+     * @return true if the site should be added (i.e., it is not stripped out)
+     */
+    private boolean isIncluded(int[] pattern) {
+        return !strip || !isInvariant(pattern) ||
+                (!isGapped(pattern) &&
+                        !isAmbiguous(pattern) &&
+                        !isUnknown(pattern));
+    }
 
-                sitePatternIndices[site] = addPattern(pattern, probs);
+    /**
+     * Compresses contiguous ranges of sites on separate threads and then merges the unique
+     * patterns of each range in order. A pattern's index is therefore the order of its first
+     * occurrence, exactly as when the sites are added one at a time.
+     */
+    private void addSitesConcurrently(final SiteList siteList, final int from, final int every, int threadCount) {
+        final int sitesPerThread = (siteCount + threadCount - 1) / threadCount;
 
-            }  else {
-                sitePatternIndices[site] = -1;
+        ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+        try {
+            List<Future<SiteRange>> futures = new ArrayList<Future<SiteRange>>();
+            for (int start = 0; start < siteCount; start += sitesPerThread) {
+                final int firstSite = start;
+                final int lastSite = Math.min(siteCount, start + sitesPerThread);
+                futures.add(executor.submit(new Callable<SiteRange>() {
+                    public SiteRange call() {
+                        return compressSiteRange(siteList, from, every, firstSite, lastSite);
+                    }
+                }));
             }
-            site++;
+
+            for (Future<SiteRange> future : futures) {
+                SiteRange range = future.get();
+
+                int[] indices = new int[range.patterns.size()];
+                for (int j = 0; j < indices.length; j++) {
+                    // added with the weight of a single site so the invariant count is as before
+                    indices[j] = addPattern(range.patterns.get(j), 1,
+                            uncertainSites ? range.uncertainties.get(j) : null);
+                    weights[indices[j]] += range.weights[j] - 1;
+                }
+
+                for (int site = range.firstSite; site < range.lastSite; site++) {
+                    int index = range.siteIndices[site - range.firstSite];
+                    sitePatternIndices[site] = (index == -1 ? -1 : indices[index]);
+                }
+            }
+        } catch (InterruptedException ie) {
+            throw new RuntimeException("Interrupted while compressing site patterns");
+        } catch (ExecutionException ee) {
+            if (ee.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) ee.getCause();
+            }
+            throw new RuntimeException(ee.getCause());
+        } finally {
+            executor.shutdown();
         }
     }
 
+    private SiteRange compressSiteRange(SiteList siteList, int from, int every, int firstSite, int lastSite) {
+        SiteRange range = new SiteRange(firstSite, lastSite);
+        PatternIndex rangeIndex = new PatternIndex();
+
+        for (int site = firstSite; site < lastSite; site++) {
+            int i = from + site * every;
+            int[] pattern = siteList.getSitePattern(i);
+
+            if (isIncluded(pattern)) {
+                int index = rangeIndex.get(pattern);
+                if (index == -1) {
+                    index = range.patterns.size();
+                    rangeIndex.put(pattern, index);
+                    range.patterns.add(pattern);
+                    if (uncertainSites) {
+                        range.uncertainties.add(siteList.getUncertainSitePattern(i));
+                    }
+                }
+                range.weights[index] += 1;
+                range.siteIndices[site - firstSite] = index;
+            } else {
+                range.siteIndices[site - firstSite] = -1;
+            }
+        }
+        return range;
+    }
+
+    /**
+     * The unique patterns of a range of sites in the order they first occur.
+     */
+    private static class SiteRange {
+        SiteRange(int firstSite, int lastSite) {
+            this.firstSite = firstSite;
+            this.lastSite = lastSite;
+            this.siteIndices = new int[lastSite - firstSite];
+            this.weights = new int[lastSite - firstSite];
+        }
+
+        final int firstSite;
+        final int lastSite;
+        final int[] siteIndices;
+        final int[] weights;
+        final List<int[]> patterns = new ArrayList<int[]>();
+        final List<double[][]> uncertainties = new ArrayList<double[][]>();
+    }
+
     /**
      * sets up pattern list using an alignment
      */
@@ -343,11 +491,7 @@ public class SitePatterns implements SiteList, dr.util.XHTMLable {
             pattern = siteList.getSitePattern(i);
 
             if (mask[i]) {
-                if (!strip || !isInvariant(pattern) ||
-                        (!isGapped(pattern) &&
-                                !isAmbiguous(pattern) &&
-                                !isUnknown(pattern))
-                        ) {
+                if (isIncluded(pattern)) {
 
                     double[][] probs = null;
                     if (uncertainSites) {
@@ -361,6 +505,8 @@ public class SitePatterns implements SiteList, dr.util.XHTMLable {
                 site++;
             }
         }
+
+        patternMap = null;
     }
 
 
@@ -380,10 +526,9 @@ public class SitePatterns implements SiteList, dr.util.XHTMLable {
      */
     private int addPattern(int[] pattern, int weight, double[][] uncertainty) {
 
-        for (int i = 0; i < patternCount; i++) {
-
-            if (unique && comparePatterns(patterns[i], pattern)) {
-
+        if (unique) {
+            int i = findPattern(pattern);
+            if (i != -1) {
                 weights[i] += weight;
                 return i;
             }
@@ -415,10 +560,34 @@ public class SitePatterns implements SiteList, dr.util.XHTMLable {
         }
 
         patternCount++;
+        if (unique) {
+            indexPattern(index);
+        }
 
         return index;
     }
 
+    /**
+     * @return the index of an identical pattern or -1 if there isn't one
+     */
+    protected int findPattern(int[] pattern) {
+        if (patternMap == null) {
+            patternMap = new PatternIndex(patterns, patternCount);
+        }
+        return patternMap.get(pattern);
+    }
+
+    /**
+     * Record a pattern that has been stored at the given index so it can be found by findPattern
+     */
+    protected void indexPattern(int index) {
+        if (patternMap == null) {
+            patternMap = new PatternIndex(patterns, patternCount);
+        } else {
+            patternMap.put(patterns[index], index);
+        }
+    }
+
     /**
      * @return true if the pattern is invariant
      */
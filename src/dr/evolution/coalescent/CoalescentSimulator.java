@@ -31,6 +31,7 @@ import dr.evolution.util.*;
 import dr.evolution.util.Date;
 import dr.math.MathUtils;
 import dr.util.HeapSort;
+import org.apache.commons.math.random.MersenneTwister;
 
 import java.io.PrintStream;
 import java.util.*;
@@ -47,7 +48,16 @@ import java.util.*;
  */
 public class CoalescentSimulator {
     
-    public CoalescentSimulator() {}
+    public CoalescentSimulator() {
+        this(null);
+    }
+
+    /**
+     * @param random the random number stream to use (if null, MathUtils is used)
+     */
+    public CoalescentSimulator(MersenneTwister random) {
+        this.random = random;
+    }
 
 
 	/**
@@ -143,10 +153,10 @@ public class CoalescentSimulator {
 
 		// simulate coalescent events
         if(!enforceMaxHeight){
-		    nextCoalescentHeight = currentHeight + DemographicFunction.Utils.getSimulatedInterval(demographic,
+		    nextCoalescentHeight = currentHeight + DemographicFunction.Utils.getInterval(nextDouble(), demographic,
                     getActiveNodeCount(), currentHeight);
         } else {
-            nextCoalescentHeight = currentHeight + DemographicFunction.Utils.getSimulatedInterval(demographic,
+            nextCoalescentHeight = currentHeight + DemographicFunction.Utils.getInterval(nextDouble(), demographic,
                     getActiveNodeCount(), currentHeight, maxHeight);
         }
 
@@ -169,10 +179,10 @@ public class CoalescentSimulator {
 
                 if(!enforceMaxHeight){
 	//			nextCoalescentHeight = currentHeight + DemographicFunction.Utils.getMedianInterval(demographic, getActiveNodeCount(), currentHeight);
-				    nextCoalescentHeight = currentHeight + DemographicFunction.Utils.getSimulatedInterval(demographic,
+				    nextCoalescentHeight = currentHeight + DemographicFunction.Utils.getInterval(nextDouble(), demographic,
                             getActiveNodeCount(), currentHeight);
                 } else {
-                    nextCoalescentHeight = currentHeight + DemographicFunction.Utils.getSimulatedInterval(demographic,
+                    nextCoalescentHeight = currentHeight + DemographicFunction.Utils.getInterval(nextDouble(), demographic,
                             getActiveNodeCount(), currentHeight, maxHeight);
                 }
 			}
@@ -223,10 +233,10 @@ public class CoalescentSimulator {
 	 * and replaces them with the new node at the top of the active list.
 	 */
 	private void coalesceTwoActiveNodes(double height) {
-		int node1 = MathUtils.nextInt(activeNodeCount);
+		int node1 = nextInt(activeNodeCount);
 		int node2 = node1;
 		while (node2 == node1) {
-			node2 = MathUtils.nextInt(activeNodeCount);
+			node2 = nextInt(activeNodeCount);
 		}
 
 		SimpleNode left = nodeList.get(node1);
@@ -251,8 +261,17 @@ public class CoalescentSimulator {
 		}
 	}
 
+	private double nextDouble() {
+		return (random != null ? random.nextDouble() : MathUtils.nextDouble());
+	}
+
+	private int nextInt(int n) {
+		return (random != null ? random.nextInt(n) : MathUtils.nextInt(n));
+	}
+
 	private final ArrayList<SimpleNode> nodeList = new ArrayList<SimpleNode>();
 	private int activeNodeCount = 0;
+	private final MersenneTwister random;
 
 	public static void main1(String[] args) {
 
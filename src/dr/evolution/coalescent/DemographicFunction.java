@@ -290,16 +290,19 @@ public interface DemographicFunction extends UnivariateRealFunction, Units {
 
 	public static class Utils
 	{
-        private static double getInterval(double U, DemographicFunction demographicFunction,
-                                          int lineageCount, double timeOfLastCoalescent) {
+        /**
+         * @return the interval size for the unit uniform random variate U (e.g., from another random number stream).
+         */
+        public static double getInterval(double U, DemographicFunction demographicFunction,
+                                         int lineageCount, double timeOfLastCoalescent) {
             final double intensity = demographicFunction.getIntensity(timeOfLastCoalescent);
             final double tmp = -Math.log(U)/Binomial.choose2(lineageCount) + intensity;
 
             return demographicFunction.getInverseIntensity(tmp) - timeOfLastCoalescent;
         }
 
-        private static double getInterval(double U, DemographicFunction demographicFunction, int lineageCount,
-                                          double timeOfLastCoalescent, double earliestTimeOfFinalCoalescent){
+        public static double getInterval(double U, DemographicFunction demographicFunction, int lineageCount,
+                                         double timeOfLastCoalescent, double earliestTimeOfFinalCoalescent){
             if(timeOfLastCoalescent>earliestTimeOfFinalCoalescent){
                 throw new IllegalArgumentException("Given maximum height is smaller than given final coalescent time");
             }
@@ -0,0 +1,732 @@
+/*
+ * CompactTreeImporter.java
+ *
+ * Copyright (c) 2002-2017 Alexei Drummond, Andrew Rambaut and Marc Suchard
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ */
+
+package dr.evolution.io;
+
+import dr.evolution.tree.CompactTree;
+import dr.evolution.tree.Tree;
+import dr.evolution.util.Taxa;
+import dr.evolution.util.Taxon;
+import dr.evolution.util.TaxonList;
+import dr.util.Attributable;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Reads the trees from a NEXUS trees file (or a file of Newick trees each ending in a ';') as
+ * immutable CompactTrees. This is intended for tools that read very large numbers of trees and
+ * don't modify them. It uses a NewickTokenizer to parse the trees straight from the bytes of the
+ * file so, for example, the integer labels used in BEAST's tree files are looked up in the
+ * TRANSLATE table without creating a String for each.
+ *
+ * The trees have the same node numbering, node heights, taxa and attributes as the FlexibleTrees
+ * read by NexusImporter. Labels on internal nodes are ignored (as NexusImporter does).
+ */
+public class CompactTreeImporter implements TreeImporter {
+
+    private static final boolean[] COMMAND_DELIMITERS = NewickTokenizer.createDelimiters(";=");
+    private static final boolean[] LIST_DELIMITERS = NewickTokenizer.createDelimiters(",;");
+    private static final boolean[] NODE_DELIMITERS = NewickTokenizer.createDelimiters(":(),;");
+    private static final boolean[] END_DELIMITERS = NewickTokenizer.createDelimiters(";");
+
+    public CompactTreeImporter(File file, boolean ignoreMetaComments) throws IOException {
+        this(new NewickTokenizer(file), ignoreMetaComments);
+    }
+
+    public CompactTreeImporter(InputStream inputStream, boolean ignoreMetaComments) {
+        this(new NewickTokenizer(inputStream), ignoreMetaComments);
+    }
+
+    public CompactTreeImporter(NewickTokenizer tokenizer, boolean ignoreMetaComments) {
+        this.tokenizer = tokenizer;
+        this.ignoreMetaComments = ignoreMetaComments;
+    }
+
+    /**
+     * return whether another tree is available.
+     */
+    public boolean hasTree() throws IOException, Importer.ImportException {
+        if (nextTree == null) {
+            nextTree = readNextTree();
+        }
+        return (nextTree != null);
+    }
+
+    /**
+     * import the next tree.
+     * return the tree or null if no more trees are available
+     */
+    public Tree importNextTree() throws IOException, Importer.ImportException {
+        if (!hasTree()) {
+            return null;
+        }
+        Tree tree = nextTree;
+        nextTree = null;
+        return tree;
+    }
+
+    /**
+     * import a single tree with the taxa in the TRANSLATE table looked up in the taxon list.
+     */
+    public Tree importTree(TaxonList taxonList) throws IOException, Importer.ImportException {
+        setTaxonList(taxonList);
+        Tree tree = importNextTree();
+        if (tree == null) {
+            throw new NexusImporter.MissingBlockException("TREES block is missing");
+        }
+        return tree;
+    }
+
+    /**
+     * import an array of all trees with the taxa in the TRANSLATE table looked up in the taxon list.
+     */
+    public Tree[] importTrees(TaxonList taxonList) throws IOException, Importer.ImportException {
+        setTaxonList(taxonList);
+        List<Tree> trees = new ArrayList<Tree>();
+        while (hasTree()) {
+            trees.add(importNextTree());
+        }
+        if (trees.size() == 0) {
+            throw new NexusImporter.MissingBlockException("TREES block is missing");
+        }
+        return trees.toArray(new Tree[trees.size()]);
+    }
+
+    public void close() throws IOException {
+        tokenizer.close();
+    }
+
+    private void setTaxonList(TaxonList taxonList) {
+        setTaxonList(taxonList, false);
+    }
+
+    /**
+     * Sets a taxon list in which the taxa in the file are looked up. This must be done before any trees are read.
+     *
+     * @param taxonList             the taxon list
+     * @param useTaxonListNumbering whether the external nodes should be numbered in the order of the taxon list
+     *                              (rather than by the TRANSLATE table)
+     */
+    public void setTaxonList(TaxonList taxonList, boolean useTaxonListNumbering) {
+        if (started) {
+            throw new IllegalStateException("The taxon list must be set before any trees are read");
+        }
+        this.taxonList = taxonList;
+        this.useTaxonListNumbering = useTaxonListNumbering && taxonList != null;
+    }
+
+    /**
+     * Gives an index of the trees in the file being read which is used to seek to particular trees.
+     */
+    public void setIndex(TreeFileIndex index) {
+        this.index = index;
+    }
+
+    /**
+     * @return the number of trees that have been imported or skipped so far
+     */
+    public int getTreeNumber() {
+        return (nextTree != null ? treeNumber - 1 : treeNumber);
+    }
+
+    /**
+     * Skips over a number of trees without building them. If an index has been given this seeks straight
+     * to the next tree to be read, otherwise the trees are skipped in the file without being parsed.
+     *
+     * @return the number of trees skipped (which will be less than count if the end of the file was reached)
+     */
+    public int skipTrees(int count) throws IOException, Importer.ImportException {
+        int skipped = 0;
+        if (count > 0 && nextTree != null) {
+            // this tree has already been read
+            nextTree = null;
+            skipped++;
+        }
+
+        if (skipped < count && index != null && treeNumber + count - skipped < index.getTreeCount()) {
+            seekToTree(treeNumber + count - skipped);
+            return count;
+        }
+
+        try {
+            while (skipped < count && findNextTree()) {
+                tokenizer.setReadMetaComments(false);
+                isPositioned = false;
+                if (!tokenizer.skipPast(';')) {
+                    throw new EOFException();
+                }
+                tokenizer.clearLastMetaComment();
+                skipped++;
+                treeNumber++;
+            }
+        } catch (EOFException eofe) {
+            // the end of the file
+        }
+        return skipped;
+    }
+
+    /**
+     * Moves to a tree in the file so it will be the next to be imported. This requires an index to have
+     * been given and the importer to be reading from a file.
+     */
+    public void seekToTree(int tree) throws IOException, Importer.ImportException {
+        if (index == null) {
+            throw new IllegalStateException("An index is required to seek to a tree");
+        }
+        long offset = index.getOffset(tree);
+
+        nextTree = null;
+        if (treeNumber == 0 && !isPositioned) {
+            // the file header (and translation table) must be read first
+            if (!findNextTree()) {
+                throw new Importer.BadFormatException("No trees found in file");
+            }
+        }
+        tokenizer.seek(offset);
+        isPositioned = false;
+        isReadingTreesBlock = isNexus;
+        treeNumber = tree;
+    }
+
+    private Tree readNextTree() throws IOException, Importer.ImportException {
+        try {
+            if (!findNextTree()) {
+                return null;
+            }
+            isPositioned = false;
+            treeNumber++;
+            if (!isNexus) {
+                tokenizer.setReadMetaComments(!ignoreMetaComments);
+                return readTree(null, null, null);
+            }
+            return readTreeCommand();
+        } catch (EOFException eofe) {
+            return null;
+        }
+    }
+
+    /**
+     * Reads up to the start of the next tree, reading the header of the file and any TRANSLATE command on
+     * the way. In a NEXUS file the TREE command name is read.
+     *
+     * @return false if there are no more trees
+     */
+    private boolean findNextTree() throws IOException, Importer.ImportException {
+        if (isPositioned) {
+            return true;
+        }
+
+        if (!started) {
+            started = true;
+            int ch = tokenizer.skipSpace();
+            if (ch == -1) {
+                return false;
+            }
+            if (ch == '#') {
+                tokenizer.readToken(COMMAND_DELIMITERS);
+                if (!tokenizer.tokenEqualsIgnoreCase("#NEXUS")) {
+                    throw new Importer.BadFormatException("Unrecognised file format (expecting a NEXUS or Newick file)");
+                }
+                isNexus = true;
+            }
+            setUpTranslation(null);
+        }
+
+        if (!isNexus) {
+            isPositioned = tokenizer.skipSpace() != -1;
+            return isPositioned;
+        }
+
+        while (true) {
+            if (!isReadingTreesBlock) {
+                isReadingTreesBlock = findTreesBlock();
+                if (!isReadingTreesBlock) {
+                    return false;
+                }
+            }
+
+            tokenizer.readToken(COMMAND_DELIMITERS);
+
+            if (tokenizer.tokenEqualsIgnoreCase("TRANSLATE")) {
+                readTranslation();
+            } else if (tokenizer.tokenEqualsIgnoreCase("TREE") || tokenizer.tokenEqualsIgnoreCase("UTREE")) {
+                isPositioned = true;
+                return true;
+            } else if (tokenizer.tokenEqualsIgnoreCase("END") || tokenizer.tokenEqualsIgnoreCase("ENDBLOCK")) {
+                skipCommand();
+                isReadingTreesBlock = false;
+                return false;
+            } else {
+                throw new Importer.BadFormatException("Unknown command '" + tokenizer.getToken() + "' in TREES block");
+            }
+        }
+    }
+
+    /**
+     * Skips to the start of the next TREES block, reading a TAXA block on the way if no taxon list has been given.
+     */
+    private boolean findTreesBlock() throws IOException, Importer.ImportException {
+        tokenizer.setReadMetaComments(false);
+        while (true) {
+            if (tokenizer.readToken(COMMAND_DELIMITERS) == 0) {
+                if (tokenizer.skipSpace() == -1) {
+                    return false;
+                }
+                // an empty command
+                tokenizer.read();
+                continue;
+            }
+            if (tokenizer.tokenEqualsIgnoreCase("BEGIN")) {
+                tokenizer.readToken(END_DELIMITERS);
+                boolean isTrees = tokenizer.tokenEqualsIgnoreCase("TREES");
+                boolean isTaxa = tokenizer.tokenEqualsIgnoreCase("TAXA");
+                skipCommand();
+                if (isTrees) {
+                    return true;
+                }
+                if (isTaxa && taxonList == null) {
+                    readTaxaBlock();
+                } else {
+                    skipBlock();
+                }
+            } else {
+                skipCommand();
+            }
+        }
+    }
+
+    private void readTaxaBlock() throws IOException, Importer.ImportException {
+        Taxa taxa = new Taxa();
+        while (true) {
+            tokenizer.readToken(COMMAND_DELIMITERS);
+            if (tokenizer.tokenEqualsIgnoreCase("TAXLABELS")) {
+                while (tokenizer.readToken(END_DELIMITERS) > 0) {
+                    taxa.addTaxon(new Taxon(tokenizer.getToken()));
+                }
+                skipCommand();
+            } else if (tokenizer.tokenEqualsIgnoreCase("END") || tokenizer.tokenEqualsIgnoreCase("ENDBLOCK")) {
+                skipCommand();
+                break;
+            } else {
+                skipCommand();
+            }
+        }
+        if (taxa.getTaxonCount() > 0) {
+            taxonList = taxa;
+            setUpTranslation(null);
+        }
+    }
+
+    private void readTranslation() throws IOException, Importer.ImportException {
+        Map<String, Taxon> translation = new HashMap<String, Taxon>();
+        int delimiter;
+        do {
+            tokenizer.readToken(LIST_DELIMITERS);
+            String key = tokenizer.getToken();
+            delimiter = tokenizer.skipSpace();
+            if (delimiter == ',' || delimiter == ';') {
+                throw new Importer.BadFormatException("Missing taxon label in TRANSLATE command of TREES block");
+            }
+
+            tokenizer.readToken(LIST_DELIMITERS);
+            String label = tokenizer.getToken();
+            delimiter = tokenizer.skipSpace();
+            tokenizer.read();
+            if (delimiter != ',' && delimiter != ';') {
+                throw new Importer.BadFormatException("Expecting ',' or ';' after taxon label in TRANSLATE command of TREES block");
+            }
+
+            Taxon taxon;
+            if (taxonList != null) {
+                int index = taxonList.getTaxonIndex(label);
+                if (index == -1) {
+                    throw new Importer.UnknownTaxonException(label);
+                }
+                taxon = taxonList.getTaxon(index);
+            } else {
+                taxon = new Taxon(label);
+            }
+
+            if (translation.containsKey(key)) {
+                throw new Importer.BadFormatException("Translation list uses the key, " + key + ", more than once.");
+            }
+            translation.put(key, taxon);
+        } while (delimiter != ';');
+
+        setUpTranslation(translation);
+    }
+
+    /**
+     * Sets up the look up of taxa from the labels in the trees and the numbering of the tips in
+     * the same way as NexusImporter.
+     *
+     * @param translation the TRANSLATE table or null to use the taxon list (if there is one)
+     */
+    private void setUpTranslation(Map<String, Taxon> translation) {
+        if (translation == null) {
+            translation = new HashMap<String, Taxon>();
+            if (taxonList != null) {
+                for (int i = 0; i < taxonList.getTaxonCount(); i++) {
+                    Taxon taxon = taxonList.getTaxon(i);
+                    translation.put(taxon.getId(), taxon);
+                }
+            }
+        }
+        translationList = translation;
+
+        taxonNumberMap = new HashMap<Taxon, Integer>();
+        int count = 0;
+        int maxKey = -1;
+        for (String label : translationList.keySet()) {
+            Taxon taxon = translationList.get(label);
+            int number;
+            if (useTaxonListNumbering) {
+                // map back to the original numbering of the taxon list
+                number = taxonList.getTaxonIndex(taxon);
+            } else {
+                try {
+                    number = Integer.parseInt(label) - 1;
+                } catch (NumberFormatException nfe) {
+                    number = count;
+                }
+            }
+            taxonNumberMap.put(taxon, number);
+            count++;
+
+            if (maxKey != Integer.MAX_VALUE) {
+                maxKey = (isCanonicalInteger(label) ? Math.max(maxKey, Integer.parseInt(label)) : Integer.MAX_VALUE);
+            }
+        }
+
+        // if the labels are all integers (as in BEAST's tree files) they can be looked up in an array
+        numberedTaxa = null;
+        if (maxKey >= 0 && maxKey <= 4 * translationList.size()) {
+            numberedTaxa = new Taxon[maxKey + 1];
+            for (String label : translationList.keySet()) {
+                numberedTaxa[Integer.parseInt(label)] = translationList.get(label);
+            }
+        }
+
+        labelTaxa.clear();
+    }
+
+    private static boolean isCanonicalInteger(String label) {
+        if (label.length() == 0 || label.length() > 9 || (label.charAt(0) == '0' && label.length() > 1)) {
+            return false;
+        }
+        for (int i = 0; i < label.length(); i++) {
+            if (label.charAt(i) < '0' || label.charAt(i) > '9') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Reads a TREE command (the command name having been read).
+     */
+    private Tree readTreeCommand() throws IOException, Importer.ImportException {
+        // the tree's comments are always read
+        tokenizer.setReadMetaComments(true);
+        tokenizer.clearLastMetaComment();
+
+        if (tokenizer.skipSpace() == '*') {
+            // Star is used to specify a default tree - ignore it
+            tokenizer.read();
+        }
+
+        tokenizer.readToken(COMMAND_DELIMITERS);
+        String name = tokenizer.getToken();
+
+        // Save tree comment and attach it later
+        int ch = tokenizer.skipSpace();
+        String comment = tokenizer.getLastMetaComment();
+        tokenizer.clearLastMetaComment();
+
+        if (ch != '=') {
+            throw new Importer.BadFormatException("Missing label for tree'" + name + "' or missing '=' in TREE command of TREES block");
+        }
+        tokenizer.read();
+
+        ch = tokenizer.skipSpace();
+        if (ch != '(') {
+            throw new Importer.BadFormatException("Missing tree definition in TREE command of TREES block");
+        }
+
+        // tree special comments
+        String scomment = tokenizer.getLastMetaComment();
+        tokenizer.clearLastMetaComment();
+
+        tokenizer.setReadMetaComments(!ignoreMetaComments);
+
+        return readTree(name, comment, scomment);
+    }
+
+    /**
+     * Reads a tree in Newick format. The nodes are created in pre-order with an explicit stack
+     * rather than recursively so there is no limit on the depth of the tree.
+     */
+    private Tree readTree(String name, String comment, String scomment) throws IOException, Importer.ImportException {
+        nodeCount = 0;
+
+        tokenizer.expect('(', "Missing tree definition");
+        int stackSize = 0;
+        ensureStackCapacity(1);
+        stack[stackSize++] = addNode(-1);
+        childCounts[0] = 0;
+
+        boolean done = false;
+        while (!done) {
+            int parent = stack[stackSize - 1];
+            int ch = tokenizer.skipSpace();
+
+            int node;
+            if (ch == '(') {
+                tokenizer.read();
+                node = addNode(parent);
+                ensureStackCapacity(stackSize + 1);
+                stack[stackSize++] = node;
+                continue;
+            }
+
+            // an external node
+            node = addNode(parent);
+            tokenizer.readToken(NODE_DELIMITERS);
+            taxa[node] = getTaxon();
+            applyMetaComment(node);
+            readBranchLength(node);
+
+            ch = tokenizer.skipSpace();
+            while (ch == ')') {
+                tokenizer.read();
+                node = stack[--stackSize];
+                if (childCounts[node] < 2 && !NexusImporter.suppressWarnings) {
+                    java.util.logging.Logger.getLogger("dr.evolution.io").warning("Internal node only has a single child.");
+                }
+
+                // the label of an internal node is ignored
+                tokenizer.readToken(NODE_DELIMITERS);
+                applyMetaComment(node);
+
+                if (stackSize == 0) {
+                    // the root - ignore any branch length
+                    if (tokenizer.skipSpace() == ':') {
+                        tokenizer.read();
+                        tokenizer.readToken(END_DELIMITERS);
+                        applyMetaComment(node);
+                    }
+                    if (tokenizer.skipSpace() != ';') {
+                        throw new Importer.BadFormatException("Expecting ';' after tree, '" + name + "', TREE command of TREES block");
+                    }
+                    tokenizer.read();
+                    done = true;
+                    break;
+                }
+
+                readBranchLength(node);
+                ch = tokenizer.skipSpace();
+            }
+
+            if (!done) {
+                if (ch == ',') {
+                    tokenizer.read();
+                } else if (ch == -1) {
+                    throw new EOFException();
+                } else {
+                    throw new Importer.BadFormatException("Missing closing ')' in tree in TREES block");
+                }
+            }
+        }
+
+        CompactTree tree = new CompactTree(nodeCount, parents, lengths, taxa,
+                (hasAttributes ? Arrays.copyOf(attributes, nodeCount) : null), taxonNumberMap);
+        if (hasAttributes) {
+            Arrays.fill(attributes, 0, nodeCount, null);
+            hasAttributes = false;
+        }
+
+        if (name != null) {
+            tree.setId(name);
+        }
+
+        if (scomment != null) {
+            NexusImporter.parseTreeSpecialComment(scomment, tree);
+        }
+
+        if (comment != null) {
+            try {
+                NexusImporter.parseMetaCommentPairs(comment, tree);
+            } catch (Importer.BadFormatException e) {
+                // set generic comment attribute
+                tree.setAttribute("comment", comment);
+            }
+        }
+
+        return tree;
+    }
+
+    private void readBranchLength(int node) throws IOException, Importer.ImportException {
+        if (tokenizer.skipSpace() == ':') {
+            tokenizer.read();
+            tokenizer.readToken(NODE_DELIMITERS);
+            lengths[node] = tokenizer.getTokenDouble();
+            applyMetaComment(node);
+        }
+    }
+
+    private Taxon getTaxon() throws Importer.ImportException {
+        if (numberedTaxa != null) {
+            int number = tokenizer.getTokenInteger();
+            if (number >= 0 && number < numberedTaxa.length && numberedTaxa[number] != null) {
+                return numberedTaxa[number];
+            }
+        }
+
+        String label = tokenizer.getToken();
+        if (translationList.size() > 0) {
+            Taxon taxon = translationList.get(label);
+            if (taxon == null) {
+                // taxon not found in taxon list...
+                throw new Importer.UnknownTaxonException("Taxon in tree, '" + label + "' is unknown");
+            }
+            return taxon;
+        }
+
+        // no translation so the taxa are shared by all the trees in the file
+        Taxon taxon = labelTaxa.get(label);
+        if (taxon == null) {
+            taxon = new Taxon(label);
+            labelTaxa.put(label, taxon);
+        }
+        return taxon;
+    }
+
+    /**
+     * Reads any comments following the last token and sets the attributes in the meta-comments on the node.
+     */
+    private void applyMetaComment(int node) throws IOException {
+        tokenizer.skipSpace();
+        String meta = tokenizer.getLastMetaComment();
+        if (meta != null) {
+            if (!ignoreMetaComments) {
+                if (attributes[node] == null) {
+                    attributes[node] = new Attributable.AttributeHelper();
+                    hasAttributes = true;
+                }
+                try {
+                    NexusImporter.parseMetaCommentPairs(meta, attributes[node]);
+                } catch (Importer.BadFormatException bfe) {
+                    // ignore it
+                }
+            }
+            tokenizer.clearLastMetaComment();
+        }
+    }
+
+    private void skipCommand() throws IOException {
+        int ch;
+        do {
+            ch = tokenizer.skipSpace();
+            if (ch == '\'' || ch == '"') {
+                tokenizer.readToken(END_DELIMITERS);
+            } else {
+                tokenizer.read();
+            }
+        } while (ch != ';' && ch != -1);
+        if (ch == -1) {
+            throw new EOFException();
+        }
+    }
+
+    private void skipBlock() throws IOException {
+        while (true) {
+            tokenizer.readToken(COMMAND_DELIMITERS);
+            boolean isEnd = tokenizer.tokenEqualsIgnoreCase("END") || tokenizer.tokenEqualsIgnoreCase("ENDBLOCK");
+            skipCommand();
+            if (isEnd) {
+                return;
+            }
+        }
+    }
+
+    private int addNode(int parent) {
+        if (nodeCount == parents.length) {
+            int capacity = parents.length * 2;
+            parents = Arrays.copyOf(parents, capacity);
+            lengths = Arrays.copyOf(lengths, capacity);
+            taxa = Arrays.copyOf(taxa, capacity);
+            attributes = Arrays.copyOf(attributes, capacity);
+            childCounts = Arrays.copyOf(childCounts, capacity);
+        }
+        int node = nodeCount;
+        parents[node] = parent;
+        lengths[node] = 0.0;
+        taxa[node] = null;
+        childCounts[node] = 0;
+        if (parent != -1) {
+            childCounts[parent]++;
+        }
+        nodeCount++;
+        return node;
+    }
+
+    private void ensureStackCapacity(int size) {
+        if (size > stack.length) {
+            stack = Arrays.copyOf(stack, Math.max(size, stack.length * 2));
+        }
+    }
+
+    private final NewickTokenizer tokenizer;
+    private final boolean ignoreMetaComments;
+
+    private boolean started = false;
+    private boolean isNexus = false;
+    private boolean isReadingTreesBlock = false;
+    // whether the file has been read up to the start of the next tree
+    private boolean isPositioned = false;
+    private Tree nextTree = null;
+
+    private TreeFileIndex index = null;
+    // the number of trees read (or skipped) in the file
+    private int treeNumber = 0;
+
+    private TaxonList taxonList = null;
+    private boolean useTaxonListNumbering = false;
+    private Map<String, Taxon> translationList = null;
+    private Taxon[] numberedTaxa = null;
+    private Map<Taxon, Integer> taxonNumberMap = null;
+    private final Map<String, Taxon> labelTaxa = new HashMap<String, Taxon>();
+
+    // workspace for the nodes of the tree being read (in pre-order)
+    private int nodeCount = 0;
+    private int[] parents = new int[256];
+    private double[] lengths = new double[256];
+    private Taxon[] taxa = new Taxon[256];
+    private Attributable[] attributes = new Attributable[256];
+    private boolean hasAttributes = false;
+    private int[] childCounts = new int[256];
+    private int[] stack = new int[64];
+}
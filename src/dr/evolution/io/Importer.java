@@ -115,12 +115,26 @@ public abstract class Importer {
 	 * Constructor
 	 */
 	public Importer(Reader reader) {
-		this.reader = new LineNumberReader(reader);
-		this.commentWriter = null;
+		this(reader, null, false);
 	}
 
 	public Importer(Reader reader, Writer commentWriter) {
-		this.reader = new LineNumberReader(reader);
+		this(reader, commentWriter, false);
+	}
+
+	/**
+	 * @param ownsReader true if the reader was opened by the importer and nothing else reads from it,
+	 *                   in which case it is read a block at a time. A caller's reader is read through
+	 *                   a LineNumberReader as before so it isn't read any further ahead than that.
+	 */
+	protected Importer(Reader reader, Writer commentWriter, boolean ownsReader) {
+		if (ownsReader) {
+			this.reader = reader;
+			this.buffer = new char[BUFFER_SIZE];
+		} else {
+			this.reader = new LineNumberReader(reader);
+			this.buffer = null;
+		}
 		this.commentWriter = commentWriter != null ? new BufferedWriter(commentWriter) : null;
 	}
 
@@ -156,7 +170,7 @@ public abstract class Importer {
 	}
 
 	public int getLineNumber() {
-		return reader.getLineNumber();
+		return lineNumber;
 	}
 
 	public int getLastDelimiter() {
@@ -200,7 +214,7 @@ public abstract class Importer {
 		int ch;
 
 		if (lastChar == '\0') {
-			ch = reader.read();
+			ch = readBuffered();
 			if (ch <= 0) {
 				throw new EOFException();
 			}
@@ -675,9 +689,64 @@ public abstract class Importer {
         lastMetaComment = null;
     }
 
+	/**
+	 * Reads a character from the buffer, refilling it from the reader when it is empty (or straight
+	 * from the LineNumberReader if the reader is the caller's). This is called for every character in
+	 * the file so the buffer avoids the synchronization in the Reader classes.
+	 * Like LineNumberReader, line terminators ('\n', '\r' or "\r\n") are returned as a single '\n'
+	 * and counted.
+	 * @return the character or -1 at the end of the file
+	 */
+	private int readBuffered() throws IOException {
+		if (buffer == null) {
+			int ch = reader.read();
+			if (ch == '\n') {
+				lineNumber++;
+			}
+			return ch;
+		}
+
+		while (true) {
+			if (bufferPosition == bufferLimit) {
+				int count = reader.read(buffer, 0, buffer.length);
+				if (count <= 0) {
+					return -1;
+				}
+				bufferPosition = 0;
+				bufferLimit = count;
+			}
+
+			char ch = buffer[bufferPosition++];
+
+			if (skipLineFeed) {
+				skipLineFeed = false;
+				if (ch == '\n') {
+					continue;
+				}
+			}
+
+			if (ch == '\r') {
+				skipLineFeed = true;
+				lineNumber++;
+				return '\n';
+			}
+			if (ch == '\n') {
+				lineNumber++;
+			}
+			return ch;
+		}
+	}
+
 	// Private stuff
 
-	private LineNumberReader reader;
+	private static final int BUFFER_SIZE = 65536;
+
+	private final Reader reader;
+	private final char[] buffer;
+	private int bufferPosition = 0;
+	private int bufferLimit = 0;
+	private boolean skipLineFeed = false;
+	private int lineNumber = 0;
 	private BufferedWriter commentWriter = null;
 
 	private int lastChar = '\0';
@@ -0,0 +1,260 @@
+/*
+ * LazyTreeList.java
+ *
+ * Copyright (c) 2002-2017 Alexei Drummond, Andrew Rambaut and Marc Suchard
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ */
+
+package dr.evolution.io;
+
+import dr.evolution.tree.CompactTree;
+import dr.evolution.tree.NodeRef;
+import dr.evolution.tree.Tree;
+import dr.evolution.util.Taxon;
+import dr.evolution.util.TaxonList;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * A read-only list of the trees in a tree file which only builds a tree when it is asked for, keeping
+ * the most recently used trees in a small cache. This allows a large sample of large trees to be used
+ * (e.g., by an EmpiricalTreeDistributionModel) without them all being held in memory.
+ *
+ * There are two ways the trees can be kept:
+ * a compact list holds the topology, branch lengths and tip taxa of each tree in arrays (the node
+ * attributes are not kept), and an indexed list only holds the position of each tree in the file
+ * and reads the tree (with its attributes) from there when it is needed.
+ *
+ * In both cases the trees are CompactTrees that are numbered in the same way as those read by the
+ * NexusImporter.
+ */
+public abstract class LazyTreeList extends AbstractList<Tree> {
+
+    public static final int DEFAULT_CACHE_SIZE = 16;
+
+    /**
+     * Reads all the trees in a file and keeps them in a compact form.
+     *
+     * @param file                  the tree file
+     * @param taxonList             a taxon list in which to look up the taxa (can be null)
+     * @param useTaxonListNumbering whether the external nodes should be numbered in the order of the taxon list
+     * @param cacheSize             the number of trees to cache
+     */
+    public static LazyTreeList createCompactList(File file, TaxonList taxonList, boolean useTaxonListNumbering,
+                                                 int cacheSize) throws IOException, Importer.ImportException {
+        CompactList list = new CompactList(cacheSize);
+        CompactTreeImporter importer = new CompactTreeImporter(file, true);
+        try {
+            importer.setTaxonList(taxonList, useTaxonListNumbering);
+            while (importer.hasTree()) {
+                list.addTree(importer.importNextTree());
+            }
+        } finally {
+            importer.close();
+        }
+        if (list.size() == 0) {
+            throw new NexusImporter.MissingBlockException("TREES block is missing");
+        }
+        return list;
+    }
+
+    /**
+     * Indexes the trees in a file (using the index file if there is one) and reads each tree from the
+     * file when it is needed. The file is kept open.
+     *
+     * @param file                  the tree file
+     * @param taxonList             a taxon list in which to look up the taxa (can be null)
+     * @param useTaxonListNumbering whether the external nodes should be numbered in the order of the taxon list
+     * @param cacheSize             the number of trees to cache
+     */
+    public static LazyTreeList createIndexedList(File file, TaxonList taxonList, boolean useTaxonListNumbering,
+                                                 int cacheSize) throws IOException, Importer.ImportException {
+        TreeFileIndex index = TreeFileIndex.getIndex(file);
+        if (index.getTreeCount() == 0) {
+            throw new NexusImporter.MissingBlockException("TREES block is missing");
+        }
+        CompactTreeImporter importer = new CompactTreeImporter(file, false);
+        importer.setTaxonList(taxonList, useTaxonListNumbering);
+        importer.setIndex(index);
+        return new IndexedList(index, importer, cacheSize);
+    }
+
+    protected LazyTreeList(final int cacheSize) {
+        this.cache = new LinkedHashMap<Integer, Tree>(16, 0.75f, true) {
+            protected boolean removeEldestEntry(Map.Entry<Integer, Tree> eldest) {
+                return size() > cacheSize;
+            }
+        };
+    }
+
+    public synchronized Tree get(int index) {
+        if (index < 0 || index >= size()) {
+            throw new IndexOutOfBoundsException("Tree " + index + " is not in the list");
+        }
+        Tree tree = cache.get(index);
+        if (tree == null) {
+            tree = createTree(index);
+            cache.put(index, tree);
+        }
+        return tree;
+    }
+
+    /**
+     * Builds a tree.
+     */
+    protected abstract Tree createTree(int index);
+
+    private final Map<Integer, Tree> cache;
+
+    private static class CompactList extends LazyTreeList {
+
+        private CompactList(int cacheSize) {
+            super(cacheSize);
+        }
+
+        public int size() {
+            return ids.size();
+        }
+
+        /**
+         * Stores a tree with its nodes in pre-order.
+         */
+        private void addTree(Tree tree) throws Importer.ImportException {
+            int nodeCount = tree.getNodeCount();
+            int[] parents = new int[nodeCount];
+            double[] lengths = new double[nodeCount];
+            int[] tips = new int[tree.getExternalNodeCount()];
+
+            NodeRef[] stack = new NodeRef[nodeCount];
+            int[] parentIndices = new int[nodeCount];
+            int top = 0;
+            stack[0] = tree.getRoot();
+            parentIndices[0] = -1;
+            int node = 0;
+            int tip = 0;
+            while (top >= 0) {
+                NodeRef nodeRef = stack[top];
+                parents[node] = parentIndices[top];
+                top--;
+                lengths[node] = (tree.isRoot(nodeRef) ? 0.0 : tree.getBranchLength(nodeRef));
+
+                int childCount = tree.getChildCount(nodeRef);
+                if (childCount == 0) {
+                    tips[tip] = getTaxonIndex(tree.getNodeTaxon(nodeRef), nodeRef.getNumber());
+                    tip++;
+                }
+                // push the children in reverse so they are visited in order
+                for (int i = childCount - 1; i >= 0; i--) {
+                    top++;
+                    stack[top] = tree.getChild(nodeRef, i);
+                    parentIndices[top] = node;
+                }
+                node++;
+            }
+
+            this.parents.add(parents);
+            this.lengths.add(lengths);
+            this.tips.add(tips);
+            ids.add(tree.getId());
+        }
+
+        private int getTaxonIndex(Taxon taxon, int number) throws Importer.ImportException {
+            Integer index = taxonIndices.get(taxon);
+            if (index == null) {
+                index = taxa.size();
+                taxa.add(taxon);
+                taxonIndices.put(taxon, index);
+                taxonNumberMap.put(taxon, number);
+            } else if (taxonNumberMap.get(taxon) != number) {
+                throw new Importer.BadFormatException("The trees in the file do not all use the same taxon numbering");
+            }
+            return index;
+        }
+
+        protected Tree createTree(int index) {
+            int[] parents = this.parents.get(index);
+            double[] lengths = this.lengths.get(index);
+            int[] tips = this.tips.get(index);
+
+            int nodeCount = parents.length;
+            Taxon[] nodeTaxa = new Taxon[nodeCount];
+            boolean[] isParent = new boolean[nodeCount];
+            for (int i = 1; i < nodeCount; i++) {
+                isParent[parents[i]] = true;
+            }
+            int tip = 0;
+            for (int i = 0; i < nodeCount; i++) {
+                if (!isParent[i]) {
+                    nodeTaxa[i] = taxa.get(tips[tip]);
+                    tip++;
+                }
+            }
+
+            CompactTree tree = new CompactTree(nodeCount, parents, lengths, nodeTaxa, null, taxonNumberMap);
+            if (ids.get(index) != null) {
+                tree.setId(ids.get(index));
+            }
+            return tree;
+        }
+
+        private final List<int[]> parents = new ArrayList<int[]>();
+        private final List<double[]> lengths = new ArrayList<double[]>();
+        private final List<int[]> tips = new ArrayList<int[]>();
+        private final List<String> ids = new ArrayList<String>();
+
+        private final List<Taxon> taxa = new ArrayList<Taxon>();
+        private final Map<Taxon, Integer> taxonIndices = new HashMap<Taxon, Integer>();
+        private final Map<Taxon, Integer> taxonNumberMap = new HashMap<Taxon, Integer>();
+    }
+
+    private static class IndexedList extends LazyTreeList {
+
+        private IndexedList(TreeFileIndex index, CompactTreeImporter importer, int cacheSize) {
+            super(cacheSize);
+            this.index = index;
+            this.importer = importer;
+        }
+
+        public int size() {
+            return index.getTreeCount();
+        }
+
+        protected Tree createTree(int index) {
+            try {
+                importer.seekToTree(index);
+                Tree tree = importer.importNextTree();
+                if (tree == null) {
+                    throw new RuntimeException("Tree " + index + " could not be read from the file");
+                }
+                return tree;
+            } catch (IOException ioe) {
+                throw new RuntimeException("Unable to read tree " + index + ": " + ioe.getMessage());
+            } catch (Importer.ImportException ie) {
+                throw new RuntimeException("Unable to read tree " + index + ": " + ie.getMessage());
+            }
+        }
+
+        private final TreeFileIndex index;
+        private final CompactTreeImporter importer;
+    }
+}
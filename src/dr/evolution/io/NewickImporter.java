@@ -76,7 +76,7 @@ public class NewickImporter extends Importer implements TreeImporter {
      * @param treeString a string containing a tree in newick format
      */
     public NewickImporter(String treeString) {
-        this(new StringReader(treeString));
+        super(new StringReader(treeString), null, true);
     }
 
     /**
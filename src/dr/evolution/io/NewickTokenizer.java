@@ -0,0 +1,507 @@
+/*
+ * NewickTokenizer.java
+ *
+ * Copyright (c) 2002-2017 Alexei Drummond, Andrew Rambaut and Marc Suchard
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ */
+
+package dr.evolution.io;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.Charset;
+
+/**
+ * A tokenizer for NEXUS and Newick tree files that works directly on the bytes of the file read
+ * through a large NIO buffer. Tokens are held in a reusable byte array and are only turned into
+ * Strings when asked so labels can be looked up as integers and branch lengths parsed as numbers
+ * without creating any intermediate objects.
+ *
+ * Comments are in square brackets and can be nested. Meta-comments, starting '[&', are kept
+ * (if requested) until they are cleared or another comment is read and, as in Importer, consecutive
+ * meta-comments are joined with a ';'.
+ *
+ * The file is assumed to be in UTF-8 (of which ASCII is a subset). When reading from a file the
+ * tokenizer can seek to a byte offset (e.g., one recorded in a TreeFileIndex).
+ */
+public class NewickTokenizer {
+
+    public static final int BUFFER_SIZE = 1 << 22;
+
+    // after a seek the buffer is filled with small reads that grow back to the full buffer size
+    private static final int SEEK_READ_SIZE = 1 << 14;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    // the powers of ten that are exactly representable as doubles
+    private static final double[] POWERS_OF_TEN = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+
+    public NewickTokenizer(File file) throws IOException {
+        this(new FileInputStream(file).getChannel());
+    }
+
+    public NewickTokenizer(FileChannel channel) {
+        this((ReadableByteChannel) channel);
+        this.fileChannel = channel;
+    }
+
+    public NewickTokenizer(InputStream inputStream) {
+        this(Channels.newChannel(inputStream));
+    }
+
+    public NewickTokenizer(ReadableByteChannel channel) {
+        this.channel = channel;
+        this.buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        this.bytes = buffer.array();
+    }
+
+    /**
+     * @param readMetaComments whether meta-comments should be kept (otherwise they are skipped like other comments)
+     */
+    public void setReadMetaComments(boolean readMetaComments) {
+        this.readMetaComments = readMetaComments;
+    }
+
+    /**
+     * @return the next byte without consuming it or -1 at the end of the file
+     */
+    public int peek() throws IOException {
+        if (position == limit && !fill()) {
+            return -1;
+        }
+        return bytes[position] & 0xFF;
+    }
+
+    /**
+     * @return the next byte or -1 at the end of the file
+     */
+    public int read() throws IOException {
+        if (position == limit && !fill()) {
+            return -1;
+        }
+        return bytes[position++] & 0xFF;
+    }
+
+    /**
+     * Skips any whitespace and comments.
+     *
+     * @return the next byte without consuming it or -1 at the end of the file
+     */
+    public int skipSpace() throws IOException {
+        while (true) {
+            while (position < limit) {
+                int ch = bytes[position] & 0xFF;
+                if (ch == '[') {
+                    position++;
+                    skipComment();
+                } else if (ch > ' ') {
+                    return ch;
+                } else {
+                    position++;
+                }
+            }
+            if (!fill()) {
+                return -1;
+            }
+        }
+    }
+
+    /**
+     * Skips everything up to and including the given byte, ignoring any in comments or quotes.
+     *
+     * @return false if the end of the file was reached first
+     */
+    public boolean skipPast(int delimiter) throws IOException {
+        while (true) {
+            while (position < limit) {
+                int ch = bytes[position++] & 0xFF;
+                if (ch == delimiter) {
+                    return true;
+                } else if (ch == '[') {
+                    skipComment();
+                } else if (ch == '\'' || ch == '"') {
+                    tokenLength = 0;
+                    readQuotedToken(ch);
+                }
+            }
+            if (!fill()) {
+                return false;
+            }
+        }
+    }
+
+    /**
+     * @return the offset in the file of the next byte to be read
+     */
+    public long getPosition() {
+        return bufferOffset + position;
+    }
+
+    /**
+     * Moves to the given offset in the file. Any meta-comment that has been read is discarded.
+     */
+    public void seek(long offset) throws IOException {
+        if (offset >= bufferOffset && offset <= bufferOffset + limit) {
+            position = (int) (offset - bufferOffset);
+        } else {
+            if (fileChannel == null) {
+                throw new IOException("Only a tokenizer reading a file can seek");
+            }
+            fileChannel.position(offset);
+            bufferOffset = offset;
+            position = limit = 0;
+            endOfFile = false;
+            readSize = SEEK_READ_SIZE;
+        }
+        metaComment = null;
+    }
+
+    /**
+     * Skips any whitespace and comments and then reads the next byte which must be the one given.
+     */
+    public void expect(char ch, String message) throws IOException, Importer.ImportException {
+        int next = skipSpace();
+        if (next != ch) {
+            throw new Importer.BadFormatException(message);
+        }
+        position++;
+    }
+
+    /**
+     * Reads a token after skipping any whitespace and comments. The token ends at whitespace, the
+     * start of a comment or any of the delimiters (which is not consumed). If the token begins with
+     * a quote then everything up to the matching quote is included with repeated quotes used for a
+     * literal quote and runs of whitespace compressed into single spaces (as in Importer).
+     *
+     * @param delimiters a table of the bytes that end the token (see createDelimiters)
+     * @return the length of the token (which may be zero)
+     */
+    public int readToken(boolean[] delimiters) throws IOException {
+        tokenLength = 0;
+
+        int ch = skipSpace();
+        if (ch == '\'' || ch == '"') {
+            position++;
+            readQuotedToken(ch);
+            return tokenLength;
+        }
+
+        while (true) {
+            while (position < limit) {
+                ch = bytes[position] & 0xFF;
+                if (ch <= ' ' || ch == '[' || delimiters[ch]) {
+                    return tokenLength;
+                }
+                appendToToken(ch);
+                position++;
+            }
+            if (!fill()) {
+                return tokenLength;
+            }
+        }
+    }
+
+    /**
+     * @return the last token as a String
+     */
+    public String getToken() {
+        return new String(token, 0, tokenLength, UTF8);
+    }
+
+    public boolean tokenEqualsIgnoreCase(String value) {
+        if (value.length() != tokenLength) {
+            return false;
+        }
+        for (int i = 0; i < tokenLength; i++) {
+            if (Character.toUpperCase((char) token[i]) != Character.toUpperCase(value.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the value of the last token if it is a non-negative integer written without leading
+     *         zeros and which fits in an int, otherwise -1.
+     */
+    public int getTokenInteger() {
+        if (tokenLength == 0 || tokenLength > 9 || (token[0] == '0' && tokenLength > 1)) {
+            return -1;
+        }
+        int value = 0;
+        for (int i = 0; i < tokenLength; i++) {
+            int digit = token[i] - '0';
+            if (digit < 0 || digit > 9) {
+                return -1;
+            }
+            value = value * 10 + digit;
+        }
+        return value;
+    }
+
+    /**
+     * Parses the last token as a double. Numbers with up to 15 significant digits and small exponents
+     * are converted exactly with a single correctly rounded multiplication or division (so give the
+     * same result as Double.parseDouble), anything else is passed on to Double.parseDouble.
+     */
+    public double getTokenDouble() throws Importer.ImportException {
+        int i = 0;
+        boolean negative = false;
+        if (tokenLength > 0 && (token[0] == '-' || token[0] == '+')) {
+            negative = token[0] == '-';
+            i++;
+        }
+
+        long mantissa = 0;
+        int digits = 0;
+        int exponent = 0;
+        boolean seenDigit = false;
+        boolean seenPoint = false;
+        for (; i < tokenLength; i++) {
+            int ch = token[i];
+            if (ch >= '0' && ch <= '9') {
+                seenDigit = true;
+                if (mantissa != 0 || ch != '0') {
+                    if (digits == 15) {
+                        return parseDouble();
+                    }
+                    mantissa = mantissa * 10 + (ch - '0');
+                    digits++;
+                }
+                if (seenPoint) {
+                    exponent--;
+                }
+            } else if (ch == '.' && !seenPoint) {
+                seenPoint = true;
+            } else if ((ch == 'e' || ch == 'E') && seenDigit) {
+                i++;
+                boolean negativeExponent = false;
+                if (i < tokenLength && (token[i] == '-' || token[i] == '+')) {
+                    negativeExponent = token[i] == '-';
+                    i++;
+                }
+                if (i == tokenLength || tokenLength - i > 3) {
+                    return parseDouble();
+                }
+                int e = 0;
+                for (; i < tokenLength; i++) {
+                    int digit = token[i] - '0';
+                    if (digit < 0 || digit > 9) {
+                        return parseDouble();
+                    }
+                    e = e * 10 + digit;
+                }
+                exponent += (negativeExponent ? -e : e);
+                break;
+            } else {
+                return parseDouble();
+            }
+        }
+
+        if (!seenDigit) {
+            return parseDouble();
+        }
+
+        double value;
+        if (mantissa == 0) {
+            value = 0.0;
+        } else if (exponent >= 0 && exponent < POWERS_OF_TEN.length) {
+            value = (double) mantissa * POWERS_OF_TEN[exponent];
+        } else if (exponent < 0 && -exponent < POWERS_OF_TEN.length) {
+            value = (double) mantissa / POWERS_OF_TEN[-exponent];
+        } else {
+            return parseDouble();
+        }
+        return negative ? -value : value;
+    }
+
+    private double parseDouble() throws Importer.ImportException {
+        try {
+            return Double.parseDouble(getToken());
+        } catch (NumberFormatException nfe) {
+            throw new Importer.ImportException("Number format error: " + nfe.getMessage());
+        }
+    }
+
+    /**
+     * @return the meta-comments read since they were last cleared or null if there were none
+     */
+    public String getLastMetaComment() {
+        return (metaComment != null ? metaComment.toString() : null);
+    }
+
+    public void clearLastMetaComment() {
+        metaComment = null;
+    }
+
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * Creates a table of delimiter bytes for readToken.
+     */
+    public static boolean[] createDelimiters(String delimiters) {
+        boolean[] table = new boolean[256];
+        for (int i = 0; i < delimiters.length(); i++) {
+            table[delimiters.charAt(i)] = true;
+        }
+        return table;
+    }
+
+    private void readQuotedToken(int quote) throws IOException {
+        int space = 0;
+        int ch = read();
+        while (ch != -1) {
+            if (ch == quote) {
+                if (peek() == quote) {
+                    // a repeated quote is a literal quote
+                    position++;
+                    space = 0;
+                    appendToToken(ch);
+                } else {
+                    return;
+                }
+            } else if (ch <= ' ') {
+                // compress multiple spaces into one
+                space++;
+                if (space < 2) {
+                    appendToToken(' ');
+                }
+            } else {
+                space = 0;
+                appendToToken(ch);
+            }
+            ch = read();
+        }
+    }
+
+    /**
+     * Skips a comment (with the opening bracket already read).
+     */
+    private void skipComment() throws IOException {
+        StringBuilder meta = null;
+        if (readMetaComments && peek() == '&') {
+            position++;
+            meta = metaComment;
+            if (meta == null) {
+                meta = new StringBuilder();
+            } else {
+                // combine two consecutive meta comments
+                meta.append(';');
+            }
+        }
+
+        int depth = 1;
+        while (true) {
+            int ch = read();
+            if (ch == -1) {
+                throw new EOFException();
+            } else if (ch == '[') {
+                depth++;
+            } else if (ch == ']') {
+                depth--;
+                if (depth == 0) {
+                    break;
+                }
+            } else if (meta != null) {
+                if (ch < 0x80) {
+                    meta.append((char) ch);
+                } else {
+                    appendUTF8(meta, ch);
+                }
+            }
+        }
+
+        // as in Importer, any other comment in between means meta-comments are not combined
+        metaComment = meta;
+    }
+
+    private void appendUTF8(StringBuilder sb, int first) throws IOException {
+        // collect the rest of a multi-byte sequence and decode it
+        int count = (first >= 0xF0 ? 3 : first >= 0xE0 ? 2 : 1);
+        byte[] sequence = new byte[count + 1];
+        sequence[0] = (byte) first;
+        for (int i = 1; i <= count; i++) {
+            int ch = read();
+            if (ch == -1) {
+                throw new EOFException();
+            }
+            sequence[i] = (byte) ch;
+        }
+        sb.append(new String(sequence, UTF8));
+    }
+
+    private void appendToToken(int ch) {
+        if (tokenLength == token.length) {
+            byte[] newToken = new byte[token.length * 2];
+            System.arraycopy(token, 0, newToken, 0, tokenLength);
+            token = newToken;
+        }
+        token[tokenLength] = (byte) ch;
+        tokenLength++;
+    }
+
+    private boolean fill() throws IOException {
+        if (endOfFile) {
+            return false;
+        }
+        bufferOffset += limit;
+        position = limit = 0;
+        buffer.clear();
+        if (readSize < BUFFER_SIZE) {
+            buffer.limit(readSize);
+            readSize = Math.min(readSize * 4, BUFFER_SIZE);
+        }
+        int count;
+        do {
+            count = channel.read(buffer);
+        } while (count == 0);
+        if (count < 0) {
+            endOfFile = true;
+            return false;
+        }
+        limit = count;
+        return true;
+    }
+
+    private final ReadableByteChannel channel;
+    private FileChannel fileChannel = null;
+    private long bufferOffset = 0;
+    private int readSize = BUFFER_SIZE;
+    private final ByteBuffer buffer;
+    private final byte[] bytes;
+    private int position = 0;
+    private int limit = 0;
+    private boolean endOfFile = false;
+
+    private byte[] token = new byte[256];
+    private int tokenLength = 0;
+
+    private boolean readMetaComments = true;
+    private StringBuilder metaComment = null;
+}
@@ -942,32 +942,7 @@ public class NexusImporter extends Importer implements SequenceImporter, TreeImp
                     }
 
                     if (scomment != null) {
-                        // below is correct only if [&W] appears on it own
-                        String c = scomment;
-                        while (c.length() > 0) {
-                            final char ch = c.charAt(0);
-                            if (ch == ';') {
-                                c = c.substring(1);
-                                continue;
-                            }
-                            if (ch == 'R') {
-                                // we only have rooted trees anyway
-                                c = c.substring(1);
-                            } else if (ch == 'W') {
-                                int e = c.indexOf(';');
-                                if (e < 0) e = c.length();
-
-                                try {
-                                    final Float value = new Float(c.substring(2, e));
-                                    tree.setAttribute("weight", value);
-                                } catch (NumberFormatException ex) {
-                                    // don't fail, ignore
-                                }
-                                c = c.substring(e);
-                            } else {
-                                c = c.substring(1);
-                            }
-                        }
+                        parseTreeSpecialComment(scomment, tree);
                     }
 
                     if (comment != null) {
@@ -1282,6 +1257,39 @@ public class NexusImporter extends Importer implements SequenceImporter, TreeImp
         return dateArray;
     }
 
+    /**
+     * Parses the special comments that can precede a tree definition, i.e. [&R] for a rooted tree
+     * and [&W value] for a tree weight which is set as the 'weight' attribute of the tree.
+     */
+    static void parseTreeSpecialComment(String scomment, Tree tree) {
+        // below is correct only if [&W] appears on it own
+        String c = scomment;
+        while (c.length() > 0) {
+            final char ch = c.charAt(0);
+            if (ch == ';') {
+                c = c.substring(1);
+                continue;
+            }
+            if (ch == 'R') {
+                // we only have rooted trees anyway
+                c = c.substring(1);
+            } else if (ch == 'W') {
+                int e = c.indexOf(';');
+                if (e < 0) e = c.length();
+
+                try {
+                    final Float value = new Float(c.substring(2, e));
+                    tree.setAttribute("weight", value);
+                } catch (NumberFormatException ex) {
+                    // don't fail, ignore
+                }
+                c = c.substring(e);
+            } else {
+                c = c.substring(1);
+            }
+        }
+    }
+
     static void parseMetaCommentPairs(String meta, Attributable item) throws Importer.BadFormatException {
         if (meta.startsWith("B ")) {
             // a MrBayes annotation
@@ -0,0 +1,367 @@
+/*
+ * TreeFileIndex.java
+ *
+ * Copyright (c) 2002-2017 Alexei Drummond, Andrew Rambaut and Marc Suchard
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ */
+
+package dr.evolution.io;
+
+import java.io.*;
+import java.util.Arrays;
+import java.util.logging.Logger;
+
+/**
+ * An index of the trees in a NEXUS or Newick tree file giving the STATE number of each tree (taken
+ * from tree names of the form 'STATE_n') and the byte offset in the file at which it starts. This
+ * lets a CompactTreeImporter seek straight to a tree, skip the burn-in or thin the sample without
+ * parsing the trees in between, and lets a file be split into ranges of trees for separate workers.
+ *
+ * The index is kept in a sidecar file (the tree file name with '.index' appended) which is either
+ * written by the TreeLogger as the trees are logged or built the first time the file is read. It is
+ * stored as a sequence of (state, offset) records so it can be extended as the tree file grows.
+ */
+public class TreeFileIndex {
+
+    public static final String INDEX_FILE_SUFFIX = ".index";
+
+    // the state of trees that don't have a name of the form STATE_n
+    public static final long NO_STATE = -1;
+
+    private static final int MAGIC = 0x42544958; // "BTIX"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 8;
+    private static final int RECORD_SIZE = 16;
+
+    private static final boolean[] COMMAND_DELIMITERS = NewickTokenizer.createDelimiters(";=");
+
+    private TreeFileIndex() {
+    }
+
+    /**
+     * Gets the index for a tree file. The index file is read if it exists and matches the tree file,
+     * and is extended with any trees that have been added to the tree file since it was written.
+     * Otherwise the tree file is scanned and a new index file written (if possible).
+     */
+    public static TreeFileIndex getIndex(File treeFile) throws IOException {
+        File indexFile = getIndexFile(treeFile);
+
+        TreeFileIndex index = null;
+        if (indexFile.exists()) {
+            index = readIndex(indexFile);
+        }
+
+        NewickTokenizer tokenizer = new NewickTokenizer(treeFile);
+        try {
+            if (index != null && !index.matches(tokenizer)) {
+                index = null;
+            }
+
+            boolean isNew = (index == null);
+            int indexed = 0;
+            if (isNew) {
+                index = new TreeFileIndex();
+                index.scan(tokenizer, 0);
+            } else {
+                // rescan the last tree to find where it ends and then look for any more
+                indexed = index.treeCount;
+                index.treeCount--;
+                index.scan(tokenizer, index.offsets[indexed - 1]);
+            }
+
+            if (index.treeCount > indexed) {
+                try {
+                    if (isNew) {
+                        index.write(indexFile);
+                    } else {
+                        index.append(indexFile, indexed);
+                    }
+                } catch (IOException ioe) {
+                    Logger.getLogger("dr.evolution.io").fine("Unable to write tree file index, " +
+                            indexFile.getName() + ": " + ioe.getMessage());
+                }
+            }
+        } finally {
+            tokenizer.close();
+        }
+
+        return index;
+    }
+
+    /**
+     * Scans a tree file to build an index without writing it.
+     */
+    public static TreeFileIndex createIndex(File treeFile) throws IOException {
+        TreeFileIndex index = new TreeFileIndex();
+        NewickTokenizer tokenizer = new NewickTokenizer(treeFile);
+        try {
+            index.scan(tokenizer, 0);
+        } finally {
+            tokenizer.close();
+        }
+        return index;
+    }
+
+    public static File getIndexFile(File treeFile) {
+        return new File(treeFile.getPath() + INDEX_FILE_SUFFIX);
+    }
+
+    public int getTreeCount() {
+        return treeCount;
+    }
+
+    /**
+     * @return the state of a tree or NO_STATE if the name of the tree was not of the form STATE_n
+     */
+    public long getState(int tree) {
+        checkTree(tree);
+        return states[tree];
+    }
+
+    /**
+     * @return the offset in the file of the start of a tree
+     */
+    public long getOffset(int tree) {
+        checkTree(tree);
+        return offsets[tree];
+    }
+
+    /**
+     * @return the number of leading trees that are within the burn-in given either as a number of trees
+     *         or of states (trees without a state are taken to be after the burn-in).
+     */
+    public int getBurninTreeCount(int burninTrees, long burninStates) {
+        int tree = 0;
+        while (tree < treeCount && (tree < burninTrees ||
+                (burninStates > 0 && states[tree] != NO_STATE && states[tree] < burninStates))) {
+            tree++;
+        }
+        return tree;
+    }
+
+    /**
+     * Divides a range of trees into contiguous parts of (nearly) equal size.
+     *
+     * @return the first tree of each part followed by the end of the range
+     */
+    public int[] split(int firstTree, int lastTree, int partCount) {
+        if (firstTree < 0 || lastTree > treeCount || firstTree > lastTree) {
+            throw new IllegalArgumentException("Tree range out of bounds");
+        }
+        if (partCount < 1) {
+            throw new IllegalArgumentException("At least one part required");
+        }
+        int[] bounds = new int[partCount + 1];
+        int count = lastTree - firstTree;
+        for (int i = 0; i <= partCount; i++) {
+            bounds[i] = firstTree + (int) (((long) count * i) / partCount);
+        }
+        return bounds;
+    }
+
+    private void checkTree(int tree) {
+        if (tree < 0 || tree >= treeCount) {
+            throw new IndexOutOfBoundsException("Tree " + tree + " is not in the index");
+        }
+    }
+
+    /**
+     * Scans the file from the given offset (which must be at the start of a command or tree) adding
+     * all complete trees to the index. Anything other than a TREE command (or a tree in a Newick file)
+     * is skipped.
+     */
+    private void scan(NewickTokenizer tokenizer, long offset) throws IOException {
+        tokenizer.setReadMetaComments(false);
+        tokenizer.seek(offset);
+
+        while (true) {
+            int ch = tokenizer.skipSpace();
+            if (ch == -1) {
+                return;
+            }
+            long start = tokenizer.getPosition();
+
+            long state = NO_STATE;
+            boolean isTree = false;
+            if (ch == '(') {
+                isTree = true;
+            } else if (tokenizer.readToken(COMMAND_DELIMITERS) == 0) {
+                // an empty command or a stray '='
+                tokenizer.read();
+                continue;
+            } else if (tokenizer.tokenEqualsIgnoreCase("TREE") || tokenizer.tokenEqualsIgnoreCase("UTREE")) {
+                isTree = true;
+                if (tokenizer.skipSpace() == '*') {
+                    tokenizer.read();
+                }
+                tokenizer.readToken(COMMAND_DELIMITERS);
+                state = parseState(tokenizer.getToken());
+            }
+
+            if (!tokenizer.skipPast(';')) {
+                // the last tree is incomplete (perhaps it is still being written)
+                return;
+            }
+
+            if (isTree) {
+                addTree(state, start);
+            }
+        }
+    }
+
+    /**
+     * Checks that the first and last trees in the index are where the index says they are.
+     */
+    private boolean matches(NewickTokenizer tokenizer) throws IOException {
+        if (treeCount == 0) {
+            return false;
+        }
+        return matches(tokenizer, 0) && matches(tokenizer, treeCount - 1);
+    }
+
+    private boolean matches(NewickTokenizer tokenizer, int tree) throws IOException {
+        tokenizer.setReadMetaComments(false);
+        tokenizer.seek(offsets[tree]);
+        int ch = tokenizer.peek();
+        if (ch == '(') {
+            return states[tree] == NO_STATE;
+        }
+        tokenizer.readToken(COMMAND_DELIMITERS);
+        if (!tokenizer.tokenEqualsIgnoreCase("TREE") && !tokenizer.tokenEqualsIgnoreCase("UTREE")) {
+            return false;
+        }
+        if (tokenizer.skipSpace() == '*') {
+            tokenizer.read();
+        }
+        tokenizer.readToken(COMMAND_DELIMITERS);
+        return parseState(tokenizer.getToken()) == states[tree];
+    }
+
+    static long parseState(String name) {
+        if (name.startsWith("STATE_")) {
+            try {
+                return Long.parseLong(name.substring(6));
+            } catch (NumberFormatException nfe) {
+                // not a state
+            }
+        }
+        return NO_STATE;
+    }
+
+    void addTree(long state, long offset) {
+        if (treeCount == states.length) {
+            states = Arrays.copyOf(states, treeCount * 2);
+            offsets = Arrays.copyOf(offsets, treeCount * 2);
+        }
+        states[treeCount] = state;
+        offsets[treeCount] = offset;
+        treeCount++;
+    }
+
+    private static TreeFileIndex readIndex(File indexFile) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)));
+        try {
+            long length = indexFile.length();
+            if (length < HEADER_SIZE || in.readInt() != MAGIC || in.readInt() != VERSION) {
+                return null;
+            }
+            // ignore a partly written last record
+            int count = (int) ((length - HEADER_SIZE) / RECORD_SIZE);
+            TreeFileIndex index = new TreeFileIndex();
+            for (int i = 0; i < count; i++) {
+                long state = in.readLong();
+                long offset = in.readLong();
+                if (i > 0 && offset <= index.offsets[i - 1]) {
+                    return null;
+                }
+                index.addTree(state, offset);
+            }
+            return index;
+        } finally {
+            in.close();
+        }
+    }
+
+    private void write(File indexFile) throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(indexFile)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            for (int i = 0; i < treeCount; i++) {
+                out.writeLong(states[i]);
+                out.writeLong(offsets[i]);
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    private void append(File indexFile, int firstTree) throws IOException {
+        // truncate any partly written record before appending
+        RandomAccessFile file = new RandomAccessFile(indexFile, "rw");
+        try {
+            file.setLength(HEADER_SIZE + (long) firstTree * RECORD_SIZE);
+            file.seek(file.length());
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            for (int i = firstTree; i < treeCount; i++) {
+                out.writeLong(states[i]);
+                out.writeLong(offsets[i]);
+            }
+            file.write(bytes.toByteArray());
+        } finally {
+            file.close();
+        }
+    }
+
+    /**
+     * Writes an index as trees are logged. The records are written as each tree is added so the
+     * index can be used while the tree file is still being written.
+     */
+    public static class Writer {
+
+        public Writer(File treeFile) throws IOException {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(getIndexFile(treeFile))));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.flush();
+        }
+
+        /**
+         * Adds a tree which must have been written (and flushed) to the tree file.
+         */
+        public void addTree(long state, long offset) throws IOException {
+            out.writeLong(state);
+            out.writeLong(offset);
+            out.flush();
+        }
+
+        public void close() throws IOException {
+            out.close();
+        }
+
+        private final DataOutputStream out;
+    }
+
+    private int treeCount = 0;
+    private long[] states = new long[1024];
+    private long[] offsets = new long[1024];
+}
@@ -0,0 +1,433 @@
+/*
+ * CompactTree.java
+ *
+ * Copyright (c) 2002-2017 Alexei Drummond, Andrew Rambaut and Marc Suchard
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ */
+
+package dr.evolution.tree;
+
+import dr.evolution.util.Taxon;
+import dr.util.Attributable;
+
+import java.util.*;
+
+/**
+ * An immutable tree held in a few flat arrays rather than as a graph of node objects. This is
+ * intended for read-only tools that read many thousands of trees (i.e., TreeAnnotator) and only
+ * need to traverse them.
+ *
+ * The nodes are numbered in the same way as a FlexibleTree read by NexusImporter so the two can
+ * be used interchangeably: the external nodes are numbered by the given taxon numbering (or in
+ * post-order if there is none) and the internal nodes in post-order after them. The node heights
+ * are calculated from the branch lengths in the same way as FlexibleTree.
+ */
+public class CompactTree implements Tree {
+
+    /**
+     * Constructs a tree from nodes given in pre-order (so each node's parent comes before it and
+     * siblings are in order).
+     *
+     * @param nodeCount      the number of nodes
+     * @param parents        the index of the parent of each node (-1 for the root which must be the first)
+     * @param lengths        the branch length above each node
+     * @param taxa           the taxon of each external node (null for the internal nodes)
+     * @param attributes     the attributes of each node (can be null, or null for individual nodes)
+     * @param taxonNumberMap a map giving the number of the external node for each taxon (can be null)
+     */
+    public CompactTree(int nodeCount, int[] parents, double[] lengths, Taxon[] taxa,
+                       Attributable[] attributes, Map<Taxon, Integer> taxonNumberMap) {
+
+        if (nodeCount < 1 || parents[0] != -1) {
+            throw new IllegalArgumentException("The first node must be the root");
+        }
+
+        this.nodeCount = nodeCount;
+
+        // the children of each node in the pre-order numbering
+        int[] childCounts = new int[nodeCount];
+        for (int i = 1; i < nodeCount; i++) {
+            childCounts[parents[i]]++;
+        }
+        int[] preOrderChildStart = new int[nodeCount + 1];
+        int count = 0;
+        int externalCount = 0;
+        for (int i = 0; i < nodeCount; i++) {
+            preOrderChildStart[i] = count;
+            count += childCounts[i];
+            if (childCounts[i] == 0) {
+                externalCount++;
+            }
+        }
+        externalNodeCount = externalCount;
+        preOrderChildStart[nodeCount] = count;
+        int[] preOrderChildren = new int[count];
+        int[] next = new int[nodeCount];
+        System.arraycopy(preOrderChildStart, 0, next, 0, nodeCount);
+        for (int i = 1; i < nodeCount; i++) {
+            preOrderChildren[next[parents[i]]++] = i;
+        }
+
+        // number the nodes in post-order as FlexibleTree does
+        int[] numbers = new int[nodeCount];
+        int[] stack = new int[nodeCount];
+        int[] position = new int[nodeCount];
+        int top = 0;
+        int externalNumber = 0;
+        int internalNumber = externalNodeCount;
+        boolean useTaxonNumbers = taxonNumberMap != null && taxonNumberMap.size() > 0;
+
+        stack[0] = 0;
+        position[0] = preOrderChildStart[0];
+        while (top >= 0) {
+            int node = stack[top];
+            if (position[node] < preOrderChildStart[node + 1]) {
+                int child = preOrderChildren[position[node]++];
+                top++;
+                stack[top] = child;
+                position[child] = preOrderChildStart[child];
+            } else {
+                if (childCounts[node] == 0) {
+                    if (useTaxonNumbers) {
+                        Integer number = taxonNumberMap.get(taxa[node]);
+                        if (number == null) {
+                            throw new IllegalArgumentException("Taxon, " + taxa[node].getId() + ", is not in the taxon numbering");
+                        }
+                        numbers[node] = number;
+                    } else {
+                        numbers[node] = externalNumber;
+                        externalNumber++;
+                    }
+                } else {
+                    numbers[node] = internalNumber;
+                    internalNumber++;
+                }
+                top--;
+            }
+        }
+
+        // lay out the arrays by node number
+        parent = new int[nodeCount];
+        childStart = new int[nodeCount + 1];
+        children = new int[count];
+        length = new double[nodeCount];
+        height = new double[nodeCount];
+        taxon = new Taxon[externalNodeCount];
+        nodeAttributes = (attributes != null ? new Attributable[nodeCount] : null);
+        nodes = new Node[nodeCount];
+
+        int[] preOrderIndex = new int[nodeCount];
+        for (int i = 0; i < nodeCount; i++) {
+            int number = numbers[i];
+            if (number < 0 || number >= nodeCount || nodes[number] != null ||
+                    (childCounts[i] == 0) != (number < externalNodeCount)) {
+                throw new IllegalArgumentException("The taxon numbering is not compatible with the tree");
+            }
+            preOrderIndex[number] = i;
+            nodes[number] = new Node(number);
+            parent[number] = (parents[i] == -1 ? -1 : numbers[parents[i]]);
+            length[number] = lengths[i];
+            if (childCounts[i] == 0) {
+                taxon[number] = taxa[i];
+            }
+            if (attributes != null) {
+                nodeAttributes[number] = attributes[i];
+            }
+        }
+        count = 0;
+        for (int number = 0; number < nodeCount; number++) {
+            int i = preOrderIndex[number];
+            childStart[number] = count;
+            for (int j = preOrderChildStart[i]; j < preOrderChildStart[i + 1]; j++) {
+                children[count] = numbers[preOrderChildren[j]];
+                count++;
+            }
+        }
+        childStart[nodeCount] = count;
+        root = numbers[0];
+
+        // the distance of each node from the root (ignoring negative branch lengths) and then
+        // the heights relative to the most distant tip
+        double[] depth = new double[nodeCount];
+        for (int i = 0; i < nodeCount; i++) {
+            double d = (parents[i] == -1 ? 0.0 : depth[parents[i]]);
+            if (lengths[i] > 0.0) {
+                d += lengths[i];
+            }
+            depth[i] = d;
+        }
+        double maxDepth = 0.0;
+        for (int i = 0; i < nodeCount; i++) {
+            if (childCounts[i] == 0 && depth[i] > maxDepth) {
+                maxDepth = depth[i];
+            }
+        }
+        for (int i = 0; i < nodeCount; i++) {
+            height[numbers[i]] = maxDepth - depth[i];
+        }
+    }
+
+    // **************************************************************
+    // Tree IMPLEMENTATION
+    // **************************************************************
+
+    public NodeRef getRoot() {
+        return nodes[root];
+    }
+
+    public int getNodeCount() {
+        return nodeCount;
+    }
+
+    public NodeRef getNode(int i) {
+        return nodes[i];
+    }
+
+    public NodeRef getInternalNode(int i) {
+        return nodes[i + externalNodeCount];
+    }
+
+    public NodeRef getExternalNode(int i) {
+        return nodes[i];
+    }
+
+    public int getExternalNodeCount() {
+        return externalNodeCount;
+    }
+
+    public int getInternalNodeCount() {
+        return nodeCount - externalNodeCount;
+    }
+
+    public Taxon getNodeTaxon(NodeRef node) {
+        int number = node.getNumber();
+        return (number < externalNodeCount ? taxon[number] : null);
+    }
+
+    public boolean hasNodeHeights() {
+        return true;
+    }
+
+    public double getNodeHeight(NodeRef node) {
+        return height[node.getNumber()];
+    }
+
+    public boolean hasBranchLengths() {
+        return true;
+    }
+
+    public double getBranchLength(NodeRef node) {
+        return length[node.getNumber()];
+    }
+
+    public double getNodeRate(NodeRef node) {
+        Object rateAttr = getNodeAttribute(node, "rate");
+
+        if (rateAttr != null) {
+            if (rateAttr instanceof Number) return ((Number) rateAttr).doubleValue();
+            if (rateAttr instanceof String) return Double.parseDouble((String) rateAttr);
+        }
+
+        return 1.0;
+    }
+
+    public Object getNodeAttribute(NodeRef node, String name) {
+        if (nodeAttributes == null || nodeAttributes[node.getNumber()] == null) {
+            return null;
+        }
+        return nodeAttributes[node.getNumber()].getAttribute(name);
+    }
+
+    public Iterator getNodeAttributeNames(NodeRef node) {
+        if (nodeAttributes == null || nodeAttributes[node.getNumber()] == null) {
+            return null;
+        }
+        return nodeAttributes[node.getNumber()].getAttributeNames();
+    }
+
+    public boolean isExternal(NodeRef node) {
+        return node.getNumber() < externalNodeCount;
+    }
+
+    public boolean isRoot(NodeRef node) {
+        return node.getNumber() == root;
+    }
+
+    public int getChildCount(NodeRef node) {
+        int number = node.getNumber();
+        return childStart[number + 1] - childStart[number];
+    }
+
+    public NodeRef getChild(NodeRef node, int j) {
+        return nodes[children[childStart[node.getNumber()] + j]];
+    }
+
+    public NodeRef getParent(NodeRef node) {
+        int p = parent[node.getNumber()];
+        return (p == -1 ? null : nodes[p]);
+    }
+
+    /**
+     * @return a mutable copy of this tree
+     */
+    public Tree getCopy() {
+        return new FlexibleTree(this, true);
+    }
+
+    // **************************************************************
+    // TaxonList IMPLEMENTATION
+    // **************************************************************
+
+    public int getTaxonCount() {
+        return externalNodeCount;
+    }
+
+    public Taxon getTaxon(int taxonIndex) {
+        return (taxonIndex < externalNodeCount ? taxon[taxonIndex] : null);
+    }
+
+    public String getTaxonId(int taxonIndex) {
+        Taxon t = getTaxon(taxonIndex);
+        return (t != null ? t.getId() : null);
+    }
+
+    public int getTaxonIndex(String id) {
+        if (taxonIndices == null) {
+            // built on first use as this is often called for every tip (i.e., when the
+            // tree is used as the taxon list for other trees).
+            Map<String, Integer> indices = new HashMap<String, Integer>();
+            for (int i = externalNodeCount - 1; i >= 0; i--) {
+                indices.put(getTaxonId(i), i);
+            }
+            taxonIndices = indices;
+        }
+        Integer index = taxonIndices.get(id);
+        return (index != null ? index : -1);
+    }
+
+    public int getTaxonIndex(Taxon taxon) {
+        for (int i = 0; i < externalNodeCount; i++) {
+            if (this.taxon[i] == taxon) return i;
+        }
+        return -1;
+    }
+
+    public List<Taxon> asList() {
+        return Collections.unmodifiableList(Arrays.asList(taxon));
+    }
+
+    public Iterator<Taxon> iterator() {
+        return asList().iterator();
+    }
+
+    public Object getTaxonAttribute(int taxonIndex, String name) {
+        Taxon t = getTaxon(taxonIndex);
+        return (t != null ? t.getAttribute(name) : null);
+    }
+
+    // **************************************************************
+    // Units IMPLEMENTATION
+    // **************************************************************
+
+    public Type getUnits() {
+        return units;
+    }
+
+    public void setUnits(Type units) {
+        this.units = units;
+    }
+
+    // **************************************************************
+    // Identifiable IMPLEMENTATION
+    // **************************************************************
+
+    public String getId() {
+        return id;
+    }
+
+    public void setId(String id) {
+        this.id = id;
+    }
+
+    // **************************************************************
+    // Attributable IMPLEMENTATION
+    // **************************************************************
+
+    public void setAttribute(String name, Object value) {
+        if (attributes == null) {
+            attributes = new Attributable.AttributeHelper();
+        }
+        attributes.setAttribute(name, value);
+    }
+
+    public Object getAttribute(String name) {
+        if (attributes == null) {
+            return null;
+        }
+        return attributes.getAttribute(name);
+    }
+
+    public Iterator<String> getAttributeNames() {
+        if (attributes == null) {
+            return null;
+        }
+        return attributes.getAttributeNames();
+    }
+
+    public String toString() {
+        return TreeUtils.newick(this);
+    }
+
+    private static final class Node implements NodeRef {
+        private final int number;
+
+        private Node(int number) {
+            this.number = number;
+        }
+
+        public int getNumber() {
+            return number;
+        }
+
+        public void setNumber(int n) {
+            throw new UnsupportedOperationException("CompactTree is immutable");
+        }
+    }
+
+    private final int nodeCount;
+    private final int externalNodeCount;
+    private final int root;
+
+    private final int[] parent;
+    private final int[] childStart;
+    private final int[] children;
+    private final double[] length;
+    private final double[] height;
+    private final Taxon[] taxon;
+    private final Attributable[] nodeAttributes;
+    private final Node[] nodes;
+
+    private Map<String, Integer> taxonIndices = null;
+
+    private Type units = Type.SUBSTITUTIONS;
+    private String id = null;
+    private Attributable.AttributeHelper attributes = null;
+}
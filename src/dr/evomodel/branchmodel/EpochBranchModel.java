@@ -153,7 +153,12 @@ public class EpochBranchModel extends AbstractModel implements BranchModel, Cita
     }
 
     protected void handleModelChangedEvent(Model model, Object object, int index) {
-        fireModelChanged();
+        if (model == tree) {
+            // the likelihoods listen to the tree themselves and update the branches that have changed
+            return;
+        }
+        // pass on which substitution model has changed so that only the branches in its epoch need updating
+        fireModelChanged(model);
     }// END: handleModelChangedEvent
 
     @SuppressWarnings("rawtypes")
@@ -101,6 +101,27 @@ public class ArbitraryBranchRates extends AbstractBranchRateModel {
         return reciprocal;
     }
 
+    public Parameter getRateParameter() {
+        return rateParameter;
+    }
+
+    public int getParameterIndexFromNode(final NodeRef node) {
+        return rates.getParameterIndexFromNodeNumber(node.getNumber());
+    }
+
+    /**
+     * @return the derivative of the rate of a branch with respect to its parameter value
+     */
+    public double getBranchRateDifferential(final Tree tree, final NodeRef node) {
+        final double rate = getBranchRate(tree, node);
+
+        if (exp) {
+            return (reciprocal ? -rate : rate);
+        }
+
+        return (reciprocal ? -rate * rate : 1.0);
+    }
+
     public void handleModelChangedEvent(Model model, Object object, int index) {
         // Should be called by TreeParameterModel
         fireModelChanged(object, index);
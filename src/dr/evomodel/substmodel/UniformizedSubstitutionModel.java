@@ -25,6 +25,7 @@
 
 package dr.evomodel.substmodel;
 
+import dr.inference.markovjumps.BranchStateChanges;
 import dr.inference.markovjumps.MarkovJumpsType;
 import dr.inference.markovjumps.StateHistory;
 import dr.inference.markovjumps.SubordinatedProcess;
@@ -142,6 +143,19 @@ public class UniformizedSubstitutionModel extends MarkovJumpsSubstitutionModel {
         return completeHistory.toStringChanges(site, dataType); //, 0.0);
     }
 
+    /**
+     * Adds the changes of the complete history to a branch of a BranchStateChanges (rather than
+     * making the text of them as getCompleteHistory does).
+     */
+    public void addCompleteHistoryTo(BranchStateChanges changes, int branch, int site,
+                                     Double newStartTime, Double newEndTime) {
+        if (newStartTime != null && newEndTime != null) {
+            // Rescale time of events
+            completeHistory.rescaleTimesOfEvents(newStartTime, newEndTime);
+        }
+        completeHistory.addChangesTo(changes, branch, site);
+    }
+
     public int getNumberOfJumpsInCompleteHistory() {
         return completeHistory == null ? -1 : completeHistory.getNumberOfJumps();
     }
@@ -34,6 +34,7 @@ import dr.math.MathUtils;
 import dr.inference.model.Statistic;
 
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.List;
 
@@ -49,6 +50,17 @@ public class EmpiricalTreeDistributionModel extends TreeModel {
      * @param startingTree
      */
     public EmpiricalTreeDistributionModel(final Tree[] trees, int startingTree) {
+        this(Arrays.asList(trees), null, startingTree);
+    }
+
+    /**
+     * This constructor takes a list of trees and jumps randomly amongst them. The list can
+     * build each tree when it is asked for (e.g., a LazyTreeList) so that the trees don't all
+     * need to be held in memory.
+     * @param trees
+     * @param startingTree
+     */
+    public EmpiricalTreeDistributionModel(final List<Tree> trees, int startingTree) {
         this(trees, null, startingTree);
     }
 
@@ -62,7 +74,7 @@ public class EmpiricalTreeDistributionModel extends TreeModel {
         this(null, importer, startingTree);
     }
 
-    private EmpiricalTreeDistributionModel(final Tree[] trees, final TreeImporter importer, int startingTree) {
+    private EmpiricalTreeDistributionModel(final List<Tree> trees, final TreeImporter importer, int startingTree) {
         super(EMPIRICAL_TREE_DISTRIBUTION_MODEL);
 
         this.trees = trees;
@@ -83,10 +95,12 @@ public class EmpiricalTreeDistributionModel extends TreeModel {
 
     protected void storeState() {
         storedCurrentTree = currentTree;
+        storedCurrentTreeIndex = currentTreeIndex;
     }
 
     protected void restoreState() {
         currentTree = storedCurrentTree;
+        currentTreeIndex = storedCurrentTreeIndex;
     }
 
     protected void acceptState() {
@@ -113,12 +127,11 @@ public class EmpiricalTreeDistributionModel extends TreeModel {
             currentTreeIndex += 1;
         } else {
             if (treeNumber == -1) {
-                currentTreeIndex = MathUtils.nextInt(trees.length);
-                currentTree = trees[currentTreeIndex];
+                currentTreeIndex = MathUtils.nextInt(trees.size());
             } else {
                 currentTreeIndex = treeNumber;
-                currentTree = trees[currentTreeIndex];
             }
+            currentTree = trees.get(currentTreeIndex);
         }
 
         // Force computation of node heights now rather than later in the evaluation
@@ -159,7 +172,7 @@ public class EmpiricalTreeDistributionModel extends TreeModel {
     }
 
     public Taxon getNodeTaxon(final NodeRef node) {
-        return trees[currentTreeIndex].getNodeTaxon(node);
+        return currentTree.getNodeTaxon(node);
     }
 
     public boolean hasNodeHeights() {
@@ -268,10 +281,11 @@ public class EmpiricalTreeDistributionModel extends TreeModel {
 
     public static final String EMPIRICAL_TREE_DISTRIBUTION_MODEL = "empiricalTreeDistributionModel";
 
-    private final Tree[] trees;
+    private final List<Tree> trees;
     private final TreeImporter importer;
     private Tree currentTree;
     private Tree storedCurrentTree;
 
     private int currentTreeIndex;
+    private int storedCurrentTreeIndex;
 }
@@ -26,11 +26,13 @@
 package dr.evomodel.tree;
 
 import dr.app.tools.NexusExporter;
+import dr.evolution.io.TreeFileIndex;
 import dr.evolution.tree.*;
 import dr.inference.loggers.LogFormatter;
 import dr.inference.loggers.MCLogger;
 import dr.util.Keywordable;
 
+import java.io.IOException;
 import java.text.NumberFormat;
 import java.util.*;
 
@@ -62,6 +64,11 @@ public class TreeLogger extends MCLogger {
     private NumberFormat format;
     private LogUpon condition = null;
 
+    private static final int LINE_SEPARATOR_LENGTH = System.getProperty("line.separator").length();
+
+    private TreeFileIndex.Writer indexWriter = null;
+    private long bytesLogged = 0;
+
     /**
      * Interface to indicate when to log a tree
      */
@@ -181,6 +188,22 @@ public class TreeLogger extends MCLogger {
         }
     }
 
+    /**
+     * Sets a writer for an index of the trees in the log file. The position of each tree is found by
+     * counting the bytes logged so this should only be used if this logger has a single file formatter.
+     */
+    public void setIndexWriter(TreeFileIndex.Writer indexWriter) {
+        this.indexWriter = indexWriter;
+    }
+
+    protected void logLine(String line) {
+        super.logLine(line);
+        if (indexWriter != null) {
+            // the log file is written in the default character set
+            bytesLogged += line.getBytes().length + LINE_SEPARATOR_LENGTH;
+        }
+    }
+
     private String cleanTaxonName(String taxaId) {
         if (taxaId.matches(NexusExporter.SPECIAL_CHARACTERS_REGEX)) {
             if (taxaId.contains("\'")) {
@@ -242,13 +265,33 @@ public class TreeLogger extends MCLogger {
             }
 
             buffer.append(";");
+
+            long offset = bytesLogged;
             logLine(buffer.toString());
+
+            if (indexWriter != null) {
+                try {
+                    indexWriter.addTree(state, offset);
+                } catch (IOException ioe) {
+                    java.util.logging.Logger.getLogger("dr.evomodel").warning("Unable to write tree file index: " +
+                            ioe.getMessage());
+                    indexWriter = null;
+                }
+            }
         }
     }
 
     public void stopLogging() {
         logLine("End;");
         super.stopLogging();
+        if (indexWriter != null) {
+            try {
+                indexWriter.close();
+            } catch (IOException ioe) {
+                // ignore
+            }
+            indexWriter = null;
+        }
     }
 
     public Tree getTree() {
@@ -196,14 +196,64 @@ public class TreeModel extends AbstractModel implements MutableTreeModel, Keywor
      */
     public void handleVariableChangedEvent(Variable variable, int index, Parameter.ChangeType type) {
         final Node node = getNodeOfParameter((Parameter) variable);
+        final TreeChangedEvent event;
         if (type == Parameter.ChangeType.ALL_VALUES_CHANGED) {
             //this signals events where values in all dimensions of a parameter is changed.
-            pushTreeChangedEvent(new TreeChangedEvent(node, (Parameter) variable, TreeChangedEvent.CHANGE_IN_ALL_INTERNAL_NODES));
+            event = new TreeChangedEvent(node, (Parameter) variable, TreeChangedEvent.CHANGE_IN_ALL_INTERNAL_NODES);
         } else {
-            pushTreeChangedEvent(node, (Parameter) variable, index);
+            event = new TreeChangedEvent(node, (Parameter) variable, index);
+        }
+        if (nodeParameterUpdateDepth > 0) {
+            nodeParameterEvents.add(event);
+        } else {
+            pushTreeChangedEvent(event);
+        }
+    }
+
+    /**
+     * Called when a bulk update of a compound of node parameters starts. The events from the
+     * individual node parameters are held back until the matching endNodeParameterUpdate().
+     */
+    private void beginNodeParameterUpdate() {
+        nodeParameterUpdateDepth++;
+    }
+
+    /**
+     * Sends the events held back since beginNodeParameterUpdate(). If more than one node
+     * changed a single whole tree event is sent instead of one per node.
+     */
+    private void endNodeParameterUpdate() {
+        nodeParameterUpdateDepth--;
+        if (nodeParameterUpdateDepth == 0 && nodeParameterEvents.size() > 0) {
+            if (nodeParameterEvents.size() == 1) {
+                pushTreeChangedEvent(nodeParameterEvents.get(0));
+            } else {
+                pushTreeChangedEvent();
+            }
+            nodeParameterEvents.clear();
         }
     }
 
+    /**
+     * @return a compound parameter of node parameters that passes bulk updates on to the tree
+     */
+    private CompoundParameter createNodeCompoundParameter(String name) {
+        return new CompoundParameter(name) {
+            public void beginBulkUpdate() {
+                beginNodeParameterUpdate();
+                super.beginBulkUpdate();
+            }
+
+            public void endBulkUpdate() {
+                super.endBulkUpdate();
+                endNodeParameterUpdate();
+            }
+        };
+    }
+
+    private int nodeParameterUpdateDepth = 0;
+    private final List<TreeChangedEvent> nodeParameterEvents = new ArrayList<TreeChangedEvent>();
+
 
     private final List<dr.evomodel.tree.TreeChangedEvent> treeChangedEvents = new ArrayList<dr.evomodel.tree.TreeChangedEvent>();
 
@@ -1148,7 +1198,7 @@ public class TreeModel extends AbstractModel implements MutableTreeModel, Keywor
             throw new IllegalArgumentException("At least one of rootNode, internalNodes or leafNodes must be true");
         }
 
-        CompoundParameter parameter = new CompoundParameter("nodeHeights(" + getId() + ")");
+        CompoundParameter parameter = createNodeCompoundParameter("nodeHeights(" + getId() + ")");
 
         for (int i = externalNodeCount; i < nodeCount; i++) {
             if ((rootNode && nodes[i] == root) || (internalNodes && nodes[i] != root)) {
@@ -1185,7 +1235,7 @@ public class TreeModel extends AbstractModel implements MutableTreeModel, Keywor
             throw new IllegalArgumentException("At least one of rootNode, internalNodes or leafNodes must be true");
         }
 
-        CompoundParameter parameter = new CompoundParameter("nodeRates(" + getId() + ")");
+        CompoundParameter parameter = createNodeCompoundParameter("nodeRates(" + getId() + ")");
 
         hasRates = true;
 
@@ -1220,7 +1270,7 @@ public class TreeModel extends AbstractModel implements MutableTreeModel, Keywor
 
         checkValidFlags(rootNode, internalNodes, leafNodes);
 
-        CompoundParameter parameter = new CompoundParameter(name);
+        CompoundParameter parameter = createNodeCompoundParameter(name);
 
         hasTraits = true;
 
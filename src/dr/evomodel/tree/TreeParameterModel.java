@@ -116,6 +116,12 @@ public class TreeParameterModel extends AbstractModel implements TreeTrait<Doubl
     }
 
     protected final void handleVariableChangedEvent(Variable variable, int index, Parameter.ChangeType type) {
+        if (index == -1) {
+            // several (or all) values changed at once, e.g., at the end of a bulk update
+            fireModelChanged(variable, -1);
+            return;
+        }
+
         int nodeNumber = getNodeNumberFromParameterIndex(index);
 
         assert (tree.getNode(nodeNumber).getNumber() == nodeNumber);
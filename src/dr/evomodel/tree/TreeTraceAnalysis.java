@@ -34,6 +34,7 @@ import dr.util.FrequencySet;
 import dr.util.NumberFormatter;
 import jebl.evolution.treemetrics.RobinsonsFouldMetric;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.PrintStream;
 import java.io.Reader;
@@ -499,6 +500,27 @@ public class TreeTraceAnalysis {
         return burnin;
     }
 
+    /**
+     * @param files   the tree files to be analyzed
+     * @param burnin  the burnin in states
+     * @param verbose true if progress should be logged to stdout
+     * @return an analyses of the trees in a log file.
+     * @throws java.io.IOException if general I/O error occurs
+     */
+    public static TreeTraceAnalysis analyzeLogFile(File[] files, int burnin, boolean verbose) throws IOException {
+
+        TreeTrace[] trace = new TreeTrace[files.length];
+        for (int i = 0; i < files.length; i++) {
+            try {
+                trace[i] = TreeTrace.loadTreeTrace(files[i]);
+            } catch (Importer.ImportException ie) {
+                throw new RuntimeException(ie.toString());
+            }
+        }
+
+        return new TreeTraceAnalysis(trace, burnin, verbose);
+    }
+
     /**
      * @param reader  the readers to be analyzed
      * @param burnin  the burnin in states
@@ -38,6 +38,7 @@ package dr.evomodel.treedatalikelihood;
 import beagle.*;
 import dr.evomodel.branchmodel.BranchModel;
 import dr.evomodel.siteratemodel.SiteRateModel;
+import dr.evomodel.substmodel.SubstitutionModel;
 import dr.evomodel.treelikelihood.*;
 import dr.evolution.alignment.PatternList;
 import dr.evolution.alignment.UncertainSiteList;
@@ -57,9 +58,10 @@ import dr.util.CommonCitations;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
 import java.util.logging.Logger;
 
-public class BeagleDataLikelihoodDelegate extends AbstractModel implements DataLikelihoodDelegate, Citable {
+public class BeagleDataLikelihoodDelegate extends AbstractModel implements DiscreteDataLikelihoodDelegate, Citable {
 
     public static boolean IS_THREAD_COUNT_COMPATIBLE() {
         int[] versionNumbers = BeagleInfo.getVersionNumbers();
@@ -104,6 +106,24 @@ public class BeagleDataLikelihoodDelegate extends AbstractModel implements DataL
 
     private static final boolean DEBUG = false;
 
+    /**
+     * Creates the Beagle instance of a delegate in place of BeagleFactory (e.g., to use JavaBeagleImpl).
+     * The buffer counts and flags are those that would be given to BeagleFactory.loadBeagleInstance.
+     */
+    public interface BeagleInstanceFactory {
+        Beagle createInstance(int tipCount,
+                              int partialsBufferCount,
+                              int compactBufferCount,
+                              int stateCount,
+                              int patternCount,
+                              int eigenBufferCount,
+                              int matrixBufferCount,
+                              int categoryCount,
+                              int scaleBufferCount,
+                              long preferenceFlags,
+                              long requirementFlags);
+    }
+
     /**
      *
      * @param tree Used for configuration - shouldn't be watched for changes
@@ -119,6 +139,22 @@ public class BeagleDataLikelihoodDelegate extends AbstractModel implements DataL
                                         boolean useAmbiguities,
                                         PartialsRescalingScheme rescalingScheme,
                                         boolean delayRescalingUntilUnderflow) {
+        this(tree, patternList, branchModel, siteRateModel, useAmbiguities, rescalingScheme,
+                delayRescalingUntilUnderflow, null);
+    }
+
+    /**
+     * @param beagleFactory creates the Beagle instance (if null then BeagleFactory selects a resource
+     *                      using the beagle.resource.order and flag properties)
+     */
+    public BeagleDataLikelihoodDelegate(Tree tree,
+                                        PatternList patternList,
+                                        BranchModel branchModel,
+                                        SiteRateModel siteRateModel,
+                                        boolean useAmbiguities,
+                                        PartialsRescalingScheme rescalingScheme,
+                                        boolean delayRescalingUntilUnderflow,
+                                        BeagleInstanceFactory beagleFactory) {
 
         super("BeagleDataLikelihoodDelegate");
         final Logger logger = Logger.getLogger("dr.evomodel");
@@ -232,6 +268,11 @@ public class BeagleDataLikelihoodDelegate extends AbstractModel implements DataL
             }
 
 
+            if (beagleFactory != null && this.rescalingScheme == PartialsRescalingScheme.AUTO) {
+                // only BeagleFactory's instances can do auto scaling
+                this.rescalingScheme = DEFAULT_RESCALING_SCHEME;
+            }
+
             // Define default behaviour here
             if (this.rescalingScheme == PartialsRescalingScheme.DEFAULT) {
                 //if GPU: the default is dynamic scaling in BEAST
@@ -330,7 +371,7 @@ public class BeagleDataLikelihoodDelegate extends AbstractModel implements DataL
 
             // start auto resource selection
             String resourceAuto = System.getProperty(RESOURCE_AUTO_PROPERTY);
-            if (resourceAuto != null && Boolean.parseBoolean(resourceAuto)) {
+            if (beagleFactory == null && resourceAuto != null && Boolean.parseBoolean(resourceAuto)) {
 
                 long benchmarkFlags = 0;
 
@@ -370,25 +411,44 @@ public class BeagleDataLikelihoodDelegate extends AbstractModel implements DataL
             }
             // end auto resource selection
 
-            beagle = BeagleFactory.loadBeagleInstance(
-                    tipCount,
-                    partialBufferHelper.getBufferCount(),
-                    compactPartialsCount,
-                    stateCount,
-                    patternCount,
-                    evolutionaryProcessDelegate.getEigenBufferCount(),
-                    evolutionaryProcessDelegate.getMatrixBufferCount(),
-                    categoryCount,
-                    scaleBufferHelper.getBufferCount(), // Always allocate; they may become necessary
-                    resourceList,
-                    preferenceFlags,
-                    requirementFlags
-            );
+            if (beagleFactory != null) {
+                beagle = beagleFactory.createInstance(
+                        tipCount,
+                        partialBufferHelper.getBufferCount(),
+                        compactPartialsCount,
+                        stateCount,
+                        patternCount,
+                        evolutionaryProcessDelegate.getEigenBufferCount(),
+                        evolutionaryProcessDelegate.getMatrixBufferCount(),
+                        categoryCount,
+                        scaleBufferHelper.getBufferCount(),
+                        preferenceFlags,
+                        requirementFlags
+                );
+            } else {
+                beagle = BeagleFactory.loadBeagleInstance(
+                        tipCount,
+                        partialBufferHelper.getBufferCount(),
+                        compactPartialsCount,
+                        stateCount,
+                        patternCount,
+                        evolutionaryProcessDelegate.getEigenBufferCount(),
+                        evolutionaryProcessDelegate.getMatrixBufferCount(),
+                        categoryCount,
+                        scaleBufferHelper.getBufferCount(), // Always allocate; they may become necessary
+                        resourceList,
+                        preferenceFlags,
+                        requirementFlags
+                );
+            }
 
             InstanceDetails instanceDetails = beagle.getDetails();
             ResourceDetails resourceDetails = null;
 
-            if (instanceDetails != null) {
+            if (beagleFactory != null) {
+                logger.info("  Using BEAGLE implementation: " + instanceDetails.getImplementationName() +
+                        "\n    with instance flags: " + instanceDetails.toString());
+            } else if (instanceDetails != null) {
                 resourceDetails = BeagleFactory.getResourceDetails(instanceDetails.getResourceNumber());
                 if (resourceDetails != null) {
                     StringBuilder sb = new StringBuilder("  Using BEAGLE resource ");
@@ -413,13 +473,14 @@ public class BeagleDataLikelihoodDelegate extends AbstractModel implements DataL
 
             instanceFlags = instanceDetails.getFlags();
 
-            if (IS_THREAD_COUNT_COMPATIBLE() && threadCount > 1) {
+            if ((beagle instanceof JavaBeagleImpl || IS_THREAD_COUNT_COMPATIBLE()) && threadCount > 1) {
                 beagle.setCPUThreadCount(threadCount);
             }
 
             if (patternList instanceof UncertainSiteList) { // TODO Remove
                 useAmbiguities = true;
             }
+            this.useAmbiguities = useAmbiguities;
 
             logger.info("  " + (useAmbiguities ? "Using" : "Ignoring") + " ambiguities in tree likelihood.");
             logger.info("  With " + patternList.getPatternCount() + " unique site patterns.");
@@ -478,11 +539,17 @@ public class BeagleDataLikelihoodDelegate extends AbstractModel implements DataL
             throw new RuntimeException(mte.toString());
         }
 
-        instanceCount++;
+        if (beagleFactory == null) {
+            // only the instances from BeagleFactory are given resources in turn
+            instanceCount++;
+        }
     }
 
     @Override
     public String getReport() {
+        if (evolutionaryProcessDelegate instanceof SubstitutionModelDelegate) {
+            return ((SubstitutionModelDelegate) evolutionaryProcessDelegate).getReport();
+        }
         return null;
     }
 
@@ -660,6 +727,8 @@ public class BeagleDataLikelihoodDelegate extends AbstractModel implements DataL
     @Override
     public double calculateLikelihood(List<BranchOperation> branchOperations, List<NodeOperation> nodeOperations, int rootNodeNumber) throws LikelihoodException {
 
+        final long startTime = System.nanoTime();
+
         //recomputeScaleFactors = false;
         if (DEBUG) {
             System.out.println("Partition: " + this.getModelName());
@@ -910,15 +979,111 @@ public class BeagleDataLikelihoodDelegate extends AbstractModel implements DataL
         //}
         //beagle.getSiteLogLikelihoods(patternLogLikelihoods);
 
+        evaluationTime += System.nanoTime() - startTime;
+        evaluationCount++;
+        if (threadPlanner != null) {
+            threadPlanner.evaluationCompleted(this);
+        }
+
         return logL;
     }
 
+    /**
+     * @return true if the number of threads used by the instance can be set (so it can be planned
+     * by a PartitionThreadPlanner). This is a JavaBeagleImpl or a threaded native CPU instance (from
+     * BEAGLE 3.1 on).
+     */
+    public boolean isThreadCountAdjustable() {
+        if (beagle instanceof JavaBeagleImpl) {
+            return true;
+        }
+        return IS_THREAD_COUNT_COMPATIBLE() &&
+                (instanceFlags & BeagleFlag.FRAMEWORK_CPU.getMask()) != 0 &&
+                (instanceFlags & BeagleFlag.THREADING_CPP.getMask()) != 0;
+    }
+
+    /**
+     * @return true if the instance can run on a thread pool shared with other partitions (native
+     * instances each have their own pool)
+     */
+    public boolean canShareThreadPool() {
+        return beagle instanceof JavaBeagleImpl;
+    }
+
+    public int getThreadCount() {
+        if (beagle instanceof JavaBeagleImpl) {
+            return ((JavaBeagleImpl) beagle).getThreadCount();
+        }
+        return threadCount;
+    }
+
+    /**
+     * @param threadCount the number of threads for this instance's own pool
+     */
+    public void setThreadCount(int threadCount) {
+        this.threadCount = threadCount;
+        beagle.setCPUThreadCount(threadCount);
+    }
+
+    /**
+     * @param pool a thread pool shared with other partitions (only used by a JavaBeagleImpl; other
+     *             instances are given the number of threads for their own pool)
+     * @param threadCount the number of threads in the pool
+     */
+    public void setThreadPool(ExecutorService pool, int threadCount) {
+        if (beagle instanceof JavaBeagleImpl) {
+            this.threadCount = threadCount;
+            ((JavaBeagleImpl) beagle).setThreadPool(pool, threadCount);
+        } else {
+            setThreadCount(threadCount);
+        }
+    }
+
+    /**
+     * @param threadPlanner a planner to tell when each evaluation is completed
+     */
+    public void setThreadPlanner(PartitionThreadPlanner threadPlanner) {
+        this.threadPlanner = threadPlanner;
+    }
+
+    /**
+     * @return the total time spent in completed evaluations (in nanoseconds)
+     */
+    public long getEvaluationTime() {
+        return evaluationTime;
+    }
+
+    public int getEvaluationCount() {
+        return evaluationCount;
+    }
+
+    @Override
     public void getPartials(int number, double[] partials) {
         int cumulativeBufferIndex = Beagle.NONE;
         /* No need to rescale partials */
         beagle.getPartials(partialBufferHelper.getOffsetIndex(number), cumulativeBufferIndex, partials);
     }
 
+    @Override
+    public void getTransitionMatrix(int number, double[] matrix) {
+        beagle.getTransitionMatrix(evolutionaryProcessDelegate.getMatrixIndex(number), matrix);
+    }
+
+    @Override
+    public BranchModel getBranchModel() {
+        return branchModel;
+    }
+
+    @Override
+    public SiteRateModel getSiteRateModel() {
+        return siteRateModel;
+    }
+
+    @Override
+    public boolean useAmbiguities() {
+        return useAmbiguities;
+    }
+
     private void setPartials(int number, double[] partials) {
         beagle.setPartials(partialBufferHelper.getOffsetIndex(number), partials);
     }
@@ -935,6 +1100,18 @@ public class BeagleDataLikelihoodDelegate extends AbstractModel implements DataL
             updateSiteModel = true;
         } else if (model == branchModel) {
             updateSubstitutionModel = true;
+
+            if (object instanceof SubstitutionModel && evolutionaryProcessDelegate instanceof SubstitutionModelDelegate) {
+                // only the branches that use this substitution model (i.e., that cross its epoch) need updating
+                int[] branches = ((SubstitutionModelDelegate) evolutionaryProcessDelegate)
+                        .getBranchesUsingSubstitutionModel((SubstitutionModel) object);
+                if (branches != null) {
+                    for (int branch : branches) {
+                        fireModelChanged(this, branch);
+                    }
+                    return;
+                }
+            }
         }
 
         // Tell TreeDataLikelihood to update all nodes
@@ -1052,6 +1229,10 @@ public class BeagleDataLikelihoodDelegate extends AbstractModel implements DataL
     private int threadCount = -1;
     private long instanceFlags;
 
+    private long evaluationTime = 0;
+    private int evaluationCount = 0;
+    private PartitionThreadPlanner threadPlanner = null;
+
     private boolean firstRescaleAttempt = false;
     private int rescalingMessageCount = 0;
 
@@ -1083,6 +1264,11 @@ public class BeagleDataLikelihoodDelegate extends AbstractModel implements DataL
      */
     private final int stateCount;
 
+    /**
+     * whether ambiguous states are used (otherwise tip states are used)
+     */
+    private final boolean useAmbiguities;
+
     /**
      * the branch-site model for these sites
      */
@@ -0,0 +1,64 @@
+/*
+ * DiscreteDataLikelihoodDelegate.java
+ *
+ * Copyright (c) 2002-2016 Alexei Drummond, Andrew Rambaut and Marc Suchard
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ */
+
+package dr.evomodel.treedatalikelihood;
+
+import dr.evolution.alignment.PatternList;
+import dr.evomodel.branchmodel.BranchModel;
+import dr.evomodel.siteratemodel.SiteRateModel;
+
+/**
+ * DiscreteDataLikelihoodDelegate - a data likelihood delegate for discrete characters that gives
+ * access to the partials and transition matrices of its last evaluation (so that pre-order
+ * quantities, such as the gradient with respect to the branch lengths, can be computed from them).
+ *
+ * The partials are laid out as in BEAGLE: [category][pattern][state] and the transition matrices
+ * as [category][from state][to state].
+ *
+ * @version $Id$
+ */
+public interface DiscreteDataLikelihoodDelegate extends DataLikelihoodDelegate {
+
+    PatternList getPatternList();
+
+    BranchModel getBranchModel();
+
+    SiteRateModel getSiteRateModel();
+
+    /**
+     * @return whether ambiguous states are used (otherwise they are treated as missing data)
+     */
+    boolean useAmbiguities();
+
+    /**
+     * Gets the (possibly rescaled) partials of an internal node.
+     */
+    void getPartials(int nodeNumber, double[] partials);
+
+    /**
+     * Gets the transition probability matrices of the branch above a node.
+     */
+    void getTransitionMatrix(int nodeNumber, double[] matrix);
+}
@@ -0,0 +1,903 @@
+/*
+ * JavaBeagleImpl.java
+ *
+ * Copyright (c) 2002-2017 Alexei Drummond, Andrew Rambaut and Marc Suchard
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ */
+
+package dr.evomodel.treedatalikelihood;
+
+import beagle.Beagle;
+import beagle.BeagleFactory;
+import beagle.BeagleFlag;
+import beagle.InstanceDetails;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.*;
+
+/**
+ * JavaBeagleImpl - a pure Java implementation of the parts of the BEAGLE API that are used by
+ * BeagleDataLikelihoodDelegate and the EvolutionaryProcessDelegates (so the transition matrices are
+ * set up in exactly the same way as for the native library). A delegate is given one with FACTORY.
+ *
+ * The site patterns are split into blocks and each block is done on a thread pool. As the
+ * patterns are independent, a block does the whole list of node operations (and the scaling) for
+ * its patterns so there is only one hand-over to the pool for each traversal. The blocks are fixed by
+ * the number of patterns so the result does not depend on the number of threads.
+ *
+ * The partials are kept as one flat array per buffer in the order [category][pattern][state] (as
+ * BEAGLE does). The kernels for 4 states are fully unrolled and the others (e.g., 20 or 61 states)
+ * use dot products unrolled by 4.
+ */
+public class JavaBeagleImpl implements Beagle {
+
+    /**
+     * Creates a single threaded instance for a BeagleDataLikelihoodDelegate (or, for substitution
+     * models with complex eigen decompositions which this doesn't do, BeagleFactory's instance).
+     */
+    public static final BeagleDataLikelihoodDelegate.BeagleInstanceFactory FACTORY =
+            new BeagleDataLikelihoodDelegate.BeagleInstanceFactory() {
+                public Beagle createInstance(int tipCount, int partialsBufferCount, int compactBufferCount,
+                                             int stateCount, int patternCount, int eigenBufferCount,
+                                             int matrixBufferCount, int categoryCount, int scaleBufferCount,
+                                             long preferenceFlags, long requirementFlags) {
+                    if (BeagleFlag.EIGEN_COMPLEX.isSet(requirementFlags)) {
+                        return BeagleFactory.loadBeagleInstance(tipCount, partialsBufferCount, compactBufferCount,
+                                stateCount, patternCount, eigenBufferCount, matrixBufferCount, categoryCount,
+                                scaleBufferCount, null, preferenceFlags, requirementFlags);
+                    }
+                    return new JavaBeagleImpl(tipCount, partialsBufferCount, compactBufferCount, stateCount,
+                            patternCount, eigenBufferCount, matrixBufferCount, categoryCount, scaleBufferCount, 1);
+                }
+            };
+
+    private static final int MAX_BLOCK_COUNT = 64;
+    private static final int MIN_BLOCK_SIZE = 16;
+
+    /**
+     * @param threadCount the number of threads to use (if less than 1 then the number of processors)
+     */
+    public JavaBeagleImpl(int tipCount,
+                          int partialsBufferCount,
+                          int compactBufferCount,
+                          int stateCount,
+                          int patternCount,
+                          int eigenBufferCount,
+                          int matrixBufferCount,
+                          int categoryCount,
+                          int scaleBufferCount,
+                          int threadCount) {
+        this.stateCount = stateCount;
+        this.patternCount = patternCount;
+        this.categoryCount = categoryCount;
+
+        partialsSize = categoryCount * patternCount * stateCount;
+        matrixSize = stateCount * stateCount;
+
+        partials = new double[partialsBufferCount][];
+        tipStates = new int[compactBufferCount][];
+        matrices = new double[matrixBufferCount][];
+        scaleFactors = new double[scaleBufferCount][];
+
+        eigenVectors = new double[eigenBufferCount][];
+        inverseEigenVectors = new double[eigenBufferCount][];
+        eigenValues = new double[eigenBufferCount][];
+        stateFrequencies = new double[Math.max(eigenBufferCount, 1)][];
+        categoryWeights = new double[Math.max(eigenBufferCount, 1)][];
+
+        categoryRates = new double[categoryCount];
+        Arrays.fill(categoryRates, 1.0);
+        patternWeights = new double[patternCount];
+        Arrays.fill(patternWeights, 1.0);
+        siteLogLikelihoods = new double[patternCount];
+
+        int blockSize = Math.max(MIN_BLOCK_SIZE, (patternCount + MAX_BLOCK_COUNT - 1) / MAX_BLOCK_COUNT);
+        int blockCount = Math.max((patternCount + blockSize - 1) / blockSize, 1);
+        blockStarts = new int[blockCount + 1];
+        for (int b = 0; b < blockCount; b++) {
+            blockStarts[b] = Math.min(b * blockSize, patternCount);
+        }
+        blockStarts[blockCount] = patternCount;
+
+        setCPUThreadCount(threadCount);
+    }
+
+    @Override
+    public void finalize() throws Throwable {
+        if (pool != null && ownsPool) {
+            pool.shutdown();
+        }
+        super.finalize();
+    }
+
+    @Override
+    public void setCPUThreadCount(int threadCount) {
+        if (threadCount < 1) {
+            threadCount = Runtime.getRuntime().availableProcessors();
+        }
+        this.threadCount = threadCount;
+
+        if (pool != null && ownsPool) {
+            pool.shutdown();
+        }
+        pool = null;
+        ownsPool = true;
+        if (threadCount > 1 && blockStarts.length > 2) {
+            pool = Executors.newFixedThreadPool(threadCount, new ThreadFactory() {
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "java-beagle");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+    }
+
+    /**
+     * Use a thread pool that is shared with other instances (which are evaluated one after the other)
+     * rather than one of this instance's own. The pool is not shut down by this instance.
+     *
+     * @param pool        the pool (or null to run on the calling thread)
+     * @param threadCount the number of threads in the pool
+     */
+    public void setThreadPool(ExecutorService pool, int threadCount) {
+        if (this.pool != null && ownsPool) {
+            this.pool.shutdown();
+        }
+        this.threadCount = Math.max(threadCount, 1);
+        this.pool = (this.threadCount > 1 && blockStarts.length > 2 ? pool : null);
+        ownsPool = false;
+    }
+
+    public int getThreadCount() {
+        return threadCount;
+    }
+
+    @Override
+    public void setPatternWeights(double[] patternWeights) {
+        System.arraycopy(patternWeights, 0, this.patternWeights, 0, patternCount);
+    }
+
+    @Override
+    public void setPatternPartitions(int partitionCount, int[] patternPartitions) {
+        throw new UnsupportedOperationException("Pattern partitions are not supported by the Java implementation");
+    }
+
+    @Override
+    public void setTipStates(int tipIndex, int[] inStates) {
+        int[] states = new int[patternCount];
+        for (int i = 0; i < patternCount; i++) {
+            // anything that isn't a single state is treated as missing
+            states[i] = (inStates[i] >= 0 && inStates[i] < stateCount ? inStates[i] : stateCount);
+        }
+        tipStates[tipIndex] = states;
+        partials[tipIndex] = null;
+    }
+
+    @Override
+    public void getTipStates(int tipIndex, int[] outStates) {
+        System.arraycopy(tipStates[tipIndex], 0, outStates, 0, patternCount);
+    }
+
+    @Override
+    public void setTipPartials(int tipIndex, double[] inPartials) {
+        // the partials for one category which are copied for the rest
+        double[] buffer = getPartialsBuffer(tipIndex);
+        final int n = patternCount * stateCount;
+        for (int c = 0; c < categoryCount; c++) {
+            System.arraycopy(inPartials, 0, buffer, c * n, n);
+        }
+        if (tipIndex < tipStates.length) {
+            tipStates[tipIndex] = null;
+        }
+    }
+
+    @Override
+    public void setPartials(int bufferIndex, double[] inPartials) {
+        if (inPartials.length < partialsSize) {
+            setTipPartials(bufferIndex, inPartials);
+            return;
+        }
+        System.arraycopy(inPartials, 0, getPartialsBuffer(bufferIndex), 0, partialsSize);
+        if (bufferIndex < tipStates.length) {
+            tipStates[bufferIndex] = null;
+        }
+    }
+
+    @Override
+    public void getPartials(int bufferIndex, int scaleIndex, double[] outPartials) {
+        if (scaleIndex != NONE) {
+            throw new UnsupportedOperationException("Rescaled partials are not supported by the Java implementation");
+        }
+        System.arraycopy(partials[bufferIndex], 0, outPartials, 0, partialsSize);
+    }
+
+    @Override
+    public void getLogScaleFactors(int scaleIndex, double[] outFactors) {
+        final double[] factors = getScaleBuffer(scaleIndex);
+        for (int k = 0; k < patternCount; k++) {
+            outFactors[k] = Math.log(factors[k]);
+        }
+    }
+
+    @Override
+    public void setEigenDecomposition(int eigenIndex, double[] inEigenVectors, double[] inInverseEigenVectors,
+                                      double[] inEigenValues) {
+        for (int i = stateCount; i < inEigenValues.length; i++) {
+            if (inEigenValues[i] != 0.0) {
+                throw new UnsupportedOperationException("Complex eigen decompositions are not supported by the Java implementation");
+            }
+        }
+        eigenVectors[eigenIndex] = copyOf(inEigenVectors, matrixSize);
+        inverseEigenVectors[eigenIndex] = copyOf(inInverseEigenVectors, matrixSize);
+        eigenValues[eigenIndex] = copyOf(inEigenValues, stateCount);
+    }
+
+    @Override
+    public void setStateFrequencies(int stateFrequenciesIndex, double[] inStateFrequencies) {
+        stateFrequencies[stateFrequenciesIndex] = copyOf(inStateFrequencies, stateCount);
+    }
+
+    @Override
+    public void setCategoryWeights(int categoryWeightsIndex, double[] inCategoryWeights) {
+        categoryWeights[categoryWeightsIndex] = copyOf(inCategoryWeights, categoryCount);
+    }
+
+    @Override
+    public void setCategoryRates(double[] inCategoryRates) {
+        System.arraycopy(inCategoryRates, 0, categoryRates, 0, categoryCount);
+    }
+
+    @Override
+    public void setCategoryRatesWithIndex(int categoryRatesIndex, double[] inCategoryRates) {
+        if (categoryRatesIndex != 0) {
+            throw new UnsupportedOperationException("Multiple category rates are not supported by the Java implementation");
+        }
+        setCategoryRates(inCategoryRates);
+    }
+
+    @Override
+    public void convolveTransitionMatrices(int[] firstIndices, int[] secondIndices, int[] resultIndices, int matrixCount) {
+        final double[] product = new double[matrixSize];
+        for (int u = 0; u < matrixCount; u++) {
+            final double[] a = matrices[firstIndices[u]];
+            final double[] b = matrices[secondIndices[u]];
+            final double[] result = getMatrixBuffer(resultIndices[u]);
+            for (int c = 0; c < categoryCount; c++) {
+                final int offset = c * matrixSize;
+                Arrays.fill(product, 0.0);
+                for (int i = 0; i < stateCount; i++) {
+                    for (int k = 0; k < stateCount; k++) {
+                        final double aik = a[offset + i * stateCount + k];
+                        final int row = offset + k * stateCount;
+                        for (int j = 0; j < stateCount; j++) {
+                            product[i * stateCount + j] += aik * b[row + j];
+                        }
+                    }
+                }
+                System.arraycopy(product, 0, result, offset, matrixSize);
+            }
+        }
+    }
+
+    @Override
+    public void updateTransitionMatrices(final int eigenIndex, final int[] probabilityIndices,
+                                         int[] firstDerivativeIndices, int[] secondDervativeIndices,
+                                         final double[] edgeLengths, int count) {
+        if (firstDerivativeIndices != null || secondDervativeIndices != null) {
+            throw new UnsupportedOperationException("Derivative matrices are not supported by the Java implementation");
+        }
+
+        for (int u = 0; u < count; u++) {
+            getMatrixBuffer(probabilityIndices[u]);
+        }
+
+        // the larger matrices are worth spreading over the threads
+        if (pool != null && stateCount > 4 && count > 1) {
+            List<Callable<Double>> tasks = new ArrayList<Callable<Double>>();
+            final int taskCount = Math.min(count, threadCount);
+            for (int t = 0; t < taskCount; t++) {
+                final int from = (int) ((long) count * t / taskCount);
+                final int to = (int) ((long) count * (t + 1) / taskCount);
+                tasks.add(new Callable<Double>() {
+                    public Double call() {
+                        computeTransitionMatrices(eigenIndex, probabilityIndices, edgeLengths, from, to);
+                        return 0.0;
+                    }
+                });
+            }
+            runTasks(tasks);
+        } else {
+            computeTransitionMatrices(eigenIndex, probabilityIndices, edgeLengths, 0, count);
+        }
+    }
+
+    /**
+     * P(t) = V exp(D r t) V^-1 for each rate category (with any small negative values set to zero as
+     * BEAGLE does).
+     */
+    private void computeTransitionMatrices(int eigenIndex, int[] probabilityIndices, double[] edgeLengths,
+                                           int from, int to) {
+        final double[] evec = eigenVectors[eigenIndex];
+        final double[] ievc = inverseEigenVectors[eigenIndex];
+        final double[] eval = eigenValues[eigenIndex];
+        final double[] expValues = new double[stateCount];
+
+        for (int u = from; u < to; u++) {
+            final double[] matrix = matrices[probabilityIndices[u]];
+            for (int c = 0; c < categoryCount; c++) {
+                final double time = edgeLengths[u] * categoryRates[c];
+                for (int k = 0; k < stateCount; k++) {
+                    expValues[k] = Math.exp(eval[k] * time);
+                }
+
+                final int offset = c * matrixSize;
+                Arrays.fill(matrix, offset, offset + matrixSize, 0.0);
+                for (int i = 0; i < stateCount; i++) {
+                    final int row = offset + i * stateCount;
+                    for (int k = 0; k < stateCount; k++) {
+                        final double a = evec[i * stateCount + k] * expValues[k];
+                        final int inverseRow = k * stateCount;
+                        for (int j = 0; j < stateCount; j++) {
+                            matrix[row + j] += a * ievc[inverseRow + j];
+                        }
+                    }
+                }
+                for (int n = offset; n < offset + matrixSize; n++) {
+                    if (!(matrix[n] > 0.0)) {
+                        matrix[n] = 0.0;
+                    }
+                }
+            }
+        }
+    }
+
+    @Override
+    public void updateTransitionMatricesWithMultipleModels(int[] eigenIndices, int[] categoryRateIndices,
+                                                           int[] probabilityIndices, int[] firstDerivativeIndices,
+                                                           int[] secondDervativeIndices, double[] edgeLengths,
+                                                           int count) {
+        throw new UnsupportedOperationException("Multiple models are not supported by the Java implementation");
+    }
+
+    @Override
+    public void setTransitionMatrix(int matrixIndex, double[] inMatrix, double paddedValue) {
+        final double[] matrix = getMatrixBuffer(matrixIndex);
+        if (inMatrix.length < matrix.length) {
+            for (int c = 0; c < categoryCount; c++) {
+                System.arraycopy(inMatrix, 0, matrix, c * matrixSize, matrixSize);
+            }
+        } else {
+            System.arraycopy(inMatrix, 0, matrix, 0, matrix.length);
+        }
+    }
+
+    @Override
+    public void getTransitionMatrix(int matrixIndex, double[] outMatrix) {
+        System.arraycopy(matrices[matrixIndex], 0, outMatrix, 0, Math.min(outMatrix.length, categoryCount * matrixSize));
+    }
+
+    @Override
+    public void updatePartials(final int[] operations, final int operationCount, final int cumulativeScaleIndex) {
+        // allocate any buffers here rather than in the threads
+        for (int k = 0; k < operationCount; k++) {
+            final int offset = k * OPERATION_TUPLE_SIZE;
+            getPartialsBuffer(operations[offset]);
+            if (operations[offset + 1] != NONE) {
+                getScaleBuffer(operations[offset + 1]);
+            }
+        }
+        if (cumulativeScaleIndex != NONE) {
+            getScaleBuffer(cumulativeScaleIndex);
+        }
+
+        runInBlocks(new PatternBlockTask() {
+            public double run(int from, int to) {
+                for (int k = 0; k < operationCount; k++) {
+                    updatePartials(operations, k * OPERATION_TUPLE_SIZE, cumulativeScaleIndex, from, to);
+                }
+                return 0.0;
+            }
+        });
+    }
+
+    private void updatePartials(int[] operations, int offset, int cumulativeScaleIndex, int from, int to) {
+        final double[] destination = partials[operations[offset]];
+        final int writeScaleIndex = operations[offset + 1];
+        final int readScaleIndex = operations[offset + 2];
+        final int child1 = operations[offset + 3];
+        final double[] matrix1 = matrices[operations[offset + 4]];
+        final int child2 = operations[offset + 5];
+        final double[] matrix2 = matrices[operations[offset + 6]];
+
+        final int[] states1 = (child1 < tipStates.length ? tipStates[child1] : null);
+        final int[] states2 = (child2 < tipStates.length ? tipStates[child2] : null);
+
+        if (stateCount == 4) {
+            if (states1 != null && states2 != null) {
+                updateStatesStates4(states1, matrix1, states2, matrix2, destination, from, to);
+            } else if (states1 != null) {
+                updateStatesPartials4(states1, matrix1, partials[child2], matrix2, destination, from, to);
+            } else if (states2 != null) {
+                updateStatesPartials4(states2, matrix2, partials[child1], matrix1, destination, from, to);
+            } else {
+                updatePartialsPartials4(partials[child1], matrix1, partials[child2], matrix2, destination, from, to);
+            }
+        } else {
+            if (states1 != null && states2 != null) {
+                updateStatesStates(states1, matrix1, states2, matrix2, destination, from, to);
+            } else if (states1 != null) {
+                updateStatesPartials(states1, matrix1, partials[child2], matrix2, destination, from, to);
+            } else if (states2 != null) {
+                updateStatesPartials(states2, matrix2, partials[child1], matrix1, destination, from, to);
+            } else {
+                updatePartialsPartials(partials[child1], matrix1, partials[child2], matrix2, destination, from, to);
+            }
+        }
+
+        if (writeScaleIndex != NONE) {
+            scalePartials(destination, scaleFactors[writeScaleIndex],
+                    (cumulativeScaleIndex != NONE ? scaleFactors[cumulativeScaleIndex] : null), from, to);
+        } else if (readScaleIndex != NONE) {
+            rescalePartials(destination, scaleFactors[readScaleIndex], from, to);
+        }
+    }
+
+    private void updateStatesStates4(int[] states1, double[] matrix1, int[] states2, double[] matrix2,
+                                     double[] destination, int from, int to) {
+        for (int c = 0; c < categoryCount; c++) {
+            final int w = c * 16;
+            for (int p = from; p < to; p++) {
+                final int v = (c * patternCount + p) * 4;
+                final int s1 = states1[p];
+                final int s2 = states2[p];
+                if (s1 < 4 && s2 < 4) {
+                    destination[v] = matrix1[w + s1] * matrix2[w + s2];
+                    destination[v + 1] = matrix1[w + 4 + s1] * matrix2[w + 4 + s2];
+                    destination[v + 2] = matrix1[w + 8 + s1] * matrix2[w + 8 + s2];
+                    destination[v + 3] = matrix1[w + 12 + s1] * matrix2[w + 12 + s2];
+                } else if (s1 < 4) {
+                    destination[v] = matrix1[w + s1];
+                    destination[v + 1] = matrix1[w + 4 + s1];
+                    destination[v + 2] = matrix1[w + 8 + s1];
+                    destination[v + 3] = matrix1[w + 12 + s1];
+                } else if (s2 < 4) {
+                    destination[v] = matrix2[w + s2];
+                    destination[v + 1] = matrix2[w + 4 + s2];
+                    destination[v + 2] = matrix2[w + 8 + s2];
+                    destination[v + 3] = matrix2[w + 12 + s2];
+                } else {
+                    destination[v] = 1.0;
+                    destination[v + 1] = 1.0;
+                    destination[v + 2] = 1.0;
+                    destination[v + 3] = 1.0;
+                }
+            }
+        }
+    }
+
+    private void updateStatesPartials4(int[] states1, double[] matrix1, double[] partials2, double[] matrix2,
+                                       double[] destination, int from, int to) {
+        for (int c = 0; c < categoryCount; c++) {
+            final int w = c * 16;
+            final double m00 = matrix2[w], m01 = matrix2[w + 1], m02 = matrix2[w + 2], m03 = matrix2[w + 3];
+            final double m10 = matrix2[w + 4], m11 = matrix2[w + 5], m12 = matrix2[w + 6], m13 = matrix2[w + 7];
+            final double m20 = matrix2[w + 8], m21 = matrix2[w + 9], m22 = matrix2[w + 10], m23 = matrix2[w + 11];
+            final double m30 = matrix2[w + 12], m31 = matrix2[w + 13], m32 = matrix2[w + 14], m33 = matrix2[w + 15];
+
+            for (int p = from; p < to; p++) {
+                final int v = (c * patternCount + p) * 4;
+                final double p0 = partials2[v];
+                final double p1 = partials2[v + 1];
+                final double p2 = partials2[v + 2];
+                final double p3 = partials2[v + 3];
+
+                final double sum0 = m00 * p0 + m01 * p1 + m02 * p2 + m03 * p3;
+                final double sum1 = m10 * p0 + m11 * p1 + m12 * p2 + m13 * p3;
+                final double sum2 = m20 * p0 + m21 * p1 + m22 * p2 + m23 * p3;
+                final double sum3 = m30 * p0 + m31 * p1 + m32 * p2 + m33 * p3;
+
+                final int s1 = states1[p];
+                if (s1 < 4) {
+                    destination[v] = matrix1[w + s1] * sum0;
+                    destination[v + 1] = matrix1[w + 4 + s1] * sum1;
+                    destination[v + 2] = matrix1[w + 8 + s1] * sum2;
+                    destination[v + 3] = matrix1[w + 12 + s1] * sum3;
+                } else {
+                    destination[v] = sum0;
+                    destination[v + 1] = sum1;
+                    destination[v + 2] = sum2;
+                    destination[v + 3] = sum3;
+                }
+            }
+        }
+    }
+
+    private void updatePartialsPartials4(double[] partials1, double[] matrix1, double[] partials2, double[] matrix2,
+                                         double[] destination, int from, int to) {
+        for (int c = 0; c < categoryCount; c++) {
+            final int w = c * 16;
+            final double m00 = matrix1[w], m01 = matrix1[w + 1], m02 = matrix1[w + 2], m03 = matrix1[w + 3];
+            final double m10 = matrix1[w + 4], m11 = matrix1[w + 5], m12 = matrix1[w + 6], m13 = matrix1[w + 7];
+            final double m20 = matrix1[w + 8], m21 = matrix1[w + 9], m22 = matrix1[w + 10], m23 = matrix1[w + 11];
+            final double m30 = matrix1[w + 12], m31 = matrix1[w + 13], m32 = matrix1[w + 14], m33 = matrix1[w + 15];
+            final double n00 = matrix2[w], n01 = matrix2[w + 1], n02 = matrix2[w + 2], n03 = matrix2[w + 3];
+            final double n10 = matrix2[w + 4], n11 = matrix2[w + 5], n12 = matrix2[w + 6], n13 = matrix2[w + 7];
+            final double n20 = matrix2[w + 8], n21 = matrix2[w + 9], n22 = matrix2[w + 10], n23 = matrix2[w + 11];
+            final double n30 = matrix2[w + 12], n31 = matrix2[w + 13], n32 = matrix2[w + 14], n33 = matrix2[w + 15];
+
+            for (int p = from; p < to; p++) {
+                final int v = (c * patternCount + p) * 4;
+                final double p0 = partials1[v];
+                final double p1 = partials1[v + 1];
+                final double p2 = partials1[v + 2];
+                final double p3 = partials1[v + 3];
+                final double q0 = partials2[v];
+                final double q1 = partials2[v + 1];
+                final double q2 = partials2[v + 2];
+                final double q3 = partials2[v + 3];
+
+                destination[v] = (m00 * p0 + m01 * p1 + m02 * p2 + m03 * p3) * (n00 * q0 + n01 * q1 + n02 * q2 + n03 * q3);
+                destination[v + 1] = (m10 * p0 + m11 * p1 + m12 * p2 + m13 * p3) * (n10 * q0 + n11 * q1 + n12 * q2 + n13 * q3);
+                destination[v + 2] = (m20 * p0 + m21 * p1 + m22 * p2 + m23 * p3) * (n20 * q0 + n21 * q1 + n22 * q2 + n23 * q3);
+                destination[v + 3] = (m30 * p0 + m31 * p1 + m32 * p2 + m33 * p3) * (n30 * q0 + n31 * q1 + n32 * q2 + n33 * q3);
+            }
+        }
+    }
+
+    private void updateStatesStates(int[] states1, double[] matrix1, int[] states2, double[] matrix2,
+                                    double[] destination, int from, int to) {
+        for (int c = 0; c < categoryCount; c++) {
+            final int w = c * matrixSize;
+            for (int p = from; p < to; p++) {
+                final int v = (c * patternCount + p) * stateCount;
+                final int s1 = states1[p];
+                final int s2 = states2[p];
+                for (int i = 0, row = w; i < stateCount; i++, row += stateCount) {
+                    destination[v + i] = (s1 < stateCount ? matrix1[row + s1] : 1.0) *
+                            (s2 < stateCount ? matrix2[row + s2] : 1.0);
+                }
+            }
+        }
+    }
+
+    private void updateStatesPartials(int[] states1, double[] matrix1, double[] partials2, double[] matrix2,
+                                      double[] destination, int from, int to) {
+        for (int c = 0; c < categoryCount; c++) {
+            final int w = c * matrixSize;
+            for (int p = from; p < to; p++) {
+                final int v = (c * patternCount + p) * stateCount;
+                final int s1 = states1[p];
+                for (int i = 0, row = w; i < stateCount; i++, row += stateCount) {
+                    final double sum = dotProduct(matrix2, row, partials2, v, stateCount);
+                    destination[v + i] = (s1 < stateCount ? matrix1[row + s1] * sum : sum);
+                }
+            }
+        }
+    }
+
+    private void updatePartialsPartials(double[] partials1, double[] matrix1, double[] partials2, double[] matrix2,
+                                        double[] destination, int from, int to) {
+        for (int c = 0; c < categoryCount; c++) {
+            final int w = c * matrixSize;
+            for (int p = from; p < to; p++) {
+                final int v = (c * patternCount + p) * stateCount;
+                for (int i = 0, row = w; i < stateCount; i++, row += stateCount) {
+                    destination[v + i] = dotProduct(matrix1, row, partials1, v, stateCount) *
+                            dotProduct(matrix2, row, partials2, v, stateCount);
+                }
+            }
+        }
+    }
+
+    private static double dotProduct(double[] x, int offsetX, double[] y, int offsetY, int length) {
+        double sum0 = 0.0, sum1 = 0.0, sum2 = 0.0, sum3 = 0.0;
+        int k = 0;
+        for (; k <= length - 4; k += 4) {
+            sum0 += x[offsetX + k] * y[offsetY + k];
+            sum1 += x[offsetX + k + 1] * y[offsetY + k + 1];
+            sum2 += x[offsetX + k + 2] * y[offsetY + k + 2];
+            sum3 += x[offsetX + k + 3] * y[offsetY + k + 3];
+        }
+        for (; k < length; k++) {
+            sum0 += x[offsetX + k] * y[offsetY + k];
+        }
+        return (sum0 + sum1) + (sum2 + sum3);
+    }
+
+    /**
+     * Divides the partials of each pattern by their largest value (over the categories and states),
+     * storing this factor.
+     */
+    private void scalePartials(double[] destination, double[] factors, double[] cumulativeFactors, int from, int to) {
+        final int categoryStride = patternCount * stateCount;
+        for (int p = from; p < to; p++) {
+            double max = 0.0;
+            for (int c = 0, v = p * stateCount; c < categoryCount; c++, v += categoryStride) {
+                for (int i = 0; i < stateCount; i++) {
+                    if (destination[v + i] > max) {
+                        max = destination[v + i];
+                    }
+                }
+            }
+            if (max == 0.0) {
+                max = 1.0;
+            }
+            final double oneOverMax = 1.0 / max;
+            for (int c = 0, v = p * stateCount; c < categoryCount; c++, v += categoryStride) {
+                for (int i = 0; i < stateCount; i++) {
+                    destination[v + i] *= oneOverMax;
+                }
+            }
+            factors[p] = max;
+            if (cumulativeFactors != null) {
+                cumulativeFactors[p] += Math.log(max);
+            }
+        }
+    }
+
+    /**
+     * Divides the partials of each pattern by an existing scale factor.
+     */
+    private void rescalePartials(double[] destination, double[] factors, int from, int to) {
+        final int categoryStride = patternCount * stateCount;
+        for (int p = from; p < to; p++) {
+            final double oneOverFactor = 1.0 / factors[p];
+            for (int c = 0, v = p * stateCount; c < categoryCount; c++, v += categoryStride) {
+                for (int i = 0; i < stateCount; i++) {
+                    destination[v + i] *= oneOverFactor;
+                }
+            }
+        }
+    }
+
+    @Override
+    public void updatePartialsByPartition(int[] operations, int operationCount) {
+        throw new UnsupportedOperationException("Pattern partitions are not supported by the Java implementation");
+    }
+
+    @Override
+    public void accumulateScaleFactors(final int[] scaleIndices, final int count, final int cumulativeScaleIndex) {
+        if (cumulativeScaleIndex == NONE) {
+            throw new UnsupportedOperationException("Auto scaling is not supported by the Java implementation");
+        }
+        addScaleFactors(scaleIndices, count, cumulativeScaleIndex, 1.0);
+    }
+
+    @Override
+    public void removeScaleFactors(int[] scaleIndices, int count, int cumulativeScaleIndex) {
+        addScaleFactors(scaleIndices, count, cumulativeScaleIndex, -1.0);
+    }
+
+    private void addScaleFactors(final int[] scaleIndices, final int count, int cumulativeScaleIndex, final double sign) {
+        final double[] cumulativeFactors = getScaleBuffer(cumulativeScaleIndex);
+        final double[][] factors = new double[count][];
+        for (int k = 0; k < count; k++) {
+            factors[k] = getScaleBuffer(scaleIndices[k]);
+        }
+        runInBlocks(new PatternBlockTask() {
+            public double run(int from, int to) {
+                for (int p = from; p < to; p++) {
+                    double sum = 0.0;
+                    for (int k = 0; k < count; k++) {
+                        sum += Math.log(factors[k][p]);
+                    }
+                    cumulativeFactors[p] += sign * sum;
+                }
+                return 0.0;
+            }
+        });
+    }
+
+    @Override
+    public void copyScaleFactors(int destScalingIndex, int srcScalingIndex) {
+        System.arraycopy(getScaleBuffer(srcScalingIndex), 0, getScaleBuffer(destScalingIndex), 0, patternCount);
+    }
+
+    @Override
+    public void resetScaleFactors(int cumulativeScaleIndex) {
+        Arrays.fill(getScaleBuffer(cumulativeScaleIndex), 0.0);
+    }
+
+    @Override
+    public void accumulateScaleFactorsByPartition(int[] scaleIndices, int count, int cumulativeScaleIndex, int partitionIndex) {
+        throw new UnsupportedOperationException("Pattern partitions are not supported by the Java implementation");
+    }
+
+    @Override
+    public void removeScaleFactorsByPartition(int[] scaleIndices, int count, int cumulativeScaleIndex, int partitionIndex) {
+        throw new UnsupportedOperationException("Pattern partitions are not supported by the Java implementation");
+    }
+
+    @Override
+    public void resetScaleFactorsByPartition(int cumulativeScaleIndex, int partitionIndex) {
+        throw new UnsupportedOperationException("Pattern partitions are not supported by the Java implementation");
+    }
+
+    @Override
+    public void calculateRootLogLikelihoods(int[] bufferIndices, int[] categoryWeightsIndices,
+                                            int[] stateFrequenciesIndices, int[] cumulativeScaleIndices,
+                                            int count, double[] outSumLogLikelihood) {
+        if (count != 1) {
+            throw new UnsupportedOperationException("Multiple root buffers are not supported by the Java implementation");
+        }
+
+        final double[] rootPartials = partials[bufferIndices[0]];
+        final double[] weights = categoryWeights[categoryWeightsIndices[0]];
+        final double[] frequencies = stateFrequencies[stateFrequenciesIndices[0]];
+        final double[] cumulativeFactors = (cumulativeScaleIndices[0] != NONE ?
+                scaleFactors[cumulativeScaleIndices[0]] : null);
+
+        outSumLogLikelihood[0] = runInBlocks(new PatternBlockTask() {
+            public double run(int from, int to) {
+                double sumLogLikelihood = 0.0;
+                for (int p = from; p < to; p++) {
+                    double sum = 0.0;
+                    for (int c = 0; c < categoryCount; c++) {
+                        final int v = (c * patternCount + p) * stateCount;
+                        double sumOverStates = 0.0;
+                        for (int i = 0; i < stateCount; i++) {
+                            sumOverStates += frequencies[i] * rootPartials[v + i];
+                        }
+                        sum += weights[c] * sumOverStates;
+                    }
+                    double logLikelihood = Math.log(sum);
+                    if (cumulativeFactors != null) {
+                        logLikelihood += cumulativeFactors[p];
+                    }
+                    siteLogLikelihoods[p] = logLikelihood;
+                    sumLogLikelihood += patternWeights[p] * logLikelihood;
+                }
+                return sumLogLikelihood;
+            }
+        });
+    }
+
+    @Override
+    public void calculateRootLogLikelihoodsByPartition(int[] bufferIndices, int[] categoryWeightsIndices,
+                                                       int[] stateFrequenciesIndices, int[] cumulativeScaleIndices,
+                                                       int[] partitionIndices, int partitionCount, int count,
+                                                       double[] outSumLogLikelihoodByPartition,
+                                                       double[] outSumLogLikelihood) {
+        throw new UnsupportedOperationException("Pattern partitions are not supported by the Java implementation");
+    }
+
+    @Override
+    public void getSiteLogLikelihoods(double[] outLogLikelihoods) {
+        System.arraycopy(siteLogLikelihoods, 0, outLogLikelihoods, 0, patternCount);
+    }
+
+    @Override
+    public InstanceDetails getDetails() {
+        InstanceDetails details = new InstanceDetails();
+        details.setResourceNumber(0);
+        details.setResourceName("CPU");
+        details.setImplementationName("Java (" + threadCount + " thread" + (threadCount > 1 ? "s" : "") + ")");
+        details.setFlags(BeagleFlag.PROCESSOR_CPU.getMask() | BeagleFlag.FRAMEWORK_CPU.getMask() |
+                BeagleFlag.PRECISION_DOUBLE.getMask() | BeagleFlag.EIGEN_REAL.getMask() |
+                BeagleFlag.SCALING_MANUAL.getMask() | BeagleFlag.SCALERS_RAW.getMask() |
+                BeagleFlag.VECTOR_NONE.getMask() |
+                (pool != null ? BeagleFlag.THREADING_CPP.getMask() : BeagleFlag.THREADING_NONE.getMask()));
+        return details;
+    }
+
+    private double[] getPartialsBuffer(int index) {
+        if (partials[index] == null) {
+            partials[index] = new double[partialsSize];
+        }
+        return partials[index];
+    }
+
+    private double[] getMatrixBuffer(int index) {
+        if (matrices[index] == null) {
+            matrices[index] = new double[categoryCount * matrixSize];
+        }
+        return matrices[index];
+    }
+
+    private double[] getScaleBuffer(int index) {
+        if (scaleFactors[index] == null) {
+            scaleFactors[index] = new double[patternCount];
+        }
+        return scaleFactors[index];
+    }
+
+    private static double[] copyOf(double[] source, int length) {
+        double[] copy = new double[length];
+        System.arraycopy(source, 0, copy, 0, length);
+        return copy;
+    }
+
+    private interface PatternBlockTask {
+        /**
+         * @return a value which is summed over the blocks (in order)
+         */
+        double run(int from, int to);
+    }
+
+    private double runInBlocks(final PatternBlockTask task) {
+        final int blockCount = blockStarts.length - 1;
+        if (pool == null) {
+            double sum = 0.0;
+            for (int b = 0; b < blockCount; b++) {
+                sum += task.run(blockStarts[b], blockStarts[b + 1]);
+            }
+            return sum;
+        }
+
+        List<Callable<Double>> tasks = new ArrayList<Callable<Double>>(blockCount);
+        for (int b = 0; b < blockCount; b++) {
+            final int from = blockStarts[b];
+            final int to = blockStarts[b + 1];
+            tasks.add(new Callable<Double>() {
+                public Double call() {
+                    return task.run(from, to);
+                }
+            });
+        }
+        return runTasks(tasks);
+    }
+
+    private double runTasks(List<Callable<Double>> tasks) {
+        try {
+            double sum = 0.0;
+            for (Future<Double> future : pool.invokeAll(tasks)) {
+                sum += future.get();
+            }
+            return sum;
+        } catch (InterruptedException e) {
+            throw new RuntimeException("Interrupted while computing the likelihood");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new RuntimeException(cause);
+        }
+    }
+
+    private final int stateCount;
+    private final int patternCount;
+    private final int categoryCount;
+    private final int partialsSize;
+    private final int matrixSize;
+
+    private final double[][] partials;
+    private final int[][] tipStates;
+    private final double[][] matrices;
+    private final double[][] scaleFactors;
+
+    private final double[][] eigenVectors;
+    private final double[][] inverseEigenVectors;
+    private final double[][] eigenValues;
+    private final double[][] stateFrequencies;
+    private final double[][] categoryWeights;
+    private final double[] categoryRates;
+    private final double[] patternWeights;
+    private final double[] siteLogLikelihoods;
+
+    private final int[] blockStarts;
+    private int threadCount;
+    private ExecutorService pool = null;
+    private boolean ownsPool = true;
+}
@@ -41,6 +41,10 @@ public final class LikelihoodTreeTraversal extends TreeTraversal {
                                    final BranchRateModel branchRateModel,
                                    final TraversalType traversalType) {
         super(treeModel, branchRateModel, traversalType);
+
+        onPath = new boolean[treeModel.getNodeCount()];
+        pathNodes = new int[treeModel.getNodeCount()];
+        nodeOperationCache = new DataLikelihoodDelegate.NodeOperation[treeModel.getNodeCount()];
     }
 
     @Override
@@ -48,6 +52,13 @@ public final class LikelihoodTreeTraversal extends TreeTraversal {
         branchOperations.clear();
         nodeOperations.clear();
 
+        // unless all the nodes are to be updated, only the paths from the flagged nodes to the root
+        // are visited (this gives the same operations in the same order as visiting every node)
+        pathOnly = !updateAllNodes;
+        if (pathOnly) {
+            markPaths(treeModel);
+        }
+
         switch (traversalType) {
 
             case POST_ORDER:
@@ -59,6 +70,36 @@ public final class LikelihoodTreeTraversal extends TreeTraversal {
             default:
                 assert false : "Unknown traversal type";
         }
+
+        if (pathOnly) {
+            clearPaths();
+        }
+    }
+
+    /**
+     * Marks the nodes on the paths from each flagged node to the root.
+     */
+    private void markPaths(final Tree tree) {
+        for (int i = 0; i < updatedNodeCount; i++) {
+            NodeRef node = tree.getNode(updatedNodes[i]);
+            while (node != null && !onPath[node.getNumber()]) {
+                onPath[node.getNumber()] = true;
+                pathNodes[pathNodeCount] = node.getNumber();
+                pathNodeCount++;
+                node = tree.getParent(node);
+            }
+        }
+    }
+
+    private void clearPaths() {
+        for (int i = 0; i < pathNodeCount; i++) {
+            onPath[pathNodes[i]] = false;
+        }
+        pathNodeCount = 0;
+    }
+
+    private boolean isVisited(final NodeRef node) {
+        return !pathOnly || onPath[node.getNumber()];
     }
 
     public final List<DataLikelihoodDelegate.BranchOperation> getBranchOperations() {
@@ -76,7 +117,9 @@ public final class LikelihoodTreeTraversal extends TreeTraversal {
      * @return boolean
      */
     private void traversePostOrder(Tree tree) {
-        traversePostOrder(tree, tree.getRoot());
+        if (isVisited(tree.getRoot())) {
+            traversePostOrder(tree, tree.getRoot());
+        }
     }
 
     /**
@@ -104,15 +147,15 @@ public final class LikelihoodTreeTraversal extends TreeTraversal {
 
             // Traverse down the two child nodes
             NodeRef child1 = tree.getChild(node, 0);
-            final boolean update1 = traversePostOrder(tree, child1);
+            final boolean update1 = isVisited(child1) && traversePostOrder(tree, child1);
 
             NodeRef child2 = tree.getChild(node, 1);
-            final boolean update2 = traversePostOrder(tree, child2);
+            final boolean update2 = isVisited(child2) && traversePostOrder(tree, child2);
 
             // If either child node was updated then update this node too
             if (update1 || update2) {
 
-                nodeOperations.add(new DataLikelihoodDelegate.NodeOperation(nodeNum, child1.getNumber(), child2.getNumber()));
+                nodeOperations.add(getNodeOperation(nodeNum, child1.getNumber(), child2.getNumber()));
 
                 update = true;
 
@@ -130,22 +173,19 @@ public final class LikelihoodTreeTraversal extends TreeTraversal {
      */
     private void traverseReverseLevelOrder(final Tree tree) {
 
-        // create a map of all the operations at each particular level
-        Map<Integer, List<DataLikelihoodDelegate.NodeOperation>> operationMap =
-                new HashMap<Integer, List<DataLikelihoodDelegate.NodeOperation>>();
-
-        traverseLevelOrder(tree, tree.getRoot(), 0, operationMap);
+        // the lists of the operations at each particular level (these are kept for the next traversal)
+        for (List<DataLikelihoodDelegate.NodeOperation> ops : levelOperations) {
+            ops.clear();
+        }
 
-        // get the levels as keys in reverse order (they are currently largest towards
-        // the tips) and add the operations to the nodeOperation array.
-        List<Integer> keyList = new ArrayList<Integer>(operationMap.keySet());
-        Collections.sort(keyList, Collections.reverseOrder());
+        if (isVisited(tree.getRoot())) {
+            traverseLevelOrder(tree, tree.getRoot(), 0);
+        }
 
-        for (Integer key : keyList) {
-            List<DataLikelihoodDelegate.NodeOperation> opList = operationMap.get(key);
-            for (DataLikelihoodDelegate.NodeOperation op : opList) {
-                nodeOperations.add(op);
-            }
+        // add the operations to the nodeOperation array with the levels in reverse order (they
+        // are currently largest towards the tips)
+        for (int level = levelOperations.size() - 1; level >= 0; level--) {
+            nodeOperations.addAll(levelOperations.get(level));
         }
     }
 
@@ -157,8 +197,7 @@ public final class LikelihoodTreeTraversal extends TreeTraversal {
      * @return boolean
      */
     private boolean traverseLevelOrder(final Tree tree, final NodeRef node,
-                                       final int level,
-                                       Map<Integer, List<DataLikelihoodDelegate.NodeOperation>> operationMap) {
+                                       final int level) {
         boolean update = false;
 
         int nodeNum = node.getNumber();
@@ -178,20 +217,18 @@ public final class LikelihoodTreeTraversal extends TreeTraversal {
             // Traverse down the two child nodes incrementing the level (this will give
             // level order but we will reverse these later
             NodeRef child1 = tree.getChild(node, 0);
-            final boolean update1 = traverseLevelOrder(tree, child1, level + 1, operationMap);
+            final boolean update1 = isVisited(child1) && traverseLevelOrder(tree, child1, level + 1);
 
             NodeRef child2 = tree.getChild(node, 1);
-            final boolean update2 = traverseLevelOrder(tree, child2, level + 1, operationMap);
+            final boolean update2 = isVisited(child2) && traverseLevelOrder(tree, child2, level + 1);
 
             // If either child node was updated then update this node too
             if (update1 || update2) {
 
-                List<DataLikelihoodDelegate.NodeOperation> ops = operationMap.get(level);
-                if (ops == null) {
-                    ops = new ArrayList<DataLikelihoodDelegate.NodeOperation>();
-                    operationMap.put(level, ops);
+                while (levelOperations.size() <= level) {
+                    levelOperations.add(new ArrayList<DataLikelihoodDelegate.NodeOperation>());
                 }
-                ops.add(new DataLikelihoodDelegate.NodeOperation(nodeNum, child1.getNumber(), child2.getNumber()));
+                levelOperations.get(level).add(getNodeOperation(nodeNum, child1.getNumber(), child2.getNumber()));
 
                 update = true;
 
@@ -212,9 +249,32 @@ public final class LikelihoodTreeTraversal extends TreeTraversal {
                 computeBranchLength(tree, node)));
     }
 
+    /**
+     * Gets the operation for a node, reusing the last one made for the node if its children are the same.
+     */
+    private DataLikelihoodDelegate.NodeOperation getNodeOperation(final int nodeNum, final int leftChild,
+                                                                  final int rightChild) {
+        DataLikelihoodDelegate.NodeOperation op = nodeOperationCache[nodeNum];
+        if (op == null || op.getLeftChild() != leftChild || op.getRightChild() != rightChild) {
+            op = new DataLikelihoodDelegate.NodeOperation(nodeNum, leftChild, rightChild);
+            nodeOperationCache[nodeNum] = op;
+        }
+        return op;
+    }
+
     private final List<DataLikelihoodDelegate.BranchOperation> branchOperations = new ArrayList<DataLikelihoodDelegate.BranchOperation>();
     private final List<DataLikelihoodDelegate.NodeOperation> nodeOperations = new ArrayList<DataLikelihoodDelegate.NodeOperation>();
 
+    private final List<List<DataLikelihoodDelegate.NodeOperation>> levelOperations =
+            new ArrayList<List<DataLikelihoodDelegate.NodeOperation>>();
+
+    private final boolean[] onPath;
+    private final int[] pathNodes;
+    private int pathNodeCount = 0;
+    private boolean pathOnly;
+
+    private final DataLikelihoodDelegate.NodeOperation[] nodeOperationCache;
+
     private List<DataLikelihoodDelegate.BranchNodeOperation> savedWholeTreeBranchOperations;
     private List<DataLikelihoodDelegate.NodeOperation> savedWholeTreeNodeOperations;
 }
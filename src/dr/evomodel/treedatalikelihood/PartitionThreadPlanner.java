@@ -0,0 +1,263 @@
+/*
+ * PartitionThreadPlanner.java
+ *
+ * Copyright (c) 2002-2017 Alexei Drummond, Andrew Rambaut and Marc Suchard
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ */
+
+package dr.evomodel.treedatalikelihood;
+
+import dr.inference.model.Likelihood;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * Decides how many threads the BEAGLE instance of each partition gets. Small partitions gain
+ * nothing from splitting their patterns over threads (the hand-over costs more than it saves) while
+ * large ones scale with the number of threads, so the thread count is chosen for each partition by
+ * timing it with a range of thread counts (1, 2, 4, ... up to the total). This works for a
+ * JavaBeagleImpl and for threaded native CPU instances (which are given the count with
+ * setCPUThreadCount). JavaBeagleImpl partitions that are given the same number of threads share one
+ * thread pool (they are evaluated one after the other); a native instance keeps its own pool.
+ *
+ * Only the thread counts are planned: the resource of each instance is chosen when it is created
+ * (in turn from beagle.resource.order or by benchmarking the resources) and cannot be changed here,
+ * so GPU instances are left out.
+ *
+ * At startup each partition is timed with full evaluations. Optionally, for a number of evaluations
+ * (e.g., the burn-in) the thread counts are cycled and the times of the actual evaluations (which
+ * are mostly partial traversals) are recorded and then the plan is remade from these.
+ */
+public class PartitionThreadPlanner {
+
+    private static final int BENCHMARK_EVALUATIONS = 3;
+
+    // a thread count is only chosen over a smaller one if it is at least this much faster
+    private static final double MINIMUM_IMPROVEMENT = 0.05;
+
+    /**
+     * @param delegates           the delegates of the partitions
+     * @param likelihoods         the likelihoods of the partitions (in the same order) used for timing
+     * @param threadCount         the total number of threads (if less than 1 then the number of processors)
+     * @param replanEvaluations   the number of evaluations after which to remake the plan (0 for never)
+     */
+    public PartitionThreadPlanner(List<BeagleDataLikelihoodDelegate> delegates,
+                                  List<? extends Likelihood> likelihoods,
+                                  int threadCount,
+                                  int replanEvaluations) {
+        if (threadCount < 1) {
+            threadCount = Runtime.getRuntime().availableProcessors();
+        }
+
+        this.delegates = delegates;
+        this.replanEvaluations = replanEvaluations;
+
+        List<Integer> counts = new ArrayList<Integer>();
+        for (int t = 1; t < threadCount; t *= 2) {
+            counts.add(t);
+        }
+        counts.add(threadCount);
+
+        candidateThreadCounts = new int[counts.size()];
+        pools = new ExecutorService[counts.size()];
+        for (int c = 0; c < candidateThreadCounts.length; c++) {
+            candidateThreadCounts[c] = counts.get(c);
+            if (candidateThreadCounts[c] > 1) {
+                pools[c] = createPool(candidateThreadCounts[c]);
+            }
+        }
+
+        final int partitionCount = delegates.size();
+        times = new double[partitionCount][candidateThreadCounts.length];
+        evaluationCounts = new int[partitionCount][candidateThreadCounts.length];
+        currentCandidate = new int[partitionCount];
+        plannedCandidate = new int[partitionCount];
+
+        // time full evaluations of each partition with each thread count
+        for (int i = 0; i < partitionCount; i++) {
+            Likelihood likelihood = likelihoods.get(i);
+            for (int c = 0; c < candidateThreadCounts.length; c++) {
+                setCandidate(i, c);
+
+                likelihood.makeDirty();
+                likelihood.getLogLikelihood();
+
+                long start = System.nanoTime();
+                for (int k = 0; k < BENCHMARK_EVALUATIONS; k++) {
+                    likelihood.makeDirty();
+                    likelihood.getLogLikelihood();
+                }
+                times[i][c] = (double) (System.nanoTime() - start) / BENCHMARK_EVALUATIONS;
+                evaluationCounts[i][c] = 1;
+            }
+        }
+
+        makePlan("Partition thread plan (" + threadCount + " threads, from timing full evaluations)");
+
+        if (replanEvaluations > 0) {
+            // start recording the actual evaluations
+            for (int i = 0; i < partitionCount; i++) {
+                for (int c = 0; c < candidateThreadCounts.length; c++) {
+                    times[i][c] = 0.0;
+                    evaluationCounts[i][c] = 0;
+                }
+                delegates.get(i).setThreadPlanner(this);
+                lastEvaluationTimes.add(delegates.get(i).getEvaluationTime());
+            }
+        }
+    }
+
+    /**
+     * Called by a delegate after each evaluation while the actual evaluation times are being
+     * recorded. Each delegate is only ever switched to another thread count here (i.e., between
+     * its own evaluations).
+     */
+    synchronized void evaluationCompleted(BeagleDataLikelihoodDelegate delegate) {
+        final int i = delegates.indexOf(delegate);
+        final int c = currentCandidate[i];
+
+        long evaluationTime = delegate.getEvaluationTime();
+        times[i][c] += evaluationTime - lastEvaluationTimes.get(i);
+        evaluationCounts[i][c]++;
+        lastEvaluationTimes.set(i, evaluationTime);
+
+        evaluationCount++;
+
+        if (evaluationCount == replanEvaluations) {
+            makePlan("Partition thread plan (remade after " + evaluationCount + " evaluations)");
+        }
+
+        if (evaluationCount < replanEvaluations) {
+            // cycle through the thread counts
+            setCandidate(i, (c + 1) % candidateThreadCounts.length);
+        } else {
+            setCandidate(i, plannedCandidate[i]);
+            delegate.setThreadPlanner(null);
+        }
+    }
+
+    public int getThreadCount(int partition) {
+        return candidateThreadCounts[plannedCandidate[partition]];
+    }
+
+    private void makePlan(String title) {
+        final int partitionCount = delegates.size();
+
+        StringBuilder sb = new StringBuilder("  ").append(title).append(":\n");
+        for (int i = 0; i < partitionCount; i++) {
+            int best = 0;
+            double bestTime = getMeanTime(i, 0);
+            for (int c = 1; c < candidateThreadCounts.length; c++) {
+                double time = getMeanTime(i, c);
+                if (time < bestTime * (1.0 - MINIMUM_IMPROVEMENT)) {
+                    best = c;
+                    bestTime = time;
+                }
+            }
+            plannedCandidate[i] = best;
+
+            if (replanEvaluations == 0) {
+                // otherwise each delegate is switched after its next evaluation
+                setCandidate(i, best);
+            }
+
+            int threadCount = candidateThreadCounts[best];
+            sb.append("    ").append(getPartitionName(i)).append(": ")
+                    .append(threadCount).append(threadCount > 1 ? " threads (" : " thread (")
+                    .append(formatTime(bestTime)).append(" per evaluation; ")
+                    .append(formatTime(getMeanTime(i, 0))).append(" with 1 thread)\n");
+        }
+
+        for (int c = 1; c < candidateThreadCounts.length; c++) {
+            List<String> ids = new ArrayList<String>();
+            for (int i = 0; i < partitionCount; i++) {
+                if (plannedCandidate[i] == c && delegates.get(i).canShareThreadPool()) {
+                    ids.add(getPartitionName(i));
+                }
+            }
+            if (ids.size() > 1) {
+                sb.append("    sharing a pool of ").append(candidateThreadCounts[c]).append(" threads: ")
+                        .append(ids).append("\n");
+            }
+        }
+
+        Logger.getLogger("dr.evomodel").info(sb.toString());
+    }
+
+    private String getPartitionName(int partition) {
+        String id = delegates.get(partition).getId();
+        return (id != null ? id : "partition " + (partition + 1));
+    }
+
+    private double getMeanTime(int partition, int candidate) {
+        if (evaluationCounts[partition][candidate] == 0) {
+            return Double.POSITIVE_INFINITY;
+        }
+        return times[partition][candidate] / evaluationCounts[partition][candidate];
+    }
+
+    private void setCandidate(int partition, int candidate) {
+        currentCandidate[partition] = candidate;
+        delegates.get(partition).setThreadPool(pools[candidate], candidateThreadCounts[candidate]);
+    }
+
+    private static String formatTime(double nanos) {
+        if (Double.isInfinite(nanos)) {
+            return "not timed";
+        }
+        return String.format("%.3f ms", nanos / 1.0E6);
+    }
+
+    private static ExecutorService createPool(int threadCount) {
+        // the threads of a pool that is no longer used end after a while
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(threadCount, threadCount, 60L, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "partition-thread-planner");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        pool.allowCoreThreadTimeOut(true);
+        return pool;
+    }
+
+    private final List<BeagleDataLikelihoodDelegate> delegates;
+    private final int replanEvaluations;
+
+    private final int[] candidateThreadCounts;
+    private final ExecutorService[] pools;
+
+    private final double[][] times;
+    private final int[][] evaluationCounts;
+    private final int[] currentCandidate;
+    private final int[] plannedCandidate;
+    private final List<Long> lastEvaluationTimes = new ArrayList<Long>();
+
+    private int evaluationCount = 0;
+}
@@ -69,6 +69,25 @@ public final class SubstitutionModelDelegate implements EvolutionaryProcessDeleg
 
     private Deque<Integer> availableBuffers = new ArrayDeque<Integer>();
 
+    // scratch arrays reused for each update
+    private final int[][] probabilityIndices;
+    private final double[][] edgeLengths;
+    private final int[] counts;
+    private final int[] firstConvolutionBuffers;
+    private final int[] secondConvolutionBuffers;
+    private final int[] resultConvolutionBuffers;
+    private final List<Deque<Integer>> convolutionList = new ArrayList<Deque<Integer>>();
+    private final Deque<Deque<Integer>> convolutionDequePool = new ArrayDeque<Deque<Integer>>();
+
+    // for each branch, a bit for each substitution model used in its last transition matrix (0 if not known)
+    private long[] branchModelMasks;
+    private long[] storedBranchModelMasks;
+
+    private long transitionMatrixUpdateCount = 0;
+    private long branchUpdateCount = 0;
+    private long matrixComputeCount = 0;
+    private long convolutionCount = 0;
+
     /**
      * A class which handles substitution models including epoch models where multiple
      * substitution models on a branch are convolved.
@@ -123,6 +142,19 @@ public final class SubstitutionModelDelegate implements EvolutionaryProcessDeleg
             pushAvailableBuffer(i + matrixBufferHelper.getBufferCount());
         }
 
+        // each branch can need one matrix for each substitution model
+        probabilityIndices = new int[eigenCount][nodeCount];
+        edgeLengths = new double[eigenCount][nodeCount];
+        counts = new int[eigenCount];
+        firstConvolutionBuffers = new int[nodeCount];
+        secondConvolutionBuffers = new int[nodeCount];
+        resultConvolutionBuffers = new int[nodeCount];
+
+        if (eigenCount <= Long.SIZE) {
+            branchModelMasks = new long[nodeCount];
+            storedBranchModelMasks = new long[nodeCount];
+        }
+
         // one extra created as a reserve
         // which is used to free up buffers when the avail stack is empty.
         reserveBufferIndex = matrixBufferHelper.getBufferCount() + extraBufferCount;
@@ -198,15 +230,72 @@ public final class SubstitutionModelDelegate implements EvolutionaryProcessDeleg
         }
     }
 
+    /**
+     * Gets the branches whose transition matrices use a substitution model (as they were last
+     * computed). Only these need to be updated when the substitution model changes.
+     *
+     * @param substitutionModel the substitution model
+     * @return the node numbers of the branches or null if these are not known
+     */
+    public int[] getBranchesUsingSubstitutionModel(SubstitutionModel substitutionModel) {
+        if (branchModelMasks == null) {
+            return null;
+        }
+
+        // a model can be used by more than one epoch so all of these are included
+        long bits = 0;
+        for (int k = 0; k < substitutionModelList.size(); k++) {
+            if (substitutionModelList.get(k) == substitutionModel) {
+                bits |= 1L << k;
+            }
+        }
+        if (bits == 0) {
+            return null;
+        }
+        final int rootNumber = tree.getRoot().getNumber();
+
+        int[] branches = new int[nodeCount];
+        int count = 0;
+        for (int i = 0; i < nodeCount; i++) {
+            // a branch whose mapping is not known is included
+            if (i != rootNumber && (branchModelMasks[i] == 0 || (branchModelMasks[i] & bits) != 0)) {
+                branches[count] = i;
+                count++;
+            }
+        }
+        int[] result = new int[count];
+        System.arraycopy(branches, 0, result, 0, count);
+        return result;
+    }
+
+    /**
+     * @return a report of the number of branches updated and transition matrices computed (and
+     * convolved) so far
+     */
+    public String getReport() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("SubstitutionModelDelegate:");
+        sb.append("\n  transition matrix updates = ").append(transitionMatrixUpdateCount);
+        sb.append("\n  branches updated = ").append(branchUpdateCount);
+        sb.append("\n  matrices computed = ").append(matrixComputeCount);
+        sb.append("\n  matrices convolved = ").append(convolutionCount);
+        if (transitionMatrixUpdateCount > 0) {
+            sb.append("\n  branches per update = ").append((double) branchUpdateCount / transitionMatrixUpdateCount);
+            sb.append("\n  matrices computed per update = ").append((double) matrixComputeCount / transitionMatrixUpdateCount);
+        }
+        sb.append("\n");
+        return sb.toString();
+    }
+
     @Override
     public void updateTransitionMatrices(Beagle beagle, int[] branchIndices, double[] edgeLength, int updateCount, boolean flipBuffers) {
 
-        int[][] probabilityIndices = new int[eigenCount][updateCount];
-        double[][] edgeLengths = new double[eigenCount][updateCount];
-
-        int[] counts = new int[eigenCount];
+        for (int k = 0; k < eigenCount; k++) {
+            counts[k] = 0;
+        }
 
-        List<Deque<Integer>> convolutionList = new ArrayList<Deque<Integer>>();
+        transitionMatrixUpdateCount++;
+        branchUpdateCount += updateCount;
 
         for (int i = 0; i < updateCount; i++) {
 
@@ -214,6 +303,14 @@ public final class SubstitutionModelDelegate implements EvolutionaryProcessDeleg
             int[] order = mapping.getOrder();
             double[] weights = mapping.getWeights();
 
+            if (branchModelMasks != null) {
+                long mask = 0;
+                for (int k : order) {
+                    mask |= 1L << k;
+                }
+                branchModelMasks[branchIndices[i]] = mask;
+            }
+
             if (order.length == 1) {
                 int k = order[0];
                 if (flipBuffers) {
@@ -240,7 +337,8 @@ public final class SubstitutionModelDelegate implements EvolutionaryProcessDeleg
                     }
                 }
 
-                Deque<Integer> bufferIndices = new ArrayDeque<Integer>();
+                Deque<Integer> bufferIndices = convolutionDequePool.isEmpty() ?
+                        new ArrayDeque<Integer>() : convolutionDequePool.pop();
                 for (int j = 0; j < order.length; j++) {
 
                     int buffer = popAvailableBuffer();
@@ -296,6 +394,7 @@ public final class SubstitutionModelDelegate implements EvolutionaryProcessDeleg
                 }
             }
             if (counts[i] > 0) {
+                matrixComputeCount += counts[i];
                 beagle.updateTransitionMatrices(eigenBufferHelper.getOffsetIndex(i),
                         probabilityIndices[i],
                         null, // firstDerivativeIndices
@@ -326,9 +425,6 @@ public final class SubstitutionModelDelegate implements EvolutionaryProcessDeleg
         }
 
         while (convolutionList.size() > 0) {
-            int[] firstConvolutionBuffers = new int[nodeCount];
-            int[] secondConvolutionBuffers = new int[nodeCount];
-            int[] resultConvolutionBuffers = new int[nodeCount];
             int operationsCount = 0;
 
             List<Deque<Integer>> empty = new ArrayList<Deque<Integer>>();
@@ -418,6 +514,9 @@ public final class SubstitutionModelDelegate implements EvolutionaryProcessDeleg
             convolveAndRelease(beagle, firstConvolutionBuffers, secondConvolutionBuffers, resultConvolutionBuffers, operationsCount);
 
             convolutionList.removeAll(empty);
+            for (Deque<Integer> convolve : empty) {
+                convolutionDequePool.push(convolve);
+            }
         }
 
         if (MEASURE_RUN_TIME) {
@@ -436,6 +535,8 @@ public final class SubstitutionModelDelegate implements EvolutionaryProcessDeleg
             }
         }
 
+        convolutionCount += operationsCount;
+
         beagle.convolveTransitionMatrices(firstConvolutionBuffers, // A
                 secondConvolutionBuffers, // B
                 resultConvolutionBuffers, // C
@@ -484,12 +585,22 @@ public final class SubstitutionModelDelegate implements EvolutionaryProcessDeleg
     public void storeState() {
         eigenBufferHelper.storeState();
         matrixBufferHelper.storeState();
+
+        if (branchModelMasks != null) {
+            System.arraycopy(branchModelMasks, 0, storedBranchModelMasks, 0, nodeCount);
+        }
     }
 
     @Override
     public void restoreState() {
         eigenBufferHelper.restoreState();
         matrixBufferHelper.restoreState();
+
+        if (branchModelMasks != null) {
+            long[] tmp = branchModelMasks;
+            branchModelMasks = storedBranchModelMasks;
+            storedBranchModelMasks = tmp;
+        }
     }
 
 }// END: class
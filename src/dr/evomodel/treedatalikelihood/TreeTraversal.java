@@ -52,6 +52,7 @@ public abstract class TreeTraversal {
         this.traversalType = traversalType;
 
         updateNode = new boolean[treeModel.getNodeCount()];
+        updatedNodes = new int[treeModel.getNodeCount()];
         updateAllNodes();
     }
 
@@ -62,7 +63,15 @@ public abstract class TreeTraversal {
     }
 
     public final void setAllNodesUpdated() {
-        Arrays.fill(updateNode, false);
+        if (updateAllNodes) {
+            Arrays.fill(updateNode, false);
+        } else {
+            // only the flags that were set need clearing
+            for (int i = 0; i < updatedNodeCount; i++) {
+                updateNode[updatedNodes[i]] = false;
+            }
+        }
+        updatedNodeCount = 0;
         updateAllNodes = false;
     }
 
@@ -72,20 +81,20 @@ public abstract class TreeTraversal {
     }
 
     public final void updateNode(final NodeRef node) {
-        updateNode[node.getNumber()] = true;
+        flagNode(node.getNumber());
     }
 
     public final void updateNodeAndChildren(final NodeRef node) {
-        updateNode[node.getNumber()] = true;
+        flagNode(node.getNumber());
 
         for (int i = 0; i < treeModel.getChildCount(node); i++) {
             final NodeRef child = treeModel.getChild(node, i);
-            updateNode[child.getNumber()] = true;
+            flagNode(child.getNumber());
         }
     }
 
     public final void updateNodeAndDescendents(final NodeRef node) {
-        updateNode[node.getNumber()] = true;
+        flagNode(node.getNumber());
 
         for (int i = 0; i < treeModel.getChildCount(node); i++) {
             final NodeRef child = treeModel.getChild(node, i);
@@ -94,7 +103,7 @@ public abstract class TreeTraversal {
     }
 
     public final void updateNodeAndAncestors(final NodeRef node) {
-        updateNode[node.getNumber()] = true;
+        flagNode(node.getNumber());
 
         if (!treeModel.isRoot(node)) {
             final NodeRef parent = treeModel.getParent(node);
@@ -102,6 +111,18 @@ public abstract class TreeTraversal {
         }
     }
 
+    /**
+     * Sets the update flag for a node and keeps a list of the flagged nodes (unless all are flagged)
+     * so a traversal can go straight to them.
+     */
+    private void flagNode(final int nodeNum) {
+        if (!updateNode[nodeNum]) {
+            updateNode[nodeNum] = true;
+            updatedNodes[updatedNodeCount] = nodeNum;
+            updatedNodeCount++;
+        }
+    }
+
     protected final double computeBranchLength(final Tree tree, final NodeRef node) {
         final double branchRate;
 
@@ -126,6 +147,10 @@ public abstract class TreeTraversal {
     protected final boolean[] updateNode;
     protected boolean updateAllNodes;
 
+    // the nodes flagged since the last traversal (if not all of them)
+    protected final int[] updatedNodes;
+    protected int updatedNodeCount = 0;
+
     protected final TraversalType traversalType;
 }
 
@@ -46,7 +46,7 @@ public class ConjugateRootTraitPrior {
     private final double[] mean;
     private final double pseudoObservations;
 
-    private ConjugateRootTraitPrior(double[] mean, double pseudoObservations) {
+    public ConjugateRootTraitPrior(double[] mean, double pseudoObservations) {
         this.mean = mean;
         this.pseudoObservations = pseudoObservations;
     }
@@ -0,0 +1,410 @@
+/*
+ * BranchLengthGradientDelegate.java
+ *
+ * Copyright (c) 2002-2016 Alexei Drummond, Andrew Rambaut and Marc Suchard
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ */
+
+package dr.evomodel.treedatalikelihood.preorder;
+
+import dr.evolution.alignment.PatternList;
+import dr.evolution.datatype.DataType;
+import dr.evolution.tree.NodeRef;
+import dr.evolution.tree.Tree;
+import dr.evomodel.branchmodel.BranchModel;
+import dr.evomodel.siteratemodel.SiteRateModel;
+import dr.evomodel.substmodel.EigenDecomposition;
+import dr.evomodel.treedatalikelihood.DataLikelihoodDelegate;
+import dr.evomodel.treedatalikelihood.DiscreteDataLikelihoodDelegate;
+import dr.evomodel.treedatalikelihood.RateRescalingScheme;
+import dr.evomodel.treedatalikelihood.TreeDataLikelihood;
+import dr.inference.model.Model;
+import dr.inference.model.ModelListener;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * BranchLengthGradientDelegate - computes the gradient of the log likelihood of discrete data with
+ * respect to all the branch lengths (in expected substitutions) with a single pre-order traversal
+ * over the post-order partials of the last likelihood evaluation.
+ *
+ * For the branch above node b, with pre-order partials u above the branch and post-order partials
+ * w below, the likelihood of a pattern is sum_c p_c u^T P(r_c t) w and its derivative is
+ * sum_c p_c r_c u^T Q P(r_c t) w. Both are computed from the same (possibly rescaled) partials so
+ * the ratio doesn't depend on the scaling. This requires a single substitution model on all the
+ * branches.
+ *
+ * @version $Id$
+ */
+public class BranchLengthGradientDelegate implements ModelListener {
+
+    public BranchLengthGradientDelegate(TreeDataLikelihood treeDataLikelihood) {
+
+        DataLikelihoodDelegate delegate = treeDataLikelihood.getDataLikelihoodDelegate();
+        if (!(delegate instanceof DiscreteDataLikelihoodDelegate)) {
+            throw new IllegalArgumentException("Branch length gradients require a discrete data likelihood delegate");
+        }
+        if (delegate.getRateRescalingScheme() != RateRescalingScheme.NONE) {
+            throw new IllegalArgumentException("Branch length gradients are not available with rate rescaling");
+        }
+
+        this.treeDataLikelihood = treeDataLikelihood;
+        this.likelihoodDelegate = (DiscreteDataLikelihoodDelegate) delegate;
+        this.tree = treeDataLikelihood.getTree();
+
+        BranchModel branchModel = likelihoodDelegate.getBranchModel();
+        if (branchModel.getSubstitutionModels().size() != 1) {
+            throw new IllegalArgumentException("Branch length gradients require the same substitution model on all branches");
+        }
+
+        PatternList patternList = likelihoodDelegate.getPatternList();
+        dataType = patternList.getDataType();
+        stateCount = dataType.getStateCount();
+        patternCount = patternList.getPatternCount();
+        categoryCount = likelihoodDelegate.getSiteRateModel().getCategoryCount();
+        partialsSize = categoryCount * patternCount * stateCount;
+
+        // the column of each tip in the pattern list
+        tipIndices = new int[tree.getExternalNodeCount()];
+        for (int i = 0; i < tipIndices.length; i++) {
+            tipIndices[i] = patternList.getTaxonIndex(tree.getTaxonId(i));
+        }
+
+        gradient = new double[tree.getNodeCount()];
+
+        postPartials1 = new double[partialsSize];
+        postPartials2 = new double[partialsSize];
+        transitionProducts1 = new double[partialsSize];
+        transitionProducts2 = new double[partialsSize];
+        aboveBranchPartials = new double[partialsSize];
+        matrices1 = new double[categoryCount * stateCount * stateCount];
+        matrices2 = new double[categoryCount * stateCount * stateCount];
+        rateMatrix = new double[stateCount * stateCount];
+
+        treeDataLikelihood.addModelListener(this);
+        gradientKnown = false;
+    }
+
+    /**
+     * @return the gradient of the log likelihood with respect to the length of the branch above
+     * each node (indexed by node number; the value for the root is zero).
+     */
+    public double[] getGradient() {
+
+        treeDataLikelihood.getLogLikelihood(); // Ensure the partials are up-to-date
+
+        if (!gradientKnown) {
+            calculateGradient();
+            gradientKnown = true;
+        }
+
+        return gradient;
+    }
+
+    private void calculateGradient() {
+
+        setupRateMatrix();
+
+        SiteRateModel siteRateModel = likelihoodDelegate.getSiteRateModel();
+        categoryRates = siteRateModel.getCategoryRates();
+        categoryWeights = siteRateModel.getCategoryProportions();
+        patternWeights = likelihoodDelegate.getPatternList().getPatternWeights();
+
+        // the pre-order partials at the root are the root frequencies
+        double[] frequencies = likelihoodDelegate.getBranchModel().getRootFrequencyModel().getFrequencies();
+        double[] rootPartials = getPreOrderBuffer(0, 0);
+        for (int k = 0; k < categoryCount * patternCount; k++) {
+            System.arraycopy(frequencies, 0, rootPartials, k * stateCount, stateCount);
+        }
+
+        gradient[tree.getRoot().getNumber()] = 0.0;
+
+        traversePreOrder(tree.getRoot(), rootPartials, 0);
+    }
+
+    /**
+     * Q = V D V^-1 (from the eigen decomposition that is used for the transition matrices).
+     */
+    private void setupRateMatrix() {
+        EigenDecomposition eigen = likelihoodDelegate.getBranchModel().getSubstitutionModels().get(0).getEigenDecomposition();
+        final double[] evec = eigen.getEigenVectors();
+        final double[] ievc = eigen.getInverseEigenVectors();
+        final double[] eval = eigen.getEigenValues();
+
+        for (int i = stateCount; i < eval.length; i++) {
+            if (eval[i] != 0.0) {
+                throw new UnsupportedOperationException("Branch length gradients are not available for complex eigen decompositions");
+            }
+        }
+
+        for (int i = 0; i < stateCount; i++) {
+            for (int j = 0; j < stateCount; j++) {
+                double sum = 0.0;
+                for (int k = 0; k < stateCount; k++) {
+                    sum += evec[i * stateCount + k] * eval[k] * ievc[k * stateCount + j];
+                }
+                rateMatrix[i * stateCount + j] = sum;
+            }
+        }
+    }
+
+    /**
+     * Visits the two children of a node given the pre-order partials of the node (i.e., the partial
+     * likelihoods of everything except the subtree below it).
+     */
+    private void traversePreOrder(final NodeRef node, final double[] preOrderPartials, final int depth) {
+
+        final NodeRef child1 = tree.getChild(node, 0);
+        final NodeRef child2 = tree.getChild(node, 1);
+
+        getPostOrderPartials(child1, postPartials1);
+        getPostOrderPartials(child2, postPartials2);
+        likelihoodDelegate.getTransitionMatrix(child1.getNumber(), matrices1);
+        likelihoodDelegate.getTransitionMatrix(child2.getNumber(), matrices2);
+
+        // the post-order partials at the top of each child branch
+        multiplyByTransitionMatrices(matrices1, postPartials1, transitionProducts1);
+        multiplyByTransitionMatrices(matrices2, postPartials2, transitionProducts2);
+
+        // child 1 sees the node's pre-order partials and the subtree of child 2 (and vice versa)
+        double[] childPartials1 = null;
+        double[] childPartials2 = null;
+
+        multiplyElementwise(preOrderPartials, transitionProducts2, aboveBranchPartials);
+        gradient[child1.getNumber()] = calculateBranchGradient(aboveBranchPartials, transitionProducts1);
+        if (!tree.isExternal(child1)) {
+            childPartials1 = getPreOrderBuffer(depth + 1, 0);
+            calculatePreOrderPartials(aboveBranchPartials, matrices1, childPartials1);
+        }
+
+        multiplyElementwise(preOrderPartials, transitionProducts1, aboveBranchPartials);
+        gradient[child2.getNumber()] = calculateBranchGradient(aboveBranchPartials, transitionProducts2);
+        if (!tree.isExternal(child2)) {
+            childPartials2 = getPreOrderBuffer(depth + 1, 1);
+            calculatePreOrderPartials(aboveBranchPartials, matrices2, childPartials2);
+        }
+
+        // the scratch arrays are reused further down the tree
+        if (childPartials1 != null) {
+            traversePreOrder(child1, childPartials1, depth + 1);
+        }
+        if (childPartials2 != null) {
+            traversePreOrder(child2, childPartials2, depth + 1);
+        }
+    }
+
+    /**
+     * d log L / d t = sum_p n_p (sum_c p_c r_c u^T Q P w) / (sum_c p_c u^T P w) where u are the
+     * partials above the branch and P w the post-order partials at the top of it.
+     */
+    private double calculateBranchGradient(final double[] above, final double[] below) {
+
+        double branchGradient = 0.0;
+
+        for (int k = 0; k < patternCount; k++) {
+            double numerator = 0.0;
+            double denominator = 0.0;
+
+            for (int c = 0; c < categoryCount; c++) {
+                final int offset = (c * patternCount + k) * stateCount;
+
+                double derivative = 0.0;
+                double likelihood = 0.0;
+                for (int i = 0; i < stateCount; i++) {
+                    double sum = 0.0;
+                    for (int j = 0; j < stateCount; j++) {
+                        sum += rateMatrix[i * stateCount + j] * below[offset + j];
+                    }
+                    derivative += above[offset + i] * sum;
+                    likelihood += above[offset + i] * below[offset + i];
+                }
+
+                numerator += categoryWeights[c] * categoryRates[c] * derivative;
+                denominator += categoryWeights[c] * likelihood;
+            }
+
+            if (denominator > 0.0) {
+                branchGradient += patternWeights[k] * numerator / denominator;
+            }
+        }
+
+        return branchGradient;
+    }
+
+    /**
+     * v = u^T P for each category and pattern, normalized by the largest value of each pattern (to
+     * avoid underflow as the traversal goes down the tree).
+     */
+    private void calculatePreOrderPartials(final double[] above, final double[] matrices, final double[] partials) {
+
+        for (int c = 0; c < categoryCount; c++) {
+            final int matrixOffset = c * stateCount * stateCount;
+            for (int k = 0; k < patternCount; k++) {
+                final int offset = (c * patternCount + k) * stateCount;
+                for (int j = 0; j < stateCount; j++) {
+                    double sum = 0.0;
+                    for (int i = 0; i < stateCount; i++) {
+                        sum += above[offset + i] * matrices[matrixOffset + i * stateCount + j];
+                    }
+                    partials[offset + j] = sum;
+                }
+            }
+        }
+
+        for (int k = 0; k < patternCount; k++) {
+            double max = 0.0;
+            for (int c = 0; c < categoryCount; c++) {
+                final int offset = (c * patternCount + k) * stateCount;
+                for (int j = 0; j < stateCount; j++) {
+                    max = Math.max(max, partials[offset + j]);
+                }
+            }
+            if (max > 0.0) {
+                for (int c = 0; c < categoryCount; c++) {
+                    final int offset = (c * patternCount + k) * stateCount;
+                    for (int j = 0; j < stateCount; j++) {
+                        partials[offset + j] /= max;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * P w for each category and pattern.
+     */
+    private void multiplyByTransitionMatrices(final double[] matrices, final double[] partials, final double[] products) {
+        for (int c = 0; c < categoryCount; c++) {
+            final int matrixOffset = c * stateCount * stateCount;
+            for (int k = 0; k < patternCount; k++) {
+                final int offset = (c * patternCount + k) * stateCount;
+                for (int i = 0; i < stateCount; i++) {
+                    double sum = 0.0;
+                    for (int j = 0; j < stateCount; j++) {
+                        sum += matrices[matrixOffset + i * stateCount + j] * partials[offset + j];
+                    }
+                    products[offset + i] = sum;
+                }
+            }
+        }
+    }
+
+    private void multiplyElementwise(final double[] a, final double[] b, final double[] product) {
+        for (int n = 0; n < partialsSize; n++) {
+            product[n] = a[n] * b[n];
+        }
+    }
+
+    /**
+     * Gets the post-order partials of a node. Those of the tips are made from the patterns in the
+     * same way as the likelihood delegates do it (which may hold tip states rather than partials).
+     */
+    private void getPostOrderPartials(final NodeRef node, final double[] partials) {
+        if (!tree.isExternal(node)) {
+            likelihoodDelegate.getPartials(node.getNumber(), partials);
+            return;
+        }
+
+        final PatternList patternList = likelihoodDelegate.getPatternList();
+        final int taxonIndex = tipIndices[node.getNumber()];
+        final boolean useAmbiguities = likelihoodDelegate.useAmbiguities();
+
+        int v = 0;
+        for (int k = 0; k < patternCount; k++) {
+            if (useAmbiguities && patternList.areUncertain()) {
+                double[] probabilities = patternList.getUncertainPatternState(taxonIndex, k);
+                System.arraycopy(probabilities, 0, partials, v, stateCount);
+            } else {
+                final int state = patternList.getPatternState(taxonIndex, k);
+                if (useAmbiguities) {
+                    boolean[] stateSet = dataType.getStateSet(state);
+                    for (int j = 0; j < stateCount; j++) {
+                        partials[v + j] = (stateSet[j] ? 1.0 : 0.0);
+                    }
+                } else {
+                    // as BEAGLE does with tip states, ambiguous states are missing data
+                    for (int j = 0; j < stateCount; j++) {
+                        partials[v + j] = (state < stateCount ? (state == j ? 1.0 : 0.0) : 1.0);
+                    }
+                }
+            }
+            v += stateCount;
+        }
+
+        // the same for each category
+        final int n = patternCount * stateCount;
+        for (int c = 1; c < categoryCount; c++) {
+            System.arraycopy(partials, 0, partials, c * n, n);
+        }
+    }
+
+    /**
+     * Two buffers of pre-order partials are kept for each depth of the tree (the partials of the two
+     * children of a node are needed one after the other).
+     */
+    private double[] getPreOrderBuffer(final int depth, final int child) {
+        while (preOrderBuffers.size() <= depth) {
+            preOrderBuffers.add(new double[][]{new double[partialsSize], new double[partialsSize]});
+        }
+        return preOrderBuffers.get(depth)[child];
+    }
+
+    @Override
+    public void modelChangedEvent(Model model, Object object, int index) {
+        gradientKnown = false;
+    }
+
+    @Override
+    public void modelRestored(Model model) {
+        gradientKnown = false;
+    }
+
+    private final TreeDataLikelihood treeDataLikelihood;
+    private final DiscreteDataLikelihoodDelegate likelihoodDelegate;
+    private final Tree tree;
+    private final DataType dataType;
+
+    private final int stateCount;
+    private final int patternCount;
+    private final int categoryCount;
+    private final int partialsSize;
+
+    private final int[] tipIndices;
+
+    private final double[] gradient;
+    private boolean gradientKnown;
+
+    private final double[] postPartials1;
+    private final double[] postPartials2;
+    private final double[] transitionProducts1;
+    private final double[] transitionProducts2;
+    private final double[] aboveBranchPartials;
+    private final double[] matrices1;
+    private final double[] matrices2;
+    private final double[] rateMatrix;
+
+    private final List<double[][]> preOrderBuffers = new ArrayList<double[][]>();
+
+    private double[] categoryRates;
+    private double[] categoryWeights;
+    private double[] patternWeights;
+}
@@ -40,6 +40,7 @@ import dr.evomodel.tree.TreeModel;
 import dr.evomodel.tipstatesmodel.TipStatesModel;
 import dr.inference.loggers.LogColumn;
 import dr.inference.loggers.NumberColumn;
+import dr.inference.markovjumps.BranchStateChanges;
 import dr.inference.markovjumps.MarkovJumpsRegisterAcceptor;
 import dr.inference.markovjumps.MarkovJumpsType;
 import dr.inference.model.Parameter;
@@ -178,7 +179,8 @@ public class MarkovJumpsBeagleTreeLikelihood extends AncestralStateBeagleTreeLik
 
             } else {
                 if (histories == null) {
-                    histories = new String[treeModel.getNodeCount()][patternCount];
+                    histories = new BranchStateChanges(treeModel.getNodeCount());
+                    historyDataType = substitutionModel.getDataType();
                 } else {
                     throw new RuntimeException("Only one complete history per markovJumpTreeLikelihood is allowed");
                 }
@@ -225,25 +227,17 @@ public class MarkovJumpsBeagleTreeLikelihood extends AncestralStateBeagleTreeLik
                         }
 
                         public String[] getTrait(Tree tree, NodeRef node) {
-
-                            List<String> events = new ArrayList<String>();
-                            for (int i = 0; i < patternCount; i++) {
-                                String eventString = getHistoryForNode(tree, node, i);
-                                if (eventString != null && eventString.compareTo("{}") != 0) {
-                                    eventString = eventString.substring(1, eventString.length() - 1);
-                                    if (eventString.contains("},{")) { // There are multiple events
-                                        String[] elements = eventString.split("(?<=\\}),(?=\\{)");
-                                        for (String e : elements) {
-                                            events.add(e);
-                                        }
-                                    } else {
-                                        events.add(eventString);
-                                    }
-                                }
+                            BranchStateChanges changes = getBranchStateChanges(tree);
+                            int branch = node.getNumber();
+
+                            String[] events = new String[changes.getChangeCount(branch)];
+                            StringBuilder sb = new StringBuilder();
+                            for (int i = 0; i < events.length; i++) {
+                                sb.setLength(0);
+                                changes.appendChange(sb, branch, i, getHistorySiteLabel(changes.getSite(branch, i)), historyDataType);
+                                events[i] = sb.toString();
                             }
-                            String[] array = new String[events.size()];
-                            events.toArray(array);
-                            return array;
+                            return events;
                         }
 
                         public boolean getLoggable() {
@@ -268,8 +262,11 @@ public class MarkovJumpsBeagleTreeLikelihood extends AncestralStateBeagleTreeLik
                         }
 
                         public String getTrait(Tree tree, NodeRef node) {
-                            String history = getHistoryForNode(tree, node, anonSite);
-                            return (history.compareTo("{}") != 0) ? history : null; // Return null if empty
+                            BranchStateChanges changes = getBranchStateChanges(tree);
+                            if (changes.getChangeCount(node.getNumber(), anonSite) == 0) {
+                                return null; // Return null if empty
+                            }
+                            return getHistoryForNode(tree, node, anonSite);
                         }
 
                         public boolean getLoggable() {
@@ -335,14 +332,47 @@ public class MarkovJumpsBeagleTreeLikelihood extends AncestralStateBeagleTreeLik
     }
 
     public String getHistoryForNode(Tree tree, NodeRef node, int site) {
-        return getHistory(tree)[node.getNumber()][site];
+        return getBranchStateChanges(tree).toString(node.getNumber(), site, getHistorySiteLabel(site), historyDataType);
     }
 
+    /**
+     * @return the text of the complete history of each site on each branch (made from the state
+     * changes for each call so getBranchStateChanges should be used where possible)
+     */
     public String[][] getHistory(Tree tree) {
+        BranchStateChanges changes = getBranchStateChanges(tree);
+        String[][] history = new String[changes.getBranchCount()][patternCount];
+        for (int i = 0; i < history.length; i++) {
+            for (int j = 0; j < patternCount; j++) {
+                history[i][j] = changes.toString(i, j, getHistorySiteLabel(j), historyDataType);
+            }
+        }
+        return history;
+    }
+
+    /**
+     * @return the state changes of the complete history on each branch (the sites are numbered
+     * from 0 and the branches by the number of the child node)
+     */
+    public BranchStateChanges getBranchStateChanges(Tree tree) {
         refresh(tree);
         return histories;
     }
 
+    /**
+     * @return the number given to a site in the text of a complete history (-1 for none)
+     */
+    public int getHistorySiteLabel(int site) {
+        return (useCompactHistory) ? site + 1 : -1;
+    }
+
+    /**
+     * @return the data type of the states in the complete history
+     */
+    public DataType getHistoryDataType() {
+        return historyDataType;
+    }
+
 //    private static String formattedValue(double[] values) {
 //        double total = 0;
 //        for (double summant : values) {
@@ -428,6 +458,10 @@ public class MarkovJumpsBeagleTreeLikelihood extends AncestralStateBeagleTreeLik
                                                     boolean saveHistory) {
 
 
+        if (saveHistory) {
+            histories.clear(childNum);
+        }
+
         // Fill condJumps with sampled values for this branch for each site
         for (int j = 0; j < patternCount; j++) {
             final int category = rateCategory == null ? 0 : rateCategory[j];
@@ -444,8 +478,7 @@ public class MarkovJumpsBeagleTreeLikelihood extends AncestralStateBeagleTreeLik
             }
             thisExpectedJumps[childNum][j] = value;
             if (saveHistory) {
-                int site = (useCompactHistory) ? j + 1 : -1;
-                histories[childNum][j] = thisMarkovJumps.getCompleteHistory(site, parentTime, childTime);
+                thisMarkovJumps.addCompleteHistoryTo(histories, childNum, j, parentTime, childTime);
             }
         }
     }
@@ -649,7 +682,8 @@ public class MarkovJumpsBeagleTreeLikelihood extends AncestralStateBeagleTreeLik
     //    private List<double[][]> storedExpectedJumps;
     private boolean logHistory = false;
     private boolean useCompactHistory = false;
-    private String[][] histories = null;
+    private BranchStateChanges histories = null;
+    private DataType historyDataType = null;
     private boolean[] scaleByTime;
     private double[] tmpProbabilities;
     private double[][] condJumps;
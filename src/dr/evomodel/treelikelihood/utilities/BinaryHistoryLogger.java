@@ -0,0 +1,246 @@
+/*
+ * BinaryHistoryLogger.java
+ *
+ * Copyright (c) 2002-2017 Alexei Drummond, Andrew Rambaut and Marc Suchard
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ */
+
+package dr.evomodel.treelikelihood.utilities;
+
+import dr.evolution.datatype.DataType;
+import dr.evolution.tree.Tree;
+import dr.evomodel.treelikelihood.MarkovJumpsBeagleTreeLikelihood;
+import dr.inference.loggers.Logger;
+import dr.inference.markovjumps.BranchStateChanges;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * A logger that streams the complete histories of a MarkovJumpsBeagleTreeLikelihood to a binary
+ * file as the state changes on each branch (a site, time, from state and to state for each) rather
+ * than as text. No text of the histories is made while sampling and each sample is written as it
+ * is logged so the memory used does not grow with the length of the chain. The file can be turned
+ * into the text log of a completeHistoryLogger with BinaryHistoryDecoder.
+ * <p/>
+ * The file has a header (a format name, the version, the id of the likelihood, the codes of the
+ * states, the number of sites, the number of nodes and the number of tips) and then, for each
+ * sample, the state of the chain, the number of the root and the changes on the branch above each
+ * other node in turn.
+ */
+public class BinaryHistoryLogger implements Logger {
+
+    public static final String FORMAT_NAME = "BEAST complete history";
+    public static final int VERSION = 1;
+
+    /**
+     * @param treeLikelihood the likelihood which samples the complete histories
+     * @param file           the file to write
+     * @param logEvery       the number of states between samples
+     */
+    public BinaryHistoryLogger(MarkovJumpsBeagleTreeLikelihood treeLikelihood, File file, long logEvery) {
+        if (treeLikelihood.getHistoryDataType() == null) {
+            throw new IllegalArgumentException("Tree likelihood, " + treeLikelihood.getId() +
+                    ", does not sample complete histories");
+        }
+        this.treeLikelihood = treeLikelihood;
+        this.tree = treeLikelihood.getTreeModel();
+        this.file = file;
+        this.logEvery = logEvery;
+    }
+
+    public void startLogging() {
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+
+            DataType dataType = treeLikelihood.getHistoryDataType();
+            out.writeUTF(FORMAT_NAME);
+            out.writeInt(VERSION);
+            out.writeUTF(treeLikelihood.getId() == null ? "" : treeLikelihood.getId());
+            out.writeInt(dataType.getStateCount());
+            for (int i = 0; i < dataType.getStateCount(); i++) {
+                out.writeUTF(dataType.getCode(i));
+            }
+            out.writeInt(treeLikelihood.getPatternCount());
+            out.writeInt(tree.getNodeCount());
+            out.writeInt(tree.getExternalNodeCount());
+            out.flush();
+        } catch (IOException ioe) {
+            throw new RuntimeException("Unable to write complete histories to " + file.getPath() + ": " + ioe.getMessage());
+        }
+    }
+
+    public void log(long state) {
+        if (logEvery > 0 && (state % logEvery == 0)) {
+            BranchStateChanges changes = treeLikelihood.getBranchStateChanges(tree);
+            int rootNumber = tree.getRoot().getNumber();
+            try {
+                out.writeLong(state);
+                out.writeInt(rootNumber);
+                for (int i = 0; i < tree.getNodeCount(); i++) {
+                    if (i != rootNumber) {
+                        changes.write(out, i);
+                    }
+                }
+                out.flush();
+            } catch (IOException ioe) {
+                throw new RuntimeException("Unable to write complete histories to " + file.getPath() + ": " + ioe.getMessage());
+            }
+        }
+    }
+
+    public void stopLogging() {
+        if (out != null) {
+            try {
+                out.close();
+            } catch (IOException ioe) {
+                // nothing to do
+            }
+            out = null;
+        }
+    }
+
+    /**
+     * Reads the samples of a file written by a BinaryHistoryLogger in turn.
+     */
+    public static class Reader {
+
+        public Reader(File file) throws IOException {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+
+            if (!FORMAT_NAME.equals(in.readUTF())) {
+                in.close();
+                throw new IOException("File, " + file.getName() + ", is not a binary complete history log");
+            }
+            int version = in.readInt();
+            if (version != VERSION) {
+                in.close();
+                throw new IOException("Unknown version of binary complete history log: " + version);
+            }
+
+            id = in.readUTF();
+            codes = new String[in.readInt()];
+            for (int i = 0; i < codes.length; i++) {
+                codes[i] = in.readUTF();
+            }
+            siteCount = in.readInt();
+            nodeCount = in.readInt();
+            externalNodeCount = in.readInt();
+
+            changes = new BranchStateChanges(nodeCount);
+        }
+
+        /**
+         * Reads the next sample.
+         *
+         * @return false if there are no more samples
+         */
+        public boolean next() throws IOException {
+            try {
+                state = in.readLong();
+            } catch (EOFException eofe) {
+                return false;
+            }
+            rootNumber = in.readInt();
+            for (int i = 0; i < nodeCount; i++) {
+                if (i != rootNumber) {
+                    changes.read(in, i);
+                } else {
+                    changes.clear(i);
+                }
+            }
+            return true;
+        }
+
+        public void close() throws IOException {
+            in.close();
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        /**
+         * @return the code of a state (as given by the DataType of the likelihood)
+         */
+        public String getCode(int state) {
+            return codes[state];
+        }
+
+        public int getSiteCount() {
+            return siteCount;
+        }
+
+        public int getNodeCount() {
+            return nodeCount;
+        }
+
+        /**
+         * @return true if the node is a tip (the tips are numbered first)
+         */
+        public boolean isExternal(int node) {
+            return node < externalNodeCount;
+        }
+
+        /**
+         * @return the state of the chain of the current sample
+         */
+        public long getState() {
+            return state;
+        }
+
+        public int getRootNumber() {
+            return rootNumber;
+        }
+
+        /**
+         * @return the changes on each branch of the current sample (replaced by the next one)
+         */
+        public BranchStateChanges getChanges() {
+            return changes;
+        }
+
+        private final DataInputStream in;
+        private final String id;
+        private final String[] codes;
+        private final int siteCount;
+        private final int nodeCount;
+        private final int externalNodeCount;
+        private final BranchStateChanges changes;
+
+        private long state;
+        private int rootNumber;
+    }
+
+    private final MarkovJumpsBeagleTreeLikelihood treeLikelihood;
+    private final Tree tree;
+    private final File file;
+    private final long logEvery;
+
+    private DataOutputStream out = null;
+}
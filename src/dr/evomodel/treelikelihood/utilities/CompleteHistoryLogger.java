@@ -27,11 +27,13 @@ package dr.evomodel.treelikelihood.utilities;
 
 import dr.evomodel.treelikelihood.MarkovJumpsBeagleTreeLikelihood;
 import dr.evomodel.treelikelihood.MarkovJumpsTraitProvider;
+import dr.evolution.datatype.DataType;
 import dr.evolution.tree.NodeRef;
 import dr.evolution.tree.Tree;
 import dr.evolution.tree.TreeTrait;
 import dr.inference.loggers.LogColumn;
 import dr.inference.loggers.Loggable;
+import dr.inference.markovjumps.BranchStateChanges;
 import dr.inference.markovjumps.StateHistory;
 import dr.util.Citable;
 import dr.util.Citation;
@@ -69,6 +71,11 @@ public class CompleteHistoryLogger implements Loggable, Citable {
 
     public CompleteHistoryLogger(MarkovJumpsTraitProvider treeLikelihood, HistoryFilter filter, boolean internal, boolean external) {
         this.tree = treeLikelihood.getTreeModel();
+        if (treeLikelihood instanceof MarkovJumpsBeagleTreeLikelihood) {
+            this.markovJumpsLikelihood = (MarkovJumpsBeagleTreeLikelihood) treeLikelihood;
+        } else {
+            this.markovJumpsLikelihood = null;
+        }
         this.patternCount = treeLikelihood.getPatternCount();
         this.internal = internal;
         this.external = external;
@@ -203,7 +210,6 @@ public class CompleteHistoryLogger implements Loggable, Citable {
 
                 @Override
                 protected String getFormattedValue() {
-                    boolean empty = true;
                     StringBuilder bf = new StringBuilder("{");
                     int count = 0;
                     for (int i = 0; i < tree.getNodeCount(); ++i) {
@@ -215,35 +221,30 @@ public class CompleteHistoryLogger implements Loggable, Citable {
                                 double childTime = tree.getNodeHeight(node);
                                 double minTime = Math.min(parentTime, childTime);
                                 double maxTime = Math.max(parentTime, childTime);
-                                String trait = treeTraitHistory[anonSite].getTraitString(tree, node);
-                                if (trait != null && trait.compareTo("{}") != 0) {
-                                    Object[] changes = (Object[]) parseValue(trait);
-                                    for (int j = 0; j < changes.length; ++j) {
-
-                                        Object[] change = (Object[]) changes[j];
-                                        int offset = (change.length == 4) ? 1 : 0;
-                                        String source = (String) change[1 + offset];
-                                        String dest = (String) change[2 + offset];
-                                        double thisTime = (Double) change[0 + offset];
-                                        if (thisTime < 0.0) {
-                                            throw new RuntimeException("negative time");
-                                        }
-                                        if (thisTime > maxTime || thisTime < minTime) {
-                                            throw new RuntimeException("Invalid simulation time");
-                                        }
-
-                                        // TODO Delegate to Filter(source, dest, thisTime).  If filtered then
-                                        boolean filtered = filter.filter(source, dest, thisTime);
-                                        if (filtered) {
-                                            if (!empty) {
-                                                bf.append(",");
-                                            }
-                                            StateHistory.addEventToStringBuilder(bf, source, dest,
-                                                    thisTime, anonSite + 1);
-                                            count++;
-                                            empty = false;
-                                        } else {
-                                            // Do nothing
+                                if (markovJumpsLikelihood != null) {
+                                    // read the changes directly rather than parsing the text of them
+                                    BranchStateChanges changes = markovJumpsLikelihood.getBranchStateChanges(tree);
+                                    DataType dataType = markovJumpsLikelihood.getHistoryDataType();
+                                    int branch = node.getNumber();
+                                    for (int j = changes.getFirstChange(branch, anonSite);
+                                         j < changes.getChangeCount(branch) && changes.getSite(branch, j) == anonSite; ++j) {
+                                        count += appendChange(bf, count,
+                                                dataType.getCode(changes.getFromState(branch, j)),
+                                                dataType.getCode(changes.getToState(branch, j)),
+                                                changes.getTime(branch, j), minTime, maxTime, anonSite + 1);
+                                    }
+                                } else {
+                                    String trait = treeTraitHistory[anonSite].getTraitString(tree, node);
+                                    if (trait != null && trait.compareTo("{}") != 0) {
+                                        Object[] changes = (Object[]) parseValue(trait);
+                                        for (int j = 0; j < changes.length; ++j) {
+
+                                            Object[] change = (Object[]) changes[j];
+                                            int offset = (change.length == 4) ? 1 : 0;
+                                            String source = (String) change[1 + offset];
+                                            String dest = (String) change[2 + offset];
+                                            double thisTime = (Double) change[0 + offset];
+                                            count += appendChange(bf, count, source, dest, thisTime, minTime, maxTime, anonSite + 1);
                                         }
                                     }
                                 }
@@ -258,6 +259,33 @@ public class CompleteHistoryLogger implements Loggable, Citable {
         return columns;
     }
 
+    /**
+     * Appends a change to a history if it is not filtered out
+     *
+     * @param count the number of changes already in the history
+     * @return 1 if the change was appended or 0 if not
+     */
+    private int appendChange(StringBuilder bf, int count, String source, String dest, double thisTime,
+                             double minTime, double maxTime, int site) {
+        if (thisTime < 0.0) {
+            throw new RuntimeException("negative time");
+        }
+        if (thisTime > maxTime || thisTime < minTime) {
+            throw new RuntimeException("Invalid simulation time");
+        }
+
+        // TODO Delegate to Filter(source, dest, thisTime).  If filtered then
+        boolean filtered = filter.filter(source, dest, thisTime);
+        if (filtered) {
+            if (count > 0) {
+                bf.append(",");
+            }
+            StateHistory.addEventToStringBuilder(bf, source, dest, thisTime, site);
+            return 1;
+        }
+        return 0;
+    }
+
     @Override
     public Citation.Category getCategory() {
         return Citation.Category.COUNTING_PROCESSES;
@@ -274,6 +302,7 @@ public class CompleteHistoryLogger implements Loggable, Citable {
     }
 
     final private Tree tree;
+    final private MarkovJumpsBeagleTreeLikelihood markovJumpsLikelihood;
     final private TreeTrait[] treeTraitHistory;
     final private TreeTrait treeTraitCount;
     final private int patternCount;
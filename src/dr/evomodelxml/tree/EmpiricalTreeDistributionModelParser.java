@@ -27,6 +27,7 @@ package dr.evomodelxml.tree;
 
 import dr.util.FileHelpers;
 import dr.xml.*;
+import dr.evolution.io.LazyTreeList;
 import dr.evolution.io.NexusImporter;
 import dr.evolution.io.Importer;
 import dr.evolution.tree.Tree;
@@ -46,6 +47,11 @@ public class EmpiricalTreeDistributionModelParser extends AbstractXMLObjectParse
     public static final String RATE_ATTRIBUTE_NAME = "rateAttribute";
     public static final String STARTING_TREE = "startingTree";
     public static final String ITERATE = "iterate";
+    public static final String STORAGE = "storage";
+    public static final String FULL = "full";
+    public static final String COMPACT = "compact";
+    public static final String INDEXED = "indexed";
+    public static final String CACHE_SIZE = "cacheSize";
 
     public String getParserName() {
         return EmpiricalTreeDistributionModel.EMPIRICAL_TREE_DISTRIBUTION_MODEL;
@@ -71,6 +77,32 @@ public class EmpiricalTreeDistributionModelParser extends AbstractXMLObjectParse
 
         final File file = FileHelpers.getFile(fileName);
 
+        final String storage = xo.getAttribute(STORAGE, FULL);
+        if (!iterate && !storage.equals(FULL)) {
+            final int cacheSize = xo.getAttribute(CACHE_SIZE, LazyTreeList.DEFAULT_CACHE_SIZE);
+            if (cacheSize < 1) {
+                throw new XMLParseException("The " + CACHE_SIZE + " attribute should be at least 1");
+            }
+
+            LazyTreeList trees;
+            try {
+                if (storage.equals(COMPACT)) {
+                    trees = LazyTreeList.createCompactList(file, taxa, true, cacheSize);
+                } else {
+                    trees = LazyTreeList.createIndexedList(file, taxa, true, cacheSize);
+                }
+            } catch (IOException e) {
+                throw new XMLParseException(e.getMessage());
+            } catch (Importer.ImportException e) {
+                throw new XMLParseException(e.getMessage());
+            }
+
+            Logger.getLogger("dr.evomodel").info("    Randomly jump between " + trees.size() + " trees from file, " + fileName +
+                    (storage.equals(COMPACT) ? " (stored compactly" : " (read from the file when needed") +
+                    ", caching the " + cacheSize + " most recently used)");
+            return new EmpiricalTreeDistributionModel(trees, startingTree);
+        }
+
         Tree[] trees = null;
         NexusImporter importer = null;
         try {
@@ -105,6 +137,12 @@ public class EmpiricalTreeDistributionModelParser extends AbstractXMLObjectParse
         return new XMLSyntaxRule[]{
                 AttributeRule.newIntegerRule(STARTING_TREE, true),
                 AttributeRule.newBooleanRule(ITERATE, true),
+                new StringAttributeRule(STORAGE,
+                        "How the trees are kept: 'full' trees in memory, 'compact' encodings of the trees (without their " +
+                                "attributes) or 'indexed' trees read from the file when needed",
+                        new String[]{FULL, COMPACT, INDEXED}, true),
+                AttributeRule.newIntegerRule(CACHE_SIZE, true,
+                        "The number of recently used trees kept when the storage is compact or indexed"),
                 new StringAttributeRule(FILE_NAME,
                         "The name of a NEXUS tree file"),
 //                AttributeRule.newIntegerRule(BURNIN, true,
@@ -26,6 +26,7 @@
 package dr.evomodelxml.tree;
 
 import dr.evolution.colouring.TreeColouringProvider;
+import dr.evolution.io.TreeFileIndex;
 import dr.evolution.tree.*;
 import dr.evomodel.tree.TreeLogger;
 import dr.inference.loggers.LogFormatter;
@@ -38,6 +39,8 @@ import dr.inferencexml.loggers.LoggerParser;
 import dr.util.Identifiable;
 import dr.xml.*;
 
+import java.io.File;
+import java.io.IOException;
 import java.io.PrintWriter;
 import java.text.NumberFormat;
 import java.util.ArrayList;
@@ -65,6 +68,7 @@ public class TreeLoggerParser extends LoggerParser {
     public static final String TREE_TRAIT = "trait";
     public static final String NAME = "name";
     public static final String TAG = "tag";
+    public static final String WRITE_INDEX = "writeIndex";
 
     public String getParserName() {
         return LOG_TREE;
@@ -323,6 +327,7 @@ public class TreeLoggerParser extends LoggerParser {
             format.setMaximumFractionDigits(dp);
         }
 
+        logFile = (xo.hasAttribute(FILE_NAME) ? XMLParser.getLogFile(xo, FILE_NAME) : null);
         final PrintWriter pw = getLogFile(xo, getParserName());
 
         formatter = new TabDelimitedFormatter(pw);
@@ -355,6 +360,15 @@ public class TreeLoggerParser extends LoggerParser {
             logger.setTitle(title);
         }
 
+        if (xo.getAttribute(WRITE_INDEX, false) && logFile != null) {
+            try {
+                logger.setIndexWriter(new TreeFileIndex.Writer(logFile));
+            } catch (IOException ioe) {
+                throw new XMLParseException("Unable to write tree file index for " + logFile.getName() + ": " +
+                        ioe.getMessage());
+            }
+        }
+
         return logger;
     }
 
@@ -367,6 +381,7 @@ public class TreeLoggerParser extends LoggerParser {
     protected TreeLogger.LogUpon condition;
     protected boolean mapNames;
     protected LogFormatter formatter;
+    protected File logFile;
     protected TreeAttributeProvider[] treeAttributeProviders;
     protected TreeTraitProvider[] treeTraitProviders;
     protected int logEvery;
@@ -396,6 +411,8 @@ public class TreeLoggerParser extends LoggerParser {
             AttributeRule.newStringRule(FILTER_TRAITS, true),
             AttributeRule.newBooleanRule(MAP_NAMES, true),
             AttributeRule.newIntegerRule(DECIMAL_PLACES, true),
+            AttributeRule.newBooleanRule(WRITE_INDEX, true,
+                    "Whether to write an index of the states and positions of the trees alongside the file"),
 
             new ElementRule(Tree.class, "The tree which is to be logged"),
 //            new ElementRule(BranchRates.class, true),
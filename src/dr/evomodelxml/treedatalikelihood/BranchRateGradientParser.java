@@ -0,0 +1,72 @@
+/*
+ * BranchRateGradientParser.java
+ *
+ * Copyright (c) 2002-2016 Alexei Drummond, Andrew Rambaut and Marc Suchard
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ */
+
+package dr.evomodelxml.treedatalikelihood;
+
+import dr.evomodel.treedatalikelihood.TreeDataLikelihood;
+import dr.evomodel.treedatalikelihood.discrete.BranchRateGradient;
+import dr.xml.*;
+
+public class BranchRateGradientParser extends AbstractXMLObjectParser {
+
+    public static final String BRANCH_RATE_GRADIENT = "branchRateGradient";
+
+    @Override
+    public String getParserName() {
+        return BRANCH_RATE_GRADIENT;
+    }
+
+    @Override
+    public Object parseXMLObject(XMLObject xo) throws XMLParseException {
+
+        final TreeDataLikelihood treeDataLikelihood = (TreeDataLikelihood) xo.getChild(TreeDataLikelihood.class);
+
+        try {
+            return new BranchRateGradient(treeDataLikelihood);
+        } catch (IllegalArgumentException iae) {
+            throw new XMLParseException("Unable to compute branch rate gradients for " + treeDataLikelihood.getId() +
+                    ": " + iae.getMessage());
+        }
+    }
+
+    @Override
+    public XMLSyntaxRule[] getSyntaxRules() {
+        return rules;
+    }
+
+    private final XMLSyntaxRule[] rules = {
+            new ElementRule(TreeDataLikelihood.class),
+    };
+
+    @Override
+    public String getParserDescription() {
+        return "The gradient of a sequence data likelihood with respect to the arbitrary branch rates (from a pre-order traversal)";
+    }
+
+    @Override
+    public Class getReturnType() {
+        return BranchRateGradient.class;
+    }
+}
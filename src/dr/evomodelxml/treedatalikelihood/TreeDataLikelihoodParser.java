@@ -39,7 +39,9 @@ import dr.evomodel.tipstatesmodel.TipStatesModel;
 import dr.evomodel.tree.TreeModel;
 import dr.evomodel.treedatalikelihood.BeagleDataLikelihoodDelegate;
 import dr.evomodel.treedatalikelihood.DataLikelihoodDelegate;
+import dr.evomodel.treedatalikelihood.JavaBeagleImpl;
 import dr.evomodel.treedatalikelihood.MultiPartitionDataLikelihoodDelegate;
+import dr.evomodel.treedatalikelihood.PartitionThreadPlanner;
 import dr.evomodel.treedatalikelihood.TreeDataLikelihood;
 import dr.evomodel.treelikelihood.PartialsRescalingScheme;
 import dr.inference.model.CompoundLikelihood;
@@ -60,6 +62,8 @@ public class TreeDataLikelihoodParser extends AbstractXMLObjectParser {
     public static final String BEAGLE_THREAD_COUNT = "beagle.thread.count";
     public static final String THREAD_COUNT = "thread.count";
     public static final String THREADS = "threads";
+    public static final String THREAD_REPLAN = "thread.replan";
+    public static final String THREAD_PLAN = "thread.plan";
 
     public static final String TREE_DATA_LIKELIHOOD = "treeDataLikelihood";
     public static final String USE_AMBIGUITIES = "useAmbiguities";
@@ -161,28 +165,53 @@ public class TreeDataLikelihoodParser extends AbstractXMLObjectParser {
         // The multipartition data likelihood isn't available so make a set of single partition data likelihoods
         List<Likelihood> treeDataLikelihoods = new ArrayList<Likelihood>();
 
-        // Todo: allow for different number of threads per beagle instance according to pattern counts
-        if (beagleThreadCount == -1 && threadCount >= 0) {
+        // the thread count of each instance is planned by timing its partition for the Java
+        // implementation or, if thread.plan is set, for threaded native CPU instances
+        boolean planThreads = beagleThreadCount == -1 &&
+                (useJava || Boolean.parseBoolean(System.getProperty(THREAD_PLAN, "false")));
+
+        if (!planThreads && beagleThreadCount == -1 && threadCount >= 0) {
             System.setProperty(BEAGLE_THREAD_COUNT, Integer.toString(threadCount / patternLists.size()));
         }
 
+        List<BeagleDataLikelihoodDelegate> plannedDelegates = new ArrayList<BeagleDataLikelihoodDelegate>();
+        List<Likelihood> plannedLikelihoods = new ArrayList<Likelihood>();
+
         for (int i = 0; i < patternLists.size(); i++) {
 
-            DataLikelihoodDelegate dataLikelihoodDelegate = new BeagleDataLikelihoodDelegate(
+            // with java.only the delegates use JavaBeagleImpl, which runs blocks of site patterns on a
+            // thread pool (unless a thread count is given for each instance this is set up by the
+            // PartitionThreadPlanner below, as it is for native CPU instances with thread.plan)
+            BeagleDataLikelihoodDelegate dataLikelihoodDelegate = new BeagleDataLikelihoodDelegate(
                     treeModel,
                     patternLists.get(i),
                     branchModels.get(i),
                     siteRateModels.get(i),
                     useAmbiguities,
                     scalingScheme,
-                    delayRescalingUntilUnderflow);
+                    delayRescalingUntilUnderflow,
+                    (useJava ? JavaBeagleImpl.FACTORY : null));
 
-            treeDataLikelihoods.add(
-                    new TreeDataLikelihood(
-                            dataLikelihoodDelegate,
-                            treeModel,
-                            branchRateModel));
+            TreeDataLikelihood treeDataLikelihood = new TreeDataLikelihood(
+                    dataLikelihoodDelegate,
+                    treeModel,
+                    branchRateModel);
+            treeDataLikelihoods.add(treeDataLikelihood);
+
+            if (dataLikelihoodDelegate.isThreadCountAdjustable()) {
+                plannedDelegates.add(dataLikelihoodDelegate);
+                plannedLikelihoods.add(treeDataLikelihood);
+            }
+
+        }
+
+        if (planThreads && plannedDelegates.size() > 0) {
+            int replanEvaluations = 0;
+            if (System.getProperty(THREAD_REPLAN) != null) {
+                replanEvaluations = Integer.parseInt(System.getProperty(THREAD_REPLAN));
+            }
 
+            new PartitionThreadPlanner(plannedDelegates, plannedLikelihoods, threadCount, replanEvaluations);
         }
 
         if (treeDataLikelihoods.size() == 1) {
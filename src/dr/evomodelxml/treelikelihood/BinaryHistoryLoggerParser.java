@@ -0,0 +1,77 @@
+/*
+ * BinaryHistoryLoggerParser.java
+ *
+ * Copyright (c) 2002-2017 Alexei Drummond, Andrew Rambaut and Marc Suchard
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ */
+
+package dr.evomodelxml.treelikelihood;
+
+import dr.evomodel.treelikelihood.MarkovJumpsBeagleTreeLikelihood;
+import dr.evomodel.treelikelihood.utilities.BinaryHistoryLogger;
+import dr.inference.loggers.Logger;
+import dr.inferencexml.loggers.LoggerParser;
+import dr.util.FileHelpers;
+import dr.xml.*;
+
+import java.io.File;
+
+public class BinaryHistoryLoggerParser extends AbstractXMLObjectParser {
+
+    public static final String NAME = "binaryHistoryLogger";
+
+    public Object parseXMLObject(XMLObject xo) throws XMLParseException {
+        MarkovJumpsBeagleTreeLikelihood treeLikelihood =
+                (MarkovJumpsBeagleTreeLikelihood) xo.getChild(MarkovJumpsBeagleTreeLikelihood.class);
+
+        long logEvery = xo.getLongIntegerAttribute(LoggerParser.LOG_EVERY);
+        File file = XMLParser.getLogFile(xo, FileHelpers.FILE_NAME);
+
+        try {
+            return new BinaryHistoryLogger(treeLikelihood, file, logEvery);
+        } catch (IllegalArgumentException iae) {
+            throw new XMLParseException(iae.getMessage());
+        }
+    }
+
+    public String getParserName() {
+        return NAME;
+    }
+
+    public String getParserDescription() {
+        return "A logger to stream the complete histories to a binary file (see BinaryHistoryDecoder).";
+    }
+
+    public Class getReturnType() {
+        return Logger.class;
+    }
+
+    public XMLSyntaxRule[] getSyntaxRules() {
+        return rules;
+    }
+
+    private final XMLSyntaxRule[] rules = {
+            AttributeRule.newLongIntegerRule(LoggerParser.LOG_EVERY),
+            new StringAttributeRule(FileHelpers.FILE_NAME, "The name of the file to write"),
+            AttributeRule.newBooleanRule(LoggerParser.ALLOW_OVERWRITE_LOG, true),
+            new ElementRule(MarkovJumpsBeagleTreeLikelihood.class),
+    };
+}
@@ -0,0 +1,235 @@
+/*
+ * PackedAlignmentParser.java
+ *
+ * Copyright (c) 2002-2017 Alexei Drummond, Andrew Rambaut and Marc Suchard
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ */
+
+package dr.evoxml;
+
+import dr.evolution.alignment.Alignment;
+import dr.evolution.alignment.PackedAlignment;
+import dr.evolution.alignment.SimpleAlignment;
+import dr.evolution.datatype.DataType;
+import dr.evolution.datatype.Nucleotides;
+import dr.evolution.io.FastaImporter;
+import dr.evolution.io.Importer;
+import dr.evolution.io.NexusImporter;
+import dr.evolution.sequence.Sequence;
+import dr.evolution.util.Taxa;
+import dr.evolution.util.TaxonList;
+import dr.evoxml.util.DataTypeUtils;
+import dr.util.FileHelpers;
+import dr.xml.*;
+
+import java.io.*;
+import java.util.logging.Logger;
+
+/**
+ * Reads an alignment from a FASTA or NEXUS file (or takes an existing alignment) and stores
+ * it as a PackedAlignment. The packed states are cached in a binary file next to the
+ * original which is used instead of the original in later runs as long as the original
+ * has not changed.
+ */
+public class PackedAlignmentParser extends AbstractXMLObjectParser {
+
+    public static final String PACKED_ALIGNMENT = "packedAlignment";
+    public static final String FILE_NAME = "fileName";
+    public static final String CACHE_FILE_NAME = "cacheFileName";
+    public static final String CACHE = "cache";
+    public static final String MEMORY_MAPPED = "memoryMapped";
+
+    public String getParserName() {
+        return PACKED_ALIGNMENT;
+    }
+
+    public Object parseXMLObject(XMLObject xo) throws XMLParseException {
+
+        final Logger logger = Logger.getLogger("dr.evoxml");
+
+        Alignment source = (Alignment) xo.getChild(Alignment.class);
+        TaxonList taxa = (TaxonList) xo.getChild(Taxa.class);
+
+        PackedAlignment alignment;
+
+        if (source != null) {
+            if (xo.hasAttribute(FILE_NAME)) {
+                throw new XMLParseException("Either an alignment or a fileName should be given for " +
+                        PACKED_ALIGNMENT + " but not both");
+            }
+            alignment = new PackedAlignment(source);
+        } else {
+            if (!xo.hasAttribute(FILE_NAME)) {
+                throw new XMLParseException("An alignment or a fileName should be given for " + PACKED_ALIGNMENT);
+            }
+
+            final DataType dataType = DataTypeUtils.getDataType(xo);
+            if (dataType == null) {
+                throw new XMLParseException("dataType attribute expected for " + PACKED_ALIGNMENT + " element");
+            }
+
+            final File file = FileHelpers.getFile(xo.getStringAttribute(FILE_NAME));
+            if (!file.canRead()) {
+                throw new XMLParseException("Unable to read alignment file, " + file.getName());
+            }
+
+            final boolean cache = xo.getAttribute(CACHE, true);
+            final boolean memoryMapped = xo.getAttribute(MEMORY_MAPPED, true);
+            final File cacheFile = (xo.hasAttribute(CACHE_FILE_NAME) ?
+                    FileHelpers.getFile(xo.getStringAttribute(CACHE_FILE_NAME)) :
+                    new File(file.getPath() + PackedAlignment.CACHE_FILE_SUFFIX));
+
+            alignment = null;
+            if (cache && cacheFile.exists()) {
+                try {
+                    alignment = PackedAlignment.readCache(cacheFile, dataType, taxa,
+                            file.length(), file.lastModified(), memoryMapped);
+                } catch (IOException ioe) {
+                    throw new XMLParseException("Unable to read packed alignment cache, " + cacheFile.getName() +
+                            ": " + ioe.getMessage());
+                }
+                if (alignment != null) {
+                    logger.info("\nRead packed alignment cache: " + cacheFile.getName());
+                } else {
+                    logger.info("\nPacked alignment cache, " + cacheFile.getName() + ", is out of date");
+                }
+            }
+
+            if (alignment == null) {
+                alignment = new PackedAlignment(importAlignment(file, dataType, taxa));
+
+                if (cache) {
+                    try {
+                        alignment.writeCache(cacheFile, file.length(), file.lastModified());
+                        if (memoryMapped) {
+                            // use the cache so the states are not kept on the heap
+                            alignment = PackedAlignment.readCache(cacheFile, dataType, taxa,
+                                    file.length(), file.lastModified(), true);
+                        }
+                        logger.info("\nWrote packed alignment cache: " + cacheFile.getName());
+                    } catch (IOException ioe) {
+                        logger.warning("Unable to write packed alignment cache, " + cacheFile.getName() +
+                                ": " + ioe.getMessage());
+                    }
+                }
+            }
+        }
+
+        logger.info("\nRead packed alignment" + (xo.hasAttribute(XMLParser.ID) ? ": " + xo.getId() : "") +
+                "\n  Sequences = " + alignment.getSequenceCount() +
+                "\n      Sites = " + alignment.getSiteCount() +
+                "\n   Datatype = " + alignment.getDataType().getDescription() +
+                "\n  Bits/site = " + alignment.getBitsPerState());
+
+        return alignment;
+    }
+
+    private Alignment importAlignment(File file, DataType dataType, TaxonList taxa) throws XMLParseException {
+        try {
+            Reader reader = new BufferedReader(new FileReader(file));
+            boolean isNexus = isNexusFile(file);
+
+            Alignment imported;
+            if (isNexus) {
+                imported = new NexusImporter(reader).importAlignment();
+                if (imported.getDataType() != dataType) {
+                    throw new XMLParseException("The data type of the alignment in, " + file.getName() +
+                            ", is not " + dataType.getDescription());
+                }
+            } else {
+                imported = new FastaImporter(reader, dataType).importAlignment();
+            }
+            reader.close();
+
+            if (imported == null) {
+                throw new XMLParseException("No sequences found in alignment file, " + file.getName());
+            }
+
+            SimpleAlignment alignment = new SimpleAlignment();
+            alignment.setDataType(dataType);
+            for (int i = 0; i < imported.getSequenceCount(); i++) {
+                Sequence sequence = imported.getSequence(i);
+                if (taxa != null) {
+                    int index = taxa.getTaxonIndex(sequence.getTaxon().getId());
+                    if (index == -1) {
+                        throw new XMLParseException("Taxon, " + sequence.getTaxon().getId() +
+                                ", in alignment file is not in the taxon list");
+                    }
+                    sequence.setTaxon(taxa.getTaxon(index));
+                }
+                sequence.setDataType(dataType);
+                alignment.addSequence(sequence);
+            }
+            return alignment;
+        } catch (IOException ioe) {
+            throw new XMLParseException("Unable to read alignment file, " + file.getName() + ": " + ioe.getMessage());
+        } catch (Importer.ImportException ie) {
+            throw new XMLParseException("Unable to parse alignment file, " + file.getName() + ": " + ie.getMessage());
+        }
+    }
+
+    private boolean isNexusFile(File file) throws IOException {
+        BufferedReader reader = new BufferedReader(new FileReader(file));
+        try {
+            String line = reader.readLine();
+            while (line != null && line.trim().length() == 0) {
+                line = reader.readLine();
+            }
+            return line != null && line.trim().toUpperCase().startsWith("#NEXUS");
+        } finally {
+            reader.close();
+        }
+    }
+
+    public String getParserDescription() {
+        return "An alignment read from a FASTA or NEXUS file (or from another alignment) and stored as packed " +
+                "bit fields. The packed states are cached in a binary file which is used in later runs.";
+    }
+
+    public Class getReturnType() {
+        return Alignment.class;
+    }
+
+    public String getExample() {
+        return
+                "<!-- A large nucleotide alignment read from a FASTA file and cached as alignment.fasta.packed -->\n" +
+                        "<packedAlignment id=\"alignment\" dataType=\"" + Nucleotides.DESCRIPTION +
+                        "\" fileName=\"alignment.fasta\"/>\n";
+    }
+
+    public XMLSyntaxRule[] getSyntaxRules() {
+        return rules;
+    }
+
+    private final XMLSyntaxRule[] rules = {
+            new StringAttributeRule(DataType.DATA_TYPE, "The data type",
+                    DataType.getRegisteredDataTypeNames(), true),
+            new ElementRule(DataType.class, true),
+            new StringAttributeRule(FILE_NAME, "A FASTA or NEXUS file containing the alignment", true),
+            new StringAttributeRule(CACHE_FILE_NAME, "The packed alignment cache file " +
+                    "(defaults to the alignment file name with '" + PackedAlignment.CACHE_FILE_SUFFIX + "' appended)", true),
+            AttributeRule.newBooleanRule(CACHE, true, "Read and write a packed alignment cache file (default true)"),
+            AttributeRule.newBooleanRule(MEMORY_MAPPED, true, "Map the cache file into memory rather than " +
+                    "reading it onto the heap (default true)"),
+            new ElementRule(Alignment.class, true),
+            new ElementRule(Taxa.class, true)
+    };
+}
@@ -0,0 +1,399 @@
+/*
+ * Histogram2D.java
+ *
+ * Copyright (c) 2002-2017 Alexei Drummond, Andrew Rambaut and Marc Suchard
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ */
+
+package dr.geo;
+
+/**
+ * A fixed size bi-variate histogram to which points can be added one at a time without knowing
+ * their range in advance. This lets a density be accumulated from a stream of points (for
+ * example the locations at a time slice through a posterior sample of trees) in constant memory.
+ *
+ * The bins are aligned to multiples of a bin width that is a power of two. When a point falls
+ * outside the grid, the grid is moved or its bin width doubled (merging pairs of bins) so that
+ * it covers all the points. Because of this alignment two histograms can be merged exactly and
+ * the bins do not depend on the order in which the points were added. The number of points, their
+ * ranges, means and variances are kept exactly.
+ */
+public class Histogram2D {
+
+    // the number of bits of a value that are kept when the bin width is first set
+    private static final int INITIAL_PRECISION = 30;
+
+    // the largest bin index (in bits) before the bin width must be increased
+    private static final int MAX_INDEX_BITS = 52;
+
+    /**
+     * @param binCount the number of bins in each dimension
+     */
+    public Histogram2D(int binCount) {
+        if (binCount < 2) {
+            throw new IllegalArgumentException("A histogram needs at least 2 bins in each dimension");
+        }
+        this.binCount = binCount;
+    }
+
+    public void add(double x, double y) {
+        if (Double.isNaN(x) || Double.isInfinite(x) || Double.isNaN(y) || Double.isInfinite(y)) {
+            throw new IllegalArgumentException("Only finite values can be added to a histogram");
+        }
+
+        double[] point = new double[]{x, y};
+        if (count == 0) {
+            bins = new int[binCount * binCount];
+            for (int d = 0; d < 2; d++) {
+                exponent[d] = getValueExponent(point[d]) - INITIAL_PRECISION;
+                long index = getIndex(point[d], d);
+                lowest[d] = highest[d] = index;
+                offset[d] = index - binCount / 2;
+                min[d] = max[d] = mean[d] = point[d];
+                sumOfSquares[d] = 0.0;
+            }
+            count = 1;
+            bins[getBin(lowest[0], lowest[1])]++;
+            return;
+        }
+
+        int[] newExponent = new int[2];
+        long[] newOffset = new long[2];
+        boolean rebin = false;
+        for (int d = 0; d < 2; d++) {
+            // make sure the bin index will fit in a long
+            int e = Math.max(exponent[d], getValueExponent(point[d]) - MAX_INDEX_BITS);
+            long index = (long) Math.floor(Math.scalb(point[d], -e));
+            int shift = e - exponent[d];
+            long lo = Math.min(index, lowest[d] >> shift);
+            long hi = Math.max(index, highest[d] >> shift);
+
+            // double the bin width until the points span no more than the grid
+            while (hi - lo + 1 > binCount) {
+                e++;
+                index >>= 1;
+                lo >>= 1;
+                hi >>= 1;
+            }
+            newExponent[d] = e;
+            newOffset[d] = getOffset(offset[d] >> (e - exponent[d]), lo, hi);
+            rebin |= (e != exponent[d] || newOffset[d] != offset[d]);
+        }
+        if (rebin) {
+            rebin(newExponent, newOffset);
+        }
+
+        long indexX = getIndex(x, 0);
+        long indexY = getIndex(y, 1);
+        lowest[0] = Math.min(lowest[0], indexX);
+        highest[0] = Math.max(highest[0], indexX);
+        lowest[1] = Math.min(lowest[1], indexY);
+        highest[1] = Math.max(highest[1], indexY);
+        bins[getBin(indexX, indexY)]++;
+
+        count++;
+        for (int d = 0; d < 2; d++) {
+            min[d] = Math.min(min[d], point[d]);
+            max[d] = Math.max(max[d], point[d]);
+            double delta = point[d] - mean[d];
+            mean[d] += delta / count;
+            sumOfSquares[d] += delta * (point[d] - mean[d]);
+        }
+    }
+
+    /**
+     * Adds all the points in another histogram (which must have the same number of bins).
+     */
+    public void add(Histogram2D histogram) {
+        if (histogram.binCount != binCount) {
+            throw new IllegalArgumentException("Histograms must have the same number of bins to be merged");
+        }
+        if (histogram.count == 0) {
+            return;
+        }
+        if (count == 0) {
+            bins = histogram.bins.clone();
+            for (int d = 0; d < 2; d++) {
+                exponent[d] = histogram.exponent[d];
+                offset[d] = histogram.offset[d];
+                lowest[d] = histogram.lowest[d];
+                highest[d] = histogram.highest[d];
+                min[d] = histogram.min[d];
+                max[d] = histogram.max[d];
+                mean[d] = histogram.mean[d];
+                sumOfSquares[d] = histogram.sumOfSquares[d];
+            }
+            count = histogram.count;
+            return;
+        }
+
+        int[] newExponent = new int[2];
+        long[] newOffset = new long[2];
+        for (int d = 0; d < 2; d++) {
+            int e = Math.max(exponent[d], histogram.exponent[d]);
+            long lo = Math.min(lowest[d] >> (e - exponent[d]), histogram.lowest[d] >> (e - histogram.exponent[d]));
+            long hi = Math.max(highest[d] >> (e - exponent[d]), histogram.highest[d] >> (e - histogram.exponent[d]));
+            while (hi - lo + 1 > binCount) {
+                e++;
+                lo >>= 1;
+                hi >>= 1;
+            }
+            newExponent[d] = e;
+            newOffset[d] = getOffset(offset[d] >> (e - exponent[d]), lo, hi);
+        }
+        rebin(newExponent, newOffset);
+
+        int shiftX = exponent[0] - histogram.exponent[0];
+        int shiftY = exponent[1] - histogram.exponent[1];
+        for (long i = histogram.lowest[0]; i <= histogram.highest[0]; i++) {
+            int row = (int) (i - histogram.offset[0]) * binCount;
+            for (long j = histogram.lowest[1]; j <= histogram.highest[1]; j++) {
+                int c = histogram.bins[row + (int) (j - histogram.offset[1])];
+                if (c != 0) {
+                    bins[getBin(i >> shiftX, j >> shiftY)] += c;
+                }
+            }
+        }
+        for (int d = 0; d < 2; d++) {
+            int shift = exponent[d] - histogram.exponent[d];
+            lowest[d] = Math.min(lowest[d], histogram.lowest[d] >> shift);
+            highest[d] = Math.max(highest[d], histogram.highest[d] >> shift);
+        }
+
+        long total = count + histogram.count;
+        for (int d = 0; d < 2; d++) {
+            min[d] = Math.min(min[d], histogram.min[d]);
+            max[d] = Math.max(max[d], histogram.max[d]);
+            double delta = histogram.mean[d] - mean[d];
+            mean[d] += delta * histogram.count / total;
+            sumOfSquares[d] += histogram.sumOfSquares[d] + delta * delta * ((double) count * histogram.count / total);
+        }
+        count = total;
+    }
+
+    /**
+     * @return the number of bins in each dimension
+     */
+    public int getBinCount() {
+        return binCount;
+    }
+
+    /**
+     * @return the number of points added
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * @return the number of points in a bin
+     */
+    public int getCount(int binX, int binY) {
+        return bins[binX * binCount + binY];
+    }
+
+    /**
+     * @return the first bin in a dimension (0 for x, 1 for y) that contains any points
+     */
+    public int getFirstBin(int dim) {
+        return (int) (lowest[dim] - offset[dim]);
+    }
+
+    /**
+     * @return the last bin in a dimension (0 for x, 1 for y) that contains any points
+     */
+    public int getLastBin(int dim) {
+        return (int) (highest[dim] - offset[dim]);
+    }
+
+    public double getBinWidth(int dim) {
+        return Math.scalb(1.0, exponent[dim]);
+    }
+
+    /**
+     * @return the lower edge of a bin in a dimension
+     */
+    public double getBinStart(int dim, int bin) {
+        return Math.scalb((double) (offset[dim] + bin), exponent[dim]);
+    }
+
+    public double getMin(int dim) {
+        return min[dim];
+    }
+
+    public double getMax(int dim) {
+        return max[dim];
+    }
+
+    public double getMean(int dim) {
+        return mean[dim];
+    }
+
+    /**
+     * @return the sample variance in a dimension
+     */
+    public double getVariance(int dim) {
+        return (count < 2 ? 0.0 : sumOfSquares[dim] / (count - 1));
+    }
+
+    /**
+     * @return the number of points in each bin of the marginal histogram of a dimension
+     */
+    public long[] getMarginalCounts(int dim) {
+        long[] counts = new long[binCount];
+        if (count == 0) {
+            return counts;
+        }
+        for (int i = getFirstBin(0); i <= getLastBin(0); i++) {
+            for (int j = getFirstBin(1); j <= getLastBin(1); j++) {
+                counts[dim == 0 ? i : j] += bins[i * binCount + j];
+            }
+        }
+        return counts;
+    }
+
+    /**
+     * Estimates a quantile of a dimension from the marginal histogram assuming the points are spread
+     * evenly within each bin.
+     */
+    public double getQuantile(int dim, double q) {
+        if (count == 0) {
+            return Double.NaN;
+        }
+        long[] counts = getMarginalCounts(dim);
+        double target = q * count;
+        double cumulative = 0.0;
+        for (int i = getFirstBin(dim); i <= getLastBin(dim); i++) {
+            if (counts[i] > 0 && cumulative + counts[i] >= target) {
+                double lower = Math.max(getBinStart(dim, i), min[dim]);
+                double upper = Math.min(getBinStart(dim, i + 1), max[dim]);
+                return lower + (upper - lower) * (target - cumulative) / counts[i];
+            }
+            cumulative += counts[i];
+        }
+        return max[dim];
+    }
+
+    /**
+     * Finds the shortest run of bins in the marginal histogram of a dimension that contains at least
+     * the given proportion of the points. This is an estimate of the HPD interval at the resolution
+     * of the bins.
+     *
+     * @return the lower and upper bounds of the interval
+     */
+    public double[] getHPDInterval(int dim, double proportion) {
+        if (count == 0) {
+            return new double[]{Double.NaN, Double.NaN};
+        }
+        long[] counts = getMarginalCounts(dim);
+        double target = proportion * count;
+        int first = getFirstBin(dim);
+        int last = getLastBin(dim);
+
+        int bestLower = first;
+        int bestUpper = last;
+        long sum = 0;
+        int lower = first;
+        for (int upper = first; upper <= last; upper++) {
+            sum += counts[upper];
+            while (lower < upper && sum - counts[lower] >= target) {
+                sum -= counts[lower];
+                lower++;
+            }
+            if (sum >= target && upper - lower < bestUpper - bestLower) {
+                bestLower = lower;
+                bestUpper = upper;
+            }
+        }
+        return new double[]{
+                Math.max(getBinStart(dim, bestLower), min[dim]),
+                Math.min(getBinStart(dim, bestUpper + 1), max[dim])
+        };
+    }
+
+    /**
+     * @return the exponent of a value (or of 1 for zero and subnormal values)
+     */
+    private static int getValueExponent(double value) {
+        return Math.max(Math.getExponent(value), 0);
+    }
+
+    private long getIndex(double value, int dim) {
+        return (long) Math.floor(Math.scalb(value, -exponent[dim]));
+    }
+
+    private int getBin(long indexX, long indexY) {
+        return (int) (indexX - offset[0]) * binCount + (int) (indexY - offset[1]);
+    }
+
+    /**
+     * @return the offset of the grid which covers the bins from lo to hi, keeping the current one if it does
+     */
+    private long getOffset(long currentOffset, long lo, long hi) {
+        if (lo >= currentOffset && hi < currentOffset + binCount) {
+            return currentOffset;
+        }
+        // centre the points so they can spread in either direction before the grid moves again
+        return lo - (binCount - (hi - lo + 1)) / 2;
+    }
+
+    private void rebin(int[] newExponent, long[] newOffset) {
+        int shiftX = newExponent[0] - exponent[0];
+        int shiftY = newExponent[1] - exponent[1];
+        int[] newBins = new int[binCount * binCount];
+        for (long i = lowest[0]; i <= highest[0]; i++) {
+            int row = (int) (i - offset[0]) * binCount;
+            int newRow = (int) ((i >> shiftX) - newOffset[0]) * binCount;
+            for (long j = lowest[1]; j <= highest[1]; j++) {
+                int c = bins[row + (int) (j - offset[1])];
+                if (c != 0) {
+                    newBins[newRow + (int) ((j >> shiftY) - newOffset[1])] += c;
+                }
+            }
+        }
+        bins = newBins;
+        lowest[0] >>= shiftX;
+        highest[0] >>= shiftX;
+        lowest[1] >>= shiftY;
+        highest[1] >>= shiftY;
+        exponent[0] = newExponent[0];
+        exponent[1] = newExponent[1];
+        offset[0] = newOffset[0];
+        offset[1] = newOffset[1];
+    }
+
+    private final int binCount;
+    private int[] bins;
+
+    // the bin width is 2^exponent and offset is the index of the first bin in multiples of it
+    private final int[] exponent = new int[2];
+    private final long[] offset = new long[2];
+
+    // the indices (in the same units as offset) of the first and last bins with any points
+    private final long[] lowest = new long[2];
+    private final long[] highest = new long[2];
+
+    private long count = 0;
+    private final double[] min = new double[2];
+    private final double[] max = new double[2];
+    private final double[] mean = new double[2];
+    private final double[] sumOfSquares = new double[2];
+}
@@ -27,6 +27,8 @@ package dr.geo;
 
 import cern.colt.list.DoubleArrayList;
 import cern.jet.stat.Descriptive;
+import dr.math.ComplexArray;
+import dr.math.FastFourierTransform;
 import dr.math.distributions.NormalDistribution;
 import dr.math.matrixAlgebra.Matrix;
 import dr.math.matrixAlgebra.Vector;
@@ -39,13 +41,21 @@ import dr.geo.contouring.ContourMaker;
 import java.util.Arrays;
 
 /**
- * KernelDensityEstimator2D creates a bi-variate kernel density smoother for data
+ * KernelDensityEstimator2D creates a bi-variate kernel density smoother for data. Large samples are
+ * binned and smoothed by FFT convolution.
  * @author Marc A. Suchard
  * @author Philippe Lemey
  */
 
 public class KernelDensityEstimator2D implements ContourMaker {
 
+    public static final String BINNED_THRESHOLD_PROPERTY = "kde.binned.threshold";
+    public static final int DEFAULT_BINNED_THRESHOLD = 10000;
+
+    private static final int BINNING_RESOLUTION = 400; // the minimum number of cells across the limits
+    private static final int MAX_BIN_COUNT = 8 * BINNING_RESOLUTION;
+    private static final double KERNEL_SUPPORT = 6.0; // the kernel is truncated at this many bandwidths
+
 //    kde2d =
 //    function (x, y, h, n = 25, lims = c(range(x), range(y)))
 //    {
@@ -80,8 +90,27 @@ public class KernelDensityEstimator2D implements ContourMaker {
     }
 
     public KernelDensityEstimator2D(final double[] x, final double[] y, final double[] h, final int n, final double[] lims, boolean bandwdithLimited) {
+        this(x, y, h, n, lims, bandwdithLimited, x.length > getBinnedThreshold());
+    }
+
+    /*
+     * If binned is true the observations are linearly binned onto a grid of cells a few times finer
+     * than the smoothed grid and the kernel is applied to the bins by FFT convolution (in the same way as
+     * bkde2D in the R package KernSmooth) so the cost depends on the grid size rather than the number of
+     * observations. The quartiles for the bandwidths are also taken from the binned counts.
+     *
+     * @param x x-coordinates of observations
+     * @param y y-coordinates of observations
+     * @param h bi-variate smoothing bandwidths
+     * @param n smoothed grid size
+     * @param lims bi-variate min/max for grid
+     * @param bandwidthLimited limit the bandwidths to 0.5
+     * @param binned smooth binned counts rather than the individual observations
+     */
+    public KernelDensityEstimator2D(final double[] x, final double[] y, final double[] h, final int n, final double[] lims, boolean bandwidthLimited, boolean binned) {
         this.x = x;
         this.y = y;
+        this.histogram = null;
         if (x.length != y.length)
             throw new RuntimeException("data vectors must be the same length");
 
@@ -96,7 +125,12 @@ public class KernelDensityEstimator2D implements ContourMaker {
         else
             setupLims();
 
-        this.limitBandwidth = bandwdithLimited;
+        this.binned = binned && setupBins(DiscreteStatistics.min(x), DiscreteStatistics.max(x),
+                DiscreteStatistics.min(y), DiscreteStatistics.max(y));
+        if (this.binned)
+            binPoints(x, y, null);
+
+        this.limitBandwidth = bandwidthLimited;
         if (h != null)
             this.h = h;
         else
@@ -104,7 +138,84 @@ public class KernelDensityEstimator2D implements ContourMaker {
 
         doKDE2D();
     }
-    
+
+    /*
+     * Smooths points that have been binned into a histogram. The counts in the bins (placed at the bin
+     * centres) are binned again onto the grid used for the FFT convolution so the cost depends on the
+     * number of bins rather than the number of points.
+     *
+     * @param histogram binned observations
+     * @param h bi-variate smoothing bandwidths
+     * @param n smoothed grid size
+     * @param lims bi-variate min/max for grid
+     */
+    public KernelDensityEstimator2D(final Histogram2D histogram, final double[] h, final int n, final double[] lims, boolean bandwidthLimited) {
+        this.x = null;
+        this.y = null;
+        this.histogram = histogram;
+        if (histogram.getCount() == 0)
+            throw new RuntimeException("histogram must contain some observations");
+
+        this.nx = (int) histogram.getCount();
+
+        if (n <= 0)
+            throw new RuntimeException("must have a positive number of grid points");
+        this.n = n;
+
+        if (lims != null)
+            this.lims = lims;
+        else
+            setupLims();
+
+        final int firstX = histogram.getFirstBin(0);
+        final int firstY = histogram.getFirstBin(1);
+        final int binsX = histogram.getLastBin(0) - firstX + 1;
+        final int binsY = histogram.getLastBin(1) - firstY + 1;
+        final double[] centresX = getBinCentres(0, firstX, binsX);
+        final double[] centresY = getBinCentres(1, firstY, binsY);
+
+        // the occupied bins as weighted points
+        int occupied = 0;
+        for (int a = 0; a < binsX; a++) {
+            for (int b = 0; b < binsY; b++) {
+                if (histogram.getCount(firstX + a, firstY + b) != 0) {
+                    occupied++;
+                }
+            }
+        }
+        binX = new double[occupied];
+        binY = new double[occupied];
+        binWeights = new double[occupied];
+        int k = 0;
+        for (int a = 0; a < binsX; a++) {
+            for (int b = 0; b < binsY; b++) {
+                int count = histogram.getCount(firstX + a, firstY + b);
+                if (count != 0) {
+                    binX[k] = centresX[a];
+                    binY[k] = centresY[b];
+                    binWeights[k] = count;
+                    k++;
+                }
+            }
+        }
+
+        this.binned = setupBins(centresX[0], centresX[binsX - 1], centresY[0], centresY[binsY - 1]);
+        if (this.binned)
+            binPoints(binX, binY, binWeights);
+
+        this.limitBandwidth = bandwidthLimited;
+        if (h != null)
+            this.h = h;
+        else
+            setupH();
+
+        doKDE2D();
+    }
+
+    public KernelDensityEstimator2D(final Histogram2D histogram, boolean limitBandwidth) {
+        this(histogram, null, 50, null, limitBandwidth);
+    }
+
     public KernelDensityEstimator2D(final double[] x, final double[] y, boolean limitBandwidth) {
         this(x,y,null,50,null,limitBandwidth);
     }
@@ -117,24 +228,232 @@ public class KernelDensityEstimator2D implements ContourMaker {
         this(x,y,null,n,null);
     }
 
+    /**
+     * The number of observations above which they are binned (can be set with the system property
+     * kde.binned.threshold).
+     */
+    public static int getBinnedThreshold() {
+        return Integer.getInteger(BINNED_THRESHOLD_PROPERTY, DEFAULT_BINNED_THRESHOLD);
+    }
+
     public void doKDE2D() {
         gx = makeSequence(lims[0], lims[1], n);
         gy = makeSequence(lims[2], lims[3], n);
-        double[][] ax = outerMinusScaled(gx, x, h[0]);
-        double[][] ay = outerMinusScaled(gy, y, h[1]);
+        if (binned) {
+            doBinnedKDE2D();
+        } else if (histogram != null) {
+            z = sumKernels(binX, binY, binWeights);
+        } else {
+            z = sumKernels(x, y, null);
+        }
+    }
+
+    private double[][] sumKernels(double[] px, double[] py, double[] weights) {
+        double[][] ax = outerMinusScaled(gx, px, h[0]);
+        double[][] ay = outerMinusScaled(gy, py, h[1]);
         normalize(ax);
         normalize(ay);
-        z = new double[n][n];
+        if (weights != null) {
+            for (int i = 0; i < n; i++) {
+                for (int k = 0; k < weights.length; k++) {
+                    ax[i][k] *= weights[k];
+                }
+            }
+        }
+        double[][] z = new double[n][n];
         double scale = nx * h[0] * h[1];
         for (int i = 0; i < n; i++) {
             for (int j = 0; j < n; j++) {
                 double value = 0;
-                for (int k = 0; k < nx; k++) {
+                for (int k = 0; k < px.length; k++) {
                     value += ax[i][k] * ay[j][k];
                 }
                 z[i][j] = value / scale;
             }
         }
+        return z;
+    }
+
+    /**
+     * Convolves the binned counts with the kernel (it is a product so along x and then along y) and
+     * reads the density off at the cells that lie on the smoothed grid.
+     */
+    private void doBinnedKDE2D() {
+        final int sizeX = binCounts.length;
+        final int sizeY = binCounts[0].length;
+        final double[][] smoothed = new double[sizeX][];
+        for (int i = 0; i < sizeX; i++) {
+            smoothed[i] = binCounts[i].clone();
+        }
+
+        ComplexArray kernelX = getKernelTransform(sizeX, binWidth[0] / h[0]);
+        double[] line = new double[sizeX];
+        for (int j = 0; j < sizeY; j++) {
+            for (int i = 0; i < sizeX; i++) {
+                line[i] = smoothed[i][j];
+            }
+            if (convolve(line, kernelX)) {
+                for (int i = 0; i < sizeX; i++) {
+                    smoothed[i][j] = line[i];
+                }
+            }
+        }
+
+        // only the rows on the smoothed grid are needed from the second convolution
+        ComplexArray kernelY = getKernelTransform(sizeY, binWidth[1] / h[1]);
+        z = new double[n][n];
+        double scale = nx * h[0] * h[1];
+        for (int a = 0; a < n; a++) {
+            final double[] row = smoothed[binOrigin[0] + a * binStep];
+            convolve(row, kernelY);
+            for (int b = 0; b < n; b++) {
+                // the transforms leave rounding errors where the density is zero
+                z[a][b] = Math.max(row[binOrigin[1] + b * binStep], 0.0) / scale;
+            }
+        }
+    }
+
+    /**
+     * Creates the transform of the kernel at the cell spacing, wrapped around and padded so that the
+     * circular convolution of a line of the given length does not wrap onto itself.
+     */
+    private ComplexArray getKernelTransform(int length, double scaledWidth) {
+        final int support = (int) Math.min(Math.ceil(KERNEL_SUPPORT / scaledWidth), length - 1);
+        int transformLength = 1;
+        while (transformLength < length + support) {
+            transformLength <<= 1;
+        }
+        ComplexArray kernel = new ComplexArray(new double[transformLength]);
+        kernel.real[0] = NormalDistribution.pdf(0.0, 0, 1);
+        for (int m = 1; m <= support; m++) {
+            final double value = NormalDistribution.pdf(m * scaledWidth, 0, 1);
+            kernel.real[m] = value;
+            kernel.real[transformLength - m] = value;
+        }
+        FastFourierTransform.fft(kernel, false);
+        return kernel;
+    }
+
+    /**
+     * Convolves a line of counts with the kernel in place. Returns false if the line was empty (and so
+     * unchanged).
+     */
+    private static boolean convolve(double[] line, ComplexArray kernel) {
+        boolean empty = true;
+        for (double value : line) {
+            if (value != 0.0) {
+                empty = false;
+                break;
+            }
+        }
+        if (empty) {
+            return false;
+        }
+
+        ComplexArray data = new ComplexArray(new double[kernel.length]);
+        System.arraycopy(line, 0, data.real, 0, line.length);
+        FastFourierTransform.fft(data, false);
+        ComplexArray product = data.product(kernel);
+        FastFourierTransform.fft(product, true);
+
+        final double scale = 1.0 / kernel.length;
+        for (int i = 0; i < line.length; i++) {
+            line[i] = product.real[i] * scale;
+        }
+        return true;
+    }
+
+    /**
+     * Sets up the cells for the binning. There are binStep cells between each point of the smoothed grid
+     * and they are extended beyond the limits to cover all the observations. Returns false if the cells
+     * can't be set up (e.g., if the limits are degenerate or much narrower than the observations).
+     */
+    private boolean setupBins(double minX, double maxX, double minY, double maxY) {
+        if (n < 2) {
+            return false;
+        }
+        binStep = (BINNING_RESOLUTION + n - 2) / (n - 1);
+        binWidth = new double[2];
+        binOrigin = new int[2];
+        final double[] min = {minX, minY};
+        final double[] max = {maxX, maxY};
+        final int[] size = new int[2];
+        final int gridCells = (n - 1) * binStep;
+        for (int d = 0; d < 2; d++) {
+            final double width = (lims[d * 2 + 1] - lims[d * 2]) / gridCells;
+            if (!(width > 0.0) || Double.isInfinite(width)) {
+                return false;
+            }
+            final double first = Math.min(Math.floor((min[d] - lims[d * 2]) / width), 0);
+            final double last = Math.max(Math.ceil((max[d] - lims[d * 2]) / width), gridCells);
+            if (!(last - first < MAX_BIN_COUNT)) {
+                return false;
+            }
+            binWidth[d] = width;
+            binOrigin[d] = (int) -first;
+            size[d] = (int) (last - first) + 1;
+        }
+        binCounts = new double[size[0]][size[1]];
+        return true;
+    }
+
+    /**
+     * Linear binning: each observation is shared between the four surrounding cells in proportion to
+     * how close it is to each.
+     */
+    private void binPoints(double[] px, double[] py, double[] weights) {
+        final int lastX = binCounts.length - 2;
+        final int lastY = binCounts[0].length - 2;
+        for (int k = 0; k < px.length; k++) {
+            final double tx = (px[k] - lims[0]) / binWidth[0] + binOrigin[0];
+            final double ty = (py[k] - lims[2]) / binWidth[1] + binOrigin[1];
+            final int i = Math.max(Math.min((int) tx, lastX), 0);
+            final int j = Math.max(Math.min((int) ty, lastY), 0);
+            final double fx = tx - i;
+            final double fy = ty - j;
+            final double w = (weights == null ? 1.0 : weights[k]);
+
+            binCounts[i][j] += w * (1.0 - fx) * (1.0 - fy);
+            binCounts[i + 1][j] += w * fx * (1.0 - fy);
+            binCounts[i][j + 1] += w * (1.0 - fx) * fy;
+            binCounts[i + 1][j + 1] += w * fx * fy;
+        }
+    }
+
+    /**
+     * A quantile of the binned counts for one dimension (the mass of each cell is taken to be spread
+     * across the cell).
+     */
+    private double getBinnedQuantile(int dim, double q) {
+        final int sizeX = binCounts.length;
+        final int sizeY = binCounts[0].length;
+        double[] marginal = new double[dim == 0 ? sizeX : sizeY];
+        double total = 0.0;
+        for (int i = 0; i < sizeX; i++) {
+            for (int j = 0; j < sizeY; j++) {
+                marginal[dim == 0 ? i : j] += binCounts[i][j];
+                total += binCounts[i][j];
+            }
+        }
+
+        final double target = q * total;
+        double cumulative = 0.0;
+        int i = 0;
+        while (i < marginal.length - 1 && cumulative + marginal[i] < target) {
+            cumulative += marginal[i];
+            i++;
+        }
+        final double fraction = (marginal[i] > 0.0 ? (target - cumulative) / marginal[i] : 0.5);
+        return lims[dim * 2] + (i - binOrigin[dim] - 0.5 + fraction) * binWidth[dim];
+    }
+
+    private double[] getBinCentres(int dim, int firstBin, int binCount) {
+        double[] centres = new double[binCount];
+        double halfWidth = histogram.getBinWidth(dim) / 2;
+        for (int i = 0; i < binCount; i++) {
+            centres[i] = histogram.getBinStart(dim, firstBin + i) + halfWidth;
+        }
+        return centres;
     }
 
     public double findLevelCorrespondingToMass(double probabilityMass) {
@@ -221,10 +540,17 @@ public class KernelDensityEstimator2D implements ContourMaker {
 
     private void setupLims() {
         lims = new double[4];
-        lims[0] = DiscreteStatistics.min(x);
-        lims[1] = DiscreteStatistics.max(x);
-        lims[2] = DiscreteStatistics.min(y);
-        lims[3] = DiscreteStatistics.max(y);
+        if (histogram != null) {
+            lims[0] = histogram.getMin(0);
+            lims[1] = histogram.getMax(0);
+            lims[2] = histogram.getMin(1);
+            lims[3] = histogram.getMax(1);
+        } else {
+            lims[0] = DiscreteStatistics.min(x);
+            lims[1] = DiscreteStatistics.max(x);
+            lims[2] = DiscreteStatistics.min(y);
+            lims[3] = DiscreteStatistics.max(y);
+        }
 
         double xDelta = (lims[1] - lims[0]) * margin;
         double yDelta = (lims[3] - lims[2]) * margin;
@@ -236,8 +562,16 @@ public class KernelDensityEstimator2D implements ContourMaker {
 
     private void setupH() {
         h = new double[2];
-        h[0] = bandwidthNRD(x) / 4;
-        h[1] = bandwidthNRD(y) / 4;
+        if (histogram != null) {
+            h[0] = bandwidthNRD(histogram, 0) / 4;
+            h[1] = bandwidthNRD(histogram, 1) / 4;
+        } else if (binned) {
+            h[0] = bandwidthNRD(x, 0) / 4;
+            h[1] = bandwidthNRD(y, 1) / 4;
+        } else {
+            h[0] = bandwidthNRD(x) / 4;
+            h[1] = bandwidthNRD(y) / 4;
+        }
 
         if (limitBandwidth) {
             if (h[0] >  0.5) {
@@ -265,11 +599,34 @@ public class KernelDensityEstimator2D implements ContourMaker {
             inList.add(d);
         inList.sort();
 
-        final double h = (Descriptive.quantile(inList, 0.75) - Descriptive.quantile(inList, 0.25)) / 1.34;
+        return bandwidthNRD(Descriptive.quantile(inList, 0.25), Descriptive.quantile(inList, 0.75),
+                DiscreteStatistics.variance(in), in.length);
+    }
+
+    /**
+     * The same bandwidth as above with the quartiles estimated from the binned counts
+     */
+    private double bandwidthNRD(double[] in, int dim) {
+        return bandwidthNRD(getBinnedQuantile(dim, 0.25), getBinnedQuantile(dim, 0.75),
+                DiscreteStatistics.variance(in), in.length);
+    }
+
+    /**
+     * The same bandwidth as above with the quartiles estimated from the histogram
+     */
+    public double bandwidthNRD(Histogram2D histogram, int dim) {
+
+        return bandwidthNRD(histogram.getQuantile(dim, 0.25), histogram.getQuantile(dim, 0.75),
+                histogram.getVariance(dim), histogram.getCount());
+    }
+
+    private static double bandwidthNRD(double lowerQuartile, double upperQuartile, double variance, double count) {
+
+        final double h = (upperQuartile - lowerQuartile) / 1.34;
 
         return 4 * 1.06 *
-                Math.min(Math.sqrt(DiscreteStatistics.variance(in)), h) *
-                Math.pow(in.length, -0.2);
+                Math.min(Math.sqrt(variance), h) *
+                Math.pow(count, -0.2);
     }
 
     public static void main(String[] arg) {
@@ -290,6 +647,7 @@ public class KernelDensityEstimator2D implements ContourMaker {
 
     private final double[] x; // x coordinates
     private final double[] y; // y coordinates
+    private final Histogram2D histogram; // binned coordinates (instead of x and y)
     private double[] h; // h[0] x-bandwidth, h[1] y-bandwidth
     private final int n; // grid size
     private double[] lims; // x,y limits
@@ -300,4 +658,13 @@ public class KernelDensityEstimator2D implements ContourMaker {
 
     private final boolean limitBandwidth;
 
+    private final boolean binned; // whether the kernel is applied to binned counts
+    private double[] binX; // the centres of the occupied histogram bins
+    private double[] binY;
+    private double[] binWeights; // the counts in the occupied histogram bins
+    private double[][] binCounts; // the linearly binned observations
+    private int binStep; // the number of cells between smoothed grid points
+    private int[] binOrigin; // the cell at the lower limits
+    private double[] binWidth; // the cell widths
+
 }
@@ -25,6 +25,7 @@
 
 package dr.geo.contouring;
 
+import dr.geo.Histogram2D;
 import dr.geo.KernelDensityEstimator2D;
 
 import java.util.*;
@@ -44,6 +45,10 @@ public class ContourWithSynder extends KernelDensityEstimator2D  {
         super(x, y, bandwidthLimit);
     }
 
+    public ContourWithSynder(final Histogram2D histogram, boolean bandwidthLimit) {
+        super(histogram, bandwidthLimit);
+    }
+
     public ContourWithSynder(final double[] x, final double[] y) {
         super(x, y);
     }
@@ -54,7 +59,7 @@ public class ContourWithSynder extends KernelDensityEstimator2D  {
 
     public ContourPath[] getContourPaths(double hpdValue) {
 
-        if (contourPaths == null) {
+        if (contourPaths == null || hpdValue != contourHPDValue) {
 
             double thresholdDensity = findLevelCorrespondingToMass(hpdValue);
 
@@ -78,11 +83,13 @@ public class ContourWithSynder extends KernelDensityEstimator2D  {
                 }
                 contourPaths[i] = new ContourPath(new ContourAttrib(thresholdDensity),1,x,y);
             }
+            contourHPDValue = hpdValue;
         }
 
         return contourPaths;
     }
 
     private ContourPath[] contourPaths = null;
+    private double contourHPDValue;
 
 }
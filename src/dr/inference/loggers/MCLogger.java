@@ -103,6 +103,15 @@ public class MCLogger implements Logger {
         this(new TabDelimitedFormatter(System.out), logEvery, true, 0);
     }
 
+    /**
+     * @param formatter the formatter of the new logger
+     * @return a logger with the same frequency and performance report as this one but no columns
+     * (e.g., to log a copy of the model on another thread in the same format)
+     */
+    public MCLogger createEmptyCopy(LogFormatter formatter) {
+        return new MCLogger(formatter, logEvery, performanceReport, performanceReportDelay);
+    }
+
     public final void setTitle(String title) {
         this.title = title;
     }
@@ -95,6 +95,16 @@ public final class MarkovChain implements Serializable {
             }
         }
 
+        operatorSections = new Profiler.Section[schedule.getOperatorCount()];
+        for (int i = 0; i < operatorSections.length; i++) {
+            operatorSections[i] = Profiler.getOperatorSection(schedule.getOperator(i));
+        }
+        storeSection = Profiler.getSection(Profiler.STORE);
+        proposeSection = Profiler.getSection(Profiler.PROPOSE);
+        evaluateSection = Profiler.getSection(Profiler.EVALUATE);
+        acceptSection = Profiler.getSection(Profiler.ACCEPT);
+        restoreSection = Profiler.getSection(Profiler.RESTORE);
+
         currentScore = evaluate(likelihood);
     }
 
@@ -192,14 +202,24 @@ public final class MarkovChain implements Serializable {
                         ((CompoundLikelihood) likelihood).getDiagnosis() : "";
             }
 
-            // assert Profiler.startProfile("Store");
+            final boolean profiling = Profiler.isEnabled();
+            final Profiler.Section operatorSection = op < operatorSections.length ? operatorSections[op] : null;
+            if (profiling && operatorSection != null) {
+                operatorSection.begin();
+            }
+
+            if (profiling) {
+                storeSection.begin();
+            }
 
             // The current model is stored here in case the proposal fails
             if (currentModel != null) {
                 currentModel.storeModelState();
             }
 
-            // assert Profiler.stopProfile("Store");
+            if (profiling) {
+                storeSection.end();
+            }
 
             boolean operatorSucceeded = true;
             double hastingsRatio = 1.0;
@@ -213,7 +233,9 @@ public final class MarkovChain implements Serializable {
             }
 
             // The new model is proposed
-            // assert Profiler.startProfile("Operate");
+            if (profiling) {
+                proposeSection.begin();
+            }
 
                 if (DEBUG) {
                     System.out.println("\n>> Iteration: " + currentState);
@@ -226,7 +248,10 @@ public final class MarkovChain implements Serializable {
                 hastingsRatio = mcmcOperator.operate();
             }
 
-            // assert Profiler.stopProfile("Operate");
+            if (profiling) {
+                proposeSection.end();
+            }
+
             if (hastingsRatio == Double.NEGATIVE_INFINITY) {
                 // Should the evaluation be short-cutted?
                 // Previously this was set to false if OperatorFailedException was thrown.
@@ -248,9 +273,6 @@ public final class MarkovChain implements Serializable {
             //    System.err.print("" + currentState + ": ");
             if (operatorSucceeded) {
 
-                // The new model is proposed
-                // assert Profiler.startProfile("Evaluate");
-
                 if (DEBUG) {
                     System.out.println("** Evaluate");
                 }
@@ -261,8 +283,16 @@ public final class MarkovChain implements Serializable {
                 }
 
                 // The new model is evaluated
+                if (profiling) {
+                    evaluateSection.begin();
+                }
+
                 score = evaluate(likelihood);
 
+                if (profiling) {
+                    evaluateSection.end();
+                }
+
                 if (PROFILE) {
                     long duration = System.currentTimeMillis() - elapsedTime;
                     if (DEBUG) {
@@ -374,10 +404,18 @@ public final class MarkovChain implements Serializable {
                             + ", old score = " + oldScore);
                 }
 
+                if (profiling) {
+                    acceptSection.begin();
+                }
+
                 mcmcOperator.accept(deviation);
                 currentModel.acceptModelState();
                 currentScore = score;
 
+                if (profiling) {
+                    acceptSection.end();
+                }
+
             } else {
                 if (DEBUG) {
                     System.out.println("** Move rejected: new score = " + score
@@ -386,10 +424,16 @@ public final class MarkovChain implements Serializable {
 
                 mcmcOperator.reject();
 
-                // assert Profiler.startProfile("Restore");
+                if (profiling) {
+                    restoreSection.begin();
+                }
 
                 currentModel.restoreModelState();
 
+                if (profiling) {
+                    restoreSection.end();
+                }
+
                 if (usingFullEvaluation) {
                     // This is a test that the state is correctly restored. The
                     // restored state is fully evaluated and the likelihood compared with
@@ -416,8 +460,9 @@ public final class MarkovChain implements Serializable {
                     }
                 }
             }
-            // assert Profiler.stopProfile("Restore");
-
+            if (profiling && operatorSection != null) {
+                operatorSection.end();
+            }
 
             if (useAdaptation && !disableAdaptation && mcmcOperator instanceof AdaptableMCMCOperator) {
                 adaptAcceptanceProbability((AdaptableMCMCOperator) mcmcOperator, logr[0]);
@@ -454,7 +499,9 @@ public final class MarkovChain implements Serializable {
     public void terminateChain() {
         fireFinished(currentLength);
 
-        // Profiler.report();
+        if (Profiler.isEnabled()) {
+            Profiler.report();
+        }
     }
 
     public Likelihood getLikelihood() {
@@ -594,4 +641,11 @@ public final class MarkovChain implements Serializable {
     }
 
     private final ArrayList<MarkovChainListener> listeners = new ArrayList<MarkovChainListener>();
+
+    private final Profiler.Section[] operatorSections;
+    private final Profiler.Section storeSection;
+    private final Profiler.Section proposeSection;
+    private final Profiler.Section evaluateSection;
+    private final Profiler.Section acceptSection;
+    private final Profiler.Section restoreSection;
 }
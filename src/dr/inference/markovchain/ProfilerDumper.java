@@ -0,0 +1,96 @@
+/*
+ * ProfilerDumper.java
+ *
+ * Copyright (c) 2002-2017 Alexei Drummond, Andrew Rambaut and Marc Suchard
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ */
+
+package dr.inference.markovchain;
+
+import dr.inference.model.Model;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+
+/**
+ * A MarkovChainListener that periodically writes the accumulated Profiler sections
+ * to a JSON file. The file is rewritten (via a temporary file) each time so it always
+ * contains a complete snapshot.
+ */
+public class ProfilerDumper implements MarkovChainListener {
+
+    public static final long DEFAULT_EVERY = 100000;
+
+    public ProfilerDumper(String fileName, long every) {
+        this.file = new File(fileName);
+        this.every = every > 0 ? every : DEFAULT_EVERY;
+    }
+
+    /**
+     * Creates a dumper from the 'mcmc.profile.file' and 'mcmc.profile.every' system properties.
+     * @return the dumper or null if no file has been specified
+     */
+    public static ProfilerDumper createFromProperties() {
+        String fileName = System.getProperty(Profiler.PROFILE_FILE);
+        if (fileName == null) {
+            return null;
+        }
+        long every = DEFAULT_EVERY;
+        if (System.getProperty(Profiler.PROFILE_EVERY) != null) {
+            every = Long.parseLong(System.getProperty(Profiler.PROFILE_EVERY));
+        }
+        return new ProfilerDumper(fileName, every);
+    }
+
+    public void bestState(long state, MarkovChain markovChain, Model bestModel) {
+    }
+
+    public void currentState(long state, MarkovChain markovChain, Model currentModel) {
+        if (state > 0 && state % every == 0) {
+            dump(state);
+        }
+    }
+
+    public void finished(long chainLength, MarkovChain markovChain) {
+        dump(chainLength);
+    }
+
+    public void dump(long state) {
+        File tmpFile = new File(file.getPath() + ".tmp");
+        try {
+            PrintStream out = new PrintStream(new FileOutputStream(tmpFile));
+            out.print(Profiler.toJSON(state));
+            out.close();
+            if (!tmpFile.renameTo(file)) {
+                // renameTo won't replace an existing file on some platforms
+                file.delete();
+                tmpFile.renameTo(file);
+            }
+        } catch (IOException ioe) {
+            System.err.println("Unable to write profile to file, " + file.getName() + ": " + ioe.getMessage());
+        }
+    }
+
+    private final File file;
+    private final long every;
+}
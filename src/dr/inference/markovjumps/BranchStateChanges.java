@@ -0,0 +1,226 @@
+/*
+ * BranchStateChanges.java
+ *
+ * Copyright (c) 2002-2017 Alexei Drummond, Andrew Rambaut and Marc Suchard
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ */
+
+package dr.inference.markovjumps;
+
+import dr.evolution.datatype.DataType;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * The state changes of the complete histories on each branch of a tree kept as arrays of primitives
+ * (a site, a time, a from state and a to state for each change). The arrays of a branch are reused
+ * when its changes are replaced so, once they have grown, sampling histories allocates nothing. The
+ * changes of a branch are added site by site so that the changes of a site can be found by a binary
+ * search. The text of the changes (as given by StateHistory.toStringChanges) is only made when asked for.
+ */
+public class BranchStateChanges {
+
+    /**
+     * @param branchCount the number of branches (i.e., nodes) of the tree
+     */
+    public BranchStateChanges(int branchCount) {
+        counts = new int[branchCount];
+        sites = new int[branchCount][];
+        times = new double[branchCount][];
+        fromStates = new int[branchCount][];
+        toStates = new int[branchCount][];
+        for (int i = 0; i < branchCount; i++) {
+            allocate(i, INITIAL_CAPACITY);
+        }
+    }
+
+    public int getBranchCount() {
+        return counts.length;
+    }
+
+    /**
+     * Removes the changes of a branch (but keeps the space for them)
+     */
+    public void clear(int branch) {
+        counts[branch] = 0;
+    }
+
+    /**
+     * Adds a change to a branch. The changes of each site must be added in turn and in order of
+     * time.
+     */
+    public void addChange(int branch, int site, double time, int fromState, int toState) {
+        int count = counts[branch];
+        if (count > 0 && site < sites[branch][count - 1]) {
+            throw new IllegalArgumentException("The changes of a branch must be added in order of site");
+        }
+        if (count == times[branch].length) {
+            allocate(branch, count * 2);
+        }
+        sites[branch][count] = site;
+        times[branch][count] = time;
+        fromStates[branch][count] = fromState;
+        toStates[branch][count] = toState;
+        counts[branch] = count + 1;
+    }
+
+    public int getChangeCount(int branch) {
+        return counts[branch];
+    }
+
+    public int getSite(int branch, int change) {
+        return sites[branch][change];
+    }
+
+    public double getTime(int branch, int change) {
+        return times[branch][change];
+    }
+
+    public int getFromState(int branch, int change) {
+        return fromStates[branch][change];
+    }
+
+    public int getToState(int branch, int change) {
+        return toStates[branch][change];
+    }
+
+    /**
+     * @return the index of the first change of the site on the branch (or, if there are none, the
+     * index of the first change of the next site)
+     */
+    public int getFirstChange(int branch, int site) {
+        int[] branchSites = sites[branch];
+        int low = 0;
+        int high = counts[branch];
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (branchSites[mid] < site) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * @return the number of changes of the site on the branch
+     */
+    public int getChangeCount(int branch, int site) {
+        return getFirstChange(branch, site + 1) - getFirstChange(branch, site);
+    }
+
+    /**
+     * Appends the changes of a site on a branch (without the enclosing braces) in the format of
+     * StateHistory.toStringChanges.
+     *
+     * @param siteLabel the number put in each change (or less than 1 for none)
+     * @return the number of changes appended
+     */
+    public int appendChanges(StringBuilder sb, int branch, int site, int siteLabel, DataType dataType) {
+        int first = getFirstChange(branch, site);
+        int change = first;
+        while (change < counts[branch] && sites[branch][change] == site) {
+            if (change > first) {
+                sb.append(",");
+            }
+            appendChange(sb, branch, change, siteLabel, dataType);
+            change++;
+        }
+        return change - first;
+    }
+
+    /**
+     * Appends a change in the format of StateHistory.toStringChanges.
+     */
+    public void appendChange(StringBuilder sb, int branch, int change, int siteLabel, DataType dataType) {
+        StateHistory.addEventToStringBuilder(sb,
+                dataType.getCode(fromStates[branch][change]), dataType.getCode(toStates[branch][change]),
+                times[branch][change], siteLabel);
+    }
+
+    /**
+     * @return the changes of a site on a branch as given by StateHistory.toStringChanges
+     */
+    public String toString(int branch, int site, int siteLabel, DataType dataType) {
+        StringBuilder sb = new StringBuilder("{");
+        appendChanges(sb, branch, site, siteLabel, dataType);
+        sb.append("}");
+        return sb.toString();
+    }
+
+    /**
+     * Writes the changes of a branch (a count and then the site, time, from and to state of each).
+     */
+    public void write(DataOutput out, int branch) throws IOException {
+        int count = counts[branch];
+        out.writeInt(count);
+        for (int i = 0; i < count; i++) {
+            out.writeInt(sites[branch][i]);
+            out.writeDouble(times[branch][i]);
+            out.writeShort(fromStates[branch][i]);
+            out.writeShort(toStates[branch][i]);
+        }
+    }
+
+    /**
+     * Replaces the changes of a branch with ones written by write().
+     */
+    public void read(DataInput in, int branch) throws IOException {
+        int count = in.readInt();
+        if (count < 0) {
+            throw new IOException("Invalid number of state changes: " + count);
+        }
+        clear(branch);
+        for (int i = 0; i < count; i++) {
+            int site = in.readInt();
+            double time = in.readDouble();
+            int fromState = in.readShort();
+            int toState = in.readShort();
+            addChange(branch, site, time, fromState, toState);
+        }
+    }
+
+    private void allocate(int branch, int capacity) {
+        if (times[branch] == null) {
+            sites[branch] = new int[capacity];
+            times[branch] = new double[capacity];
+            fromStates[branch] = new int[capacity];
+            toStates[branch] = new int[capacity];
+        } else {
+            sites[branch] = Arrays.copyOf(sites[branch], capacity);
+            times[branch] = Arrays.copyOf(times[branch], capacity);
+            fromStates[branch] = Arrays.copyOf(fromStates[branch], capacity);
+            toStates[branch] = Arrays.copyOf(toStates[branch], capacity);
+        }
+    }
+
+    private static final int INITIAL_CAPACITY = 4;
+
+    private final int[] counts;
+    private final int[][] sites;
+    private final double[][] times;
+    private final int[][] fromStates;
+    private final int[][] toStates;
+}
@@ -304,6 +304,24 @@ public class StateHistory {
         return sb.toString();
     }
 
+    /**
+     * Adds the changes of this history to a branch of a BranchStateChanges (the same changes as
+     * toStringChanges gives but without making any text).
+     */
+    public void addChangesTo(BranchStateChanges changes, int branch, int site) {
+        int currentState = stateList.get(0).getState();
+        for (int i = 1; i < stateList.size() - 1; i++) {
+            int nextState = stateList.get(i).getState();
+            if (isFiltered) {
+                currentState = stateList.get(i).getPreviousState();
+            }
+            if (nextState != currentState) {
+                changes.addChange(branch, site, stateList.get(i).getTime(), currentState, nextState);
+                currentState = nextState;
+            }
+        }
+    }
+
     public static void addEventToStringBuilder(StringBuilder sb, String source, String dest, double time, int site) {
         // AR changed this to match an attribute array:
         sb.append("{");
@@ -32,6 +32,8 @@ import dr.inference.loggers.Loggable;
 import dr.inference.loggers.Logger;
 import dr.inference.markovchain.MarkovChain;
 import dr.inference.markovchain.MarkovChainListener;
+import dr.inference.markovchain.Profiler;
+import dr.inference.markovchain.ProfilerDumper;
 import dr.inference.model.Likelihood;
 import dr.inference.model.Model;
 import dr.inference.operators.*;
@@ -92,6 +94,10 @@ public class MCMC implements Identifiable, Spawnable, Loggable {
             }
         }
 
+        if (Profiler.isEnabled()) {
+            mc.addMarkovChainListener(ProfilerDumper.createFromProperties());
+        }
+
     }
 
     /**
@@ -25,13 +25,17 @@
 
 package dr.inference.mcmc;
 
+import dr.inference.loggers.LogFormatter;
 import dr.inference.loggers.Logger;
 import dr.inference.loggers.MCLogger;
 import dr.inference.markovchain.MarkovChain;
 import dr.inference.markovchain.MarkovChainListener;
 import dr.inference.model.Model;
+import dr.inference.model.ModelStateCopier;
 import dr.inference.model.PathLikelihood;
 import dr.inference.operators.*;
+import dr.inferencexml.loggers.LoggerParser;
+import dr.math.MathUtils;
 import dr.util.Author;
 import dr.util.Citable;
 import dr.util.Citation;
@@ -42,7 +46,15 @@ import org.apache.commons.math.distribution.BetaDistributionImpl;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
 
 /**
  * @author Andrew Rambaut
@@ -84,6 +96,23 @@ public class MarginalLikelihoodEstimator implements Runnable, Identifiable, Cita
         this.loggers = loggers;
     }
 
+    /**
+     * Adds a copy of the chain (built from the same XML) so that path steps can be run at the same
+     * time. The loggers are only used for their columns which must be those of the loggers of this
+     * estimator, in the same order, for the copy.
+     *
+     * @param pathLikelihood the copy of the path likelihood
+     * @param schedule       the copy of the operator schedule
+     * @param loggers        loggers with the columns of the copy
+     */
+    public void addChainCopy(PathLikelihood pathLikelihood, OperatorSchedule schedule, List<MCLogger> loggers) {
+        if (loggers.size() != this.loggers.size()) {
+            throw new IllegalArgumentException("A copy of the chain must have a logger for each logger of the estimator");
+        }
+        chainCopies.add(new Chain(new MarkovChain(pathLikelihood, schedule, new MCMCCriterion(), 0, 0, 0.0, true),
+                pathLikelihood, schedule, loggers));
+    }
+
     private void setDefaultBurnin() {
         if (burninLength == -1) {
             burnin = (int) (0.1 * chainLength);
@@ -121,6 +150,300 @@ public class MarginalLikelihoodEstimator implements Runnable, Identifiable, Cita
         }
     }
 
+    /**
+     * Runs the path steps at the same time on this chain and its copies. Each step starts from the
+     * state that the previous step has at the end of its burn-in so, with the burn-in a fraction
+     * of the chain length, a number of steps are run at once. The lines of the logs of each step
+     * are held until those of the steps before have been written so the logs are as those of a
+     * sequential run (with the same state numbers). Each step draws its random numbers from a
+     * stream of its own, seeded from the shared one, so a run is reproducible from its seed.
+     */
+    public void integrateConcurrently(Integrator scheme) {
+        setDefaultBurnin();
+
+        List<Double> pathParameters = new ArrayList<Double>();
+        scheme.init();
+        for (double theta = scheme.nextPathParameter(); theta >= 0; theta = scheme.nextPathParameter()) {
+            pathParameters.add(theta);
+        }
+
+        List<Chain> chains = new ArrayList<Chain>();
+        chains.add(new Chain(mc, pathLikelihood, schedule, loggers));
+        chains.addAll(chainCopies);
+
+        Pipeline pipeline = new Pipeline(chains, pathParameters, scheme.pathSteps);
+        Chain last = pipeline.run();
+
+        // leave the model in the state of the last step as a sequential run would
+        if (last != chains.get(0)) {
+            last.copyStateTo(chains.get(0));
+        }
+        pathParameter = pathParameters.get(pathParameters.size() - 1);
+        pathLikelihood.setPathParameter(pathParameter);
+    }
+
+    /**
+     * A chain on a copy of the model with loggers that hold the lines of the current path step.
+     */
+    private class Chain {
+
+        Chain(MarkovChain markovChain, PathLikelihood pathLikelihood, OperatorSchedule schedule, List<MCLogger> columnLoggers) {
+            this.markovChain = markovChain;
+            this.pathLikelihood = pathLikelihood;
+            this.schedule = schedule;
+
+            for (int i = 0; i < loggers.size(); i++) {
+                LogBuffer buffer = new LogBuffer();
+                MCLogger logger = loggers.get(i).createEmptyCopy(buffer);
+                MCLogger columns = columnLoggers.get(i);
+                for (int j = 0; j < columns.getColumnCount(); j++) {
+                    logger.addColumn(columns.getColumn(j));
+                }
+                chainLoggers.add(logger);
+                buffers.add(buffer);
+            }
+
+            listener = new MarkovChainListener() {
+                public void currentState(long state, MarkovChain markovChain, Model currentModel) {
+                    if (state >= burnin) {
+                        for (MCLogger logger : chainLoggers) {
+                            logger.log(state);
+                        }
+                    }
+                }
+
+                public void bestState(long state, MarkovChain markovChain, Model bestModel) {
+                }
+
+                public void finished(long chainLength, MarkovChain markovChain) {
+                }
+            };
+        }
+
+        void setPathParameter(double pathParameter) {
+            pathLikelihood.setPathParameter(pathParameter);
+            for (int i = 0; i < schedule.getOperatorCount(); ++i) {
+                MCMCOperator operator = schedule.getOperator(i);
+                if (operator instanceof PathDependentOperator) {
+                    ((PathDependentOperator) operator).setPathParameter(pathParameter);
+                }
+            }
+        }
+
+        /**
+         * Copies the state of the model and the tuning of the operators to another chain.
+         */
+        void copyStateTo(Chain chain) {
+            ModelStateCopier copier = copiers.get(chain);
+            if (copier == null) {
+                copier = new ModelStateCopier(pathLikelihood.getModel(), chain.pathLikelihood.getModel());
+                copiers.put(chain, copier);
+            }
+            copier.copyState();
+
+            for (int i = 0; i < schedule.getOperatorCount(); ++i) {
+                MCMCOperator operator = schedule.getOperator(i);
+                if (operator instanceof AdaptableMCMCOperator) {
+                    ((AdaptableMCMCOperator) chain.schedule.getOperator(i)).setAdaptableParameter(
+                            ((AdaptableMCMCOperator) operator).getAdaptableParameter());
+                }
+            }
+        }
+
+        /**
+         * @return the lines that have been logged by each logger since this was last called
+         */
+        List<List<String[]>> takeLines() {
+            List<List<String[]>> lines = new ArrayList<List<String[]>>();
+            for (LogBuffer buffer : buffers) {
+                lines.add(buffer.lines);
+                buffer.lines = new ArrayList<String[]>();
+            }
+            return lines;
+        }
+
+        final MarkovChain markovChain;
+        final PathLikelihood pathLikelihood;
+        final OperatorSchedule schedule;
+        final MarkovChainListener listener;
+
+        private final List<MCLogger> chainLoggers = new ArrayList<MCLogger>();
+        private final List<LogBuffer> buffers = new ArrayList<LogBuffer>();
+        private final Map<Chain, ModelStateCopier> copiers = new HashMap<Chain, ModelStateCopier>();
+    }
+
+    /**
+     * Holds the lines of a log.
+     */
+    private static class LogBuffer implements LogFormatter {
+        public void startLogging(String title) {
+        }
+
+        public void logHeading(String heading) {
+        }
+
+        public void logLine(String line) {
+        }
+
+        public void logLabels(String[] labels) {
+        }
+
+        public void logValues(String[] values) {
+            lines.add(values);
+        }
+
+        public void stopLogging() {
+        }
+
+        List<String[]> lines = new ArrayList<String[]>();
+    }
+
+    /**
+     * Runs the path steps on a pool of chains, each step on an idle chain as soon as the step
+     * before has finished its burn-in.
+     */
+    private class Pipeline {
+
+        Pipeline(List<Chain> chains, List<Double> pathParameters, int totalSteps) {
+            this.pathParameters = pathParameters;
+            this.totalSteps = totalSteps;
+            this.idleChains = new LinkedBlockingQueue<Chain>(chains.subList(1, chains.size()));
+            this.stepsFinished = new CountDownLatch(pathParameters.size());
+            this.seeds = new long[pathParameters.size()];
+            for (int i = 0; i < seeds.length; i++) {
+                // a non-zero int seed
+                seeds[i] = 1 + MathUtils.nextInt(Integer.MAX_VALUE - 1);
+            }
+            this.pool = Executors.newFixedThreadPool(chains.size(), new ThreadFactory() {
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "path-sampling");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            start(0, chains.get(0));
+        }
+
+        /**
+         * @return the chain that ran the last step
+         */
+        Chain run() {
+            try {
+                stepsFinished.await();
+            } catch (InterruptedException ie) {
+                throw new RuntimeException("Interrupted while running the path steps: " + ie.getMessage());
+            } finally {
+                pool.shutdownNow();
+            }
+            if (error != null) {
+                if (error instanceof RuntimeException) {
+                    throw (RuntimeException) error;
+                }
+                throw new RuntimeException(error);
+            }
+            return lastChain;
+        }
+
+        private void start(final int step, final Chain chain) {
+            pool.execute(new Runnable() {
+                public void run() {
+                    try {
+                        runStep(step, chain);
+                    } catch (Throwable t) {
+                        fail(t);
+                    }
+                }
+            });
+        }
+
+        private void runStep(int step, Chain chain) throws InterruptedException {
+            MathUtils.setThreadSeed(seeds[step]);
+            try {
+                runStepOnThisThread(step, chain);
+            } finally {
+                MathUtils.clearThreadSeed();
+            }
+        }
+
+        private void runStepOnThisThread(int step, Chain chain) throws InterruptedException {
+            double theta = pathParameters.get(step);
+            reportIteration(theta, chainLength, burnin, totalSteps, step + 1);
+
+            MarkovChain markovChain = chain.markovChain;
+            markovChain.addMarkovChainListener(chain.listener);
+            chain.setPathParameter(theta);
+            ((CombinedOperatorSchedule) chain.schedule).reset();
+
+            markovChain.setCurrentLength(0);
+            markovChain.runChain(burnin, false);
+
+            if (step + 1 < pathParameters.size()) {
+                Chain next = idleChains.take();
+                chain.copyStateTo(next);
+                start(step + 1, next);
+            }
+
+            // the states are numbered as they would be if the steps were run one after another
+            markovChain.setCurrentLength(burnin + step * chainLength);
+            markovChain.runChain(chainLength, false);
+            markovChain.removeMarkovChainListener(chain.listener);
+
+            if (SHOW_OPERATOR_ANALYSIS) {
+                synchronized (System.out) {
+                    OperatorAnalysisPrinter.showOperatorAnalysis(System.out, chain.schedule, false);
+                }
+            }
+
+            writeLines(step, chain.takeLines());
+
+            if (step + 1 == pathParameters.size()) {
+                lastChain = chain;
+            }
+            idleChains.add(chain);
+            stepsFinished.countDown();
+        }
+
+        /**
+         * Writes the lines of the steps that have finished in order.
+         */
+        private synchronized void writeLines(int step, List<List<String[]>> lines) {
+            pendingLines.put(step, lines);
+            while (pendingLines.containsKey(nextStepToWrite)) {
+                lines = pendingLines.remove(nextStepToWrite);
+                for (int i = 0; i < loggers.size(); i++) {
+                    for (String[] values : lines.get(i)) {
+                        for (LogFormatter formatter : loggers.get(i).getFormatters()) {
+                            formatter.logValues(values);
+                        }
+                    }
+                }
+                nextStepToWrite++;
+            }
+        }
+
+        private synchronized void fail(Throwable t) {
+            if (error == null) {
+                error = t;
+            }
+            while (stepsFinished.getCount() > 0) {
+                stepsFinished.countDown();
+            }
+        }
+
+        private final List<Double> pathParameters;
+        private final long[] seeds;
+        private final int totalSteps;
+        private final BlockingQueue<Chain> idleChains;
+        private final CountDownLatch stepsFinished;
+        private final ExecutorService pool;
+
+        private final Map<Integer, List<List<String[]>>> pendingLines = new HashMap<Integer, List<List<String[]>>>();
+        private int nextStepToWrite = 0;
+
+        private volatile Chain lastChain = null;
+        private Throwable error = null;
+    }
+
     public abstract class Integrator {
         protected int step;
         protected int pathSteps;
@@ -317,6 +640,12 @@ public class MarginalLikelihoodEstimator implements Runnable, Identifiable, Cita
         for (MCLogger logger : loggers) {
             logger.startLogging();
         }
+
+        if (chainCopies.size() > 0) {
+            integrateConcurrently(createIntegrator());
+            return;
+        }
+
         mc.addMarkovChainListener(chainListener);
 
         /*switch (scheme) {
@@ -336,33 +665,30 @@ public class MarginalLikelihoodEstimator implements Runnable, Identifiable, Cita
                 throw new RuntimeException("Illegal path scheme");
         }*/
 
+        integrate(createIntegrator());
+
+        mc.removeMarkovChainListener(chainListener);
+    }
+
+    private Integrator createIntegrator() {
         switch (scheme) {
             case FIXED:
-                integrate(new FixedThetaRun(fixedRunValues));
-                break;
+                return new FixedThetaRun(fixedRunValues);
             case LINEAR:
-                integrate(new LinearIntegrator(pathSteps));
-                break;
+                return new LinearIntegrator(pathSteps);
             case GEOMETRIC:
-                integrate(new GeometricIntegrator(pathSteps));
-                break;
+                return new GeometricIntegrator(pathSteps);
             case ONE_SIDED_BETA:
-                integrate(new BetaIntegrator(1.0, betaFactor, pathSteps));
-                break;
+                return new BetaIntegrator(1.0, betaFactor, pathSteps);
             case BETA:
-                integrate(new BetaIntegrator(alphaFactor, betaFactor, pathSteps));
-                break;
+                return new BetaIntegrator(alphaFactor, betaFactor, pathSteps);
             case BETA_QUANTILE:
-                integrate(new BetaQuantileIntegrator(alphaFactor, pathSteps));
-                break;
+                return new BetaQuantileIntegrator(alphaFactor, pathSteps);
             case SIGMOID:
-                integrate(new SigmoidIntegrator(alphaFactor, pathSteps));
-                break;
+                return new SigmoidIntegrator(alphaFactor, pathSteps);
             default:
                 throw new RuntimeException("Illegal path scheme");
         }
-
-        mc.removeMarkovChainListener(chainListener);
     }
 
     private final MarkovChainListener chainListener = new MarkovChainListener() {
@@ -567,6 +893,7 @@ public class MarginalLikelihoodEstimator implements Runnable, Identifiable, Cita
             }
 
             CombinedOperatorSchedule os = new CombinedOperatorSchedule();
+            List<OperatorSchedule> schedules = new ArrayList<OperatorSchedule>();
 
             XMLObject mcmcXML = xo.getChild(MCMC);
             for (int i = 0; i < mcmcXML.getChildCount(); ++i) {
@@ -580,10 +907,11 @@ public class MarginalLikelihoodEstimator implements Runnable, Identifiable, Cita
                         mcmc.getMarkovChain().runChain(prerunLength, false);
                     }
                     if (xo.getChild(OperatorSchedule.class) != null) {
-                    	os.addOperatorSchedule((OperatorSchedule)xo.getChild(OperatorSchedule.class));
+                    	schedules.add((OperatorSchedule)xo.getChild(OperatorSchedule.class));
                     } else {
-                    	os.addOperatorSchedule(mcmc.getOperatorSchedule());
+                    	schedules.add(mcmc.getOperatorSchedule());
                     }
+                    os.addOperatorSchedule(schedules.get(schedules.size() - 1));
                 }
             }
 
@@ -597,6 +925,14 @@ public class MarginalLikelihoodEstimator implements Runnable, Identifiable, Cita
             if (!xo.getAttribute(SPAWN, true))
                 mle.setSpawnable(false);
 
+            int threadCount = xo.getAttribute(THREADS, 1);
+            if (threadCount < 1) {
+                threadCount = Runtime.getRuntime().availableProcessors();
+            }
+            if (threadCount > 1) {
+                addChainCopies(xo, mle, pathLikelihood, schedules, loggerList, threadCount - 1);
+            }
+
             if (xo.hasAttribute(ALPHA)) {
                 mle.setAlphaFactor(xo.getAttribute(ALPHA, 0.5));
             }
@@ -629,6 +965,72 @@ public class MarginalLikelihoodEstimator implements Runnable, Identifiable, Cita
             return mle;
         }
 
+        /**
+         * Copies the path likelihood, the operator schedules and the objects logged by the loggers
+         * (and everything they refer to) to give the estimator chains to run path steps on.
+         */
+        private void addChainCopies(XMLObject xo, MarginalLikelihoodEstimator mle, PathLikelihood pathLikelihood,
+                                    List<OperatorSchedule> schedules, List<MCLogger> loggerList, int count) {
+
+            List<Object> objects = new ArrayList<Object>();
+            objects.add(pathLikelihood);
+            objects.addAll(schedules);
+
+            List<List<Object>> loggedObjects = new ArrayList<List<Object>>();
+            for (int i = 0; i < xo.getChildCount(); i++) {
+                Object child = xo.getRawChild(i);
+                if (child instanceof Reference) {
+                    child = ((Reference) child).getReferenceObject();
+                }
+                if (child instanceof XMLObject && ((XMLObject) child).getNativeObject() instanceof MCLogger) {
+                    XMLObject cxo = (XMLObject) child;
+                    if (cxo.getNativeObject().getClass() != MCLogger.class) {
+                        java.util.logging.Logger.getLogger("dr.inference").warning("Path steps will be run one at a time as the logger, " +
+                                cxo.getNativeObject().getClass().getSimpleName() + ", can not log copies of the chain");
+                        return;
+                    }
+                    List<Object> logged = new ArrayList<Object>();
+                    for (int j = 0; j < cxo.getChildCount(); j++) {
+                        logged.add(cxo.getChild(j));
+                    }
+                    loggedObjects.add(logged);
+                    objects.addAll(logged);
+                }
+            }
+
+            List<Object[]> copies;
+            try {
+                copies = xo.createCopies(objects.toArray(), count);
+            } catch (XMLParseException xpe) {
+                java.util.logging.Logger.getLogger("dr.inference").warning("Path steps will be run one at a time as the chain can not be copied: " +
+                        xpe.getMessage());
+                return;
+            }
+
+            for (Object[] copy : copies) {
+                int k = 0;
+                PathLikelihood pathLikelihoodCopy = (PathLikelihood) copy[k++];
+
+                CombinedOperatorSchedule scheduleCopy = new CombinedOperatorSchedule();
+                for (int i = 0; i < schedules.size(); i++) {
+                    scheduleCopy.addOperatorSchedule((OperatorSchedule) copy[k++]);
+                }
+
+                List<MCLogger> loggerCopies = new ArrayList<MCLogger>();
+                for (List<Object> logged : loggedObjects) {
+                    MCLogger loggerCopy = new MCLogger(false, 0);
+                    for (int j = 0; j < logged.size(); j++) {
+                        LoggerParser.addColumns(loggerCopy, copy[k++]);
+                    }
+                    loggerCopies.add(loggerCopy);
+                }
+
+                mle.addChainCopy(pathLikelihoodCopy, scheduleCopy, loggerCopies);
+            }
+
+            java.util.logging.Logger.getLogger("dr.inference").info("Running path steps on " + (count + 1) + " copies of the chain");
+        }
+
         //************************************************************************
         // AbstractXMLObjectParser implementation
         //************************************************************************
@@ -654,6 +1056,7 @@ public class MarginalLikelihoodEstimator implements Runnable, Identifiable, Cita
                 AttributeRule.newBooleanRule(LACING, true),
                 AttributeRule.newBooleanRule(SPAWN, true),
                 AttributeRule.newBooleanRule(PRINT_OPERATOR_ANALYSIS, true),
+                AttributeRule.newIntegerRule(THREADS, true, "The number of path steps to run at once on copies of the chain (default is 1; 0 for the number of processors)"),
                 AttributeRule.newStringRule(PATH_SCHEME, true),
                 AttributeRule.newDoubleArrayRule(FIXED_VALUE, true),
                 AttributeRule.newDoubleRule(ALPHA, true),
@@ -733,6 +1136,8 @@ public class MarginalLikelihoodEstimator implements Runnable, Identifiable, Cita
 
     private final PathLikelihood pathLikelihood;
 
+    private final List<Chain> chainCopies = new ArrayList<Chain>();
+
     public static final String MARGINAL_LIKELIHOOD_ESTIMATOR = "marginalLikelihoodEstimator";
     public static final String CHAIN_LENGTH = "chainLength";
     public static final String PATH_STEPS = "pathSteps";
@@ -748,6 +1153,7 @@ public class MarginalLikelihoodEstimator implements Runnable, Identifiable, Cita
     public static final String BETA = "beta";
     public static final String PRERUN = "prerun";
     public static final String PRINT_OPERATOR_ANALYSIS = "printOperatorAnalysis";
+    public static final String THREADS = "threads";
     
     private static boolean SHOW_OPERATOR_ANALYSIS = false;
 }
\ No newline at end of file
@@ -28,9 +28,14 @@ package dr.inference.ml;
 import dr.inference.loggers.Logger;
 import dr.inference.markovchain.MarkovChain;
 import dr.inference.markovchain.MarkovChainListener;
+import dr.inference.model.Bounds;
 import dr.inference.model.Likelihood;
 import dr.inference.model.Model;
+import dr.inference.model.Parameter;
 import dr.inference.operators.OperatorSchedule;
+import dr.math.MultivariateFunction;
+import dr.math.MultivariateMinimum;
+import dr.math.PooledMultivariateFunction;
 import dr.util.Identifiable;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
@@ -82,8 +87,77 @@ public class MLOptimizer implements Runnable, Identifiable {
 		currentState = 0;
 	}
 
+	/**
+	 * Constructor for an optimizer that minimises the negative log likelihood over the values of
+	 * a set of parameters with a MultivariateMinimum (rather than a heuristic chain).
+	 * @param maxEvaluations the maximum number of evaluations (0 for no limit)
+	 * @param parameters the parameters to optimize
+	 * @param minimiser the minimiser
+	 * @param function the negative log likelihood over the parameter values (evaluated on copies
+	 * of the model if the minimiser evaluates points in batches)
+	 * @param tolerance the tolerance of the function value and of the parameter values
+	 */
+	public MLOptimizer(String id,
+		int maxEvaluations,
+		Likelihood likelihood,
+		Parameter[] parameters,
+		MultivariateMinimum minimiser,
+		PooledMultivariateFunction function,
+		double tolerance,
+		Logger[] loggers) {
+
+		this.id = id;
+
+		this.chainLength = maxEvaluations;
+		this.likelihood = likelihood;
+		this.loggers = loggers;
+		this.parameters = parameters;
+		this.minimiser = minimiser;
+		this.function = function;
+		this.tolerance = tolerance;
+
+		currentState = 0;
+	}
+
 	public void run() {
-		chain();
+		if (minimiser != null) {
+			minimise();
+		} else {
+			chain();
+		}
+	}
+
+	/**
+	 * Runs the minimiser from the current parameter values and leaves the parameters at the
+	 * minimum found.
+	 */
+	public void minimise() {
+		currentState = 0;
+
+		if (loggers != null) {
+			for (Logger logger : loggers) {
+				logger.startLogging();
+			}
+		}
+
+		timer.start();
+
+		double[] x = LikelihoodFunction.getValues(parameters);
+		minimiser.maxFun = chainLength;
+		minimiser.optimize(function, x, tolerance, tolerance);
+		function.shutdown();
+		LikelihoodFunction.setValues(parameters, x);
+
+		timer.stop();
+
+		currentState = minimiser.numFun;
+
+		if (loggers != null) {
+			for (Logger logger : loggers) {
+				logger.log(currentState);
+				logger.stopLogging();
+			}
+		}
 	}
 
 	/**
@@ -202,6 +276,86 @@ public class MLOptimizer implements Runnable, Identifiable {
 
 	public String getId() { return id; }
 
+	/**
+	 * The negative log likelihood as a function of the values of a set of parameters (one
+	 * argument for each dimension of each parameter in turn).
+	 */
+	public static class LikelihoodFunction implements MultivariateFunction {
+
+		public LikelihoodFunction(Likelihood likelihood, Parameter[] parameters) {
+			this.likelihood = likelihood;
+			this.parameters = parameters;
+
+			int dimension = 0;
+			for (Parameter parameter : parameters) {
+				dimension += parameter.getDimension();
+			}
+			lowerBounds = new double[dimension];
+			upperBounds = new double[dimension];
+			int k = 0;
+			for (Parameter parameter : parameters) {
+				Bounds<Double> bounds = parameter.getBounds();
+				for (int i = 0; i < parameter.getDimension(); i++) {
+					lowerBounds[k] = (bounds != null ? bounds.getLowerLimit(i) : Double.NEGATIVE_INFINITY);
+					upperBounds[k] = (bounds != null ? bounds.getUpperLimit(i) : Double.POSITIVE_INFINITY);
+					k++;
+				}
+			}
+		}
+
+		public double evaluate(double[] argument) {
+			setValues(parameters, argument);
+			double logL = likelihood.getLogLikelihood();
+			if (Double.isNaN(logL) || logL == Double.NEGATIVE_INFINITY) {
+				return Double.POSITIVE_INFINITY;
+			}
+			return -logL;
+		}
+
+		public int getNumArguments() {
+			return lowerBounds.length;
+		}
+
+		public double getLowerBound(int n) {
+			return lowerBounds[n];
+		}
+
+		public double getUpperBound(int n) {
+			return upperBounds[n];
+		}
+
+		static double[] getValues(Parameter[] parameters) {
+			int dimension = 0;
+			for (Parameter parameter : parameters) {
+				dimension += parameter.getDimension();
+			}
+			double[] values = new double[dimension];
+			int k = 0;
+			for (Parameter parameter : parameters) {
+				for (int i = 0; i < parameter.getDimension(); i++) {
+					values[k] = parameter.getParameterValue(i);
+					k++;
+				}
+			}
+			return values;
+		}
+
+		static void setValues(Parameter[] parameters, double[] values) {
+			int k = 0;
+			for (Parameter parameter : parameters) {
+				for (int i = 0; i < parameter.getDimension(); i++) {
+					parameter.setParameterValue(i, values[k]);
+					k++;
+				}
+			}
+		}
+
+		private final Likelihood likelihood;
+		private final Parameter[] parameters;
+		private final double[] lowerBounds;
+		private final double[] upperBounds;
+	}
+
 	public void setId(String id) { this.id = id; }
 
 	// PRIVATE TRANSIENTS
@@ -212,5 +366,11 @@ public class MLOptimizer implements Runnable, Identifiable {
 
 	/** this markov chain does most of the work. */
 	private MarkovChain mc = null;
+
+	/** or this minimiser does (with the function over these parameters). */
+	private Parameter[] parameters = null;
+	private MultivariateMinimum minimiser = null;
+	private PooledMultivariateFunction function = null;
+	private double tolerance;
 }
 
@@ -25,6 +25,7 @@
 
 package dr.inference.model;
 
+import dr.inference.markovchain.Profiler;
 import dr.util.Keywordable;
 import dr.util.NumberFormatter;
 import dr.xml.Reportable;
@@ -237,7 +238,7 @@ public class CompoundLikelihood implements Likelihood, Reportable, Keywordable {
             if (EVALUATION_TIMERS) {
                 // this code is only compiled if EVALUATION_TIMERS is true
                 long time = System.nanoTime();
-                double l = likelihood.getLogLikelihood();
+                double l = profiledLogLikelihood(likelihood);
                 evaluationTimes[i] += System.nanoTime() - time;
                 evaluationCounts[i] ++;
 
@@ -248,7 +249,7 @@ public class CompoundLikelihood implements Likelihood, Reportable, Keywordable {
 
                 i++;
             } else {
-                final double l = likelihood.getLogLikelihood();
+                final double l = profiledLogLikelihood(likelihood);
                 // if the likelihood is zero then short cut the rest of the likelihoods
                 // This means that expensive likelihoods such as TreeLikelihoods should
                 // be put after cheap ones such as BooleanLikelihoods
@@ -261,6 +262,26 @@ public class CompoundLikelihood implements Likelihood, Reportable, Keywordable {
         return logLikelihood;
     }
 
+    /**
+     * Evaluates a component likelihood attributing the time taken to its Profiler section
+     * if profiling is switched on.
+     */
+    private double profiledLogLikelihood(Likelihood likelihood) {
+        if (!Profiler.isEnabled()) {
+            return likelihood.getLogLikelihood();
+        }
+        Profiler.Section section = profileSections.get(likelihood);
+        if (section == null) {
+            // created lazily as the likelihood id is usually set after construction
+            section = Profiler.getLikelihoodSection(likelihood);
+            profileSections.put(likelihood, section);
+        }
+        section.begin();
+        double logL = likelihood.getLogLikelihood();
+        section.end();
+        return logL;
+    }
+
     public void makeDirty() {
         for( Likelihood likelihood : likelihoods ) {
             likelihood.makeDirty();
@@ -513,6 +534,8 @@ public class CompoundLikelihood implements Likelihood, Reportable, Keywordable {
 
     private final List<Callable<Double>> likelihoodCallers = new ArrayList<Callable<Double>>();
 
+    private final Map<Likelihood, Profiler.Section> profileSections = new ConcurrentHashMap<Likelihood, Profiler.Section>();
+
     class LikelihoodCaller implements Callable<Double> {
 
         public LikelihoodCaller(Likelihood likelihood, int index) {
@@ -526,12 +549,12 @@ public class CompoundLikelihood implements Likelihood, Reportable, Keywordable {
             }
             if (EVALUATION_TIMERS) {
                 long time = System.nanoTime();
-                double logL = likelihood.getLogLikelihood();
+                double logL = profiledLogLikelihood(likelihood);
                 evaluationTimes[index] += System.nanoTime() - time;
                 evaluationCounts[index] ++;
                 return logL;
             }
-            return likelihood.getLogLikelihood();
+            return profiledLogLikelihood(likelihood);
         }
 
         private final Likelihood likelihood;
@@ -26,6 +26,7 @@
 package dr.inference.model;
 
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.List;
 
 /**
@@ -194,6 +195,24 @@ public class CompoundParameter extends Parameter.Abstract implements VariableLis
         fireParameterChangedEvent(-1, ChangeType.ALL_VALUES_CHANGED);
     }
 
+    /**
+     * Bulk updates are started on each of the component parameters so they each send a single
+     * event when it ends and these are gathered into a single event for this parameter.
+     */
+    public void beginBulkUpdate() {
+        super.beginBulkUpdate();
+        for (Parameter parameter : uniqueParameters) {
+            parameter.beginBulkUpdate();
+        }
+    }
+
+    public void endBulkUpdate() {
+        for (Parameter parameter : uniqueParameters) {
+            parameter.endBulkUpdate();
+        }
+        super.endBulkUpdate();
+    }
+
     public double getParameterValue(int dim) {
         return parameters.get(dim).getParameterValue(pindex.get(dim));
     }
@@ -275,7 +294,17 @@ public class CompoundParameter extends Parameter.Abstract implements VariableLis
         for (Parameter parameter1 : uniqueParameters) {
             if (variable == parameter1) {
                 if (!doNotPropogateChangeUp) {
-                    fireParameterChangedEvent(dim + index, type);
+                    if (index != -1) {
+                        fireParameterChangedEvent(dim + index, type);
+                    } else if (inBulkUpdate() && parameter1.getChangedIndices() != null) {
+                        // the end of a bulk update of the component so just record its changes
+                        BitSet changed = parameter1.getChangedIndices();
+                        for (int i = changed.nextSetBit(0); i >= 0; i = changed.nextSetBit(i + 1)) {
+                            fireParameterChangedEvent(dim + i, Parameter.ChangeType.VALUE_CHANGED);
+                        }
+                    } else {
+                        fireParameterChangedEvent(-1, type);
+                    }
                 }
                 break;
             }
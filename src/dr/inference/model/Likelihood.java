@@ -29,6 +29,7 @@ import dr.inference.loggers.Loggable;
 import dr.util.Identifiable;
 
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.Set;
 
@@ -235,7 +236,7 @@ public interface Likelihood extends Loggable, Identifiable {
 
 
     // set to store all created likelihoods
-    final static Set<Likelihood> FULL_LIKELIHOOD_SET = new HashSet<Likelihood>();
-    final static Set<Likelihood> CONNECTED_LIKELIHOOD_SET = new HashSet<Likelihood>();
+    final static Set<Likelihood> FULL_LIKELIHOOD_SET = Collections.synchronizedSet(new HashSet<Likelihood>());
+    final static Set<Likelihood> CONNECTED_LIKELIHOOD_SET = Collections.synchronizedSet(new HashSet<Likelihood>());
 
 }
@@ -25,7 +25,10 @@
 
 package dr.inference.model;
 
+import dr.math.MachineAccuracy;
+import dr.math.MultivariateFunction;
 import dr.math.NumericalDerivative;
+import dr.math.PooledMultivariateFunction;
 import dr.math.UnivariateFunction;
 import dr.math.distributions.RandomGenerator;
 import dr.xml.*;
@@ -71,6 +74,38 @@ public class LikelihoodProfile implements Reportable {
                 return upperBound;
             }
         };
+
+        functions.add(createFunction(likelihood, parameter));
+    }
+
+    /**
+     * Adds independent copies of the likelihood and parameter so the points of the profile can be
+     * evaluated concurrently (when there is no expectation to integrate over).
+     */
+    public void addCopy(Likelihood likelihood, Parameter parameter) {
+        functions.add(createFunction(likelihood, parameter));
+    }
+
+    private MultivariateFunction createFunction(final Likelihood likelihood, final Parameter parameter) {
+        return new MultivariateFunction() {
+
+            public double evaluate(double[] argument) {
+                parameter.setParameterValue(dim, argument[0]);
+                return likelihood.getLogLikelihood();
+            }
+
+            public int getNumArguments() {
+                return 1;
+            }
+
+            public double getLowerBound(int n) {
+                return lowerBound;
+            }
+
+            public double getUpperBound(int n) {
+                return upperBound;
+            }
+        };
     }
 
     public String getReport() {
@@ -91,6 +126,11 @@ public class LikelihoodProfile implements Reportable {
     private int count = 0;
 
     private void generateProfile() {
+        if (generator == null) {
+            generateProfileConcurrently();
+            return;
+        }
+
         double delta = (upperBound - lowerBound) / (numPoints - 1);
         double x = lowerBound;
         for (int i = 0; i < numPoints; ++i) {
@@ -125,6 +165,49 @@ public class LikelihoodProfile implements Reportable {
         }
     }
 
+    /**
+     * Evaluates all the points needed for the profile (each grid point and those either side of it
+     * for the derivatives) as one batch and then combines them as NumericalDerivative does.
+     */
+    private void generateProfileConcurrently() {
+        double delta = (upperBound - lowerBound) / (numPoints - 1);
+        double[] grid = new double[numPoints];
+        double[][] points = new double[numPoints * POINTS_PER_GRID_POINT][];
+        double x = lowerBound;
+        for (int i = 0; i < numPoints; ++i) {
+            double h1 = MachineAccuracy.SQRT_EPSILON * (Math.abs(x) + 1.0);
+            double h2 = MachineAccuracy.SQRT_SQRT_EPSILON * (Math.abs(x) + 1.0);
+            int k = i * POINTS_PER_GRID_POINT;
+            points[k] = new double[]{x};
+            points[k + 1] = new double[]{x + h1};
+            points[k + 2] = new double[]{x - h1};
+            points[k + 3] = new double[]{x + h2};
+            points[k + 4] = new double[]{x - h2};
+            grid[i] = x;
+            x += delta;
+        }
+
+        PooledMultivariateFunction pooledFunction = new PooledMultivariateFunction(functions, 0);
+        double[] values = new double[points.length];
+        pooledFunction.evaluate(points, values);
+        pooledFunction.shutdown();
+
+        for (int i = 0; i < numPoints; ++i) {
+            x = grid[i];
+            double h1 = MachineAccuracy.SQRT_EPSILON * (Math.abs(x) + 1.0);
+            double h2 = MachineAccuracy.SQRT_SQRT_EPSILON * (Math.abs(x) + 1.0);
+            int k = i * POINTS_PER_GRID_POINT;
+            double fx = values[k];
+            double dx = (values[k + 1] - values[k + 2]) / (2.0 * h1);
+            double ddx = (values[k + 3] - 2.0 * values[k] + values[k + 4]) / (h2 * h2);
+            profilePoints.add(new ProfilePoint(x, fx, dx, ddx));
+        }
+
+        // leave the parameter at the last grid point rather than whichever point the original
+        // model happened to evaluate last
+        parameter.setParameterValue(dim, grid[numPoints - 1]);
+    }
+
     private void integrateGenerator(double argument) {
         parameter.setParameterValue(dim, argument);
         double[] draw = (double[]) generator.nextRandom();
@@ -165,6 +248,7 @@ public class LikelihoodProfile implements Reportable {
     private final Likelihood likelihood;
     private final Parameter parameter;
     private final UnivariateFunction function;
+    private final List<MultivariateFunction> functions = new ArrayList<MultivariateFunction>();
     private int dim;
     private double lowerBound;
     private double upperBound;
@@ -177,6 +261,10 @@ public class LikelihoodProfile implements Reportable {
     public static final String GRID_POINTS = "points";
     public static final String EXPECTATION = "expectation";
     public static final String MC_SAMPLES = "samples";
+    public static final String THREADS = "threads";
+
+    // the grid point, either side of it for the first derivative and further either side for the second
+    private static final int POINTS_PER_GRID_POINT = 5;
 
     public static XMLObjectParser PARSER = new AbstractXMLObjectParser() {
 
@@ -195,6 +283,16 @@ public class LikelihoodProfile implements Reportable {
 
             LikelihoodProfile profile = new LikelihoodProfile(likelihood, parameter, dim, lowerBound, upperBound, numPoints);
 
+            int threadCount = xo.getAttribute(THREADS, 1);
+            if (threadCount < 1) {
+                threadCount = Runtime.getRuntime().availableProcessors();
+            }
+            if (threadCount > 1 && !xo.hasChildNamed(EXPECTATION)) {
+                // each thread evaluates points on its own copy of the model
+                for (Object[] copy : xo.createCopies(new Object[]{likelihood, parameter}, threadCount - 1)) {
+                    profile.addCopy((Likelihood) copy[0], (Parameter) copy[1]);
+                }
+            }
 
             if (xo.hasChildNamed(EXPECTATION)) {
 //                System.err.println("Here");
@@ -229,6 +327,7 @@ public class LikelihoodProfile implements Reportable {
                 AttributeRule.newDoubleArrayRule(UPPER_BOUND),
                 AttributeRule.newIntegerRule(DIM, true),
                 AttributeRule.newIntegerRule(GRID_POINTS, true),
+                AttributeRule.newIntegerRule(THREADS, true, "The number of threads to evaluate the points on (default is 1; 0 for the number of processors)"),
                 new ElementRule(Likelihood.class),
                 new ElementRule(Parameter.class),
                 new ElementRule(EXPECTATION,
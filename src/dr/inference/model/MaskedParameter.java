@@ -26,6 +26,7 @@
 package dr.inference.model;
 
 import java.util.Arrays;
+import java.util.BitSet;
 
 /**
  * @author Marc A. Suchard
@@ -164,6 +165,16 @@ public class MaskedParameter extends Parameter.Abstract implements VariableListe
         return parameter.getParameterValue(map[dim]);
     }
 
+    public void beginBulkUpdate() {
+        super.beginBulkUpdate();
+        parameter.beginBulkUpdate();
+    }
+
+    public void endBulkUpdate() {
+        parameter.endBulkUpdate();
+        super.endBulkUpdate();
+    }
+
     public void setParameterValue(int dim, double value) {
 //        if (!isMapValid) updateMask();
         parameter.setParameterValue(map[dim], value);
@@ -246,7 +257,15 @@ public class MaskedParameter extends Parameter.Abstract implements VariableListe
             super.fireParameterChangedEvent();
         } else if (variable == parameter) { // variable == parameter
             if (!doNotPropagateChangeUp) {
-                if (index == -1) {
+                BitSet changed = parameter.getChangedIndices();
+                if (index == -1 && inBulkUpdate() && changed != null) {
+                    // the end of a bulk update of the underlying parameter so record the unmasked changes
+                    for (int i = changed.nextSetBit(0); i >= 0; i = changed.nextSetBit(i + 1)) {
+                        if (inverseMap[i] != -1) {
+                            super.fireParameterChangedEvent(inverseMap[i], ChangeType.VALUE_CHANGED);
+                        }
+                    }
+                } else if (index == -1) {
                     super.fireParameterChangedEvent();
                 } else if (inverseMap[index] != -1) {
                     super.fireParameterChangedEvent(inverseMap[index], type);
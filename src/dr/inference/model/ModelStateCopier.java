@@ -0,0 +1,132 @@
+/*
+ * ModelStateCopier.java
+ *
+ * Copyright (c) 2002-2017 Alexei Drummond, Andrew Rambaut and Marc Suchard
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ */
+
+package dr.inference.model;
+
+import dr.evomodel.tree.TreeModel;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Copies the state of a model graph into a copy of it (i.e., a graph built from the same XML) so
+ * that a chain on the copy can carry on from where a chain on the original is. The graphs are
+ * walked together so the models and variables are matched by their position. The values of the
+ * variables are copied and then the topologies and node heights of the trees.
+ */
+public final class ModelStateCopier {
+
+    /**
+     * @param source      the model graph to copy the state of
+     * @param destination a copy of the graph
+     */
+    public ModelStateCopier(Model source, Model destination) {
+        collect(source, destination, new IdentityHashMap<Object, Object>());
+
+        // the variables of the trees are set when the trees are copied
+        for (TreeModel[] pair : trees) {
+            for (int i = 0; i < pair[0].getVariableCount(); i++) {
+                variables.remove(pair[0].getVariable(i));
+            }
+        }
+    }
+
+    /**
+     * Copies the current values of the variables and the current trees.
+     */
+    public void copyState() {
+        for (Map.Entry<Variable, Variable> entry : variables.entrySet()) {
+            copyValues(entry.getKey(), entry.getValue());
+        }
+
+        for (TreeModel[] pair : trees) {
+            TreeModel tree = pair[1];
+            tree.beginTreeEdit();
+            tree.adoptTreeStructure(pair[0]);
+            tree.setRoot(tree.getNode(pair[0].getRoot().getNumber()));
+            tree.endTreeEdit();
+        }
+    }
+
+    private void collect(Model source, Model destination, Map<Object, Object> visited) {
+        if (visited.containsKey(source)) {
+            return;
+        }
+        visited.put(source, destination);
+
+        if (source.getClass() != destination.getClass() ||
+                source.getModelCount() != destination.getModelCount() ||
+                source.getVariableCount() != destination.getVariableCount()) {
+            throw new IllegalArgumentException("Model, " + destination.getId() + ", is not a copy of " + source.getId());
+        }
+
+        if (source instanceof TreeModel) {
+            trees.add(new TreeModel[]{(TreeModel) source, (TreeModel) destination});
+            return;
+        }
+
+        for (int i = 0; i < source.getVariableCount(); i++) {
+            Variable variable = source.getVariable(i);
+            if (!visited.containsKey(variable)) {
+                visited.put(variable, destination.getVariable(i));
+                if (variable.getClass() != destination.getVariable(i).getClass()) {
+                    throw new IllegalArgumentException("Variable, " + destination.getVariable(i).getId() +
+                            ", is not a copy of " + variable.getId());
+                }
+                variables.put(variable, destination.getVariable(i));
+            }
+        }
+
+        for (int i = 0; i < source.getModelCount(); i++) {
+            collect(source.getModel(i), destination.getModel(i), visited);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void copyValues(Variable source, Variable destination) {
+        if (source instanceof Parameter) {
+            Parameter parameter = (Parameter) destination;
+            if (parameter.isImmutable()) {
+                return;
+            }
+            if (parameter.getDimension() != source.getSize()) {
+                parameter.setDimension(source.getSize());
+            }
+            for (int i = 0; i < source.getSize(); i++) {
+                parameter.setParameterValueQuietly(i, ((Parameter) source).getParameterValue(i));
+            }
+            parameter.fireParameterChangedEvent();
+        } else {
+            for (int i = 0; i < source.getSize(); i++) {
+                destination.setValue(i, source.getValue(i));
+            }
+        }
+    }
+
+    private final Map<Variable, Variable> variables = new IdentityHashMap<Variable, Variable>();
+    private final List<TreeModel[]> trees = new ArrayList<TreeModel[]>();
+}
@@ -163,12 +163,33 @@ public interface Parameter extends Statistic, Variable<Double> {
 
     void fireParameterChangedEvent(int index, Parameter.ChangeType type);
 
+    /**
+     * Starts a bulk update of this parameter. Until the matching call to endBulkUpdate()
+     * value changes are not sent to the listeners but the changed dimensions are recorded.
+     * Bulk updates can be nested.
+     */
+    void beginBulkUpdate();
+
+    /**
+     * Ends a bulk update and sends a single event for all the values changed since
+     * beginBulkUpdate(). This is for the changed dimension if only one was changed or
+     * index -1 if there were more.
+     */
+    void endBulkUpdate();
+
+    /**
+     * @return the dimensions changed by the bulk update whose event is currently being sent to
+     * the listeners or null if the current event is not from a bulk update. Do not modify.
+     */
+    BitSet getChangedIndices();
+
     boolean isUsed();
 
     boolean isImmutable();
 
-    Set<Parameter> FULL_PARAMETER_SET = new LinkedHashSet<Parameter>();
-    Set<Parameter> CONNECTED_PARAMETER_SET = new LinkedHashSet<Parameter>();
+    // synchronized as parameters can be built on several threads (see XMLParser)
+    Set<Parameter> FULL_PARAMETER_SET = Collections.synchronizedSet(new LinkedHashSet<Parameter>());
+    Set<Parameter> CONNECTED_PARAMETER_SET = Collections.synchronizedSet(new LinkedHashSet<Parameter>());
 
     /**
      * Abstract base class for parameters
@@ -220,6 +241,22 @@ public interface Parameter extends Statistic, Variable<Double> {
          * @param type  the type of parameter change event
          */
         public void fireParameterChangedEvent(int index, Parameter.ChangeType type) {
+            if (bulkUpdateDepth > 0 && type != ChangeType.ADDED && type != ChangeType.REMOVED) {
+                // record the change to be sent when the bulk update ends
+                if (index == -1) {
+                    bulkChangedIndices.set(0, getDimension());
+                } else {
+                    bulkChangedIndices.set(index);
+                }
+                if (type == ChangeType.ALL_VALUES_CHANGED) {
+                    bulkAllValuesChanged = true;
+                }
+                return;
+            }
+            notifyListeners(index, type);
+        }
+
+        private void notifyListeners(int index, Parameter.ChangeType type) {
             if (listeners != null) {
                 for (VariableListener listener : listeners) {
                     listener.variableChangedEvent(this, index, type);
@@ -227,6 +264,50 @@ public interface Parameter extends Statistic, Variable<Double> {
             }
         }
 
+        public void beginBulkUpdate() {
+            if (bulkChangedIndices == null) {
+                bulkChangedIndices = new BitSet();
+            }
+            bulkUpdateDepth++;
+        }
+
+        public void endBulkUpdate() {
+            if (bulkUpdateDepth == 0) {
+                throw new IllegalStateException("endBulkUpdate called without beginBulkUpdate on parameter " +
+                        getParameterName());
+            }
+            bulkUpdateDepth--;
+            if (bulkUpdateDepth > 0 || bulkChangedIndices.isEmpty()) {
+                return;
+            }
+
+            // swap the sets so that the changes are available to the listeners while recording restarts
+            BitSet changed = bulkChangedIndices;
+            bulkChangedIndices = changedIndices != null ? changedIndices : new BitSet();
+            bulkChangedIndices.clear();
+            changedIndices = changed;
+
+            final boolean allValuesChanged = bulkAllValuesChanged;
+            bulkAllValuesChanged = false;
+
+            // listeners take index -1 as a change to every value only with ALL_VALUES_CHANGED
+            inChangedIndicesEvent = true;
+            if (changed.cardinality() == 1 && !allValuesChanged) {
+                notifyListeners(changed.nextSetBit(0), ChangeType.VALUE_CHANGED);
+            } else {
+                notifyListeners(-1, ChangeType.ALL_VALUES_CHANGED);
+            }
+            inChangedIndicesEvent = false;
+        }
+
+        public BitSet getChangedIndices() {
+            return inChangedIndicesEvent ? changedIndices : null;
+        }
+
+        protected boolean inBulkUpdate() {
+            return bulkUpdateDepth > 0;
+        }
+
         public final void addParameterListener(VariableListener listener) {
             if (listeners == null) {
                 listeners = new ArrayList<VariableListener>();
@@ -482,6 +563,12 @@ public interface Parameter extends Statistic, Variable<Double> {
 
         private ArrayList<VariableListener> listeners;
 
+        private int bulkUpdateDepth = 0;
+        private boolean bulkAllValuesChanged = false;
+        private BitSet bulkChangedIndices = null;
+        private BitSet changedIndices = null;
+        private boolean inChangedIndicesEvent = false;
+
         private String[] dimensionNames = null;
     }
 
@@ -27,6 +27,8 @@ package dr.inference.model;
 
 import dr.util.Transform;
 
+import java.util.BitSet;
+
 /**
  * @author Marc A. Suchard
  */
@@ -145,9 +147,26 @@ public class TransformedParameter extends Parameter.Abstract implements Variable
         throw new RuntimeException("Not yet implemented.");
     }
 
+    public void beginBulkUpdate() {
+        super.beginBulkUpdate();
+        parameter.beginBulkUpdate();
+    }
+
+    public void endBulkUpdate() {
+        parameter.endBulkUpdate();
+        super.endBulkUpdate();
+    }
+
     public void variableChangedEvent(Variable variable, int index, ChangeType type) {
         // Propogate change up model graph
-        fireParameterChangedEvent(index, type);
+        BitSet changed = parameter.getChangedIndices();
+        if (index == -1 && inBulkUpdate() && changed != null) {
+            for (int i = changed.nextSetBit(0); i >= 0; i = changed.nextSetBit(i + 1)) {
+                fireParameterChangedEvent(i, ChangeType.VALUE_CHANGED);
+            }
+        } else {
+            fireParameterChangedEvent(index, type);
+        }
     }
 
     private final Parameter parameter;
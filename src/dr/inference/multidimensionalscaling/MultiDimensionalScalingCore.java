@@ -40,7 +40,6 @@ public interface MultiDimensionalScalingCore {
                                         // 2
     @SuppressWarnings("unused")
     long SINGLE_PRECISION = 1 << 2;     // 4
-    @SuppressWarnings("unused")
     long MULTI_CORE = 1 << 3;           // 8
     @SuppressWarnings("unused")
     long OPENCL_VECTORIZATION = 1 << 4; // 16
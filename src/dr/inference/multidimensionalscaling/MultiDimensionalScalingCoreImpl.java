@@ -25,8 +25,6 @@
 
 package dr.inference.multidimensionalscaling;
 
-import dr.math.distributions.NormalDistribution;
-
 /**
  * MultiDimensionalScalingCoreImpl
  *
@@ -59,8 +57,9 @@ public class MultiDimensionalScalingCoreImpl implements MultiDimensionalScalingC
 
         updatedLocation = -1;
 
-        locations = new double[locationCount][embeddingDimension];
-        storedLocations = new double[locationCount][embeddingDimension];
+        locations = new double[locationCount * embeddingDimension];
+        storedLocations = new double[locationCount * embeddingDimension];
+        distances = new double[locationCount];
     }
 
     @Override
@@ -113,18 +112,14 @@ public class MultiDimensionalScalingCoreImpl implements MultiDimensionalScalingC
                 throw new RuntimeException("Location is not the correct dimension");
             }
 
-            System.arraycopy(location, 0, locations[locationIndex], 0, embeddingDimension);
+            System.arraycopy(location, 0, locations, locationIndex * embeddingDimension, embeddingDimension);
 
         } else {
             if (location.length != embeddingDimension * locationCount) {
                 throw new RuntimeException("Location is the not correct dimension");
             }
 
-            int offset = 0;
-            for (int i = 0; i < locationCount; ++i) {
-                System.arraycopy(location, offset, locations[i], 0, embeddingDimension);
-                offset += embeddingDimension;
-            }
+            System.arraycopy(location, 0, locations, 0, location.length);
         }
 
         sumOfIncrementsKnown = false;
@@ -160,9 +155,7 @@ public class MultiDimensionalScalingCoreImpl implements MultiDimensionalScalingC
         storedIncrements = null;
 
         // Handle locations
-        for (int i = 0; i < locationCount; i++) {
-            System.arraycopy(locations[i], 0 , storedLocations[i], 0, embeddingDimension);
-        }
+        System.arraycopy(locations, 0, storedLocations, 0, locations.length);
         updatedLocation = -1;
 
         // Handle precision
@@ -186,7 +179,7 @@ public class MultiDimensionalScalingCoreImpl implements MultiDimensionalScalingC
         }
 
         // Handle locations
-        double[][] tmp1 = storedLocations;
+        double[] tmp1 = storedLocations;
         storedLocations = locations;
         locations = tmp1;
 
@@ -216,28 +209,9 @@ public class MultiDimensionalScalingCoreImpl implements MultiDimensionalScalingC
 
     private void computeSumOfSquaredResiduals() {
 
-        final double oneOverSd = Math.sqrt(precision);
-        final double scale = 0.5 * precision;
-
-        // OLD
         sumOfIncrements = 0.0;
         for (int i = 0; i < locationCount; i++) {
-
-            for (int j = 0; j < locationCount; j++) {
-                double distance = calculateDistance(locations[i], locations[j]);
-                double residual = distance - observations[i][j];
-                double increment = residual * residual;
-                if (isLeftTruncated) {
-                    increment = scale * increment;
-                    if (i != j) {
-                        increment += computeTruncation(distance, oneOverSd);
-//                        increment += computeTruncation(Math.sqrt(residual * residual), precision, oneOverSd); // OLD .. believed incorrect
-                    }
-                }
-                increments[i][j] = increment;
-//                increments[j][i] = increment; // Do not write transposed values
-                sumOfIncrements += increment;
-            }
+            sumOfIncrements += computeRowIncrements(i);
         }
 
         sumOfIncrements /= 2;
@@ -248,48 +222,48 @@ public class MultiDimensionalScalingCoreImpl implements MultiDimensionalScalingC
 
     private void updateSumOfSquaredResiduals() {
 
-        final double oneOverSd = Math.sqrt(precision);
-        final double scale = 0.5 * precision;
-
-        double delta = 0.0;
-
         final int i = updatedLocation;
 
         storedIncrements = new double[locationCount];
         System.arraycopy(increments[i], 0, storedIncrements, 0, locationCount);
 
-        for (int j = 0; j < locationCount; j++) {
-            double distance = calculateDistance(locations[i], locations[j]);
-            double residual = distance - observations[i][j];
-            double increment = residual * residual;
-
-            if (isLeftTruncated) {
-                increment = scale * increment;
-                if (i != j) {
-                    increment += computeTruncation(distance, oneOverSd);
-//                    increment += computeTruncation(Math.sqrt(residual * residual), precision, oneOverSd); // OLD .. believed incorrect
-                }
-            }
+        computeRowIncrements(i);
 
-            delta += increment - increments[i][j];
-            increments[i][j] = increment;
-//            increments[j][i] = increment; // Do not write transposed values
+        double delta = 0.0;
+        for (int j = 0; j < locationCount; j++) {
+            delta += increments[i][j] - storedIncrements[j];
         }
 
         sumOfIncrements += delta;
     }
 
-    private double calculateDistance(double[] X, double[] Y) {
-        double sum = 0.0;
-        for (int i = 0; i < embeddingDimension; i++) {
-            double difference = X[i] - Y[i];
-            sum += difference * difference;
-        }
-        return Math.sqrt(sum);
-    }
-
-    private double computeTruncation(double mean, double oneOverSd) {
-        return NormalDistribution.standardCDF(mean * oneOverSd, true); // Should be standardCDF(mean / sd, true);
+    /**
+     * Computes the increments between one location and all the others (including itself), writing
+     * them to its row of the matrix (not the transposed values).
+     *
+     * @return the sum of the increments
+     */
+    private double computeRowIncrements(int i) {
+        final int offset = i * embeddingDimension;
+        final double[] row = increments[i];
+
+        // the pairs before the diagonal
+        MultiDimensionalScalingKernel.computeDistances(locations, offset, locations, 0,
+                embeddingDimension, i, distances);
+        double sum = MultiDimensionalScalingKernel.computeIncrements(distances, observations[i], 0, i,
+                precision, isLeftTruncated, row, 0);
+
+        row[i] = MultiDimensionalScalingKernel.computeDiagonalIncrement(observations[i][i], precision, isLeftTruncated);
+        sum += row[i];
+
+        // and those after it
+        final int count = locationCount - i - 1;
+        MultiDimensionalScalingKernel.computeDistances(locations, offset, locations, offset + embeddingDimension,
+                embeddingDimension, count, distances);
+        sum += MultiDimensionalScalingKernel.computeIncrements(distances, observations[i], i + 1,
+                count, precision, isLeftTruncated, row, i + 1);
+
+        return sum;
     }
 
     private int embeddingDimension;
@@ -302,8 +276,9 @@ public class MultiDimensionalScalingCoreImpl implements MultiDimensionalScalingC
     private int updatedLocation = -1;
 
     private double[][] observations;
-    private double[][] locations;
-    private double[][] storedLocations;
+    private double[] locations;
+    private double[] storedLocations;
+    private double[] distances;
 
     private boolean incrementsKnown = false;
 
@@ -0,0 +1,165 @@
+/*
+ * MultiDimensionalScalingKernel.java
+ *
+ * Copyright (c) 2002-2017 Alexei Drummond, Andrew Rambaut and Marc Suchard
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ */
+
+package dr.inference.multidimensionalscaling;
+
+import dr.math.distributions.NormalDistribution;
+
+/**
+ * The inner loops of the pure Java MDS cores. The pairs for a run of locations are done in stages,
+ * each a simple loop over primitive arrays: the distances to the other locations, then the squared
+ * residuals and then (if the likelihood is truncated) the log normal cdf terms.
+ */
+public final class MultiDimensionalScalingKernel {
+
+    private MultiDimensionalScalingKernel() {
+    }
+
+    /**
+     * Computes the distances from one location to a run of others.
+     *
+     * @param x         the coordinates of the location
+     * @param offsetX   the offset of the location in x
+     * @param y         the coordinates of the other locations, one after the other
+     * @param offsetY   the offset of the first of the other locations in y
+     * @param dimension the embedding dimension
+     * @param count     the number of other locations
+     * @param distances the array into which the distances are put (from 0)
+     */
+    public static void computeDistances(double[] x, int offsetX, double[] y, int offsetY, int dimension,
+                                        int count, double[] distances) {
+        if (dimension == 2) {
+            final double x0 = x[offsetX];
+            final double x1 = x[offsetX + 1];
+            for (int j = 0, k = offsetY; j < count; j++, k += 2) {
+                final double d0 = x0 - y[k];
+                final double d1 = x1 - y[k + 1];
+                distances[j] = Math.sqrt(d0 * d0 + d1 * d1);
+            }
+        } else {
+            for (int j = 0, k = offsetY; j < count; j++, k += dimension) {
+                double sum = 0.0;
+                for (int d = 0; d < dimension; d++) {
+                    final double difference = x[offsetX + d] - y[k + d];
+                    sum += difference * difference;
+                }
+                distances[j] = Math.sqrt(sum);
+            }
+        }
+    }
+
+    /**
+     * Computes the distances from one location to a run of others where each location is in one of
+     * several buffers (as for a double buffered store/restore).
+     *
+     * @param x            the coordinates of the location
+     * @param offsetX      the offset of the location in x
+     * @param buffers      the location buffers, each holding the coordinates of all the locations
+     * @param bufferIndex  the buffer that holds each location
+     * @param from         the first of the other locations
+     * @param dimension    the embedding dimension
+     * @param count        the number of other locations
+     * @param distances    the array into which the distances are put (from 0)
+     */
+    public static void computeDistances(double[] x, int offsetX, double[][] buffers, int[] bufferIndex, int from,
+                                        int dimension, int count, double[] distances) {
+        if (dimension == 2) {
+            final double x0 = x[offsetX];
+            final double x1 = x[offsetX + 1];
+            for (int j = 0, k = from * 2; j < count; j++, k += 2) {
+                final double[] y = buffers[bufferIndex[from + j]];
+                final double d0 = x0 - y[k];
+                final double d1 = x1 - y[k + 1];
+                distances[j] = Math.sqrt(d0 * d0 + d1 * d1);
+            }
+        } else {
+            for (int j = 0, k = from * dimension; j < count; j++, k += dimension) {
+                final double[] y = buffers[bufferIndex[from + j]];
+                double sum = 0.0;
+                for (int d = 0; d < dimension; d++) {
+                    final double difference = x[offsetX + d] - y[k + d];
+                    sum += difference * difference;
+                }
+                distances[j] = Math.sqrt(sum);
+            }
+        }
+    }
+
+    /**
+     * Computes the increments of the likelihood for a run of pairs (none of which can be a location
+     * paired with itself). If the likelihood is not truncated the increment is the squared residual,
+     * otherwise it is half the precision times the squared residual plus the log of the normal cdf
+     * of the distance.
+     *
+     * @param distances         the distances (from 0)
+     * @param observations      the observed distances
+     * @param observationOffset the offset of the first pair in observations
+     * @param count             the number of pairs
+     * @param precision         the precision of the observations
+     * @param isLeftTruncated   whether the likelihood is truncated
+     * @param increments        the array into which the increments are put
+     * @param incrementOffset   the offset of the first pair in increments
+     * @return the sum of the increments
+     */
+    public static double computeIncrements(double[] distances, double[] observations, int observationOffset,
+                                           int count, double precision, boolean isLeftTruncated,
+                                           double[] increments, int incrementOffset) {
+        if (!isLeftTruncated) {
+            double sum = 0.0;
+            for (int j = 0; j < count; j++) {
+                final double residual = distances[j] - observations[observationOffset + j];
+                final double increment = residual * residual;
+                increments[incrementOffset + j] = increment;
+                sum += increment;
+            }
+            return sum;
+        }
+
+        final double scale = 0.5 * precision;
+        for (int j = 0; j < count; j++) {
+            final double residual = distances[j] - observations[observationOffset + j];
+            increments[incrementOffset + j] = scale * (residual * residual);
+        }
+
+        final double oneOverSd = Math.sqrt(precision);
+        double sum = 0.0;
+        for (int j = 0; j < count; j++) {
+            final double increment = increments[incrementOffset + j] +
+                    NormalDistribution.logStandardCDF(distances[j] * oneOverSd);
+            increments[incrementOffset + j] = increment;
+            sum += increment;
+        }
+        return sum;
+    }
+
+    /**
+     * Computes the increment of the likelihood for a location paired with itself (this has no
+     * truncation term).
+     */
+    public static double computeDiagonalIncrement(double observation, double precision, boolean isLeftTruncated) {
+        final double increment = observation * observation;
+        return (isLeftTruncated ? 0.5 * precision * increment : increment);
+    }
+}
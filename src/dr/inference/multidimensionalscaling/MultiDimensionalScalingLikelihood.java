@@ -212,6 +212,10 @@ public class MultiDimensionalScalingLikelihood extends AbstractModelLikelihood i
             System.err.println("Attempting to use a native MDS core with flag: " + computeMode + "; may the force be with you ....");
             core = new MassivelyParallelMDSImpl();
             flags = computeMode;
+        } else if (System.getProperty(MultiThreadedMDSImpl.THREAD_COUNT_PROPERTY) != null) {
+            System.err.println("Using a multi-threaded Java MDS core with " +
+                    System.getProperty(MultiThreadedMDSImpl.THREAD_COUNT_PROPERTY) + " threads");
+            core = new MultiThreadedMDSImpl();
         } else {
             System.err.println("Computer mode found: " + computeMode + " vs. " + r);
             core = new MultiDimensionalScalingCoreImpl();
@@ -0,0 +1,502 @@
+/*
+ * MultiThreadedMDSImpl.java
+ *
+ * Copyright (c) 2002-2017 Alexei Drummond, Andrew Rambaut and Marc Suchard
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ */
+
+package dr.inference.multidimensionalscaling;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+
+/**
+ * MultiThreadedMDSImpl - a pure Java core (selected with the MULTI_CORE flag) that computes the
+ * pairwise increments in blocks of rows on a pool of threads.
+ *
+ * The increments are kept in a symmetric matrix. When a single location moves only its row is
+ * recomputed (in blocks of columns) into a buffer and this is written into the matrix when the
+ * state is accepted. The locations are double buffered and stored/restored by flipping the buffer
+ * index of each location that has changed. If several locations change before the state is
+ * accepted, the rows that are written over are kept so they can be put back on a restore.
+ *
+ * The blocks are fixed by the number of locations so the result does not depend on the number of
+ * threads. MultiDimensionalScalingLikelihood uses this core (rather than the single-threaded Java
+ * one) when the system property mds.thread.count gives the number of threads and no native core
+ * is asked for.
+ */
+public class MultiThreadedMDSImpl implements MultiDimensionalScalingCore {
+
+    public static final String THREAD_COUNT_PROPERTY = "mds.thread.count";
+
+    private static final int ROW_BLOCK_COUNT = 64;
+    private static final int COLUMN_BLOCK_SIZE = 2048;
+
+    @Override
+    public void initialize(int embeddingDimension, int locationCount, long flags) {
+        this.embeddingDimension = embeddingDimension;
+        this.locationCount = locationCount;
+        this.observationCount = (locationCount * (locationCount - 1)) / 2;
+
+        observations = new double[locationCount * locationCount];
+        increments = new double[locationCount * locationCount];
+        rowIncrements = new double[locationCount];
+        incrementsKnown = false;
+        sumOfIncrementsKnown = false;
+
+        isLeftTruncated = (flags & MultiDimensionalScalingCore.LEFT_TRUNCATION) != 0;
+
+        locations = new double[2][locationCount * embeddingDimension];
+        locationIndices = new int[locationCount];
+        locationChanged = new boolean[locationCount];
+        changedLocations = new int[locationCount];
+        changedLocationCount = 0;
+
+        updatedLocation = -1;
+        savedRows = new ArrayList<SavedRow>();
+
+        setupTasks();
+    }
+
+    private void setupTasks() {
+        // blocks of rows with about the same number of pairs (j > i) in each
+        rowBlockTasks = new ArrayList<Callable<Double>>();
+        final int blockCount = Math.min(ROW_BLOCK_COUNT, Math.max(locationCount, 1));
+        final double pairsPerBlock = (double) locationCount * (locationCount - 1) / 2 / blockCount;
+        int start = 0;
+        double pairs = 0.0;
+        for (int i = 0; i < locationCount; i++) {
+            pairs += locationCount - 1 - i;
+            if (pairs >= pairsPerBlock * (rowBlockTasks.size() + 1) || i == locationCount - 1) {
+                final int from = start;
+                final int to = i + 1;
+                rowBlockTasks.add(new Callable<Double>() {
+                    public Double call() {
+                        return computeRows(from, to);
+                    }
+                });
+                start = to;
+            }
+        }
+
+        columnBlockTasks = new ArrayList<Callable<Double>>();
+        for (int j = 0; j < locationCount; j += COLUMN_BLOCK_SIZE) {
+            final int from = j;
+            final int to = Math.min(j + COLUMN_BLOCK_SIZE, locationCount);
+            columnBlockTasks.add(new Callable<Double>() {
+                public Double call() {
+                    return computeRowIncrements(updatedLocation, from, to);
+                }
+            });
+        }
+
+        if (pool != null) {
+            pool.shutdown();
+        }
+        int threadCount = Integer.getInteger(THREAD_COUNT_PROPERTY, Runtime.getRuntime().availableProcessors());
+        if (threadCount > 1 && rowBlockTasks.size() > 1) {
+            pool = Executors.newFixedThreadPool(threadCount, new ThreadFactory() {
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "mds-core");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        } else {
+            pool = null;
+        }
+    }
+
+    @Override
+    public void setPairwiseData(double[] observations) {
+        if (observations.length != (locationCount * locationCount)) {
+            throw new RuntimeException("Observation data is not the correct dimension");
+        }
+        System.arraycopy(observations, 0, this.observations, 0, observations.length);
+        incrementsKnown = false;
+        sumOfIncrementsKnown = false;
+    }
+
+    @Override
+    public double[] getPairwiseData() {
+        return observations.clone();
+    }
+
+    @Override
+    public void setParameters(double[] parameters) {
+        precision = parameters[0];
+
+        // Handle truncations
+        if (isLeftTruncated) {
+            incrementsKnown = false;
+            sumOfIncrementsKnown = false;
+        }
+    }
+
+    @Override
+    public void updateLocation(int locationIndex, double[] location) {
+        if (locationIndex != -1) {
+            if (location.length != embeddingDimension) {
+                throw new RuntimeException("Location is not the correct dimension");
+            }
+
+            if (updatedLocation != -1 && updatedLocation != locationIndex && incrementsKnown) {
+                // another location has moved so its row goes into the matrix (keeping the old one)
+                commitRow(true);
+            }
+            updatedLocation = locationIndex;
+            rowIncrementsKnown = false;
+
+            flipLocation(locationIndex);
+            System.arraycopy(location, 0, locations[locationIndices[locationIndex]],
+                    locationIndex * embeddingDimension, embeddingDimension);
+
+        } else {
+            if (location.length != embeddingDimension * locationCount) {
+                throw new RuntimeException("Location is the not correct dimension");
+            }
+
+            for (int i = 0; i < locationCount; ++i) {
+                flipLocation(i);
+                System.arraycopy(location, i * embeddingDimension, locations[locationIndices[i]],
+                        i * embeddingDimension, embeddingDimension);
+            }
+
+            // more than one location updated - do a full re-computation
+            incrementsKnown = false;
+        }
+
+        sumOfIncrementsKnown = false;
+    }
+
+    /**
+     * Swaps the buffer that holds a location (the first time it is changed after a store)
+     */
+    private void flipLocation(int locationIndex) {
+        if (!locationChanged[locationIndex]) {
+            locationIndices[locationIndex] = 1 - locationIndices[locationIndex];
+            locationChanged[locationIndex] = true;
+            changedLocations[changedLocationCount] = locationIndex;
+            changedLocationCount++;
+        }
+    }
+
+    @Override
+    public double calculateLogLikelihood() {
+        if (!sumOfIncrementsKnown) {
+
+            if (!incrementsKnown) {
+                computeSumOfSquaredResiduals();
+            } else if (updatedLocation != -1) {
+                updateSumOfSquaredResiduals();
+            } else {
+                sumOfIncrements = sumOfMatrixIncrements;
+            }
+            sumOfIncrementsKnown = true;
+        }
+
+        double logLikelihood = 0.5 * (Math.log(precision) - Math.log(2 * Math.PI)) * observationCount;
+
+        if (isLeftTruncated) {
+            logLikelihood -= sumOfIncrements; // If truncated, then values on difference scale
+        } else {
+            logLikelihood -= 0.5 * precision * sumOfIncrements;
+        }
+
+        return logLikelihood;
+    }
+
+    @Override
+    public void storeState() {
+        // anything pending is now part of the current state
+        commitRow(false);
+        savedRows.clear();
+        matrixReplaced = false;
+
+        // Handle residuals
+        storedSumOfIncrements = sumOfIncrements;
+        storedSumOfIncrementsKnown = sumOfIncrementsKnown;
+
+        // Handle locations
+        for (int k = 0; k < changedLocationCount; k++) {
+            locationChanged[changedLocations[k]] = false;
+        }
+        changedLocationCount = 0;
+
+        // Handle precision
+        storedPrecision = precision;
+    }
+
+    @Override
+    public void restoreState() {
+        // Handle residuals
+        updatedLocation = -1;
+        rowIncrementsKnown = false;
+        for (int k = savedRows.size() - 1; k >= 0; k--) {
+            SavedRow savedRow = savedRows.get(k);
+            writeRow(savedRow.locationIndex, savedRow.increments);
+            sumOfMatrixIncrements = savedRow.sumOfIncrements;
+        }
+        savedRows.clear();
+        if (matrixReplaced) {
+            incrementsKnown = false;
+            matrixReplaced = false;
+        }
+
+        sumOfIncrements = storedSumOfIncrements;
+        sumOfIncrementsKnown = storedSumOfIncrementsKnown;
+
+        // Handle locations
+        for (int k = 0; k < changedLocationCount; k++) {
+            final int i = changedLocations[k];
+            locationIndices[i] = 1 - locationIndices[i];
+            locationChanged[i] = false;
+        }
+        changedLocationCount = 0;
+
+        // Handle precision
+        precision = storedPrecision;
+    }
+
+    @Override
+    public void acceptState() {
+        commitRow(false);
+        savedRows.clear();
+        matrixReplaced = false;
+    }
+
+    @Override
+    public void getGradient(double[] location) {
+        throw new RuntimeException("Not yet implemented.");
+    }
+
+    @Override
+    public void makeDirty() {
+        sumOfIncrementsKnown = false;
+        incrementsKnown = false;
+    }
+
+    /**
+     * Writes the increments of the location that has moved into the matrix.
+     *
+     * @param keepOld whether to keep the row it replaces so it can be restored
+     */
+    private void commitRow(boolean keepOld) {
+        if (updatedLocation == -1) {
+            return;
+        }
+        if (incrementsKnown) {
+            if (!rowIncrementsKnown) {
+                computeRowIncrements();
+            }
+            if (keepOld) {
+                double[] row = new double[locationCount];
+                System.arraycopy(increments, updatedLocation * locationCount, row, 0, locationCount);
+                savedRows.add(new SavedRow(updatedLocation, row, sumOfMatrixIncrements));
+            }
+            writeRow(updatedLocation, rowIncrements);
+            sumOfMatrixIncrements += rowDelta;
+        }
+        updatedLocation = -1;
+        rowIncrementsKnown = false;
+    }
+
+    private void writeRow(int i, double[] row) {
+        System.arraycopy(row, 0, increments, i * locationCount, locationCount);
+        for (int j = 0; j < locationCount; j++) {
+            increments[j * locationCount + i] = row[j];
+        }
+    }
+
+    private void computeSumOfSquaredResiduals() {
+        double sum = 0.0;
+        for (double blockSum : runTasks(rowBlockTasks)) {
+            sum += blockSum;
+        }
+        sumOfIncrements = sum;
+        sumOfMatrixIncrements = sum;
+
+        // the matrix now holds the current state
+        incrementsKnown = true;
+        updatedLocation = -1;
+        rowIncrementsKnown = false;
+        savedRows.clear();
+        matrixReplaced = true;
+    }
+
+    private void updateSumOfSquaredResiduals() {
+        if (!rowIncrementsKnown) {
+            computeRowIncrements();
+        }
+        sumOfIncrements = sumOfMatrixIncrements + rowDelta;
+    }
+
+    private void computeRowIncrements() {
+        double delta = 0.0;
+        for (double blockDelta : runTasks(columnBlockTasks)) {
+            delta += blockDelta;
+        }
+        rowDelta = delta;
+        rowIncrementsKnown = true;
+    }
+
+    /**
+     * Computes the increments for the pairs (i, j > i) in a block of rows and writes them to both
+     * halves of the matrix.
+     *
+     * @return the sum of the increments
+     */
+    private double computeRows(int from, int to) {
+        final double[] distances = new double[locationCount];
+
+        double sum = 0.0;
+        for (int i = from; i < to; i++) {
+            final int offsetRow = i * locationCount;
+
+            // the diagonal only contributes half as in the sum over all ordered pairs
+            final double diagonal = MultiDimensionalScalingKernel.computeDiagonalIncrement(
+                    observations[offsetRow + i], precision, isLeftTruncated);
+            increments[offsetRow + i] = diagonal;
+            sum += diagonal / 2;
+
+            final int count = locationCount - i - 1;
+            MultiDimensionalScalingKernel.computeDistances(locations[locationIndices[i]], i * embeddingDimension,
+                    locations, locationIndices, i + 1, embeddingDimension, count, distances);
+            sum += MultiDimensionalScalingKernel.computeIncrements(distances, observations, offsetRow + i + 1,
+                    count, precision, isLeftTruncated, increments, offsetRow + i + 1);
+
+            for (int j = i + 1; j < locationCount; j++) {
+                increments[j * locationCount + i] = increments[offsetRow + j];
+            }
+        }
+        return sum;
+    }
+
+    /**
+     * Computes the new increments for a block of the row of the location that has moved.
+     *
+     * @return the change in the sum of the increments
+     */
+    private double computeRowIncrements(int i, int from, int to) {
+        final int offsetRow = i * locationCount;
+        final int count = to - from;
+
+        final double[] distances = new double[count];
+        MultiDimensionalScalingKernel.computeDistances(locations[locationIndices[i]], i * embeddingDimension,
+                locations, locationIndices, from, embeddingDimension, count, distances);
+        MultiDimensionalScalingKernel.computeIncrements(distances, observations, offsetRow + from,
+                count, precision, isLeftTruncated, rowIncrements, from);
+        if (i >= from && i < to) {
+            // the diagonal does not depend on the location
+            rowIncrements[i] = increments[offsetRow + i];
+        }
+
+        double delta = 0.0;
+        for (int j = from; j < to; j++) {
+            delta += rowIncrements[j] - increments[offsetRow + j];
+        }
+        return delta;
+    }
+
+    private List<Double> runTasks(List<Callable<Double>> tasks) {
+        List<Double> results = new ArrayList<Double>(tasks.size());
+        if (pool == null || tasks.size() == 1) {
+            for (Callable<Double> task : tasks) {
+                try {
+                    results.add(task.call());
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }
+            return results;
+        }
+
+        try {
+            for (Future<Double> future : pool.invokeAll(tasks)) {
+                results.add(future.get());
+            }
+        } catch (InterruptedException ie) {
+            throw new RuntimeException("Interrupted while computing the MDS likelihood");
+        } catch (ExecutionException ee) {
+            if (ee.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) ee.getCause();
+            }
+            throw new RuntimeException(ee.getCause());
+        }
+        return results;
+    }
+
+    @Override
+    public void finalize() throws Throwable {
+        if (pool != null) {
+            pool.shutdown();
+        }
+        super.finalize();
+    }
+
+    private static class SavedRow {
+        SavedRow(int locationIndex, double[] increments, double sumOfIncrements) {
+            this.locationIndex = locationIndex;
+            this.increments = increments;
+            this.sumOfIncrements = sumOfIncrements;
+        }
+
+        final int locationIndex;
+        final double[] increments;
+        final double sumOfIncrements;
+    }
+
+    private int embeddingDimension;
+    private boolean isLeftTruncated = false;
+    private int locationCount;
+    private int observationCount;
+    private double precision;
+    private double storedPrecision;
+
+    private double[] observations;
+
+    private double[][] locations;
+    private int[] locationIndices;
+    private boolean[] locationChanged;
+    private int[] changedLocations;
+    private int changedLocationCount;
+
+    private boolean incrementsKnown = false;
+    private boolean matrixReplaced = false;
+    private double[] increments;
+    private double sumOfMatrixIncrements;
+    private List<SavedRow> savedRows;
+
+    private int updatedLocation = -1;
+    private boolean rowIncrementsKnown = false;
+    private double[] rowIncrements;
+    private double rowDelta;
+
+    private boolean sumOfIncrementsKnown = false;
+    private double sumOfIncrements;
+    private double storedSumOfIncrements;
+    private boolean storedSumOfIncrementsKnown;
+
+    private List<Callable<Double>> rowBlockTasks;
+    private List<Callable<Double>> columnBlockTasks;
+    private ExecutorService pool;
+}
@@ -409,6 +409,8 @@ public class AdaptableVarianceMultivariateNormalOperator extends AbstractAdaptab
 
         //iterate over transformation sizes rather than number of parameters
         //as a transformation might impact multiple parameters
+        //the parameter's listeners get a single event for all the changes
+        parameter.beginBulkUpdate();
         currentIndex = 0;
         for (int i = 0; i < transformationSizes.length; i++) {
             if (DEBUG) {
@@ -419,11 +421,11 @@ public class AdaptableVarianceMultivariateNormalOperator extends AbstractAdaptab
                 if (transformationSizes[i] > 1) {
                     double[] temp = transformations[i].inverse(transformedX, currentIndex, currentIndex + transformationSizes[i] - 1, transformationSums[i]);
                     for (int k = 0; k < temp.length; k++) {
-                        parameter.setParameterValueQuietly(currentIndex + k, temp[k]);
+                        parameter.setParameterValue(currentIndex + k, temp[k]);
                     }
                     logJacobian += transformations[i].getLogJacobian(x, currentIndex, currentIndex + transformationSizes[i] - 1) - transformations[i].getLogJacobian(temp, 0, transformationSizes[i] - 1);
                 } else {
-                    parameter.setParameterValueQuietly(currentIndex, transformations[i].inverse(transformedX[currentIndex]));
+                    parameter.setParameterValue(currentIndex, transformations[i].inverse(transformedX[currentIndex]));
                     logJacobian += transformations[i].getLogJacobian(x[currentIndex]) - transformations[i].getLogJacobian(parameter.getParameterValue(currentIndex));
                 }
                 if (DEBUG) {
@@ -443,6 +445,7 @@ public class AdaptableVarianceMultivariateNormalOperator extends AbstractAdaptab
             }
             currentIndex += transformationSizes[i];
         }
+        parameter.endBulkUpdate();
 
         if (DEBUG) {
             System.err.println("Proposed parameter values:");
@@ -452,10 +455,6 @@ public class AdaptableVarianceMultivariateNormalOperator extends AbstractAdaptab
             System.err.println("LogJacobian: " + logJacobian);
         }
 
-        if (MULTI) {
-            parameter.fireParameterChangedEvent(); // Signal once.
-        }
-
         if (iterations % every == 0) {
             if (DEBUG) {
                 System.err.println("  Copying means");
@@ -25,6 +25,7 @@
 
 package dr.inference.operators;
 
+import dr.inference.operators.hmc.HamiltonianMonteCarloOperator;
 import dr.util.NumberFormatter;
 
 import java.io.PrintStream;
@@ -83,6 +84,7 @@ public class OperatorAnalysisPrinter {
                                 + formattedTimePerOpString(op)
                                 + formattedProbString(op)
                                 + (useAdaptation ? "" : formattedDiagnostics(op, MCMCOperator.Utils.getAcceptanceProbability(op)))
+                                + formattedGradientString(op)
                 );
             }
 
@@ -102,6 +104,13 @@ public class OperatorAnalysisPrinter {
         return pString;
     }
 
+    private static String formattedGradientString(MCMCOperator op) {
+        if (op instanceof HamiltonianMonteCarloOperator) {
+            return " " + ((HamiltonianMonteCarloOperator) op).getGradientEvaluationReport();
+        }
+        return "";
+    }
+
     private static String formattedCountString(MCMCOperator op) {
         final long count = op.getCount();
         return formatter.formatToFieldWidth(Long.toString(count), 10) + " ";
@@ -70,10 +70,13 @@ public interface Scalable {
             final int dimension = parameter.getDimension();
 
 
+            // a single change event is sent for the whole parameter
+            parameter.beginBulkUpdate();
             for (int i = 0; i < dimension; ++i) {
                 // scale offset by the lower bound
                 parameter.setParameterValue(i, (parameter.getParameterValue(i)) * factor);
             }
+            parameter.endBulkUpdate();
 
             if (testBounds) {
                 final Bounds<Double> bounds = parameter.getBounds();
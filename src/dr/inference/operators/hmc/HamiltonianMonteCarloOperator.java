@@ -29,7 +29,6 @@ import dr.inference.hmc.GradientWrtParameterProvider;
 import dr.inference.model.Parameter;
 import dr.inference.operators.AbstractAdaptableOperator;
 import dr.inference.operators.AdaptationMode;
-import dr.math.distributions.NormalDistribution;
 import dr.util.Transform;
 
 /**
@@ -42,12 +41,26 @@ public class HamiltonianMonteCarloOperator extends AbstractAdaptableOperator {
     final GradientWrtParameterProvider gradientProvider;
     protected double stepSize;
     protected final int nSteps;
-    final NormalDistribution drawDistribution;
+    final MassPreconditioner preconditioner;
     final LeapFrogEngine leapFrogEngine;
 
+    // workspaces reused by every leapfrog step
+    final double[] momentum;
+    final double[] velocity;
+
+    private long gradientEvaluationCount = 0;
+    private long operationTime = 0;
+
     public HamiltonianMonteCarloOperator(AdaptationMode mode, double weight, GradientWrtParameterProvider gradientProvider,
                                          Parameter parameter, Transform transform,
                                          double stepSize, int nSteps, double drawVariance) {
+        this(mode, weight, gradientProvider, parameter, transform, stepSize, nSteps,
+                new MassPreconditioner.Identity(gradientProvider.getDimension(), drawVariance));
+    }
+
+    public HamiltonianMonteCarloOperator(AdaptationMode mode, double weight, GradientWrtParameterProvider gradientProvider,
+                                         Parameter parameter, Transform transform,
+                                         double stepSize, int nSteps, MassPreconditioner preconditioner) {
         super(mode);
         setWeight(weight);
         setTargetAcceptanceProbability(0.8); // Stan default
@@ -55,11 +68,14 @@ public class HamiltonianMonteCarloOperator extends AbstractAdaptableOperator {
         this.gradientProvider = gradientProvider;
         this.stepSize = stepSize;
         this.nSteps = nSteps;
-        this.drawDistribution = new NormalDistribution(0, Math.sqrt(drawVariance));
+        this.preconditioner = preconditioner;
         this.leapFrogEngine = (transform != null ?
                 new LeapFrogEngine.WithTransform(parameter, transform) :
                 new LeapFrogEngine.Default(parameter));
 
+        final int dim = gradientProvider.getDimension();
+        this.momentum = new double[dim];
+        this.velocity = new double[dim];
     }
 
     @Override
@@ -67,26 +83,42 @@ public class HamiltonianMonteCarloOperator extends AbstractAdaptableOperator {
         return "Vanilla HMC operator";
     }
 
-    static double getScaledDotProduct(final double[] momentum,
-                                      final double sigmaSquared) {
-        double total = 0.0;
-        for (double m : momentum) {
-            total += m * m;
-        }
+    @Override
+    public double doOperation() {
+        final long startTime = System.nanoTime();
+        final double hastingsRatio = leapFrog();
+        operationTime += System.nanoTime() - startTime;
+        return hastingsRatio;
+    }
 
-        return total / (2 * sigmaSquared);
+    /**
+     * @return the gradient of the log density, counting the evaluation
+     */
+    final double[] getGradientLogDensity() {
+        ++gradientEvaluationCount;
+        return gradientProvider.getGradientLogDensity();
     }
 
-    static double[] drawInitialMomentum(final NormalDistribution distribution, final int dim) {
-        double[] momentum = new double[dim];
-        for (int i = 0; i < dim; i++) {
-            momentum[i] = (Double) distribution.nextRandom();
-        }
-        return momentum;
+    final void addOperationTime(long nanoSeconds) {
+        operationTime += nanoSeconds;
     }
 
-    @Override
-    public double doOperation() { return leapFrog(); }
+    public long getGradientEvaluationCount() {
+        return gradientEvaluationCount;
+    }
+
+    /**
+     * @return the number of gradient evaluations per second of time spent in the operator
+     */
+    public double getGradientEvaluationsPerSecond() {
+        return operationTime > 0 ? gradientEvaluationCount / (operationTime * 1E-9) : 0.0;
+    }
+
+    public String getGradientEvaluationReport() {
+        dr.util.NumberFormatter formatter = new dr.util.NumberFormatter(5);
+        return gradientEvaluationCount + " gradient evaluations (" +
+                formatter.format(getGradientEvaluationsPerSecond()) + "/s)";
+    }
 
     private long count = 0;
 
@@ -101,18 +133,16 @@ public class HamiltonianMonteCarloOperator extends AbstractAdaptableOperator {
             ++count;
         }
 
-        final int dim = gradientProvider.getDimension();
-
-        final double sigmaSquared = drawDistribution.getSD() * drawDistribution.getSD();
-
-        final double[] momentum = drawInitialMomentum(drawDistribution, dim);
+        // the mass matrix may change with a sample so it is added before the momentum is drawn
         final double[] position = leapFrogEngine.getInitialPosition();
+        preconditioner.addSample(position);
+        preconditioner.drawMomentum(momentum);
 
-        final double prop = getScaledDotProduct(momentum, sigmaSquared) +
+        final double prop = preconditioner.getKineticEnergy(momentum, velocity) +
                 leapFrogEngine.getParameterLogJacobian();
 
         leapFrogEngine.updateMomentum(position, momentum,
-                gradientProvider.getGradientLogDensity(), stepSize / 2);
+                getGradientLogDensity(), stepSize / 2);
 
 
         if (DEBUG) {
@@ -121,18 +151,18 @@ public class HamiltonianMonteCarloOperator extends AbstractAdaptableOperator {
 
         for (int i = 0; i < nSteps; i++) { // Leap-frog
 
-            leapFrogEngine.updatePosition(position, momentum, stepSize, sigmaSquared);
+            leapFrogEngine.updatePosition(position, momentum, velocity, stepSize, preconditioner);
 
             if (i < (nSteps - 1)) {
                 leapFrogEngine.updateMomentum(position, momentum,
-                        gradientProvider.getGradientLogDensity(), stepSize);
+                        getGradientLogDensity(), stepSize);
             }
         }
 
         leapFrogEngine.updateMomentum(position, momentum,
-                gradientProvider.getGradientLogDensity(), stepSize / 2);
+                getGradientLogDensity(), stepSize / 2);
 
-        final double res = getScaledDotProduct(momentum, sigmaSquared) +
+        final double res = preconditioner.getKineticEnergy(momentum, velocity) +
                 leapFrogEngine.getParameterLogJacobian();
 
         return prop - res; //hasting ratio
@@ -174,8 +204,9 @@ public class HamiltonianMonteCarloOperator extends AbstractAdaptableOperator {
 
         void updatePosition(final double[] position,
                             final double[] momentum,
+                            final double[] velocity,
                             final double functionalStepSize,
-                            final double sigmaSquared);
+                            final MassPreconditioner preconditioner);
 
         void setParameter(double[] position);
 
@@ -208,12 +239,14 @@ public class HamiltonianMonteCarloOperator extends AbstractAdaptableOperator {
             }
 
             @Override
-            public void updatePosition(double[] position, double[] momentum,
-                                       double functionalStepSize, double sigmaSquared) {
+            public void updatePosition(double[] position, double[] momentum, double[] velocity,
+                                       double functionalStepSize, MassPreconditioner preconditioner) {
+
+                preconditioner.updateVelocity(momentum, velocity);
 
                 final int dim = momentum.length;
                 for (int j = 0; j < dim; j++) {
-                    position[j] += functionalStepSize * momentum[j] / sigmaSquared;
+                    position[j] += functionalStepSize * velocity[j];
                 }
 
                 setParameter(position);
@@ -223,11 +256,11 @@ public class HamiltonianMonteCarloOperator extends AbstractAdaptableOperator {
             public void setParameter(double[] position) {
 
                 final int dim = position.length;
+                parameter.beginBulkUpdate();
                 for (int j = 0; j < dim; ++j) {
-                    parameter.setParameterValueQuietly(j, position[j]);
+                    parameter.setParameterValue(j, position[j]);
                 }
-                parameter.fireParameterChangedEvent();  // Does not seem to work with MaskedParameter
-//                parameter.setParameterValueNotifyChangedAll(0, position[0]);
+                parameter.endBulkUpdate();
             }
         }
 
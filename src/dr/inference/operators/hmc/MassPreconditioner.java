@@ -0,0 +1,341 @@
+/*
+ * MassPreconditioner.java
+ *
+ * Copyright (c) 2002-2017 Alexei Drummond, Andrew Rambaut and Marc Suchard
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ */
+
+package dr.inference.operators.hmc;
+
+import dr.math.MathUtils;
+import dr.math.matrixAlgebra.CholeskyDecomposition;
+
+/**
+ * The mass matrix M of the Hamiltonian dynamics used by the HMC operators. Momenta are drawn
+ * from N(0, M), the kinetic energy is p' M^-1 p / 2 and the velocity is M^-1 p.
+ *
+ * The adaptive versions estimate the variance of the position (in the space the leapfrog
+ * works in) with Welford's online algorithm and every updateFrequency samples, until
+ * adaptLength samples have been seen, set M^-1 to a regularized version of the estimate.
+ * The dense version keeps a dim x dim covariance so is only practical for moderate dimensions.
+ */
+public abstract class MassPreconditioner {
+
+    public enum Type {
+        NONE("none"),
+        DIAGONAL("diagonal"),
+        DENSE("dense");
+
+        Type(String name) {
+            this.name = name;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public MassPreconditioner factory(int dim, double drawVariance, int updateFrequency, int adaptLength) {
+            switch (this) {
+                case NONE:
+                    return new Identity(dim, drawVariance);
+                case DIAGONAL:
+                    return new Diagonal(dim, drawVariance, updateFrequency, adaptLength);
+                case DENSE:
+                    return new Dense(dim, drawVariance, updateFrequency, adaptLength);
+                default:
+                    throw new IllegalArgumentException("Unknown preconditioning type");
+            }
+        }
+
+        public static Type parse(String name) {
+            for (Type type : Type.values()) {
+                if (type.name.equalsIgnoreCase(name)) {
+                    return type;
+                }
+            }
+            throw new IllegalArgumentException("Unknown preconditioning type: " + name);
+        }
+
+        private final String name;
+    }
+
+    protected final int dim;
+
+    protected MassPreconditioner(int dim) {
+        this.dim = dim;
+    }
+
+    public int getDimension() {
+        return dim;
+    }
+
+    /**
+     * @param momentum filled with a draw from N(0, M)
+     */
+    public abstract void drawMomentum(double[] momentum);
+
+    /**
+     * @param momentum the momentum p
+     * @param velocity filled with M^-1 p
+     */
+    public abstract void updateVelocity(double[] momentum, double[] velocity);
+
+    /**
+     * @param momentum the momentum p
+     * @param velocity workspace of the same length which is overwritten with M^-1 p
+     * @return p' M^-1 p / 2
+     */
+    public double getKineticEnergy(double[] momentum, double[] velocity) {
+        updateVelocity(momentum, velocity);
+        double total = 0.0;
+        for (int i = 0; i < dim; i++) {
+            total += momentum[i] * velocity[i];
+        }
+        return total / 2;
+    }
+
+    /**
+     * Record a sample of the position; an adaptive mass matrix may be updated as a result.
+     *
+     * @param position the current position
+     */
+    public void addSample(double[] position) {
+        // do nothing by default
+    }
+
+    /**
+     * A mass matrix of sigma^2 I (the original behaviour of the HMC operators).
+     */
+    public static class Identity extends MassPreconditioner {
+
+        private final double sd;
+        private final double sigmaSquared;
+
+        public Identity(int dim, double drawVariance) {
+            super(dim);
+            this.sd = Math.sqrt(drawVariance);
+            this.sigmaSquared = sd * sd;
+        }
+
+        @Override
+        public void drawMomentum(double[] momentum) {
+            for (int i = 0; i < dim; i++) {
+                momentum[i] = MathUtils.nextGaussian() * sd;
+            }
+        }
+
+        @Override
+        public void updateVelocity(double[] momentum, double[] velocity) {
+            for (int i = 0; i < dim; i++) {
+                velocity[i] = momentum[i] / sigmaSquared;
+            }
+        }
+
+        @Override
+        public double getKineticEnergy(double[] momentum, double[] velocity) {
+            double total = 0.0;
+            for (int i = 0; i < dim; i++) {
+                total += momentum[i] * momentum[i];
+            }
+            return total / (2 * sigmaSquared);
+        }
+    }
+
+    /**
+     * Accumulates the mean and co-moments of the samples and decides when to update the mass.
+     */
+    abstract static class Adaptive extends MassPreconditioner {
+
+        private final int updateFrequency;
+        private final int adaptLength;
+
+        protected final double[] mean;
+        protected long sampleCount = 0;
+
+        Adaptive(int dim, int updateFrequency, int adaptLength) {
+            super(dim);
+            this.updateFrequency = updateFrequency;
+            this.adaptLength = adaptLength;
+            this.mean = new double[dim];
+        }
+
+        @Override
+        public void addSample(double[] position) {
+            if (updateFrequency <= 0 || sampleCount >= adaptLength) {
+                return;
+            }
+
+            sampleCount++;
+            accumulate(position);
+
+            if (sampleCount % updateFrequency == 0 && sampleCount > 2) {
+                updateMass();
+            }
+        }
+
+        /**
+         * Stan's regularization that shrinks the estimate towards a small multiple of the identity
+         */
+        protected double regularize(double variance, boolean diagonal) {
+            final double n = sampleCount;
+            return (n / (n + 5.0)) * variance + (diagonal ? 1E-3 * (5.0 / (n + 5.0)) : 0.0);
+        }
+
+        protected abstract void accumulate(double[] position);
+
+        protected abstract void updateMass();
+    }
+
+    public static class Diagonal extends Adaptive {
+
+        private final double[] m2;
+
+        private final double[] inverseMass;
+        private final double[] sd;
+
+        public Diagonal(int dim, double drawVariance, int updateFrequency, int adaptLength) {
+            super(dim, updateFrequency, adaptLength);
+            this.m2 = new double[dim];
+            this.inverseMass = new double[dim];
+            this.sd = new double[dim];
+
+            for (int i = 0; i < dim; i++) {
+                inverseMass[i] = 1.0 / drawVariance;
+                sd[i] = Math.sqrt(drawVariance);
+            }
+        }
+
+        @Override
+        protected void accumulate(double[] position) {
+            for (int i = 0; i < dim; i++) {
+                final double delta = position[i] - mean[i];
+                mean[i] += delta / sampleCount;
+                m2[i] += delta * (position[i] - mean[i]);
+            }
+        }
+
+        @Override
+        protected void updateMass() {
+            for (int i = 0; i < dim; i++) {
+                final double variance = regularize(m2[i] / (sampleCount - 1), true);
+                inverseMass[i] = variance;
+                sd[i] = Math.sqrt(1.0 / variance);
+            }
+        }
+
+        @Override
+        public void drawMomentum(double[] momentum) {
+            for (int i = 0; i < dim; i++) {
+                momentum[i] = MathUtils.nextGaussian() * sd[i];
+            }
+        }
+
+        @Override
+        public void updateVelocity(double[] momentum, double[] velocity) {
+            for (int i = 0; i < dim; i++) {
+                velocity[i] = momentum[i] * inverseMass[i];
+            }
+        }
+    }
+
+    public static class Dense extends Adaptive {
+
+        private final double[] m2; // dim x dim co-moments, row major
+        private final double[] delta;
+
+        private final double[] inverseMass; // dim x dim covariance, row major
+        private double[][] choleskyInverseMass = null; // lower triangular L with L L' = M^-1
+        private final double drawVariance;
+
+        public Dense(int dim, double drawVariance, int updateFrequency, int adaptLength) {
+            super(dim, updateFrequency, adaptLength);
+            this.m2 = new double[dim * dim];
+            this.delta = new double[dim];
+            this.inverseMass = new double[dim * dim];
+            this.drawVariance = drawVariance;
+
+            for (int i = 0; i < dim; i++) {
+                inverseMass[i * dim + i] = 1.0 / drawVariance;
+            }
+        }
+
+        @Override
+        protected void accumulate(double[] position) {
+            for (int i = 0; i < dim; i++) {
+                delta[i] = position[i] - mean[i];
+                mean[i] += delta[i] / sampleCount;
+            }
+            for (int i = 0; i < dim; i++) {
+                final double d = position[i] - mean[i];
+                final int offset = i * dim;
+                for (int j = 0; j < dim; j++) {
+                    m2[offset + j] += d * delta[j];
+                }
+            }
+        }
+
+        @Override
+        protected void updateMass() {
+            for (int i = 0; i < dim; i++) {
+                for (int j = 0; j < dim; j++) {
+                    final int k = i * dim + j;
+                    inverseMass[k] = regularize(m2[k] / (sampleCount - 1), i == j);
+                }
+            }
+            choleskyInverseMass = CholeskyDecomposition.execute(inverseMass, 0, dim);
+        }
+
+        @Override
+        public void drawMomentum(double[] momentum) {
+            if (choleskyInverseMass == null) {
+                final double sd = Math.sqrt(drawVariance);
+                for (int i = 0; i < dim; i++) {
+                    momentum[i] = MathUtils.nextGaussian() * sd;
+                }
+                return;
+            }
+
+            // p = L'^-1 z has covariance (L L')^-1 = M, solved by back substitution
+            for (int i = 0; i < dim; i++) {
+                momentum[i] = MathUtils.nextGaussian();
+            }
+            for (int i = dim - 1; i >= 0; i--) {
+                double sum = momentum[i];
+                for (int j = i + 1; j < dim; j++) {
+                    sum -= choleskyInverseMass[j][i] * momentum[j];
+                }
+                momentum[i] = sum / choleskyInverseMass[i][i];
+            }
+        }
+
+        @Override
+        public void updateVelocity(double[] momentum, double[] velocity) {
+            for (int i = 0; i < dim; i++) {
+                final int offset = i * dim;
+                double sum = 0.0;
+                for (int j = 0; j < dim; j++) {
+                    sum += inverseMass[offset + j] * momentum[j];
+                }
+                velocity[i] = sum;
+            }
+        }
+    }
+}
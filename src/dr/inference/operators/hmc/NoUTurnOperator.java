@@ -34,7 +34,9 @@ import dr.inference.operators.GibbsOperator;
 import dr.math.MathUtils;
 import dr.util.Transform;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 
 /**
  * @author Marc A. Suchard
@@ -64,6 +66,26 @@ public class NoUTurnOperator extends HamiltonianMonteCarloOperator implements Ge
     public NoUTurnOperator(AdaptationMode mode, double weight, GradientWrtParameterProvider gradientProvider,
                            Parameter parameter, Transform transform, double stepSize, int nSteps, double drawVariance) {
         super(mode, weight, gradientProvider, parameter, transform, stepSize, nSteps, drawVariance);
+        this.dynamics = getDynamics(preconditioner);
+    }
+
+    public NoUTurnOperator(AdaptationMode mode, double weight, GradientWrtParameterProvider gradientProvider,
+                           Parameter parameter, Transform transform, double stepSize, int nSteps,
+                           MassPreconditioner preconditioner) {
+        super(mode, weight, gradientProvider, parameter, transform, stepSize, nSteps, preconditioner);
+        this.dynamics = getDynamics(preconditioner);
+    }
+
+    /**
+     * NUTS draws its momenta with drawVariance but has always run the dynamics (kinetic energy,
+     * position updates and U-turn criterion) with a unit mass, so that is kept without an adaptive
+     * mass matrix.
+     */
+    private static MassPreconditioner getDynamics(MassPreconditioner preconditioner) {
+        if (preconditioner instanceof MassPreconditioner.Identity) {
+            return new MassPreconditioner.Identity(preconditioner.getDimension(), 1.0);
+        }
+        return preconditioner;
     }
 
     private class StepSize {
@@ -106,6 +128,8 @@ public class NoUTurnOperator extends HamiltonianMonteCarloOperator implements Ge
     @Override
     public double doOperation(Likelihood likelihood) {
 
+        final long startTime = System.nanoTime();
+
         final double[] initialPosition = leapFrogEngine.getInitialPosition();
         final double initialLogLikelihood = gradientProvider.getLikelihood().getLogLikelihood();
 
@@ -117,31 +141,35 @@ public class NoUTurnOperator extends HamiltonianMonteCarloOperator implements Ge
             assert (Arrays.equals(leapFrogEngine.getInitialPosition(), initialPosition));
         }
 
-        double[] position = takeOneStep(getCount() + 1, initialPosition);
-        leapFrogEngine.setParameter(position);
+        preconditioner.addSample(initialPosition);
+
+        takeOneStep(getCount() + 1, initialPosition);
+        leapFrogEngine.setParameter(endPosition);
+
+        addOperationTime(System.nanoTime() - startTime);
 
         return 0.0;
     }
 
-    private double[] takeOneStep(long m, double[] initialPosition) {
+    private void takeOneStep(long m, double[] initialPosition) {
 
-        double[] endPosition = Arrays.copyOf(initialPosition, initialPosition.length);
-        final double[] initialMomentum = drawInitialMomentum(drawDistribution, dim);
+        System.arraycopy(initialPosition, 0, endPosition, 0, dim);
+        preconditioner.drawMomentum(momentum);
 
-        final double initialJointDensity = getJointProbability(gradientProvider, initialMomentum);
+        final double initialJointDensity = getJointProbability(gradientProvider, momentum);
 
         double logSliceU = Math.log(MathUtils.nextDouble()) + initialJointDensity;
 
-        TreeState root = new TreeState(initialPosition, initialMomentum, 1, true);
+        if (root == null) {
+            root = new TreeState(dim);
+        }
+        root.initialize(initialPosition, momentum, 1, true, 0.0, 0);
 
         int j = 0;
 
         while (root.flagContinue) {
 
-            double[] tmp = updateRoot(root, j, logSliceU, initialJointDensity);
-            if (tmp != null) {
-                endPosition = tmp;
-            }
+            updateRoot(root, j, logSliceU, initialJointDensity);
 
             j++;
 
@@ -151,18 +179,15 @@ public class NoUTurnOperator extends HamiltonianMonteCarloOperator implements Ge
         }
 
         stepSizeInformation.update(m, root.alpha, root.nAlpha, options);
-
-        return endPosition;
     }
 
-    private double[] updateRoot(TreeState root, int j, double logSliceU, double initialJointDensity) {
-
-        double[] endPosition = null;
+    private void updateRoot(TreeState root, int j, double logSliceU, double initialJointDensity) {
 
         final double uniform1 = MathUtils.nextDouble();
         int direction = (uniform1 < 0.5) ? -1 : 1;
 
-        TreeState node = buildTree(root.getPosition(direction), root.getMomentum(direction), direction,
+        TreeState node = getTreeState(j);
+        buildTree(node, root.getPosition(direction), root.getMomentum(direction), direction,
                 logSliceU, j, stepSizeInformation.stepSize, initialJointDensity);
 
         root.setPosition(direction, node.getPosition(direction));
@@ -174,7 +199,7 @@ public class NoUTurnOperator extends HamiltonianMonteCarloOperator implements Ge
             final double p = (double) node.numNodes / (double)root.numNodes;
 
             if (uniform < p) {
-                endPosition = node.getPosition(0);
+                System.arraycopy(node.getPosition(0), 0, endPosition, 0, dim);
             }
         }
 
@@ -185,26 +210,30 @@ public class NoUTurnOperator extends HamiltonianMonteCarloOperator implements Ge
         // Dual-averaging
         root.alpha += node.alpha;
         root.nAlpha += node.nAlpha;
-
-        return endPosition;
     }
 
-    private TreeState buildTree(double[] position, double[] momentum, int direction,
-                                double logSliceU, int j, double stepSize, double initialJointDensity) {
+    /**
+     * Builds a subtree of depth j into node. Subtrees of depth j use the workspace of depth j - 1 for
+     * their second half so each depth only needs one set of arrays.
+     */
+    private void buildTree(TreeState node, double[] position, double[] momentum, int direction,
+                           double logSliceU, int j, double stepSize, double initialJointDensity) {
 
         if (j == 0) {
-            return buildBaseCase(position, momentum, direction, logSliceU, stepSize, initialJointDensity);
+            buildBaseCase(node, position, momentum, direction, logSliceU, stepSize, initialJointDensity);
         } else {
-            return buildRecursiveCase(position, momentum, direction, logSliceU, j, stepSize, initialJointDensity);
+            buildRecursiveCase(node, position, momentum, direction, logSliceU, j, stepSize, initialJointDensity);
         }
     }
 
-    private TreeState buildBaseCase(double[] inPosition, double[] inMomentum, int direction,
-                                    double logSliceU, double stepSize, double initialJointDensity) {
+    private void buildBaseCase(TreeState node, double[] inPosition, double[] inMomentum, int direction,
+                               double logSliceU, double stepSize, double initialJointDensity) {
 
         // Make deep copy of position and momentum
-        double[] position = Arrays.copyOf(inPosition, inPosition.length);
-        double[] momentum = Arrays.copyOf(inMomentum, inMomentum.length);
+        final double[] position = node.getPosition(0);
+        final double[] momentum = node.getMomentum(0);
+        System.arraycopy(inPosition, 0, position, 0, dim);
+        System.arraycopy(inMomentum, 0, momentum, 0, dim);
 
         leapFrogEngine.setParameter(position);
 
@@ -223,19 +252,20 @@ public class NoUTurnOperator extends HamiltonianMonteCarloOperator implements Ge
 
         leapFrogEngine.setParameter(inPosition);
 
-        return new TreeState(position, momentum, numNodes, flagContinue, alpha, nAlpha);
+        node.initialize(position, momentum, numNodes, flagContinue, alpha, nAlpha);
     }
 
-    private TreeState buildRecursiveCase(double[] inPosition, double[] inMomentum, int direction,
-                                         double logSliceU, int j, double stepSize, double initialJointDensity) {
+    private void buildRecursiveCase(TreeState node, double[] inPosition, double[] inMomentum, int direction,
+                                    double logSliceU, int j, double stepSize, double initialJointDensity) {
 
-        TreeState node = buildTree(inPosition, inMomentum, direction, logSliceU,
+        buildTree(node, inPosition, inMomentum, direction, logSliceU,
                 j - 1, // Recursion
                 stepSize, initialJointDensity);
 
         if (node.flagContinue) {
 
-            TreeState child = buildTree(node.getPosition(direction), node.getMomentum(direction), direction,
+            TreeState child = getTreeState(j - 1);
+            buildTree(child, node.getPosition(direction), node.getMomentum(direction), direction,
                     logSliceU, j - 1, stepSizeInformation.stepSize, initialJointDensity);
 
             node.setPosition(direction, child.getPosition(direction));
@@ -255,21 +285,27 @@ public class NoUTurnOperator extends HamiltonianMonteCarloOperator implements Ge
             node.nAlpha += child.nAlpha;
 
         }
-        return node;
+    }
+
+    private TreeState getTreeState(int depth) {
+        while (treeStates.size() <= depth) {
+            treeStates.add(new TreeState(dim));
+        }
+        return treeStates.get(depth);
     }
 
     private void doLeap(final double[] position,
                         final double[] momentum,
                         final double stepSize) {
-        leapFrogEngine.updateMomentum(position, momentum, gradientProvider.getGradientLogDensity(), stepSize / 2);
-        leapFrogEngine.updatePosition(position, momentum, stepSize, 1.0);
-        leapFrogEngine.updateMomentum(position, momentum, gradientProvider.getGradientLogDensity(), stepSize / 2);
+        leapFrogEngine.updateMomentum(position, momentum, getGradientLogDensity(), stepSize / 2);
+        leapFrogEngine.updatePosition(position, momentum, velocity, stepSize, dynamics);
+        leapFrogEngine.updateMomentum(position, momentum, getGradientLogDensity(), stepSize / 2);
     }
 
     private StepSize findReasonableStepSize(double[] initialPosition) {
 
         double stepSize = 1;
-        double[] momentum = drawInitialMomentum(drawDistribution, dim);
+        preconditioner.drawMomentum(momentum);
         int count = 1;
 
         double[] position = Arrays.copyOf(initialPosition, dim);
@@ -308,46 +344,35 @@ public class NoUTurnOperator extends HamiltonianMonteCarloOperator implements Ge
         return new StepSize(stepSize);
     }
 
-    private static boolean computeStopCriterion(boolean flagContinue, TreeState state) {
-        return computeStopCriterion(flagContinue,
-                state.getPosition(1), state.getPosition(-1),
-                state.getMomentum(1), state.getMomentum(-1));
-    }
-
-    private static boolean computeStopCriterion(boolean flagContinue,
-                                                double[] positionPlus, double[] positionMinus,
-                                                double[] momentumPlus, double[] momentumMinus) {
-
-        double[] positionDifference = subtractArray(positionPlus, positionMinus);
-
-        return flagContinue &&
-                getDotProduct(positionDifference, momentumMinus) >= 0 &&
-                getDotProduct(positionDifference, momentumPlus) >= 0;
-    }
+    private boolean computeStopCriterion(boolean flagContinue, TreeState state) {
 
-    private static double getDotProduct(double[] x, double[] y) {
+        if (!flagContinue) {
+            return false;
+        }
 
-        assert (x.length == y.length);
-        final int dim = x.length;
+        final double[] positionPlus = state.getPosition(1);
+        final double[] positionMinus = state.getPosition(-1);
 
-        double total = 0.0;
-        for (int i = 0; i < dim; i++) {
-            total += x[i] * y[i];
+        // the criterion uses the velocities so it is unchanged by the choice of mass matrix
+        dynamics.updateVelocity(state.getMomentum(-1), velocity);
+        if (getDifferenceDotProduct(positionPlus, positionMinus, velocity) < 0) {
+            return false;
         }
-        return total;
+
+        dynamics.updateVelocity(state.getMomentum(1), velocity);
+        return getDifferenceDotProduct(positionPlus, positionMinus, velocity) >= 0;
     }
 
-    private static double[] subtractArray(double[] a, double[] b) {
+    private static double getDifferenceDotProduct(double[] a, double[] b, double[] y) {
 
-        assert (a.length == b.length);
+        assert (a.length == b.length && a.length == y.length);
         final int dim = a.length;
 
-        double result[] = new double[dim];
+        double total = 0.0;
         for (int i = 0; i < dim; i++) {
-            result[i] = a[i] - b[i];
+            total += (a[i] - b[i]) * y[i];
         }
-
-        return result;
+        return total;
     }
 
     private  double getJointProbability(GradientWrtParameterProvider gradientProvider, double[] momentum) {
@@ -355,26 +380,36 @@ public class NoUTurnOperator extends HamiltonianMonteCarloOperator implements Ge
         assert (gradientProvider != null);
         assert (momentum != null);
 
-        return gradientProvider.getLikelihood().getLogLikelihood() - getScaledDotProduct(momentum, 1.0)
+        return gradientProvider.getLikelihood().getLogLikelihood() - dynamics.getKineticEnergy(momentum, velocity)
                 - leapFrogEngine.getParameterLogJacobian();
     }
 
+    // the mass matrix of the dynamics (the momenta are drawn with the preconditioner)
+    private final MassPreconditioner dynamics;
+
+    // workspaces that are reused for every trajectory
+    private final double[] endPosition = new double[dim];
+    private TreeState root = null;
+    private final List<TreeState> treeStates = new ArrayList<TreeState>();
+
     private class TreeState {
 
-        private TreeState(double[] position, double[] moment,
-                         int numNodes, boolean flagContinue) {
-            this(position, moment, numNodes, flagContinue, 0.0, 0);
+        private TreeState(int dim) {
+            this.position = new double[3][dim];
+            this.momentum = new double[3][dim];
         }
 
-        private TreeState(double[] position, double[] moment,
-                         int numNodes, boolean flagContinue,
-                         double alpha, int nAlpha) {
-            this.position = new double[3][];
-            this.momentum = new double[3][];
+        private void initialize(double[] position, double[] moment,
+                                int numNodes, boolean flagContinue,
+                                double alpha, int nAlpha) {
 
             for (int i = 0; i < 3; ++i) {
-                this.position[i] = position;
-                this.momentum[i] = moment;
+                if (this.position[i] != position) {
+                    System.arraycopy(position, 0, this.position[i], 0, position.length);
+                }
+                if (this.momentum[i] != moment) {
+                    System.arraycopy(moment, 0, this.momentum[i], 0, moment.length);
+                }
             }
 
             // Recursion variables
@@ -395,11 +430,11 @@ public class NoUTurnOperator extends HamiltonianMonteCarloOperator implements Ge
         }
 
         private void setPosition(int direction, double[] position) {
-            this.position[getIndex(direction)] = position;
+            System.arraycopy(position, 0, this.position[getIndex(direction)], 0, position.length);
         }
 
         private void setMomentum(int direction, double[] momentum) {
-            this.momentum[getIndex(direction)] = momentum;
+            System.arraycopy(momentum, 0, this.momentum[getIndex(direction)], 0, momentum.length);
         }
 
         private int getIndex(int direction) { // valid directions: -1, 0, +1
@@ -417,5 +452,3 @@ public class NoUTurnOperator extends HamiltonianMonteCarloOperator implements Ge
         private int nAlpha;
     }
 }
-
-
@@ -26,6 +26,7 @@ package dr.inference.trace;
 
 import java.io.*;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
 import java.util.StringTokenizer;
 
@@ -199,6 +200,21 @@ public class LogFileTraces extends AbstractTraceList {
         loadTraces(file);
     }
 
+    /**
+     * Read only the traces with the given names (in the order they appear in the file) from
+     * the <code>File</code> defined from the constructor. The other columns are skipped as
+     * the file is read so they take no memory.
+     *
+     * @param traceNames the names of the traces to read (if null then all are read)
+     * @throws TraceException if a name is not found
+     * @throws IOException
+     */
+    public void loadTraces(Collection<String> traceNames) throws TraceException, IOException {
+        final Reader reader = new FileReader(file);
+        loadTraces(reader, traceNames);
+        reader.close();
+    }
+
     /**
      * Read through <code>File</code> created from a log file,
      * fill in <code>traces</code> list, and set <code>TraceType</code>.
@@ -238,6 +254,10 @@ public class LogFileTraces extends AbstractTraceList {
      * @throws java.io.IOException
      */
     private void loadTraces(Reader r) throws TraceException, java.io.IOException {
+        loadTraces(r, null);
+    }
+
+    private void loadTraces(Reader r, Collection<String> traceNames) throws TraceException, java.io.IOException {
 
         final TrimLineReader reader = new LogFileTraces.TrimLineReader(r);
 
@@ -273,13 +293,26 @@ public class LogFileTraces extends AbstractTraceList {
 
         // read label tokens
         String[] labels = new String[tokens.countTokens()];
+        // the trace for each column (or -1 if it isn't read)
+        int[] columnTraces = new int[labels.length];
 
         for (int i = 0; i < labels.length; i++) {
             labels[i] = tokens.nextToken();
-            addTrace(labels[i]);
+            if (traceNames == null || traceNames.contains(labels[i])) {
+                columnTraces[i] = getTraceCount();
+                addTrace(labels[i]);
+            } else {
+                columnTraces[i] = -1;
+            }
         }
 
-        int traceCount = getTraceCount();
+        if (traceNames != null) {
+            for (String traceName : traceNames) {
+                if (getTraceIndex(traceName) < 0) {
+                    throw new TraceException("Column '" + traceName + "' can not be found in the log file.");
+                }
+            }
+        }
 
         long num_samples = 0;
 
@@ -317,11 +350,13 @@ public class LogFileTraces extends AbstractTraceList {
                 throw new TraceException("State " + state + ":Expected real value in column " + reader.getLineNumber());
             }
 
-            for (int i = 0; i < traceCount; i++) {
+            for (int i = 0; i < labels.length; i++) {
                 if (tokens.hasMoreTokens()) {
                     String value = tokens.nextToken();
 
-                    addParsedValue(i, value);
+                    if (columnTraces[i] >= 0) {
+                        addParsedValue(columnTraces[i], value);
+                    }
 
                 } else {
                     throw new TraceException("State " + state + ": missing values at line " + reader.getLineNumber());
@@ -344,8 +379,12 @@ public class LogFileTraces extends AbstractTraceList {
         if (stepSize < 0 && lastState > 0)
             stepSize = lastState;
 
-        validateTraceType(lastLine);
+        validateTraceType(lastLine, columnTraces);
         validateUniqueValues();
+
+        for (Trace trace : traces) {
+            trace.trimToSize();
+        }
     }
     public static final int MIN_SAMPLE = 5; // used in StatisticsModel
 
@@ -369,11 +408,14 @@ public class LogFileTraces extends AbstractTraceList {
     // validate TraceType at the last value of trace,
     // in case integer is logged for double values in the first (even several) row.
     // it must use original line, because the data type of values in traces are changed
-    private void validateTraceType(String lastLine) throws TraceException {
+    private void validateTraceType(String lastLine, int[] columnTraces) throws TraceException {
         String[] values = lastLine.split("\\t");
         // the 1st is state
-        for (int i=1; i < values.length; i++) {
-            int traceId = i-1;
+        for (int i=1; i < values.length && i <= columnTraces.length; i++) {
+            int traceId = columnTraces[i-1];
+            if (traceId < 0) {
+                continue;
+            }
             Trace trace = getTrace(traceId);
             // avoid to assign integer to double incorrectly
             if (trace.getTraceType().isInteger() && NumberUtils.hasDecimalPoint(values[i]))
@@ -218,8 +218,8 @@ public class SteppingStoneSamplingAnalysis {
     				}
 
     				if (sampleLogLikelihood == null && sampleTheta == null) {
-    					sampleLogLikelihood = traces.getValues(traceIndexLikelihood);
-    					sampleTheta = traces.getValues(traceIndexTheta);
+    					sampleLogLikelihood = new ArrayList<Double>(traces.getValues(traceIndexLikelihood));
+    					sampleTheta = new ArrayList<Double>(traces.getValues(traceIndexTheta));
     				} else {
     					sampleLogLikelihood.addAll(traces.getValues(traceIndexLikelihood));
     					sampleTheta.addAll(traces.getValues(traceIndexTheta));
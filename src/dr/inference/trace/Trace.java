@@ -45,9 +45,11 @@ public class Trace {
     }
 
     private static final int MAX_UNIQUE_VALUES = 100; // the maximum allowed number of unique values
+    private static final int INITIAL_CAPACITY = 100;
 
     private TraceType traceType = TraceType.REAL;
-    private List<Double> values = new ArrayList<Double>();
+    private double[] values = new double[INITIAL_CAPACITY];
+    private int valueCount = 0;
     private String name;
 
     private boolean isConstant = true;
@@ -85,7 +87,7 @@ public class Trace {
             constantValue = value;
         }
 
-        values.add(value);
+        addValue(value);
     }
 
     /**
@@ -115,7 +117,24 @@ public class Trace {
             constantValue = d;
         }
 
-        values.add(d);
+        addValue(d);
+    }
+
+    private void addValue(double value) {
+        if (valueCount == values.length) {
+            values = Arrays.copyOf(values, valueCount + (valueCount >> 1) + 1);
+        }
+        values[valueCount] = value;
+        valueCount++;
+    }
+
+    /**
+     * Releases any space held for values that haven't been added (to be called when the trace is complete)
+     */
+    public void trimToSize() {
+        if (valueCount < values.length) {
+            values = Arrays.copyOf(values, valueCount);
+        }
     }
 
     /**
@@ -202,7 +221,7 @@ public class Trace {
 
 
     public int getValueCount() {
-        return values.size();
+        return valueCount;
     }
 
     public int getUniqueValueCount() {
@@ -210,11 +229,14 @@ public class Trace {
     }
 
     public double getValue(int index) {
-        return values.get(index);
+        if (index >= valueCount) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + valueCount);
+        }
+        return values[index];
     }
 
     public int getCategory(int index) {
-        return values.get(index).intValue();
+        return (int) getValue(index);
     }
 
     public String getCategoryLabel(int index) {
@@ -231,9 +253,10 @@ public class Trace {
 
         if (getTraceType().isNumber()) {
 
-            Double min = Double.MAX_VALUE;
-            Double max = Double.MIN_VALUE;
-            for (Double value : values) {
+            double min = Double.MAX_VALUE;
+            double max = Double.MIN_VALUE;
+            for (int i = 0; i < valueCount; i++) {
+                final double value = values[i];
                 if ( value < min) {
                     min = value;
                 } else if (value > max) {
@@ -256,26 +279,80 @@ public class Trace {
     }
 
     public List<Double> getValues(int fromIndex, int toIndex, boolean[] filtered) {
-        if (toIndex > getValueCount() || fromIndex > toIndex) {
-            throw new RuntimeException("Invalid index : fromIndex = " + fromIndex + "; toIndex = " + toIndex
-                    + "; List size = " + getValueCount() + "; in Trace " + name);
+        if (filtered == null || filtered.length < 1) {
+            checkRange(fromIndex, toIndex);
+            return new ValueList(values, fromIndex, toIndex);
+        } else {
+            double[] selected = getValueArray(fromIndex, toIndex, filtered);
+            return new ValueList(selected, 0, selected.length);
         }
+    }
+
+    /**
+     * @param fromIndex low endpoint (inclusive) of the range.
+     * @param toIndex   high endpoint (exclusive) of the range.
+     * @param filtered  flags for the values removed by a filter (can be null)
+     * @return a copy of the values (which are selected values if filter applied)
+     */
+    public double[] getValueArray(int fromIndex, int toIndex, boolean[] filtered) {
+        checkRange(fromIndex, toIndex);
 
         if (filtered == null || filtered.length < 1) {
-            return values.subList(fromIndex, toIndex);
+            return Arrays.copyOfRange(values, fromIndex, toIndex);
         } else {
-            List<Double> valuesList = new ArrayList<Double>();
+            int count = 0;
             for (int i = fromIndex; i < toIndex; i++) {
                 if (!filtered[i])
-                    valuesList.add(values.get(i));
+                    count++;
             }
-            if (valuesList.size() < 1)
+            if (count < 1)
                 throw new RuntimeException("There is no value left after all filters are applied !");
 
-            return valuesList;
+            double[] selected = new double[count];
+            int j = 0;
+            for (int i = fromIndex; i < toIndex; i++) {
+                if (!filtered[i]) {
+                    selected[j] = values[i];
+                    j++;
+                }
+            }
+            return selected;
+        }
+    }
+
+    private void checkRange(int fromIndex, int toIndex) {
+        if (toIndex > getValueCount() || fromIndex > toIndex) {
+            throw new RuntimeException("Invalid index : fromIndex = " + fromIndex + "; toIndex = " + toIndex
+                    + "; List size = " + getValueCount() + "; in Trace " + name);
         }
     }
 
+    /**
+     * A read-only list view of a range of the values (so they are only boxed when they are read).
+     */
+    private static class ValueList extends AbstractList<Double> implements RandomAccess {
+        private ValueList(double[] values, int fromIndex, int toIndex) {
+            this.values = values;
+            this.fromIndex = fromIndex;
+            this.size = toIndex - fromIndex;
+        }
+
+        public Double get(int index) {
+            if (index < 0 || index >= size) {
+                throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+            }
+            return values[fromIndex + index];
+        }
+
+        public int size() {
+            return size;
+        }
+
+        private final double[] values;
+        private final int fromIndex;
+        private final int size;
+    }
+
     public String getName() {
         return name;
     }
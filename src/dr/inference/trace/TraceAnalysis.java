@@ -28,7 +28,8 @@ package dr.inference.trace;
 import java.io.File;
 import java.io.IOException;
 import java.text.DecimalFormat;
-import java.util.List;
+import java.util.*;
+import java.util.concurrent.*;
 
 /**
  * @author Alexei Drummond
@@ -44,18 +45,76 @@ public class TraceAnalysis {
      * @throws TraceException      if trace file in wrong format or corrupted
      */
     public static LogFileTraces analyzeLogFile(String fileName, long burnin) throws java.io.IOException, TraceException {
+        return analyzeLogFile(fileName, burnin, null, getDefaultThreadCount());
+    }
+
+    /**
+     * @param fileName    the name of the log file to analyze
+     * @param burnin      the state to discard up to
+     * @param traceNames  the names of the traces to read and analyze (all of them if null)
+     * @param threadCount the number of threads to analyze the traces on
+     * @return an array og analyses of the statistics in a log file.
+     * @throws java.io.IOException if general error reading file
+     * @throws TraceException      if trace file in wrong format or corrupted
+     */
+    public static LogFileTraces analyzeLogFile(String fileName, long burnin, Collection<String> traceNames,
+                                               int threadCount) throws java.io.IOException, TraceException {
 
         File file = new File(fileName);
         LogFileTraces traces = new LogFileTraces(fileName, file);
-        traces.loadTraces();
+        traces.loadTraces(traceNames);
         traces.setBurnIn(burnin);
 
-        for (int i = 0; i < traces.getTraceCount(); i++) {
-            traces.analyseTrace(i);
-        }
+        analyseTraces(traces, threadCount);
         return traces;
     }
 
+    public static int getDefaultThreadCount() {
+        return Runtime.getRuntime().availableProcessors();
+    }
+
+    /**
+     * Analyses the traces in parallel, each trace as a separate task.
+     *
+     * @param traces      the traces
+     * @param threadCount the number of threads to use
+     */
+    public static void analyseTraces(final TraceList traces, int threadCount) {
+        final int traceCount = traces.getTraceCount();
+        if (threadCount <= 1 || traceCount < 2) {
+            for (int i = 0; i < traceCount; i++) {
+                traces.analyseTrace(i);
+            }
+            return;
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(threadCount, traceCount));
+        try {
+            List<Future<Object>> futures = new ArrayList<Future<Object>>();
+            for (int i = 0; i < traceCount; i++) {
+                final int index = i;
+                futures.add(executor.submit(new Callable<Object>() {
+                    public Object call() {
+                        traces.analyseTrace(index);
+                        return null;
+                    }
+                }));
+            }
+            for (Future<Object> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException ie) {
+            throw new RuntimeException("Interrupted while analysing traces");
+        } catch (ExecutionException ee) {
+            if (ee.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) ee.getCause();
+            }
+            throw new RuntimeException(ee.getCause());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
     public static TraceList report(String fileName) throws java.io.IOException, TraceException {
         return report(fileName, -1, null);
     }
@@ -66,6 +125,16 @@ public class TraceAnalysis {
 
     public static TraceList report(String fileName, int inBurnin, String likelihoodName, boolean withStdError)
             throws java.io.IOException, TraceException {
+        return report(fileName, inBurnin, likelihoodName, withStdError, null, getDefaultThreadCount());
+    }
+
+    /**
+     * @param traceNames  the names of the traces to report (all of them if null)
+     * @param threadCount the number of threads to analyze the traces on
+     */
+    public static TraceList report(String fileName, int inBurnin, String likelihoodName, boolean withStdError,
+                                   Collection<String> traceNames, int threadCount)
+            throws java.io.IOException, TraceException {
 
 //        int fieldWidth = 14;
 //        int firstField = 25;
@@ -79,7 +148,7 @@ public class TraceAnalysis {
 //        if (traces == null) {
 //            throw new TraceException("Trace file is empty.");
 //        }
-        traces.loadTraces();
+        traces.loadTraces(withTrace(traceNames, likelihoodName));
 
 //        traces.addTrace("R0", traces.getTraceIndex("bdss.psi"));
 
@@ -107,9 +176,10 @@ public class TraceAnalysis {
         }
         System.out.println();
 
+        analyseTraces(traces, threadCount);
+
         int warning = 0;
         for (int i = 0; i < traces.getTraceCount(); i++) {
-            traces.analyseTrace(i);
             TraceCorrelation distribution = traces.getCorrelationStatistics(i);
 
             double ess = distribution.getESS();
@@ -180,7 +250,8 @@ public class TraceAnalysis {
         File file = new File(fileName);
 
         LogFileTraces traces = new LogFileTraces(fileName, file);
-        traces.loadTraces();
+        // only the one trace is read from the file
+        traces.loadTraces(Collections.singleton(traceName));
         long burnin = inBurnin;
         if (burnin == -1) {
             burnin = traces.getMaxState() / 10;
@@ -241,8 +312,21 @@ public class TraceAnalysis {
                                         final int burnin, boolean drawHeader,
                                         boolean hpds, boolean individualESSs, boolean stdErr,
                                         String likelihoodName) throws java.io.IOException, TraceException {
+        return shortReport(filename, burnin, drawHeader, hpds, individualESSs, stdErr, likelihoodName,
+                null, getDefaultThreadCount());
+    }
+
+    /**
+     * @param traceNames  the names of the traces to report (all of them if null)
+     * @param threadCount the number of threads to analyze the traces on
+     */
+    public static TraceList shortReport(String filename,
+                                        final int burnin, boolean drawHeader,
+                                        boolean hpds, boolean individualESSs, boolean stdErr,
+                                        String likelihoodName, Collection<String> traceNames,
+                                        int threadCount) throws java.io.IOException, TraceException {
 
-        TraceList traces = analyzeLogFile(filename, burnin);
+        TraceList traces = analyzeLogFile(filename, burnin, withTrace(traceNames, likelihoodName), threadCount);
 
         long maxState = traces.getMaxState();
 
@@ -323,6 +407,18 @@ public class TraceAnalysis {
         return traces;
     }
 
+    /**
+     * Adds the name of a trace needed for another analysis (if any) to those selected (if any).
+     */
+    private static Collection<String> withTrace(Collection<String> traceNames, String traceName) {
+        if (traceNames == null || traceName == null || traceNames.contains(traceName)) {
+            return traceNames;
+        }
+        Set<String> names = new LinkedHashSet<String>(traceNames);
+        names.add(traceName);
+        return names;
+    }
+
     public static String formattedNumber(double value) {
         DecimalFormat formatter = new DecimalFormat("0.####E0");
         DecimalFormat formatter2 = new DecimalFormat("####0.####");
@@ -45,6 +45,10 @@ public class TraceCorrelation extends TraceDistribution {
     }
 
     public TraceCorrelation(List<Double> values, TraceType traceType, long stepSize, boolean isConstant) {
+        this(toArray(values), traceType, stepSize, isConstant);
+    }
+
+    public TraceCorrelation(double[] values, TraceType traceType, long stepSize, boolean isConstant) {
         super(values, traceType, isConstant);
         this.stepSize = stepSize;
 
@@ -54,6 +58,10 @@ public class TraceCorrelation extends TraceDistribution {
     }
 
     public TraceCorrelation(List<Double> values, Map<Integer, String> categoryLabelMap, List<Integer> categoryOrder, long stepSize, boolean isConstant) {
+        this(toArray(values), categoryLabelMap, categoryOrder, stepSize, isConstant);
+    }
+
+    public TraceCorrelation(double[] values, Map<Integer, String> categoryLabelMap, List<Integer> categoryOrder, long stepSize, boolean isConstant) {
         super(values, categoryLabelMap, categoryOrder, isConstant);
 
         this.stepSize = stepSize;
@@ -87,17 +95,13 @@ public class TraceCorrelation extends TraceDistribution {
 
     private static final int MAX_LAG = 2000;
 
-    private void analyseCorrelation(List<Double> values, long stepSize) {
+    private void analyseCorrelation(double[] values, long stepSize) {
 //        this.values = values; // move to TraceDistribution(T[] values)
 
         if (stepSize > 0) {
             if (getTraceType().isNumber()) {
                 if (!isConstant()) {
-                    double[] doubleValues = new double[values.size()];
-                    for (int i = 0; i < values.size(); i++) {
-                        doubleValues[i] = values.get(i);
-                    }
-                    analyseCorrelationNumeric(doubleValues, stepSize);
+                    analyseCorrelationNumeric(values, stepSize);
                 } else {
                     stdErrorOfMean = 0.0;
                     ACT = Double.NaN;
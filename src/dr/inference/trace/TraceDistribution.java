@@ -27,7 +27,7 @@ package dr.inference.trace;
 
 import dr.stats.DiscreteStatistics;
 import dr.stats.FrequencyCounter;
-import dr.util.HeapSort;
+import dr.stats.OrderStatistics;
 
 import java.util.*;
 
@@ -51,6 +51,10 @@ public class TraceDistribution {
     }
 
     public TraceDistribution(List<Double> values, TraceType traceType, boolean isConstant) {
+        this(toArray(values), traceType, isConstant);
+    }
+
+    public TraceDistribution(double[] values, TraceType traceType, boolean isConstant) {
         this.traceType = traceType;
         this.isConstant = isConstant;
 
@@ -60,6 +64,10 @@ public class TraceDistribution {
     }
 
     public TraceDistribution(List<Double> values, Map<Integer, String> categoryLabelMap, List<Integer> categoryOrder, boolean isConstant) {
+        this(toArray(values), categoryLabelMap, categoryOrder, isConstant);
+    }
+
+    public TraceDistribution(double[] values, Map<Integer, String> categoryLabelMap, List<Integer> categoryOrder, boolean isConstant) {
         this.traceType = TraceType.CATEGORICAL;
         this.categoryLabelMap = categoryLabelMap;
         this.categoryOrder = categoryOrder;
@@ -67,8 +75,16 @@ public class TraceDistribution {
         initStatistics(values, 0.95);
     }
 
-    private void initStatistics(List<Double> values, double proportion) {
-        if (values.size() < 1) throw new RuntimeException("There is no value sent to statistics calculation !");
+    static double[] toArray(List<Double> valueList) {
+        double[] values = new double[valueList.size()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = valueList.get(i);
+        }
+        return values;
+    }
+
+    private void initStatistics(double[] values, double proportion) {
+        if (values.length < 1) throw new RuntimeException("There is no value sent to statistics calculation !");
 
         if (traceType.isNumber()) {
             analyseDistributionNumeric(values, proportion);
@@ -170,14 +186,9 @@ public class TraceDistribution {
 
     /**
      * The major method to analyse traces in numeric values including Double, Integer
-     * @param valueList the values to analyze
+     * @param values the values to analyze
      */
-    private void analyseDistributionNumeric(List<Double> valueList, double proportion) {
-        double[] values = new double[valueList.size()];
-        for (int i = 0; i < valueList.size(); i++) {
-            values[i] = valueList.get(i);
-        }
-
+    private void analyseDistributionNumeric(double[] values, double proportion) {
         size = values.length;
 
         if (!isConstant) {
@@ -212,32 +223,31 @@ public class TraceDistribution {
             }
         }
 
-        int[] indices = new int[values.length];
-        HeapSort.sort(values, indices);
-        median = DiscreteStatistics.quantile(0.5, values, indices);
-        cpdLower = DiscreteStatistics.quantile(0.025, values, indices);
-        cpdUpper = DiscreteStatistics.quantile(0.975, values, indices);
-        q1 = DiscreteStatistics.quantile(0.25, values, indices);
-        q3 = DiscreteStatistics.quantile(0.75, values, indices);
-        calculateHPDInterval(proportion, values, indices);
+        // the quantiles and HPDs are found by only ordering the values near the ranks needed
+        OrderStatistics orderStatistics = new OrderStatistics(values.clone());
+        median = orderStatistics.getQuantile(0.5);
+        cpdLower = orderStatistics.getQuantile(0.025);
+        cpdUpper = orderStatistics.getQuantile(0.975);
+        q1 = orderStatistics.getQuantile(0.25);
+        q3 = orderStatistics.getQuantile(0.75);
+        calculateHPDInterval(proportion, orderStatistics);
 //        ESS = values.length; // move to TraceCorrelation
-        calculateHPDIntervalCustom(0.5, values, indices);
+        calculateHPDIntervalCustom(0.5, orderStatistics);
 
     }
 
     /**
-     * @param proportion the proportion of probability mass included within interval.
-     * @param array      the data array
-     * @param indices    the indices of the ranks of the values (sort order)
+     * @param proportion      the proportion of probability mass included within interval.
+     * @param orderStatistics the values
      */
-    private void calculateHPDInterval(double proportion, double[] array, int[] indices) {
-        final double[] hpd = DiscreteStatistics.HPDInterval(proportion, array, indices);
+    private void calculateHPDInterval(double proportion, OrderStatistics orderStatistics) {
+        final double[] hpd = orderStatistics.getHPDInterval(proportion);
         hpdLower = hpd[0];
         hpdUpper = hpd[1];
     }
 
-    private void calculateHPDIntervalCustom(double proportion, double[] array, int[] indices) {
-        final double[] hpd = DiscreteStatistics.HPDInterval(proportion, array, indices);
+    private void calculateHPDIntervalCustom(double proportion, OrderStatistics orderStatistics) {
+        final double[] hpd = orderStatistics.getHPDInterval(proportion);
         hpdLowerCustom = hpd[0];
         hpdUpperCustom = hpd[1];
     }
@@ -262,10 +272,10 @@ public class TraceDistribution {
 
 
     // init FrequencyCounter used for Integer and String
-    private void analyseDistributionDiscrete(List<Double> valueList, double proportion) {
-        List<Integer> integerValues = new ArrayList<Integer>();
-        for (Double value : valueList) {
-            integerValues.add(value.intValue());
+    private void analyseDistributionDiscrete(double[] values, double proportion) {
+        List<Integer> integerValues = new ArrayList<Integer>(values.length);
+        for (double value : values) {
+            integerValues.add((int) value);
         }
 
         if (size == 0) {
@@ -1,93 +1,173 @@
-/*
- * MLOptimizerParser.java
- *
- * Copyright (c) 2002-2015 Alexei Drummond, Andrew Rambaut and Marc Suchard
- *
- * This file is part of BEAST.
- * See the NOTICE file distributed with this work for additional
- * information regarding copyright ownership and licensing.
- *
- * BEAST is free software; you can redistribute it and/or modify
- * it under the terms of the GNU Lesser General Public License as
- * published by the Free Software Foundation; either version 2
- * of the License, or (at your option) any later version.
- *
- *  BEAST is distributed in the hope that it will be useful,
- *  but WITHOUT ANY WARRANTY; without even the implied warranty of
- *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
- *  GNU Lesser General Public License for more details.
- *
- * You should have received a copy of the GNU Lesser General Public
- * License along with BEAST; if not, write to the
- * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
- * Boston, MA  02110-1301  USA
- */
-
-package dr.inferencexml;
-
-import dr.inference.loggers.Logger;
-import dr.inference.ml.MLOptimizer;
-import dr.inference.model.Likelihood;
-import dr.inference.operators.OperatorSchedule;
-import dr.xml.*;
-
-import java.util.ArrayList;
-
-/**
- *
- */
-public class MLOptimizerParser extends AbstractXMLObjectParser {
-
-    public static final String CHAIN_LENGTH = "chainLength";
-    public static final String OPTIMIZER = "optimizer";    
-
-    public String getParserName() { return OPTIMIZER; }
-
-    public Object parseXMLObject(XMLObject xo) throws XMLParseException {
-
-        int chainLength = xo.getIntegerAttribute(CHAIN_LENGTH);
-
-        OperatorSchedule opsched = null;
-        dr.inference.model.Likelihood likelihood = null;
-        ArrayList<Logger> loggers = new ArrayList<Logger>();
-
-        for (int i = 0; i < xo.getChildCount(); i++) {
-            Object child = xo.getChild(i);
-            if (child instanceof dr.inference.model.Likelihood) {
-                likelihood = (dr.inference.model.Likelihood)child;
-            } else if (child instanceof OperatorSchedule) {
-                opsched = (OperatorSchedule)child;
-            } else if (child instanceof Logger) {
-                loggers.add((Logger)child);
-            } else {
-                throw new XMLParseException("Unrecognized element found in optimizer element:" + child);
-            }
-        }
-
-        Logger[] loggerArray = new Logger[loggers.size()];
-        loggers.toArray(loggerArray);
-
-        return new MLOptimizer("optimizer1", chainLength, likelihood, opsched, loggerArray);
-    }
-
-    //************************************************************************
-    // AbstractXMLObjectParser implementation
-    //************************************************************************
-
-
-    public String getParserDescription() {
-        return "This element returns a maximum likelihood heuristic optimizer and runs the optimization as a side effect.";
-    }
-
-    public Class getReturnType() { return MLOptimizer.class; }
-
-    public XMLSyntaxRule[] getSyntaxRules() { return rules; }
-
-    private final XMLSyntaxRule[] rules = {
-        AttributeRule.newIntegerRule(CHAIN_LENGTH),
-        new ElementRule(OperatorSchedule.class ),
-        new ElementRule(Likelihood.class ),
-        new ElementRule(Logger.class, 1, Integer.MAX_VALUE )
-    };
-
-}
+/*
+ * MLOptimizerParser.java
+ *
+ * Copyright (c) 2002-2015 Alexei Drummond, Andrew Rambaut and Marc Suchard
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ */
+
+package dr.inferencexml;
+
+import dr.inference.loggers.Logger;
+import dr.inference.ml.MLOptimizer;
+import dr.inference.model.Likelihood;
+import dr.inference.model.Parameter;
+import dr.inference.operators.OperatorSchedule;
+import dr.math.ConjugateDirectionSearch;
+import dr.math.DifferentialEvolution;
+import dr.math.MultivariateFunction;
+import dr.math.MultivariateMinimum;
+import dr.math.PooledMultivariateFunction;
+import dr.xml.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ *
+ */
+public class MLOptimizerParser extends AbstractXMLObjectParser {
+
+    public static final String CHAIN_LENGTH = "chainLength";
+    public static final String OPTIMIZER = "optimizer";    
+    public static final String METHOD = "method";
+    public static final String HEURISTIC = "heuristic";
+    public static final String CONJUGATE_DIRECTION = "conjugateDirection";
+    public static final String DIFFERENTIAL_EVOLUTION = "differentialEvolution";
+    public static final String THREADS = "threads";
+    public static final String CACHE_SIZE = "cacheSize";
+    public static final String TOLERANCE = "tolerance";
+
+    public String getParserName() { return OPTIMIZER; }
+
+    public Object parseXMLObject(XMLObject xo) throws XMLParseException {
+
+        int chainLength = xo.getIntegerAttribute(CHAIN_LENGTH);
+
+        OperatorSchedule opsched = null;
+        dr.inference.model.Likelihood likelihood = null;
+        ArrayList<Logger> loggers = new ArrayList<Logger>();
+        ArrayList<Parameter> parameters = new ArrayList<Parameter>();
+
+        for (int i = 0; i < xo.getChildCount(); i++) {
+            Object child = xo.getChild(i);
+            if (child instanceof dr.inference.model.Likelihood) {
+                likelihood = (dr.inference.model.Likelihood)child;
+            } else if (child instanceof OperatorSchedule) {
+                opsched = (OperatorSchedule)child;
+            } else if (child instanceof Logger) {
+                loggers.add((Logger)child);
+            } else if (child instanceof Parameter) {
+                parameters.add((Parameter)child);
+            } else {
+                throw new XMLParseException("Unrecognized element found in optimizer element:" + child);
+            }
+        }
+
+        Logger[] loggerArray = new Logger[loggers.size()];
+        loggers.toArray(loggerArray);
+
+        String method = xo.getAttribute(METHOD, HEURISTIC);
+
+        if (method.equals(HEURISTIC)) {
+            if (opsched == null) {
+                throw new XMLParseException("The " + HEURISTIC + " optimizer needs an operator schedule");
+            }
+            return new MLOptimizer("optimizer1", chainLength, likelihood, opsched, loggerArray);
+        }
+
+        if (parameters.size() == 0) {
+            throw new XMLParseException("The " + method + " optimizer needs the parameters to optimize");
+        }
+        Parameter[] parameterArray = parameters.toArray(new Parameter[parameters.size()]);
+
+        int threadCount = xo.getAttribute(THREADS, 1);
+        if (threadCount < 1) {
+            threadCount = Runtime.getRuntime().availableProcessors();
+        }
+        int cacheSize = xo.getAttribute(CACHE_SIZE, DEFAULT_CACHE_SIZE);
+        double tolerance = xo.getAttribute(TOLERANCE, DEFAULT_TOLERANCE);
+
+        MLOptimizer.LikelihoodFunction function = new MLOptimizer.LikelihoodFunction(likelihood, parameterArray);
+
+        MultivariateMinimum minimiser;
+        if (method.equals(CONJUGATE_DIRECTION)) {
+            // the search evaluates one point at a time so there is no use for copies of the model
+            threadCount = 1;
+            minimiser = new ConjugateDirectionSearch();
+        } else if (method.equals(DIFFERENTIAL_EVOLUTION)) {
+            for (int i = 0; i < function.getNumArguments(); i++) {
+                if (Double.isInfinite(function.getLowerBound(i)) || Double.isInfinite(function.getUpperBound(i))) {
+                    throw new XMLParseException("The " + DIFFERENTIAL_EVOLUTION + " optimizer needs the parameters to have finite bounds");
+                }
+            }
+            minimiser = new DifferentialEvolution(function.getNumArguments());
+        } else {
+            throw new XMLParseException("Unknown optimizer method: " + method);
+        }
+
+        List<MultivariateFunction> functions = new ArrayList<MultivariateFunction>();
+        functions.add(function);
+        if (threadCount > 1) {
+            // each thread evaluates the points of a generation on its own copy of the model
+            Object[] objects = new Object[parameterArray.length + 1];
+            objects[0] = likelihood;
+            System.arraycopy(parameterArray, 0, objects, 1, parameterArray.length);
+            for (Object[] copy : xo.createCopies(objects, threadCount - 1)) {
+                Parameter[] copyParameters = new Parameter[parameterArray.length];
+                System.arraycopy(copy, 1, copyParameters, 0, copyParameters.length);
+                functions.add(new MLOptimizer.LikelihoodFunction((Likelihood) copy[0], copyParameters));
+            }
+        }
+
+        return new MLOptimizer("optimizer1", chainLength, likelihood, parameterArray, minimiser,
+                new PooledMultivariateFunction(functions, cacheSize), tolerance, loggerArray);
+    }
+
+    //************************************************************************
+    // AbstractXMLObjectParser implementation
+    //************************************************************************
+
+
+    public String getParserDescription() {
+        return "This element returns a maximum likelihood heuristic optimizer and runs the optimization as a side effect.";
+    }
+
+    public Class getReturnType() { return MLOptimizer.class; }
+
+    public XMLSyntaxRule[] getSyntaxRules() { return rules; }
+
+    private static final int DEFAULT_CACHE_SIZE = 1000;
+    private static final double DEFAULT_TOLERANCE = 1E-6;
+
+    private final XMLSyntaxRule[] rules = {
+        AttributeRule.newIntegerRule(CHAIN_LENGTH),
+        new StringAttributeRule(METHOD, "The optimization method (default " + HEURISTIC + ")",
+                new String[]{HEURISTIC, CONJUGATE_DIRECTION, DIFFERENTIAL_EVOLUTION}, true),
+        AttributeRule.newIntegerRule(THREADS, true, "The number of copies of the model to evaluate the points of each " + DIFFERENTIAL_EVOLUTION + " generation on (default is 1; 0 for the number of processors)"),
+        AttributeRule.newIntegerRule(CACHE_SIZE, true, "The number of recently evaluated points whose values are kept (default " + DEFAULT_CACHE_SIZE + ")"),
+        AttributeRule.newDoubleRule(TOLERANCE, true),
+        new ElementRule(OperatorSchedule.class, true),
+        new ElementRule(Likelihood.class ),
+        new ElementRule(Parameter.class, 0, Integer.MAX_VALUE ),
+        new ElementRule(Logger.class, 1, Integer.MAX_VALUE )
+    };
+
+}
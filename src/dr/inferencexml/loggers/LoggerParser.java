@@ -116,30 +116,35 @@ public class LoggerParser extends AbstractXMLObjectParser {
         logger.setTitle(title);
 
         for (int i = 0; i < xo.getChildCount(); i++) {
+            addColumns(logger, xo.getChild(i));
+        }
 
-            final Object child = xo.getChild(i);
+        return logger;
+    }
+
+    /**
+     * Adds the columns for a child of a log element to the logger.
+     */
+    public static void addColumns(MCLogger logger, Object child) {
 
-            if (child instanceof Columns) {
+        if (child instanceof Columns) {
 
-                logger.addColumns(((Columns) child).getColumns());
+            logger.addColumns(((Columns) child).getColumns());
 
-            } else if (child instanceof Loggable) {
+        } else if (child instanceof Loggable) {
 
-                logger.add((Loggable) child);
+            logger.add((Loggable) child);
 
-            } else if (child instanceof Identifiable) {
+        } else if (child instanceof Identifiable) {
 
-                logger.addColumn(new LogColumn.Default(((Identifiable) child).getId(), child));
+            logger.addColumn(new LogColumn.Default(((Identifiable) child).getId(), child));
 
-            } else if (child instanceof Property) {
-                logger.addColumn(new LogColumn.Default(((Property) child).getAttributeName(), child));
-            } else {
+        } else if (child instanceof Property) {
+            logger.addColumn(new LogColumn.Default(((Property) child).getAttributeName(), child));
+        } else {
 
-                logger.addColumn(new LogColumn.Default(child.getClass().toString(), child));
-            }
+            logger.addColumn(new LogColumn.Default(child.getClass().toString(), child));
         }
-
-        return logger;
     }
 
     public static PrintWriter getLogFile(XMLObject xo, String parserName) throws XMLParseException {
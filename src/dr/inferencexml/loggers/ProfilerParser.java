@@ -0,0 +1,98 @@
+/*
+ * ProfilerParser.java
+ *
+ * Copyright (c) 2002-2017 Alexei Drummond, Andrew Rambaut and Marc Suchard
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ */
+
+package dr.inferencexml.loggers;
+
+import dr.inference.loggers.LogColumn;
+import dr.inference.loggers.Loggable;
+import dr.inference.markovchain.Profiler;
+import dr.inference.model.Likelihood;
+import dr.inference.operators.MCMCOperator;
+import dr.xml.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Provides log columns with the accumulated wall and cpu times (in milliseconds) of the
+ * MCMC phases and, optionally, of specific likelihoods and operators.
+ */
+public class ProfilerParser extends AbstractXMLObjectParser {
+
+    public static final String PROFILER = "profiler";
+
+    public String getParserName() {
+        return PROFILER;
+    }
+
+    public Object parseXMLObject(XMLObject xo) throws XMLParseException {
+
+        // asking for the profile in a log implies that profiling should be on
+        Profiler.setEnabled(true);
+
+        final List<Profiler.Section> sections = new ArrayList<Profiler.Section>();
+        for (String phase : Profiler.PHASES) {
+            sections.add(Profiler.getSection(phase));
+        }
+
+        for (int i = 0; i < xo.getChildCount(); i++) {
+            Object child = xo.getChild(i);
+            if (child instanceof Likelihood) {
+                sections.add(Profiler.getLikelihoodSection((Likelihood) child));
+            } else if (child instanceof MCMCOperator) {
+                sections.add(Profiler.getOperatorSection((MCMCOperator) child));
+            }
+        }
+
+        return new Loggable() {
+            public LogColumn[] getColumns() {
+                return Profiler.getColumns(sections);
+            }
+        };
+    }
+
+    //************************************************************************
+    // AbstractXMLObjectParser implementation
+    //************************************************************************
+
+    public String getParserDescription() {
+        return "Logs the accumulated wall and cpu times (in milliseconds) of the phases of the MCMC " +
+                "and of any likelihoods or operators given as children.";
+    }
+
+    public Class getReturnType() {
+        return Loggable.class;
+    }
+
+    public XMLSyntaxRule[] getSyntaxRules() {
+        return rules;
+    }
+
+    private XMLSyntaxRule[] rules = new XMLSyntaxRule[]{
+            new ElementRule(Likelihood.class, 0, Integer.MAX_VALUE),
+            new ElementRule(MCMCOperator.class, 0, Integer.MAX_VALUE),
+    };
+
+}
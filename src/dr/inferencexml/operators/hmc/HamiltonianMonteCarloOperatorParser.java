@@ -30,6 +30,7 @@ import dr.inference.model.Parameter;
 import dr.inference.operators.AdaptableMCMCOperator;
 import dr.inference.operators.AdaptationMode;
 import dr.inference.operators.hmc.HamiltonianMonteCarloOperator;
+import dr.inference.operators.hmc.MassPreconditioner;
 import dr.inference.operators.MCMCOperator;
 import dr.inference.operators.hmc.NoUTurnOperator;
 import dr.util.Transform;
@@ -49,6 +50,9 @@ public class HamiltonianMonteCarloOperatorParser extends AbstractXMLObjectParser
     private final static String MODE = "mode";
     private final static String NUTS = "nuts";
     private final static String VANILLA = "vanilla";
+    private final static String PRECONDITIONING = "preconditioning";
+    private final static String PRECONDITIONING_UPDATE_FREQUENCY = "preconditioningUpdateFrequency";
+    private final static String PRECONDITIONING_ADAPT_LENGTH = "preconditioningAdaptLength";
 
     @Override
     public String getParserName() {
@@ -88,12 +92,25 @@ public class HamiltonianMonteCarloOperatorParser extends AbstractXMLObjectParser
         }
 
 
+        MassPreconditioner.Type preconditioningType;
+        try {
+            preconditioningType = MassPreconditioner.Type.parse(
+                    xo.getAttribute(PRECONDITIONING, MassPreconditioner.Type.NONE.getName()));
+        } catch (IllegalArgumentException iae) {
+            throw new XMLParseException(iae.getMessage());
+        }
+        int updateFrequency = xo.getAttribute(PRECONDITIONING_UPDATE_FREQUENCY, 100);
+        int adaptLength = xo.getAttribute(PRECONDITIONING_ADAPT_LENGTH, 1000);
+
+        MassPreconditioner preconditioner = preconditioningType.factory(parameter.getDimension(), drawVariance,
+                updateFrequency, adaptLength);
+
         if (runMode == 0) {
             return new HamiltonianMonteCarloOperator(adaptationMode, weight, derivative, parameter, transform,
-                    stepSize, nSteps, drawVariance);
+                    stepSize, nSteps, preconditioner);
         } else {
             return new NoUTurnOperator(adaptationMode, weight, derivative, parameter,transform,
-                    stepSize, nSteps, drawVariance);
+                    stepSize, nSteps, preconditioner);
         }
     }
 
@@ -109,6 +126,9 @@ public class HamiltonianMonteCarloOperatorParser extends AbstractXMLObjectParser
             AttributeRule.newDoubleRule(DRAW_VARIANCE),
             AttributeRule.newBooleanRule(AdaptableMCMCOperator.AUTO_OPTIMIZE, true),
             AttributeRule.newStringRule(MODE, true),
+            AttributeRule.newStringRule(PRECONDITIONING, true),
+            AttributeRule.newIntegerRule(PRECONDITIONING_UPDATE_FREQUENCY, true),
+            AttributeRule.newIntegerRule(PRECONDITIONING_ADAPT_LENGTH, true),
             new ElementRule(Parameter.class),
             new ElementRule(Transform.MultivariableTransformWithParameter.class, true),
             new ElementRule(GradientWrtParameterProvider.class),
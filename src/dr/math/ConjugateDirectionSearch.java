@@ -25,6 +25,7 @@
 
 package dr.math;
 
+import java.util.Collections;
 
 /**
  * methods for minimization of a real-valued function of
@@ -88,6 +89,15 @@ public class ConjugateDirectionSearch extends MultivariateMinimum
 	 */
 	public boolean illc = false;
 
+	/**
+	 * cacheSize is the number of recently evaluated points whose
+	 * function values are kept (the line searches often return to
+	 * a point already evaluated). the default is 0 (no cache).
+	 * a function that is already a PooledMultivariateFunction
+	 * is used as it is.
+	 */
+	public int cacheSize = 0;
+
 	// implementation of abstract method
 
 	public void optimize(MultivariateFunction f, double[] xvector, double tolfx, double tolx) {
@@ -98,7 +108,14 @@ public class ConjugateDirectionSearch extends MultivariateMinimum
 	{
 		t = tolx;
 
-		fun = f;
+		if (cacheSize > 0 && !(f instanceof PooledMultivariateFunction))
+		{
+			fun = new PooledMultivariateFunction(Collections.singletonList(f), cacheSize);
+		}
+		else
+		{
+			fun = f;
+		}
 		x = xvector;
 
 		checkBounds(x);
@@ -92,7 +92,8 @@ public class DifferentialEvolution extends MultivariateMinimum
 		currentPopulation = new double[populationSize][dimension];
 		nextPopulation = new double[populationSize][dimension];
 		costs = new double[populationSize];
-		trialVector = new double[dimension];
+		trialPopulation = new double[populationSize][dimension];
+		trialCosts = new double[populationSize];
 
 		// helper variable
 		//numr = 5; // for strategy DE/best/2/bin
@@ -166,9 +167,9 @@ public class DifferentialEvolution extends MultivariateMinimum
 	private int populationSize;
 
 	// Population data
-	private double trialCost;
 	private double[] costs;
-	private double[] trialVector;
+	private double[][] trialPopulation;
+	private double[] trialCosts;
 	private double[][] currentPopulation;
 	private double[][] nextPopulation;
 
@@ -234,8 +235,8 @@ public class DifferentialEvolution extends MultivariateMinimum
 				// Uniformly distributed sample points
 				currentPopulation[i][j] = min + diff* MathUtils.nextDouble();
 			}
-			costs[i] = f.evaluate(currentPopulation[i]);
 		}
+		evaluate(currentPopulation, costs);
 		numFun += populationSize;
 
 		findSmallestCost ();
@@ -267,9 +268,12 @@ public class DifferentialEvolution extends MultivariateMinimum
 
 		currGen++;
 
-		// Loop through all population vectors
+		// Loop through all population vectors (the trial vectors only depend on the
+		// current population and best vector so are all made before any is tested)
 		for (int r0 = 0; r0 < populationSize; r0++)
 		{
+			double[] trialVector = trialPopulation[r0];
+
 			// Choose ri so that r0 != r[1] != r[2] != r[3] != r[4] ...
 
 			r[0] = r0;
@@ -319,15 +323,19 @@ public class DifferentialEvolution extends MultivariateMinimum
 			{
 				trialVector[i] = checkBounds(trialVector[i], i);
 			}
+		}
 
+		evaluate(trialPopulation, trialCosts);
 
+		for (int r0 = 0; r0 < populationSize; r0++)
+		{
 			// Test this choice
-			trialCost = f.evaluate(trialVector);
+			double trialCost = trialCosts[r0];
 			if (trialCost < costs[r0])
 			{
 				// Better than old vector
 				costs[r0] = trialCost;
-				copy(nextPopulation[r0], trialVector);
+				copy(nextPopulation[r0], trialPopulation[r0]);
 
 				// Check for new best vector
 				if (trialCost < fx)
@@ -359,6 +367,22 @@ public class DifferentialEvolution extends MultivariateMinimum
 		return updateFlag;
 	}
 
+	// Evaluate a batch of vectors (concurrently if the function allows it)
+	private void evaluate(double[][] vectors, double[] values)
+	{
+		if (f instanceof PooledMultivariateFunction)
+		{
+			((PooledMultivariateFunction) f).evaluate(vectors, values);
+		}
+		else
+		{
+			for (int i = 0; i < vectors.length; i++)
+			{
+				values[i] = f.evaluate(vectors[i]);
+			}
+		}
+	}
+
 	// Determine vector with smallest cost in current population
 	private void findSmallestCost()
 	{
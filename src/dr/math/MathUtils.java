@@ -54,6 +54,37 @@ public class MathUtils {
 	 */
 	private static final MersenneTwisterFast random = MersenneTwisterFast.DEFAULT_INSTANCE;
 
+	/**
+	 * Generators used in place of the shared one on particular threads (see setThreadSeed).
+	 */
+	private static final ThreadLocal<MersenneTwisterFast> threadRandom = new ThreadLocal<MersenneTwisterFast>();
+
+	/**
+	 * Draw the random numbers of the calling thread from a generator of its own, started from
+	 * the given seed, instead of the shared one. This lets work that is run on several threads
+	 * at once (such as the steps of a concurrent marginal likelihood estimation) give the same
+	 * results from a given seed however the threads are scheduled.
+	 *
+	 * @param seed the seed of the generator for this thread (non zero)
+	 */
+	public static void setThreadSeed(long seed) {
+		MersenneTwisterFast r = new MersenneTwisterFast();
+		r.setSeed(seed);
+		threadRandom.set(r);
+	}
+
+	/**
+	 * Go back to drawing the random numbers of the calling thread from the shared generator.
+	 */
+	public static void clearThreadSeed() {
+		threadRandom.remove();
+	}
+
+	private static MersenneTwisterFast getRandom() {
+		MersenneTwisterFast r = threadRandom.get();
+		return r != null ? r : random;
+	}
+
 	// Chooses one category if a cumulative probability distribution is given
 	public static int randomChoice(double[] cf) {
 
@@ -174,6 +205,7 @@ public class MathUtils {
 	 * Access a default instance of this class, access is synchronized
 	 */
 	public static long getSeed() {
+		final MersenneTwisterFast random = getRandom();
 		synchronized (random) {
 			return random.getSeed();
 		}
@@ -183,6 +215,7 @@ public class MathUtils {
 	 * Access a default instance of this class, access is synchronized
 	 */
 	public static void setSeed(long seed) {
+		final MersenneTwisterFast random = getRandom();
 		synchronized (random) {
 			random.setSeed(seed);
 		}
@@ -192,6 +225,7 @@ public class MathUtils {
 	 * Access a default instance of this class, access is synchronized
 	 */
 	public static byte nextByte() {
+		final MersenneTwisterFast random = getRandom();
 		synchronized (random) {
 			return random.nextByte();
 		}
@@ -201,6 +235,7 @@ public class MathUtils {
 	 * Access a default instance of this class, access is synchronized
 	 */
 	public static boolean nextBoolean() {
+		final MersenneTwisterFast random = getRandom();
 		synchronized (random) {
 			return random.nextBoolean();
 		}
@@ -210,6 +245,7 @@ public class MathUtils {
 	 * Access a default instance of this class, access is synchronized
 	 */
 	public static void nextBytes(byte[] bs) {
+		final MersenneTwisterFast random = getRandom();
 		synchronized (random) {
 			random.nextBytes(bs);
 		}
@@ -219,6 +255,7 @@ public class MathUtils {
 	 * Access a default instance of this class, access is synchronized
 	 */
 	public static char nextChar() {
+		final MersenneTwisterFast random = getRandom();
 		synchronized (random) {
 			return random.nextChar();
 		}
@@ -228,6 +265,7 @@ public class MathUtils {
 	 * Access a default instance of this class, access is synchronized
 	 */
 	public static double nextGaussian() {
+		final MersenneTwisterFast random = getRandom();
 		synchronized (random) {
 			return random.nextGaussian();
 		}
@@ -237,6 +275,7 @@ public class MathUtils {
 	//Variance = alpha / (lambda*lambda)
 
 	public static double nextGamma(double alpha, double lambda) {
+		final MersenneTwisterFast random = getRandom();
 		synchronized (random) {
 			return random.nextGamma(alpha, lambda);
 		}
@@ -258,6 +297,7 @@ public class MathUtils {
 	 * @return a pseudo random double precision floating point number in [01)
 	 */
 	public static double nextDouble() {
+		final MersenneTwisterFast random = getRandom();
 		synchronized (random) {
 			return random.nextDouble();
 		}
@@ -274,6 +314,7 @@ public class MathUtils {
 	 * Access a default instance of this class, access is synchronized
 	 */
 	public static double nextExponential(double lambda) {
+		final MersenneTwisterFast random = getRandom();
 		synchronized (random) {
 			return -1.0 * Math.log(1 - random.nextDouble()) / lambda;
 		}
@@ -283,6 +324,7 @@ public class MathUtils {
 	 * Access a default instance of this class, access is synchronized
 	 */
 	public static double nextInverseGaussian(double mu, double lambda) {
+		final MersenneTwisterFast random = getRandom();
 		synchronized (random) {
 			/* CODE TAKEN FROM WIKIPEDIA. TESTING DONE WITH RESULTS GENERATED IN R AND LOOK COMPARABLE */
 			double v = random.nextGaussian();   // sample from a normal distribution with a mean of 0 and 1 standard deviation
@@ -302,6 +344,7 @@ public class MathUtils {
 	 * Access a default instance of this class, access is synchronized
 	 */
 	public static float nextFloat() {
+		final MersenneTwisterFast random = getRandom();
 		synchronized (random) {
 			return random.nextFloat();
 		}
@@ -311,6 +354,7 @@ public class MathUtils {
 	 * Access a default instance of this class, access is synchronized
 	 */
 	public static long nextLong() {
+		final MersenneTwisterFast random = getRandom();
 		synchronized (random) {
 			return random.nextLong();
 		}
@@ -320,6 +364,7 @@ public class MathUtils {
 	 * Access a default instance of this class, access is synchronized
 	 */
 	public static short nextShort() {
+		final MersenneTwisterFast random = getRandom();
 		synchronized (random) {
 			return random.nextShort();
 		}
@@ -329,6 +374,7 @@ public class MathUtils {
 	 * Access a default instance of this class, access is synchronized
 	 */
 	public static int nextInt() {
+		final MersenneTwisterFast random = getRandom();
 		synchronized (random) {
 			return random.nextInt();
 		}
@@ -338,6 +384,7 @@ public class MathUtils {
 	 * Access a default instance of this class, access is synchronized
 	 */
 	public static int nextInt(int n) {
+		final MersenneTwisterFast random = getRandom();
 		synchronized (random) {
 			return random.nextInt(n);
 		}
@@ -356,6 +403,7 @@ public class MathUtils {
 	 * Shuffles an array.
 	 */
 	public static void shuffle(int[] array) {
+		final MersenneTwisterFast random = getRandom();
 		synchronized (random) {
 			random.shuffle(array);
 		}
@@ -365,6 +413,7 @@ public class MathUtils {
 	 * Shuffles an array. Shuffles numberOfShuffles times
 	 */
 	public static void shuffle(int[] array, int numberOfShuffles) {
+		final MersenneTwisterFast random = getRandom();
 		synchronized (random) {
 			random.shuffle(array, numberOfShuffles);
 		}
@@ -376,6 +425,7 @@ public class MathUtils {
 	 * @param l length of the array required.
 	 */
 	public static int[] shuffled(int l) {
+		final MersenneTwisterFast random = getRandom();
 		synchronized (random) {
 			return random.shuffled(l);
 		}
@@ -383,6 +433,7 @@ public class MathUtils {
 
 
 	public static int[] sampleIndicesWithReplacement(int length) {
+		final MersenneTwisterFast random = getRandom();
 		synchronized (random) {
 			int[] result = new int[length];
 			for (int i = 0; i < length; i++)
@@ -395,6 +446,7 @@ public class MathUtils {
 	 * Permutes an array.
 	 */
 	public static void permute(int[] array) {
+		final MersenneTwisterFast random = getRandom();
 		synchronized (random) {
 			random.permute(array);
 		}
@@ -406,6 +458,7 @@ public class MathUtils {
 	 * @param l length of the array required.
 	 */
 	public static int[] permuted(int l) {
+		final MersenneTwisterFast random = getRandom();
 		synchronized (random) {
 			return random.permuted(l);
 		}
@@ -451,12 +504,14 @@ public class MathUtils {
 	}
 
 	public static int[] getRandomState() {
+		final MersenneTwisterFast random = getRandom();
 		synchronized (random) {
 			return random.getRandomState();
 		}
 	}
 
 	public static void setRandomState(int[] rngState) {
+		final MersenneTwisterFast random = getRandom();
 		synchronized (random) {
 			random.setRandomState(rngState);
 		}
@@ -0,0 +1,265 @@
+/*
+ * PooledMultivariateFunction.java
+ *
+ * Copyright (c) 2002-2017 Alexei Drummond, Andrew Rambaut and Marc Suchard
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ */
+
+package dr.math;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * A multivariate function that evaluates points on a number of independent instances of the same
+ * function (e.g., each on its own copy of a model) so that a batch of points can be evaluated
+ * concurrently. The values of recently evaluated points are kept so that a point that is asked for
+ * again (as minimisers and numerical derivatives often do) is not evaluated again.
+ */
+public class PooledMultivariateFunction implements MultivariateFunction {
+
+    /**
+     * @param functions the instances of the function (each is only used by one thread at a time)
+     * @param cacheSize the number of values to keep (0 for none)
+     */
+    public PooledMultivariateFunction(List<? extends MultivariateFunction> functions, final int cacheSize) {
+        if (functions.size() == 0) {
+            throw new IllegalArgumentException("At least one instance of the function is needed");
+        }
+
+        this.function = functions.get(0);
+        this.instanceCount = functions.size();
+        this.idleFunctions = new LinkedBlockingQueue<MultivariateFunction>(functions);
+        this.cacheSize = cacheSize;
+
+        // least recently used values are removed first
+        cache = new LinkedHashMap<Point, Double>(16, 0.75f, true) {
+            protected boolean removeEldestEntry(Map.Entry<Point, Double> eldest) {
+                return size() > cacheSize;
+            }
+        };
+
+        if (functions.size() > 1) {
+            pool = Executors.newFixedThreadPool(functions.size(), new ThreadFactory() {
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "pooled-function");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        } else {
+            pool = null;
+        }
+    }
+
+    public double evaluate(double[] argument) {
+        Point point = new Point(argument);
+        Double value = getCachedValue(point);
+        if (value == null) {
+            value = evaluateOnIdleFunction(point);
+        }
+        return value;
+    }
+
+    /**
+     * Evaluates a batch of points concurrently. Points that are repeated in the batch or that are
+     * in the cache are only evaluated once.
+     *
+     * @param arguments the points
+     * @param values    an array for the values of the points
+     */
+    public void evaluate(double[][] arguments, double[] values) {
+        Map<Point, List<Integer>> pending = new LinkedHashMap<Point, List<Integer>>();
+
+        for (int i = 0; i < arguments.length; i++) {
+            Point point = new Point(arguments[i]);
+            Double value = getCachedValue(point);
+            if (value != null) {
+                values[i] = value;
+            } else {
+                List<Integer> indices = pending.get(point);
+                if (indices == null) {
+                    indices = new ArrayList<Integer>();
+                    pending.put(point, indices);
+                }
+                indices.add(i);
+            }
+        }
+
+        final ExecutorService pool = this.pool;
+        if (pool == null || pending.size() < 2) {
+            for (Map.Entry<Point, List<Integer>> entry : pending.entrySet()) {
+                setValues(evaluateOnIdleFunction(entry.getKey()), entry.getValue(), values);
+            }
+            return;
+        }
+
+        List<Callable<Double>> tasks = new ArrayList<Callable<Double>>();
+        for (final Point point : pending.keySet()) {
+            tasks.add(new Callable<Double>() {
+                public Double call() {
+                    return evaluateOnIdleFunction(point);
+                }
+            });
+        }
+
+        try {
+            List<Future<Double>> futures = pool.invokeAll(tasks);
+            int k = 0;
+            for (List<Integer> indices : pending.values()) {
+                setValues(futures.get(k).get(), indices, values);
+                k++;
+            }
+        } catch (InterruptedException ie) {
+            throw new RuntimeException("Interrupted while evaluating function: " + ie.getMessage());
+        } catch (ExecutionException ee) {
+            if (ee.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) ee.getCause();
+            }
+            throw new RuntimeException(ee.getCause());
+        }
+    }
+
+    public int getNumArguments() {
+        return function.getNumArguments();
+    }
+
+    public double getLowerBound(int n) {
+        return function.getLowerBound(n);
+    }
+
+    public double getUpperBound(int n) {
+        return function.getUpperBound(n);
+    }
+
+    /**
+     * @return the number of instances of the function
+     */
+    public int getInstanceCount() {
+        return instanceCount;
+    }
+
+    /**
+     * @return the number of points that have been evaluated
+     */
+    public synchronized long getEvaluationCount() {
+        return evaluationCount;
+    }
+
+    /**
+     * @return the number of points whose values were taken from the cache
+     */
+    public synchronized long getCacheHitCount() {
+        return cacheHitCount;
+    }
+
+    /**
+     * Ends the threads (the function can still be used but evaluates points one at a time).
+     */
+    public void shutdown() {
+        if (pool != null) {
+            pool.shutdown();
+            pool = null;
+        }
+    }
+
+    private static void setValues(double value, List<Integer> indices, double[] values) {
+        for (int i : indices) {
+            values[i] = value;
+        }
+    }
+
+    private synchronized Double getCachedValue(Point point) {
+        Double value = cache.get(point);
+        if (value != null) {
+            cacheHitCount++;
+        }
+        return value;
+    }
+
+    private double evaluateOnIdleFunction(Point point) {
+        MultivariateFunction instance;
+        try {
+            instance = idleFunctions.take();
+        } catch (InterruptedException ie) {
+            throw new RuntimeException("Interrupted while waiting for an instance of the function: " + ie.getMessage());
+        }
+
+        double value;
+        try {
+            // a copy as the function may alter its argument
+            value = instance.evaluate(point.argument.clone());
+        } finally {
+            idleFunctions.add(instance);
+        }
+
+        synchronized (this) {
+            evaluationCount++;
+            if (cacheSize > 0) {
+                cache.put(point, value);
+            }
+        }
+        return value;
+    }
+
+    /**
+     * A point as a key of the cache (a copy of the argument compared by value).
+     */
+    private static class Point {
+        Point(double[] argument) {
+            this.argument = argument.clone();
+            this.hashCode = Arrays.hashCode(this.argument);
+        }
+
+        public boolean equals(Object obj) {
+            return obj instanceof Point && Arrays.equals(argument, ((Point) obj).argument);
+        }
+
+        public int hashCode() {
+            return hashCode;
+        }
+
+        private final double[] argument;
+        private final int hashCode;
+    }
+
+    private final MultivariateFunction function;
+    private final int instanceCount;
+    private final BlockingQueue<MultivariateFunction> idleFunctions;
+    private ExecutorService pool;
+
+    private final int cacheSize;
+    private final Map<Point, Double> cache;
+
+    private long evaluationCount = 0;
+    private long cacheHitCount = 0;
+}
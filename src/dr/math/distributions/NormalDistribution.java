@@ -368,6 +368,55 @@ public class NormalDistribution implements Distribution, RandomGenerator {
 
     }
 
+    /**
+     * The log of the standard normal cdf. This gives the same values as standardCDF(x, true) (using
+     * the same rational approximations) but only does the work for the lower tail with the
+     * polynomials unrolled and at most a single exp and log, so it can be called in tight loops
+     * over many values (such as the truncation terms of the MDS likelihood).
+     *
+     * @param x argument
+     * @return log cdf at x
+     */
+    public static double logStandardCDF(double x) {
+        final double y = Math.abs(x);
+
+        if (y <= 0.67448975) {
+            final double xsq = x * x;
+            final double xnum = (((a[4] * xsq + a[0]) * xsq + a[1]) * xsq + a[2]) * xsq;
+            final double xden = (((xsq + b[0]) * xsq + b[1]) * xsq + b[2]) * xsq;
+            return Math.log(0.5 + x * (xnum + a[3]) / (xden + b[3]));
+        }
+
+        if (x > 8.3) {
+            // log(1 - p) with p < 5.3e-17 which is 0 (or within 1e-16 of it) in double precision
+            return 0.0;
+        }
+
+        final double temp;
+        if (y <= M_SQRT_32) {
+            final double xnum = (((((((c[8] * y + c[0]) * y + c[1]) * y + c[2]) * y + c[3]) * y + c[4]) * y + c[5]) * y + c[6]) * y;
+            final double xden = (((((((y + d[0]) * y + d[1]) * y + d[2]) * y + d[3]) * y + d[4]) * y + d[5]) * y + d[6]) * y;
+            temp = (xnum + c[7]) / (xden + d[7]);
+        } else if (y <= Double.MAX_VALUE) {
+            final double xsq = 1.0 / (x * x);
+            final double xnum = ((((p_[5] * xsq + p_[0]) * xsq + p_[1]) * xsq + p_[2]) * xsq + p_[3]) * xsq;
+            final double xden = ((((xsq + q[0]) * xsq + q[1]) * xsq + q[2]) * xsq + q[3]) * xsq;
+            temp = (M_1_SQRT_2PI - xsq * (xnum + p_[4]) / (xden + q[4])) / y;
+        } else {
+            // infinite or NaN
+            return (x > 0.0 ? 0.0 : (x < 0.0 ? Double.NEGATIVE_INFINITY : Double.NaN));
+        }
+
+        // split y^2 so the exponent is exact (as in standardCDF)
+        final double ysq = ((long) (y * CUTOFF)) * 1.0 / CUTOFF;
+        final double del = (y - ysq) * (y + ysq);
+        if (x > 0.0) {
+            // the upper tail is less than 0.25 so a single exp is accurate enough here
+            return Math.log(1.0 - Math.exp(-(ysq * ysq + del) * 0.5) * temp);
+        }
+        return (-ysq * ysq * 0.5) + (-del * 0.5) + Math.log(temp);
+    }
+
     // Private
 
     protected double m, sd;
@@ -0,0 +1,207 @@
+/*
+ * OrderStatistics.java
+ *
+ * Copyright (c) 2002-2017 Alexei Drummond, Andrew Rambaut and Marc Suchard
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ */
+
+package dr.stats;
+
+import java.util.Arrays;
+
+/**
+ * Finds quantiles and HPD intervals of a sample without sorting all of it. The values are
+ * rearranged (in linear time) into buckets of equal width so that each bucket holds a contiguous
+ * run of ranks. Only the buckets that hold a rank that is asked for are then sorted.
+ *
+ * The results are the same as those of DiscreteStatistics.quantile and
+ * DiscreteStatistics.HPDInterval with the values fully sorted.
+ */
+public class OrderStatistics {
+
+    private static final int VALUES_PER_BUCKET = 8;
+
+    /**
+     * @param values the sample - this array is reordered and kept (so pass a copy if the order matters)
+     */
+    public OrderStatistics(double[] values) {
+        this.values = values;
+
+        final int n = values.length;
+        if (n == 0) {
+            throw new IllegalArgumentException("There are no values");
+        }
+
+        double min = Double.POSITIVE_INFINITY;
+        double max = Double.NEGATIVE_INFINITY;
+        for (double value : values) {
+            if (value < min) min = value;
+            if (value > max) max = value;
+        }
+
+        double width = (max - min) / Math.max(n / VALUES_PER_BUCKET, 1);
+        if (!(width > 0.0) || Double.isInfinite(width)) {
+            // a single bucket (so it is fully sorted when asked)
+            bucketStarts = new int[]{0, n};
+            sorted = new boolean[1];
+            this.min = min;
+            this.width = Double.POSITIVE_INFINITY;
+            return;
+        }
+        this.min = min;
+        this.width = width;
+
+        final int bucketCount = Math.max(n / VALUES_PER_BUCKET, 1);
+        int[] buckets = new int[n];
+        bucketStarts = new int[bucketCount + 1];
+        for (int i = 0; i < n; i++) {
+            buckets[i] = getBucket(values[i], bucketCount);
+            bucketStarts[buckets[i] + 1]++;
+        }
+        for (int k = 0; k < bucketCount; k++) {
+            bucketStarts[k + 1] += bucketStarts[k];
+        }
+
+        // a counting sort by bucket
+        int[] next = Arrays.copyOf(bucketStarts, bucketCount);
+        double[] arranged = new double[n];
+        for (int i = 0; i < n; i++) {
+            arranged[next[buckets[i]]] = values[i];
+            next[buckets[i]]++;
+        }
+        System.arraycopy(arranged, 0, values, 0, n);
+        sorted = new boolean[bucketCount];
+    }
+
+    private int getBucket(double value, int bucketCount) {
+        if (Double.isNaN(value)) {
+            return bucketCount - 1;
+        }
+        int k = (int) ((value - min) / width);
+        return Math.max(Math.min(k, bucketCount - 1), 0);
+    }
+
+    public int getCount() {
+        return values.length;
+    }
+
+    /**
+     * @param rank the rank (from 0)
+     * @return the value with the given rank
+     */
+    public double getValue(int rank) {
+        sortBucket(findBucket(rank));
+        return values[rank];
+    }
+
+    /**
+     * compute the q-th quantile (defined as in DiscreteStatistics)
+     *
+     * @param q quantile (0 <= q <= 1)
+     * @return q-th quantile
+     */
+    public double getQuantile(double q) {
+        if (q < 0.0 || q > 1.0) throw new IllegalArgumentException("Quantile out of range");
+
+        if (q == 0.0) {
+            return getValue(0) - 1.0;
+        }
+        return getValue((int) Math.ceil(q * values.length) - 1);
+    }
+
+    /**
+     * Determine the highest posterior density for the values. The HPD is the smallest interval
+     * containing the required amount of elements (the lowest if there is more than one).
+     *
+     * Starting from the width of the central interval, only the buckets where an interval that
+     * narrow could start, and those where it would end, are sorted.
+     *
+     * @param proportion of elements inside the interval
+     * @return the interval, an array of {low, high} values.
+     */
+    public double[] getHPDInterval(double proportion) {
+        final int n = values.length;
+        final int diff = Math.max((int) Math.round(proportion * (double) n), 1);
+        final int bucketCount = sorted.length;
+
+        final int centre = (n - diff) / 2;
+        final double bound = Math.abs(getValue(centre + diff - 1) - getValue(centre));
+
+        double minRange = Double.MAX_VALUE;
+        int hpdIndex = 0;
+
+        for (int k = 0; k < bucketCount; k++) {
+            final int first = bucketStarts[k];
+            final int last = Math.min(bucketStarts[k + 1], n - diff + 1);
+            if (first >= last) {
+                continue;
+            }
+
+            // the narrowest an interval starting in this bucket could be (allowing a bucket for rounding)
+            final int endBucket = findBucket(first + diff - 1);
+            if ((endBucket - k - 2) * width > bound) {
+                continue;
+            }
+
+            sortBucket(k);
+            for (int b = endBucket, end = findBucket(last + diff - 2); b <= end; b++) {
+                sortBucket(b);
+            }
+            for (int i = first; i < last; i++) {
+                final double range = Math.abs(values[i + diff - 1] - values[i]);
+                if (range < minRange) {
+                    minRange = range;
+                    hpdIndex = i;
+                }
+            }
+        }
+
+        return new double[]{values[hpdIndex], values[hpdIndex + diff - 1]};
+    }
+
+    private int findBucket(int rank) {
+        if (rank < 0 || rank >= values.length) {
+            throw new IndexOutOfBoundsException("Rank " + rank + " is out of range");
+        }
+        int k = Arrays.binarySearch(bucketStarts, rank);
+        if (k < 0) {
+            return -k - 2;
+        }
+        // skip over any empty buckets
+        while (bucketStarts[k + 1] == rank) {
+            k++;
+        }
+        return k;
+    }
+
+    private void sortBucket(int k) {
+        if (!sorted[k]) {
+            Arrays.sort(values, bucketStarts[k], bucketStarts[k + 1]);
+            sorted[k] = true;
+        }
+    }
+
+    private final double[] values;
+    private final int[] bucketStarts;
+    private final boolean[] sorted;
+    private final double min;
+    private final double width;
+}
@@ -57,6 +57,7 @@ public class XMLObject {
 
        this(obj.element, null);
        nativeObject = ((List)obj.getNativeObject()).get(index);
+       parser = obj.parser;
    }
 
     /**
@@ -495,6 +496,31 @@ public class XMLObject {
         return (getRawChild(child) instanceof Reference);
     }
 
+    /**
+     * Creates independent copies of objects that have been built by the parser (children of this
+     * element or objects with an id) by converting their elements, and those of every model,
+     * parameter or likelihood they refer to, again. Each copy of the given objects is built
+     * together so they refer to each other as the originals do.
+     *
+     * @param objects the objects to copy
+     * @param count   the number of copies
+     * @return for each copy, the copies of the objects in the given order
+     */
+    public List<Object[]> createCopies(Object[] objects, int count) throws XMLParseException {
+        if (parser == null) {
+            throw new XMLParseException("Copies of objects can only be created while the " + getName() + " element is being parsed");
+        }
+        return parser.createCopies(this, objects, count);
+    }
+
+    Element getElement() {
+        return element;
+    }
+
+    void setParser(XMLParser parser) {
+        this.parser = parser;
+    }
+
     //*********************************************************************
     // Static members
     //*********************************************************************
@@ -656,6 +682,9 @@ public class XMLObject {
 
     private Object nativeObject;
 
+    // the parser that built this object (used to create copies)
+    private XMLParser parser;
+
     // The objectStore representing the local scope of this element.
 //	private ObjectStore store;
 }
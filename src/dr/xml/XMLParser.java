@@ -25,9 +25,11 @@
 
 package dr.xml;
 
+import dr.evolution.tree.Tree;
 import dr.inference.model.Likelihood;
 import dr.inference.model.Model;
 import dr.inference.model.Parameter;
+import dr.inference.model.Variable;
 import dr.inferencexml.loggers.LoggerParser;
 import dr.util.*;
 import org.w3c.dom.*;
@@ -38,6 +40,7 @@ import org.xml.sax.helpers.DefaultHandler;
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.*;
 
 public class XMLParser {
 
@@ -46,6 +49,18 @@ public class XMLParser {
     public static final String CONCURRENT = "concurrent";
     public static final String VERSION = "version";
 
+    // system properties controlling the construction of the top level elements
+    public static final String PARSER_THREADS = "parser.threads";
+    public static final String PARSER_CONCURRENT_ELEMENTS = "parser.concurrent.elements";
+    public static final String PARSER_TIMING = "parser.timing";
+
+    /**
+     * Top level elements that only depend on previously declared objects (taxa, data types etc.)
+     * and are not referenced by anything but idref so can be built on a separate thread.
+     */
+    public static final String DEFAULT_CONCURRENT_ELEMENTS =
+            "alignment,patterns,mergePatterns,attributePatterns,ascertainedPatterns";
+
     private Vector<Thread> threads = new Vector<Thread>();
     protected boolean strictXML;
     protected boolean parserWarnings;
@@ -72,33 +87,138 @@ public class XMLParser {
         boolean replaced = false;
         String[] parserNames = parser.getParserNames();
 
-        for (String parserName : parserNames) {
-            XMLObjectParser oldParser = parserStore.get(parserName);
-            if (oldParser != null) {
-                if (!canReplace) {
-                    throw new IllegalArgumentException("New parser (" + parser.getParserName()
-                            + ") in {" + parser.getReturnType() + "} cannot replace existing parser ("
-                            + oldParser.getParserName() + ") in {" + oldParser.getReturnType() + "}");
-                } else {
-                    replaced = true;
+        synchronized (parserStore) {
+            for (String parserName : parserNames) {
+                XMLObjectParser oldParser = parserStore.get(parserName);
+                if (oldParser != null) {
+                    if (!canReplace) {
+                        throw new IllegalArgumentException("New parser (" + parser.getParserName()
+                                + ") in {" + parser.getReturnType() + "} cannot replace existing parser ("
+                                + oldParser.getParserName() + ") in {" + oldParser.getReturnType() + "}");
+                    } else {
+                        replaced = true;
+                    }
                 }
+                String oldClassName = lazyParserStore.remove(parserName);
+                if (oldClassName != null) {
+                    if (!canReplace) {
+                        throw new IllegalArgumentException("New parser (" + parser.getParserName()
+                                + ") in {" + parser.getReturnType() + "} cannot replace existing parser ("
+                                + parserName + ") in {" + oldClassName + "}");
+                    } else {
+                        replaced = true;
+                    }
+                }
+                parserStore.put(parserName, parser);
             }
-            parserStore.put(parserName, parser);
         }
 
         return replaced;
     }
 
+    /**
+     * Register a parser class by the element names it handles without loading it. The class
+     * is loaded and instantiated the first time one of the names is looked up. The class is
+     * either an XMLObjectParser with a public no-argument constructor or a class with static
+     * fields holding XMLObjectParsers (as listed in the *_parsers.properties files).
+     *
+     * @param className   the fully qualified name of the class
+     * @param parserNames the element names the parser(s) in the class respond to
+     * @param canReplace  whether these names can replace those of a previously registered parser
+     * @return true if an existing parser was replaced
+     */
+    public boolean addLazyXMLObjectParser(String className, String[] parserNames, boolean canReplace) {
+
+        boolean replaced = false;
+
+        synchronized (parserStore) {
+            for (String parserName : parserNames) {
+                XMLObjectParser oldParser = parserStore.get(parserName);
+                String oldClassName = lazyParserStore.get(parserName);
+                if (oldParser != null || oldClassName != null) {
+                    if (!canReplace) {
+                        throw new IllegalArgumentException("New parser (" + parserName
+                                + ") in {" + className + "} cannot replace existing parser ("
+                                + parserName + ") in {" + (oldParser != null ?
+                                oldParser.getReturnType() : oldClassName) + "}");
+                    } else {
+                        replaced = true;
+                    }
+                }
+            }
+            for (String parserName : parserNames) {
+                parserStore.remove(parserName);
+                lazyParserStore.put(parserName, className);
+            }
+        }
+
+        return replaced;
+    }
+
+    /**
+     * Load a lazily registered parser class and register its parsers under the names
+     * which have not since been taken by another parser.
+     */
+    private void resolveLazyParser(String className) {
+        List<XMLObjectParser> parsers = new ArrayList<XMLObjectParser>();
+        try {
+            Class parserClass = Class.forName(className);
+            if (XMLObjectParser.class.isAssignableFrom(parserClass)) {
+                parsers.add((XMLObjectParser) parserClass.newInstance());
+            } else {
+                for (java.lang.reflect.Field field : parserClass.getDeclaredFields()) {
+                    if (XMLObjectParser.class.isAssignableFrom(field.getType())) {
+                        parsers.add((XMLObjectParser) field.get(null));
+                    }
+                }
+            }
+        } catch (Exception e) {
+            System.err.println("\nFailed to load parser: " + e.getMessage());
+            System.err.println("class = " + className + "\n");
+        }
+
+        // these names are no longer lazy whether or not the class could be loaded
+        lazyParserStore.values().removeAll(Collections.singleton(className));
+
+        for (XMLObjectParser parser : parsers) {
+            for (String parserName : parser.getParserNames()) {
+                if (!parserStore.containsKey(parserName) && !lazyParserStore.containsKey(parserName)) {
+                    parserStore.put(parserName, parser);
+                }
+            }
+        }
+    }
+
     public Iterator getParserNames() {
-        return parserStore.keySet().iterator();
+        synchronized (parserStore) {
+            Set<String> names = new TreeSet<String>(new ParserComparator());
+            names.addAll(parserStore.keySet());
+            names.addAll(lazyParserStore.keySet());
+            return names.iterator();
+        }
     }
 
     public XMLObjectParser getParser(String name) {
-        return parserStore.get(name);
+        synchronized (parserStore) {
+            XMLObjectParser parser = parserStore.get(name);
+            if (parser == null) {
+                String className = lazyParserStore.get(name);
+                if (className != null) {
+                    resolveLazyParser(className);
+                    parser = parserStore.get(name);
+                }
+            }
+            return parser;
+        }
     }
 
     public Iterator getParsers() {
-        return parserStore.values().iterator();
+        synchronized (parserStore) {
+            while (!lazyParserStore.isEmpty()) {
+                resolveLazyParser(lazyParserStore.values().iterator().next());
+            }
+            return new ArrayList<XMLObjectParser>(parserStore.values()).iterator();
+        }
     }
 
     public Iterator getThreads() {
@@ -141,6 +261,7 @@ public class XMLParser {
         if (e.getTagName().equals("beast")) {
 
             concurrent = false;
+            // searching for a target object relies on elements being built in order
             return convert(e, target, null, false, true);
 
         } else {
@@ -172,7 +293,18 @@ public class XMLParser {
             }
 
             concurrent = false;
-            root = (XMLObject) convert(e, null, null, run, true);
+            threadCount = getThreadCount();
+            try {
+                root = (XMLObject) convert(e, null, null, run, true);
+            } finally {
+                if (executor != null) {
+                    executor.shutdownNow();
+                    executor = null;
+                }
+                pendingIds.clear();
+                pendingTasks.clear();
+            }
+            reportElementTimes();
 
         } else {
             throw new dr.xml.XMLParseException("Unknown root document element, " + e.getTagName());
@@ -245,7 +377,7 @@ public class XMLParser {
                 throw new XMLParseException("Object with idref=" + idref + " has not been parsed.");
             }
 
-            XMLObjectParser parser = parserStore.get(e.getTagName());
+            XMLObjectParser parser = getParser(e.getTagName());
             boolean classMatch = parser != null && parser.getReturnType().isAssignableFrom(restoredXMLObject.getNativeObject().getClass());
 
             if (!e.getTagName().equals(restoredXMLObject.getName()) && !classMatch) {
@@ -276,8 +408,13 @@ public class XMLParser {
             }
 
             XMLObject xo = new XMLObject(e, parent);
+            xo.setParser(this);
+
+            final XMLObjectParser parser = doParse ? getParser(xo.getName()) : null;
 
-            final XMLObjectParser parser = doParse ? parserStore.get(xo.getName()) : null;
+            // the top level elements of the document may be built concurrently
+            final boolean concurrentChildren = parent == null && target == null && threadCount > 1;
+            final List<Object> topLevelChildren = new ArrayList<Object>();
 
             String id = null;
             NodeList nodes = e.getChildNodes();
@@ -293,6 +430,22 @@ public class XMLParser {
 
                         // don't parse elements that may be legal here with global parsers
                         final boolean parseIt = parser == null || !parser.isAllowed(tag);
+
+                        if (concurrentChildren) {
+                            if (concurrentElements.contains(tag)) {
+                                topLevelChildren.add(submitConversion(element, xo, parseIt));
+                            } else {
+                                if (isRunnable(element)) {
+                                    // nothing is run until everything before it has been built
+                                    waitForPendingTasks();
+                                } else {
+                                    waitForReferencedObjects(element);
+                                }
+                                topLevelChildren.add(convert(element, null, xo, run, parseIt));
+                            }
+                            continue;
+                        }
+
                         Object xoc = convert(element, target, xo, run, parseIt);
                         xo.addChild(xoc);
 
@@ -307,11 +460,25 @@ public class XMLParser {
                         // just add text as a child of type String object
                         String text = ((Text) child).getData().trim();
                         if (text.length() > 0) {
-                            xo.addChild(text);
+                            if (concurrentChildren) {
+                                topLevelChildren.add(text);
+                            } else {
+                                xo.addChild(text);
+                            }
                         }
                     }
                 }
             }
+            if (concurrentChildren) {
+                // wait for everything to be built and add the children in document order
+                for (Object xoc : topLevelChildren) {
+                    if (xoc instanceof Future) {
+                        xoc = getFutureObject((Future) xoc);
+                    }
+                    xo.addChild(xoc);
+                }
+            }
+
             if (e.hasAttribute(ID)) {
                 id = e.getAttribute(ID);
             }
@@ -322,22 +489,30 @@ public class XMLParser {
 
             Object obj = null;
             if (parser != null) {
+                final long startTime = System.nanoTime();
+
                 obj = parser.parseXMLObject(xo, id, objectStore, strictXML);
 
+                recordElementTime(xo.getName(), System.nanoTime() - startTime);
+
                 if (obj instanceof Identifiable) {
                     ((Identifiable) obj).setId(id);
                 }
 
-                if (obj instanceof Citable) {
-                    addCitable((Citable)obj);
-                }
+                synchronized (objectStore) {
+                    if (obj instanceof Citable) {
+                        addCitable((Citable) obj);
+                    }
 
-                if (obj instanceof Likelihood) {
-                    Likelihood.FULL_LIKELIHOOD_SET.add((Likelihood) obj);
-                } else if (obj instanceof Model) {
-                    Model.FULL_MODEL_SET.add((Model) obj);
-                } else if (obj instanceof Parameter) {
-                    Parameter.FULL_PARAMETER_SET.add((Parameter) obj);
+                    if (copying) {
+                        // copies are not part of the model that is checked for unused components
+                    } else if (obj instanceof Likelihood) {
+                        Likelihood.FULL_LIKELIHOOD_SET.add((Likelihood) obj);
+                    } else if (obj instanceof Model) {
+                        Model.FULL_MODEL_SET.add((Model) obj);
+                    } else if (obj instanceof Parameter) {
+                        Parameter.FULL_PARAMETER_SET.add((Parameter) obj);
+                    }
                 }
 
                 xo.setNativeObject(obj);
@@ -346,7 +521,13 @@ public class XMLParser {
             if (id != null) {
                 if (verbose) System.out.println("  Storing " + xo.getName() + " with id=" + id);
 
-                objectStore.put(id, xo);
+                // checked again as the same id may have been stored by an element built concurrently
+                synchronized (objectStore) {
+                    if (objectStore.get(id) != null) {
+                        throw new XMLParseException("Object with Id=" + id + " already exists");
+                    }
+                    objectStore.put(id, xo);
+                }
             }
 
             if (run) {
@@ -366,6 +547,9 @@ public class XMLParser {
                     }
                 } else if (obj instanceof Runnable && !concurrent) {
 
+                    // everything is built by now so report the time taken before running
+                    reportElementTimes();
+
                     executingRunnable();
 
                     if (obj instanceof Spawnable && !((Spawnable) obj).getSpawnable()) {
@@ -388,6 +572,481 @@ public class XMLParser {
         // do nothing - for overriding by subclasses
     }
 
+    /**
+     * @return the number of threads to build the top level elements on (1, i.e. in turn, unless
+     * the parser.threads property is set; 0 or less for the number of processors)
+     */
+    private static int getThreadCount() {
+        int threads = 1;
+        String property = System.getProperty(PARSER_THREADS);
+        if (property != null) {
+            try {
+                threads = Integer.parseInt(property.trim());
+            } catch (NumberFormatException nfe) {
+                throw new IllegalArgumentException("The system property " + PARSER_THREADS + " should be an integer");
+            }
+            if (threads < 1) {
+                threads = Runtime.getRuntime().availableProcessors();
+            }
+        }
+        return threads;
+    }
+
+    private static Set<String> getConcurrentElements() {
+        Set<String> elements = new HashSet<String>();
+        for (String name : System.getProperty(PARSER_CONCURRENT_ELEMENTS, DEFAULT_CONCURRENT_ELEMENTS).split(",")) {
+            if (name.trim().length() > 0) {
+                elements.add(name.trim());
+            }
+        }
+        return elements;
+    }
+
+    /**
+     * Build a top level element on a worker thread. The element is copied into its own
+     * document first as DOM implementations are not safe to read from several threads. Any
+     * of its idrefs that refer to other elements being built concurrently are waited for
+     * before it is converted.
+     *
+     * @return the future XMLObject
+     */
+    private Future<Object> submitConversion(final Element element, final XMLObject parent, final boolean parseIt) {
+        if (executor == null) {
+            executor = Executors.newFixedThreadPool(threadCount, new ThreadFactory() {
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "xml-parser");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+
+        final List<Future<Object>> dependencies = new ArrayList<Future<Object>>();
+        for (String idref : getAttributeValues(element, IDREF)) {
+            Future<Object> dependency = pendingIds.get(idref);
+            if (dependency != null) {
+                dependencies.add(dependency);
+            }
+        }
+
+        Document document = element.getOwnerDocument().getImplementation().createDocument(null, null, null);
+        final Element copy = (Element) document.importNode(element, true);
+
+        // tasks only wait on earlier tasks which, as the pool is first in first out, are
+        // already running or finished so this cannot deadlock.
+        Future<Object> future = executor.submit(new Callable<Object>() {
+            public Object call() throws Exception {
+                for (Future<Object> dependency : dependencies) {
+                    getFutureObject(dependency);
+                }
+                return convert(copy, null, parent, false, parseIt);
+            }
+        });
+
+        for (String id : getAttributeValues(element, ID)) {
+            pendingIds.put(id, future);
+        }
+        pendingTasks.add(future);
+
+        return future;
+    }
+
+    /**
+     * @return true if the element is run once it is built
+     */
+    private boolean isRunnable(Element element) {
+        if (element.getTagName().equals(CONCURRENT)) {
+            return true;
+        }
+        XMLObjectParser parser = getParser(element.getTagName());
+        return parser != null && Runnable.class.isAssignableFrom(parser.getReturnType());
+    }
+
+    /**
+     * Wait for all the elements being built concurrently (throwing the error of the first that
+     * failed, if any).
+     */
+    private void waitForPendingTasks() throws XMLParseException {
+        for (Future<Object> task : pendingTasks) {
+            getFutureObject(task);
+        }
+    }
+
+    /**
+     * Wait for any elements being built concurrently that this element refers to.
+     */
+    private void waitForReferencedObjects(Element element) throws XMLParseException {
+        boolean pending = false;
+        for (Future<Object> task : pendingTasks) {
+            if (!task.isDone()) {
+                pending = true;
+                break;
+            }
+        }
+        if (!pending) {
+            return;
+        }
+        for (String idref : getAttributeValues(element, IDREF)) {
+            Future<Object> future = pendingIds.get(idref);
+            if (future != null) {
+                getFutureObject(future);
+            }
+        }
+    }
+
+    /**
+     * Creates copies of objects by converting their elements again into a separate object store.
+     * Everything they refer to that holds state (models, parameters and likelihoods, and anything
+     * built from these such as statistics and operators) is copied too, in document order, while
+     * the objects that don't (taxa, alignments, patterns and starting trees) are shared with the
+     * originals. The elements that enclose these are descended into without being parsed so that
+     * the runnables and loggers that contain them are not built again.
+     */
+    List<Object[]> createCopies(XMLObject scope, Object[] objects, int count) throws XMLParseException {
+
+        Element[] targets = new Element[objects.length];
+        for (int i = 0; i < objects.length; i++) {
+            XMLObject xo = findXMLObject(scope, objects[i]);
+            if (xo == null) {
+                throw new XMLParseException("Object, " + objects[i] + ", can not be copied as it is not a child of " +
+                        scope.getName() + " or an object with an id");
+            }
+            targets[i] = xo.getElement();
+        }
+
+        // the object store is swapped below so wait for anything still being built concurrently
+        waitForPendingTasks();
+
+        Element documentElement = targets[0].getOwnerDocument().getDocumentElement();
+        Map<String, Element> declarations = new HashMap<String, Element>();
+        for (Element element : getElements(documentElement)) {
+            if (element.hasAttribute(ID)) {
+                declarations.put(element.getAttribute(ID), element);
+            }
+        }
+
+        // the elements that are being parsed are never built again
+        Set<Element> parsing = new HashSet<Element>();
+        for (XMLObject xo = scope; xo != null; xo = xo.getParent()) {
+            parsing.add(xo.getElement());
+        }
+
+        // the outermost elements to build (everything in them is built too)
+        Set<Element> units = new LinkedHashSet<Element>();
+        Map<String, Boolean> stateful = new HashMap<String, Boolean>();
+        List<Element> pending = new ArrayList<Element>();
+        for (Element target : targets) {
+            pending.add(getCopyUnit(target, parsing));
+        }
+        while (!pending.isEmpty()) {
+            Element unit = pending.remove(pending.size() - 1);
+            if (units.add(unit)) {
+                for (String idref : getAttributeValues(unit, IDREF)) {
+                    Element declaration = declarations.get(idref);
+                    if (declaration != null && dependsOnState(idref, declarations, stateful)) {
+                        pending.add(getCopyUnit(declaration, parsing));
+                    }
+                }
+            }
+        }
+        for (Element unit : new ArrayList<Element>(units)) {
+            for (Node node = unit.getParentNode(); node instanceof Element; node = node.getParentNode()) {
+                if (units.contains(node)) {
+                    units.remove(unit);
+                    break;
+                }
+            }
+        }
+
+        // the elements that enclose the units are descended into without being parsed
+        Set<Element> path = new HashSet<Element>();
+        for (Element unit : units) {
+            for (Node node = unit.getParentNode(); node instanceof Element; node = node.getParentNode()) {
+                path.add((Element) node);
+            }
+        }
+
+        Set<String> copiedIds = new HashSet<String>();
+        for (Element unit : units) {
+            copiedIds.addAll(getAttributeValues(unit, ID));
+        }
+
+        List<Object[]> copies = new ArrayList<Object[]>();
+
+        // the messages of the parsers would be the same as the first time
+        java.util.logging.Logger logger = java.util.logging.Logger.getLogger("dr");
+        java.util.logging.Level level = logger.getLevel();
+        logger.setLevel(java.util.logging.Level.WARNING);
+
+        final Map<String, XMLObject> originalStore = objectStore;
+        copying = true;
+        try {
+            for (int k = 0; k < count; k++) {
+                objectStore = Collections.synchronizedMap(new LinkedHashMap<String, XMLObject>());
+                for (Map.Entry<String, XMLObject> entry : originalStore.entrySet()) {
+                    if (!copiedIds.contains(entry.getKey())) {
+                        objectStore.put(entry.getKey(), entry.getValue());
+                    }
+                }
+
+                XMLObject xo = convertCopy(documentElement, true, null, units, path);
+
+                Object[] copy = new Object[objects.length];
+                for (int i = 0; i < objects.length; i++) {
+                    copy[i] = findConvertedXMLObject(xo, targets[i]).getNativeObject();
+                }
+                copies.add(copy);
+            }
+        } finally {
+            objectStore = originalStore;
+            copying = false;
+            logger.setLevel(level);
+        }
+
+        return copies;
+    }
+
+    /**
+     * Converts the units in the given element, descending into the elements on the path to them
+     * without parsing these.
+     */
+    private XMLObject convertCopy(Element e, boolean doParse, XMLObject parent, Set<Element> units, Set<Element> path) throws XMLParseException {
+        XMLObject xo = new XMLObject(e, parent);
+        xo.setParser(this);
+
+        final XMLObjectParser parser = doParse ? getParser(xo.getName()) : null;
+
+        NodeList nodes = e.getChildNodes();
+        for (int i = 0; i < nodes.getLength(); i++) {
+            Node child = nodes.item(i);
+            if (child instanceof Element) {
+                final Element element = (Element) child;
+                final boolean parseIt = parser == null || !parser.isAllowed(element.getTagName());
+                if (units.contains(element)) {
+                    xo.addChild(convert(element, null, xo, false, parseIt));
+                } else if (path.contains(element)) {
+                    xo.addChild(convertCopy(element, parseIt, xo, units, path));
+                }
+            }
+        }
+        return xo;
+    }
+
+    /**
+     * @return the outermost element enclosing the given one that can be built again (i.e., below
+     * the document element and any element being parsed, runnable or logger)
+     */
+    private Element getCopyUnit(Element element, Set<Element> parsing) {
+        Element unit = element;
+        while (unit.getParentNode() instanceof Element) {
+            Element parent = (Element) unit.getParentNode();
+            if (parent == element.getOwnerDocument().getDocumentElement() || parsing.contains(parent)) {
+                break;
+            }
+            XMLObjectParser parser = getParser(parent.getTagName());
+            if (parser != null && (Runnable.class.isAssignableFrom(parser.getReturnType()) ||
+                    dr.inference.loggers.Logger.class.isAssignableFrom(parser.getReturnType()))) {
+                break;
+            }
+            unit = parent;
+        }
+        return unit;
+    }
+
+    /**
+     * @return whether the object with the given id holds state or was built from something that does
+     */
+    private boolean dependsOnState(String id, Map<String, Element> declarations, Map<String, Boolean> stateful) {
+        Boolean depends = stateful.get(id);
+        if (depends != null) {
+            return depends;
+        }
+        // guards against cycles
+        stateful.put(id, false);
+
+        XMLObject xo = objectStore.get(id);
+        Object obj = (xo != null ? xo.getNativeObject() : null);
+        if (obj instanceof Tree && !(obj instanceof Model)) {
+            // a starting tree is only read when a tree model is built
+            depends = false;
+        } else if (obj instanceof Model || obj instanceof Variable || obj instanceof Likelihood) {
+            depends = true;
+        } else {
+            depends = false;
+            Element declaration = declarations.get(id);
+            List<String> ids = getAttributeValues(declaration, IDREF);
+            ids.addAll(getAttributeValues(declaration, ID));
+            for (String other : ids) {
+                if (!other.equals(id) && declarations.containsKey(other) &&
+                        dependsOnState(other, declarations, stateful)) {
+                    depends = true;
+                    break;
+                }
+            }
+        }
+
+        stateful.put(id, depends);
+        return depends;
+    }
+
+    /**
+     * @return the XMLObject that built the given object, searching the children of the given
+     * XMLObject and then the objects with an id
+     */
+    private XMLObject findXMLObject(XMLObject xo, Object obj) {
+        XMLObject found = findChildXMLObject(xo, obj);
+        if (found == null) {
+            for (XMLObject stored : objectStore.values()) {
+                if (stored.getNativeObject() == obj) {
+                    return stored;
+                }
+            }
+        }
+        return found;
+    }
+
+    private static XMLObject findChildXMLObject(XMLObject xo, Object obj) {
+        for (int i = 0; i < xo.getChildCount(); i++) {
+            Object child = xo.getRawChild(i);
+            if (child instanceof Reference) {
+                XMLObject cxo = ((Reference) child).getReferenceObject();
+                if (cxo.getNativeObject() == obj) {
+                    return cxo;
+                }
+            } else if (child instanceof XMLObject) {
+                XMLObject cxo = (XMLObject) child;
+                if (cxo.getNativeObject() == obj) {
+                    return cxo;
+                }
+                cxo = findChildXMLObject(cxo, obj);
+                if (cxo != null) {
+                    return cxo;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the XMLObject converted from the given element amongst the descendants of the given XMLObject
+     */
+    private static XMLObject findConvertedXMLObject(XMLObject xo, Element element) {
+        for (int i = 0; i < xo.getChildCount(); i++) {
+            Object child = xo.getRawChild(i);
+            if (child instanceof XMLObject) {
+                XMLObject cxo = (XMLObject) child;
+                if (cxo.getElement() == element) {
+                    return cxo;
+                }
+                cxo = findConvertedXMLObject(cxo, element);
+                if (cxo != null) {
+                    return cxo;
+                }
+            }
+        }
+        return null;
+    }
+
+    private static List<Element> getElements(Element element) {
+        List<Element> elements = new ArrayList<Element>();
+        elements.add(element);
+        NodeList descendants = element.getElementsByTagName("*");
+        for (int i = 0; i < descendants.getLength(); i++) {
+            elements.add((Element) descendants.item(i));
+        }
+        return elements;
+    }
+
+    private static List<String> getAttributeValues(Element element, String attributeName) {
+        List<String> values = new ArrayList<String>();
+        if (element.hasAttribute(attributeName)) {
+            values.add(element.getAttribute(attributeName));
+        }
+        NodeList descendants = element.getElementsByTagName("*");
+        for (int i = 0; i < descendants.getLength(); i++) {
+            Element descendant = (Element) descendants.item(i);
+            if (descendant.hasAttribute(attributeName)) {
+                values.add(descendant.getAttribute(attributeName));
+            }
+        }
+        return values;
+    }
+
+    private static Object getFutureObject(Future future) throws XMLParseException {
+        while (true) {
+            try {
+                return future.get();
+            } catch (InterruptedException ie) {
+                // wait doggedly as with threads
+            } catch (ExecutionException ee) {
+                Throwable cause = ee.getCause();
+                if (cause instanceof XMLParseException) {
+                    throw (XMLParseException) cause;
+                } else if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                } else if (cause instanceof Error) {
+                    throw (Error) cause;
+                }
+                throw new XMLParseException(cause.getMessage());
+            }
+        }
+    }
+
+    private void recordElementTime(String name, long time) {
+        synchronized (elementTimes) {
+            long[] times = elementTimes.get(name);
+            if (times == null) {
+                times = new long[2];
+                elementTimes.put(name, times);
+            }
+            times[0] += 1;
+            times[1] += time;
+        }
+    }
+
+    /**
+     * Print the time spent constructing objects broken down by element name, if the
+     * 'parser.timing' system property is set. The time for an element excludes the time to
+     * construct its children. When elements are built concurrently the times are summed over
+     * threads so may exceed the elapsed time.
+     */
+    private void reportElementTimes() {
+        if (!Boolean.parseBoolean(System.getProperty(PARSER_TIMING, "false"))) {
+            return;
+        }
+
+        List<Map.Entry<String, long[]>> entries;
+        synchronized (elementTimes) {
+            if (elementTimes.isEmpty()) {
+                return;
+            }
+            entries = new ArrayList<Map.Entry<String, long[]>>(elementTimes.entrySet());
+            elementTimes.clear();
+        }
+        Collections.sort(entries, new Comparator<Map.Entry<String, long[]>>() {
+            public int compare(Map.Entry<String, long[]> entry1, Map.Entry<String, long[]> entry2) {
+                return entry1.getValue()[1] < entry2.getValue()[1] ? 1 : (entry1.getValue()[1] > entry2.getValue()[1] ? -1 : 0);
+            }
+        });
+
+        long total = 0;
+        for (Map.Entry<String, long[]> entry : entries) {
+            total += entry.getValue()[1];
+        }
+
+        StringBuilder sb = new StringBuilder();
+        sb.append("\nTime spent constructing objects by element (").append(threadCount > 1 ? threadCount : 1)
+                .append(" thread").append(threadCount > 1 ? "s" : "").append("):\n");
+        sb.append(String.format("  %-40s %10s %12s %7s%n", "element", "count", "time (ms)", "%"));
+        for (Map.Entry<String, long[]> entry : entries) {
+            long[] times = entry.getValue();
+            sb.append(String.format("  %-40s %10d %12.1f %7.1f%n", entry.getKey(), times[0],
+                    times[1] / 1.0E6, total > 0 ? 100.0 * times[1] / total : 0.0));
+        }
+        sb.append(String.format("  %-40s %10s %12.1f%n", "total", "", total / 1.0E6));
+        java.util.logging.Logger.getLogger("dr.xml").info(sb.toString());
+    }
+
     public Map<Pair<String, String>, List<Citation>> getCitationStore() {
         return citationStore;
     }
@@ -594,9 +1253,22 @@ public class XMLParser {
 
     //    private final Hashtable<String, XMLObject> store = new Hashtable<String, XMLObject>();
     private final Map<String, XMLObjectParser> parserStore = new TreeMap<String, XMLObjectParser>(new ParserComparator());
-    private final Map<String, XMLObject> objectStore = new LinkedHashMap<String, XMLObject>();
+    // the class names of parsers that have been registered but not yet loaded
+    private final Map<String, String> lazyParserStore = new TreeMap<String, String>(new ParserComparator());
+    // swapped for a separate store while copies are being created
+    private Map<String, XMLObject> objectStore = Collections.synchronizedMap(new LinkedHashMap<String, XMLObject>());
     private final Map<Pair<String, String>, List<Citation>> citationStore = new LinkedHashMap<Pair<String, String>, List<Citation>>();
+
+    private final Set<String> concurrentElements = getConcurrentElements();
+    private int threadCount = 1;
+    private ExecutorService executor = null;
+    // only accessed by the thread parsing the top level of the document
+    private final Map<String, Future<Object>> pendingIds = new HashMap<String, Future<Object>>();
+    private final List<Future<Object>> pendingTasks = new ArrayList<Future<Object>>();
+    // count and total nanoseconds by element name
+    private final Map<String, long[]> elementTimes = new HashMap<String, long[]>();
     private boolean concurrent = false;
+    private boolean copying = false;
     private XMLObject root = null;
 
     private boolean verbose = false;
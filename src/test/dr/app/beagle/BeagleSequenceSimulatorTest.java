@@ -0,0 +1,239 @@
+/*
+ * BeagleSequenceSimulatorTest.java
+ *
+ * Copyright (c) 2002-2017 Alexei Drummond, Andrew Rambaut and Marc Suchard
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ */
+
+package test.dr.app.beagle;
+
+import dr.app.beagle.tools.AlignmentStreamWriter;
+import dr.app.beagle.tools.BeagleSequenceSimulator;
+import dr.app.beagle.tools.Partition;
+import dr.app.beagle.tools.parsers.PartitionParser;
+import dr.app.beast.BeastParser;
+import dr.xml.XMLObject;
+import junit.framework.TestCase;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Checks that simulating an alignment to a file in blocks of sites gives the same file whatever
+ * the number of threads, and that the FASTA, NEXUS and BINARY files are complete.
+ */
+public class BeagleSequenceSimulatorTest extends TestCase {
+
+    private static final int SITE_COUNT = 500;
+    // not a divisor of the site count so the last block is short
+    private static final int BLOCK_SIZE = 64;
+    private static final long SEED = 666;
+
+    private static final String[] TAXA = {"A", "B", "C", "D"};
+
+    // two partitions taking alternate sites with different models
+    private static final String XML =
+            "<beast>\n" +
+            "  <taxa id=\"taxa\">\n" +
+            "    <taxon id=\"A\"/><taxon id=\"B\"/><taxon id=\"C\"/><taxon id=\"D\"/>\n" +
+            "  </taxa>\n" +
+            "  <newick id=\"startingTree\">((A:0.1,B:0.1):0.2,(C:0.15,D:0.15):0.15);</newick>\n" +
+            "  <treeModel id=\"treeModel\">\n" +
+            "    <newick idref=\"startingTree\"/>\n" +
+            "    <rootHeight><parameter id=\"treeModel.rootHeight\"/></rootHeight>\n" +
+            "    <nodeHeights internalNodes=\"true\"><parameter id=\"treeModel.internalNodeHeights\"/></nodeHeights>\n" +
+            "  </treeModel>\n" +
+            "  <frequencyModel id=\"freqs\" dataType=\"nucleotide\">\n" +
+            "    <frequencies><parameter value=\"0.1 0.2 0.3 0.4\"/></frequencies>\n" +
+            "  </frequencyModel>\n" +
+            "  <HKYModel id=\"hky1\">\n" +
+            "    <frequencies><frequencyModel idref=\"freqs\"/></frequencies>\n" +
+            "    <kappa><parameter value=\"2.0\"/></kappa>\n" +
+            "  </HKYModel>\n" +
+            "  <HKYModel id=\"hky2\">\n" +
+            "    <frequencies><frequencyModel idref=\"freqs\"/></frequencies>\n" +
+            "    <kappa><parameter value=\"10.0\"/></kappa>\n" +
+            "  </HKYModel>\n" +
+            "  <siteModel id=\"siteModel1\">\n" +
+            "    <substitutionModel><HKYModel idref=\"hky1\"/></substitutionModel>\n" +
+            "  </siteModel>\n" +
+            "  <siteModel id=\"siteModel2\">\n" +
+            "    <substitutionModel><HKYModel idref=\"hky2\"/></substitutionModel>\n" +
+            "    <gammaShape gammaCategories=\"4\"><parameter value=\"0.5\"/></gammaShape>\n" +
+            "  </siteModel>\n" +
+            "  <partition id=\"partition1\" from=\"1\" to=\"" + SITE_COUNT + "\" every=\"2\">\n" +
+            "    <treeModel idref=\"treeModel\"/>\n" +
+            "    <HKYModel idref=\"hky1\"/>\n" +
+            "    <siteModel idref=\"siteModel1\"/>\n" +
+            "    <frequencyModel idref=\"freqs\"/>\n" +
+            "  </partition>\n" +
+            "  <partition id=\"partition2\" from=\"2\" to=\"" + SITE_COUNT + "\" every=\"2\">\n" +
+            "    <treeModel idref=\"treeModel\"/>\n" +
+            "    <HKYModel idref=\"hky2\"/>\n" +
+            "    <siteModel idref=\"siteModel2\"/>\n" +
+            "    <frequencyModel idref=\"freqs\"/>\n" +
+            "  </partition>\n" +
+            "</beast>\n";
+
+    private final List<File> files = new ArrayList<File>();
+
+    public void setUp() throws Exception {
+        super.setUp();
+
+        // the partitions are simulated without a native BEAGLE library
+        System.setProperty("java.only", "true");
+    }
+
+    public void tearDown() throws Exception {
+        System.clearProperty("java.only");
+        for (File file : files) {
+            file.delete();
+        }
+        super.tearDown();
+    }
+
+    public void testFastaThreads() throws Exception {
+        byte[] bytes = assertSameForThreads(AlignmentStreamWriter.Format.FASTA, false);
+
+        String[] lines = new String(bytes, "UTF-8").split("\n", -1);
+        assertEquals(2 * TAXA.length + 1, lines.length);
+        for (int i = 0; i < TAXA.length; i++) {
+            assertEquals(">" + TAXA[i], lines[2 * i]);
+            assertTrue(lines[2 * i + 1], lines[2 * i + 1].matches("[ACGT]{" + SITE_COUNT + "}"));
+        }
+        assertEquals("", lines[lines.length - 1]);
+    }
+
+    public void testNexusThreads() throws Exception {
+        byte[] bytes = assertSameForThreads(AlignmentStreamWriter.Format.NEXUS, false);
+
+        String nexus = new String(bytes, "UTF-8");
+        assertTrue(nexus, nexus.startsWith("#NEXUS\n"));
+        assertTrue(nexus, nexus.contains("dimensions ntax=" + TAXA.length + " nchar=" + SITE_COUNT + ";"));
+        assertTrue(nexus, nexus.endsWith("\n;\nend;\n"));
+
+        // the interleaved blocks put the sequences back together as in the FASTA file
+        StringBuilder[] sequences = new StringBuilder[TAXA.length];
+        for (int i = 0; i < TAXA.length; i++) {
+            sequences[i] = new StringBuilder();
+        }
+        String matrix = nexus.substring(nexus.indexOf("matrix\n") + "matrix\n".length(), nexus.lastIndexOf(";\nend;"));
+        for (String line : matrix.split("\n")) {
+            if (line.trim().length() > 0) {
+                String[] fields = line.trim().split("\\s+");
+                sequences[Arrays.asList(TAXA).indexOf(fields[0])].append(fields[1]);
+            }
+        }
+        String[] fasta = new String(simulate(AlignmentStreamWriter.Format.FASTA, 2, false), "UTF-8").split("\n");
+        for (int i = 0; i < TAXA.length; i++) {
+            assertEquals(fasta[2 * i + 1], sequences[i].toString());
+        }
+    }
+
+    public void testBinaryThreads() throws Exception {
+        byte[] bytes = assertSameForThreads(AlignmentStreamWriter.Format.BINARY, true);
+
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+        byte[] magic = new byte[4];
+        in.readFully(magic);
+        assertEquals(AlignmentStreamWriter.BINARY_MAGIC, new String(magic, "UTF-8"));
+        assertEquals(AlignmentStreamWriter.BINARY_VERSION, in.readInt());
+
+        // the tips and, for each partition, the internal nodes other than the root
+        int sequenceCount = in.readInt();
+        assertEquals(TAXA.length + 2 * (TAXA.length - 2), sequenceCount);
+        assertEquals(SITE_COUNT, in.readInt());
+        assertEquals(4, in.readInt());
+
+        for (int i = 0; i < sequenceCount; i++) {
+            String name = in.readUTF();
+            if (i < TAXA.length) {
+                assertEquals(TAXA[i], name);
+            } else {
+                assertTrue(name, name.startsWith("internalNodeHeight"));
+            }
+        }
+
+        // the sequences are those of the FASTA file (the internal nodes of a partition have gaps
+        // at the sites of the other)
+        String[] fasta = new String(simulate(AlignmentStreamWriter.Format.FASTA, 1, true), "UTF-8").split("\n");
+        for (int i = 0; i < sequenceCount; i++) {
+            StringBuilder sequence = new StringBuilder();
+            for (int j = 0; j < SITE_COUNT; j++) {
+                byte state = in.readByte();
+                if (state == AlignmentStreamWriter.BINARY_GAP) {
+                    assertTrue(i >= TAXA.length);
+                    sequence.append('-');
+                } else {
+                    assertTrue(state >= 0 && state < 4);
+                    sequence.append("ACGT".charAt(state));
+                }
+            }
+            assertEquals(fasta[2 * i + 1], sequence.toString());
+        }
+        assertEquals(-1, in.read());
+    }
+
+    private byte[] assertSameForThreads(AlignmentStreamWriter.Format format, boolean ancestral) throws Exception {
+        byte[] serial = simulate(format, 1, ancestral);
+        byte[] threaded = simulate(format, 3, ancestral);
+        assertTrue(format + " output differs between 1 and 3 threads", Arrays.equals(serial, threaded));
+        return serial;
+    }
+
+    /**
+     * Parses the partitions afresh and simulates them to a file.
+     *
+     * @return the contents of the file
+     */
+    private byte[] simulate(AlignmentStreamWriter.Format format, int threadCount, boolean ancestral) throws Exception {
+        BeastParser parser = new BeastParser(new String[0], null, false, false, false, null);
+        parser.addXMLObjectParser(new PartitionParser());
+        Map<String, XMLObject> store = parser.parse(new StringReader(XML), false);
+
+        ArrayList<Partition> partitions = new ArrayList<Partition>();
+        partitions.add((Partition) store.get("partition1").getNativeObject());
+        partitions.add((Partition) store.get("partition2").getNativeObject());
+
+        File file = File.createTempFile("simulated", "." + format.getText());
+        files.add(file);
+
+        new BeagleSequenceSimulator(partitions).simulate(file, format, threadCount, BLOCK_SIZE, SEED, ancestral);
+
+        return read(file);
+    }
+
+    private static byte[] read(File file) throws IOException {
+        byte[] bytes = new byte[(int) file.length()];
+        DataInputStream in = new DataInputStream(new FileInputStream(file));
+        in.readFully(bytes);
+        in.close();
+        return bytes;
+    }
+}
@@ -0,0 +1,227 @@
+/*
+ * ReplicateSimulatorTest.java
+ *
+ * Copyright (c) 2002-2017 Alexei Drummond, Andrew Rambaut and Marc Suchard
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ */
+
+package test.dr.app.beagle;
+
+import dr.app.beagle.tools.parsers.PartitionParser;
+import dr.app.beagle.tools.parsers.ReplicateSimulatorParser;
+import dr.app.beast.BeastParser;
+import dr.inference.model.Parameter;
+import dr.xml.XMLObject;
+import junit.framework.TestCase;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Checks that the replicates simulated by the replicateSimulator element and their index file are
+ * the same whatever the number of threads and that the states of the posterior sample are spread
+ * over the replicates.
+ */
+public class ReplicateSimulatorTest extends TestCase {
+
+    // states 0 to 1000 every 100 with a burn-in of 200 leaves 9 states
+    private static final int STATE_COUNT = 9;
+    private static final long BURN_IN = 200;
+    // the same stem for every run so the index files can be compared
+    private static final String STEM = "replicate";
+
+    private static final String XML =
+            "<beast>\n" +
+            "  <taxa id=\"taxa\">\n" +
+            "    <taxon id=\"A\"/><taxon id=\"B\"/><taxon id=\"C\"/><taxon id=\"D\"/><taxon id=\"E\"/>\n" +
+            "  </taxa>\n" +
+            "  <newick id=\"startingTree\">(((A:0.1,B:0.1):0.1,C:0.2):0.1,(D:0.15,E:0.15):0.15);</newick>\n" +
+            "  <treeModel id=\"treeModel\">\n" +
+            "    <newick idref=\"startingTree\"/>\n" +
+            "    <rootHeight><parameter id=\"treeModel.rootHeight\"/></rootHeight>\n" +
+            "    <nodeHeights internalNodes=\"true\"><parameter id=\"treeModel.internalNodeHeights\"/></nodeHeights>\n" +
+            "  </treeModel>\n" +
+            "  <constantSize id=\"demographic\" units=\"substitutions\">\n" +
+            "    <populationSize><parameter value=\"0.1\"/></populationSize>\n" +
+            "  </constantSize>\n" +
+            "  <frequencyModel id=\"freqs\" dataType=\"nucleotide\">\n" +
+            "    <frequencies><parameter value=\"0.1 0.2 0.3 0.4\"/></frequencies>\n" +
+            "  </frequencyModel>\n" +
+            "  <HKYModel id=\"hky\">\n" +
+            "    <frequencies><frequencyModel idref=\"freqs\"/></frequencies>\n" +
+            "    <kappa><parameter id=\"kappa\" value=\"2.0\"/></kappa>\n" +
+            "  </HKYModel>\n" +
+            "  <siteModel id=\"siteModel\">\n" +
+            "    <substitutionModel><HKYModel idref=\"hky\"/></substitutionModel>\n" +
+            "  </siteModel>\n" +
+            "  <partition id=\"partition\" from=\"1\" to=\"300\">\n" +
+            "    <treeModel idref=\"treeModel\"/>\n" +
+            "    <HKYModel idref=\"hky\"/>\n" +
+            "    <siteModel idref=\"siteModel\"/>\n" +
+            "    <frequencyModel idref=\"freqs\"/>\n" +
+            "  </partition>\n" +
+            "  <replicateSimulator id=\"simulator\" %s threads=\"%d\" seed=\"123\" fileStem=\"%s\" output=\"%s\">\n" +
+            "    <partition idref=\"partition\"/>\n" +
+            "    <coalescentTree>\n" +
+            "      <treeModel idref=\"treeModel\"/>\n" +
+            "      <constantSize idref=\"demographic\"/>\n" +
+            "    </coalescentTree>\n" +
+            "    <posteriorSample fileName=\"%s\" burnIn=\"" + BURN_IN + "\">\n" +
+            "      <parameter idref=\"kappa\"/>\n" +
+            "    </posteriorSample>\n" +
+            "  </replicateSimulator>\n" +
+            "</beast>\n";
+
+    private File directory;
+    private File logFile;
+    // the parameter set from the posterior sample by the last run
+    private Parameter kappa;
+
+    public void setUp() throws Exception {
+        super.setUp();
+
+        // the partitions are simulated without a native BEAGLE library
+        System.setProperty("java.only", "true");
+
+        directory = File.createTempFile("replicates", "");
+        directory.delete();
+        directory.mkdir();
+
+        // a posterior sample with kappa = 1 + state / 100
+        logFile = new File(directory, "posterior.log");
+        PrintWriter log = new PrintWriter(logFile);
+        log.println("state\tkappa");
+        for (int state = 0; state <= 1000; state += 100) {
+            log.println(state + "\t" + (1.0 + state / 100));
+        }
+        log.close();
+    }
+
+    public void tearDown() throws Exception {
+        System.clearProperty("java.only");
+        delete(directory);
+        super.tearDown();
+    }
+
+    public void testThreads() throws Exception {
+        for (String format : new String[]{"fasta", "nexus", "binary"}) {
+            File serial = simulate("replicates=\"5\"", 1, "serial_" + format, format);
+            File threaded = simulate("replicates=\"5\"", 3, "threaded_" + format, format);
+
+            assertSameFile(new File(serial, STEM + ".txt"), new File(threaded, STEM + ".txt"));
+            for (int replicate = 1; replicate <= 5; replicate++) {
+                String name = STEM + "_" + replicate + "." + format;
+                assertTrue(name, new File(serial, name).length() > 0);
+                assertSameFile(new File(serial, name), new File(threaded, name));
+            }
+
+            // the replicates differ from each other
+            assertFalse(Arrays.equals(read(new File(serial, STEM + "_1." + format)),
+                    read(new File(serial, STEM + "_2." + format))));
+        }
+    }
+
+    public void testPosteriorSampleSpread() throws Exception {
+        // fewer replicates than states: the states are spaced out from the first
+        File spread = simulate("replicates=\"4\"", 2, "spread", "fasta");
+        List<String[]> index = readIndex(new File(spread, STEM + ".txt"));
+
+        assertEquals(Arrays.asList("replicate", "file", "sample", "tree"), Arrays.asList(index.get(0)));
+        assertEquals(5, index.size());
+        int[] expected = {1, 3, 5, 7};
+        for (int i = 0; i < expected.length; i++) {
+            String[] row = index.get(i + 1);
+            assertEquals(Integer.toString(i + 1), row[0]);
+            assertEquals(STEM + "_" + (i + 1) + ".fasta", row[1]);
+            assertEquals(Integer.toString(expected[i]), row[2]);
+            assertTrue(row[3], row[3].endsWith(";"));
+        }
+        // the parameter has the values of the last state used
+        assertEquals(1.0 + (BURN_IN + (expected[3] - 1) * 100) / 100, kappa.getParameterValue(0));
+
+        // by default a replicate for each state
+        File each = simulate("", 2, "each", "fasta");
+        index = readIndex(new File(each, STEM + ".txt"));
+        assertEquals(STATE_COUNT + 1, index.size());
+        for (int i = 0; i < STATE_COUNT; i++) {
+            assertEquals(Integer.toString(i + 1), index.get(i + 1)[2]);
+        }
+    }
+
+    /**
+     * Parses the model afresh and simulates the replicates into a directory of their own.
+     *
+     * @return the directory
+     */
+    private File simulate(String replicates, int threadCount, String run, String format) throws Exception {
+        File runDirectory = new File(directory, run);
+        runDirectory.mkdir();
+
+        String xml = String.format(XML, replicates, threadCount, new File(runDirectory, STEM).getAbsolutePath(), format,
+                logFile.getAbsolutePath());
+
+        BeastParser parser = new BeastParser(new String[0], null, false, false, false, null);
+        parser.addXMLObjectParser(new PartitionParser());
+        parser.addXMLObjectParser(new ReplicateSimulatorParser());
+        Map<String, XMLObject> store = parser.parse(new StringReader(xml), false);
+
+        kappa = (Parameter) store.get("kappa").getNativeObject();
+        return runDirectory;
+    }
+
+    private static void assertSameFile(File expected, File actual) throws IOException {
+        assertTrue(actual.getPath() + " differs from " + expected.getPath(), Arrays.equals(read(expected), read(actual)));
+    }
+
+    private static List<String[]> readIndex(File file) throws IOException {
+        List<String[]> rows = new ArrayList<String[]>();
+        for (String line : new String(read(file), "UTF-8").split("\n")) {
+            rows.add(line.split("\t"));
+        }
+        return rows;
+    }
+
+    private static void delete(File file) {
+        File[] files = file.listFiles();
+        if (files != null) {
+            for (File child : files) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+
+    private static byte[] read(File file) throws IOException {
+        byte[] bytes = new byte[(int) file.length()];
+        DataInputStream in = new DataInputStream(new FileInputStream(file));
+        in.readFully(bytes);
+        in.close();
+        return bytes;
+    }
+}
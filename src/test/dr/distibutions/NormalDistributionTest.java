@@ -5,6 +5,8 @@ import dr.math.interfaces.OneVariableFunction;
 import dr.math.iterations.BisectionZeroFinder;
 import junit.framework.TestCase;
 
+import java.util.Random;
+
 /**
  * @author Wai Lok Sibon Li
  * 
@@ -119,5 +121,25 @@ public class NormalDistributionTest extends TestCase {
         }
     }
 
+    public void testLogStandardCDF() {
+        // a grid across all the ranges of the approximation and out into the tails
+        for (int i = -4000; i <= 4000; i++) {
+            double x = i * 0.01;
+            double expected = NormalDistribution.standardCDF(x, true);
+            assertEquals("x = " + x, expected, NormalDistribution.logStandardCDF(x), 1e-12 * Math.max(1.0, Math.abs(expected)));
+        }
+
+        // a fixed seed so a failure can be repeated
+        Random random = new Random(1234);
+        for (int i = 0; i < 100000; i++) {
+            double x = (random.nextDouble() - 0.5) * 20.0;
+            double expected = NormalDistribution.standardCDF(x, true);
+            assertEquals("x = " + x, expected, NormalDistribution.logStandardCDF(x), 1e-12 * Math.max(1.0, Math.abs(expected)));
+        }
+
+        assertEquals(0.0, NormalDistribution.logStandardCDF(Double.POSITIVE_INFINITY));
+        assertEquals(Double.NEGATIVE_INFINITY, NormalDistribution.logStandardCDF(Double.NEGATIVE_INFINITY));
+        assertTrue(Double.isNaN(NormalDistribution.logStandardCDF(Double.NaN)));
+    }
 
 }
@@ -0,0 +1,110 @@
+/*
+ * PackedAlignmentTest.java
+ *
+ * Copyright (c) 2002-2017 Alexei Drummond, Andrew Rambaut and Marc Suchard
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ */
+
+package test.dr.evolution.alignment;
+
+import dr.evolution.alignment.Alignment;
+import dr.evolution.alignment.PackedAlignment;
+import dr.evolution.alignment.SimpleAlignment;
+import dr.evolution.datatype.AminoAcids;
+import dr.evolution.datatype.Nucleotides;
+import dr.evolution.sequence.Sequence;
+import dr.evolution.util.Taxon;
+import dr.math.MathUtils;
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.util.Arrays;
+
+public class PackedAlignmentTest extends TestCase {
+
+    private static final int TAXON_COUNT = 7;
+    private static final int SITE_COUNT = 1001;
+
+    private SimpleAlignment createAlignment(String states) {
+        MathUtils.setSeed(666);
+
+        SimpleAlignment alignment = new SimpleAlignment();
+        alignment.setDataType(Nucleotides.INSTANCE);
+        for (int i = 0; i < TAXON_COUNT; i++) {
+            StringBuilder sequence = new StringBuilder();
+            for (int j = 0; j < SITE_COUNT; j++) {
+                sequence.append(states.charAt(MathUtils.nextInt(states.length())));
+            }
+            alignment.addSequence(new Sequence(new Taxon("taxon" + i), sequence.toString()));
+        }
+        return alignment;
+    }
+
+    public void testPacking() {
+        SimpleAlignment alignment = createAlignment("ACGT");
+        PackedAlignment packed = new PackedAlignment(alignment);
+        assertEquals(2, packed.getBitsPerState());
+        assertSameStates(alignment, packed);
+        assertEquals(alignment.getAlignedSequenceString(3), packed.getAlignedSequenceString(3));
+
+        alignment = createAlignment("ACGT-NRY?");
+        packed = new PackedAlignment(alignment);
+        assertEquals(4, packed.getBitsPerState());
+        assertSameStates(alignment, packed);
+    }
+
+    public void testCache() throws Exception {
+        SimpleAlignment alignment = createAlignment("ACGT-");
+        PackedAlignment packed = new PackedAlignment(alignment);
+
+        File file = File.createTempFile("alignment", PackedAlignment.CACHE_FILE_SUFFIX);
+        file.deleteOnExit();
+        try {
+            packed.writeCache(file, 1234, 5678);
+
+            assertSameStates(alignment, PackedAlignment.readCache(file, Nucleotides.INSTANCE, null, 1234, 5678, true));
+            assertSameStates(alignment, PackedAlignment.readCache(file, Nucleotides.INSTANCE, null, 1234, 5678, false));
+            assertSameStates(alignment, PackedAlignment.readCache(file, Nucleotides.INSTANCE, alignment, -1, 0, true));
+
+            // a cache from a different source file or of a different data type is not used
+            assertNull(PackedAlignment.readCache(file, Nucleotides.INSTANCE, null, 1235, 5678, true));
+            assertNull(PackedAlignment.readCache(file, Nucleotides.INSTANCE, null, 1234, 5679, true));
+            assertNull(PackedAlignment.readCache(file, AminoAcids.INSTANCE, null, 1234, 5678, true));
+        } finally {
+            file.delete();
+        }
+    }
+
+    private void assertSameStates(Alignment expected, Alignment actual) {
+        assertNotNull(actual);
+        assertEquals(expected.getSequenceCount(), actual.getSequenceCount());
+        assertEquals(expected.getSiteCount(), actual.getSiteCount());
+        for (int i = 0; i < expected.getSequenceCount(); i++) {
+            assertEquals(expected.getTaxonId(i), actual.getTaxonId(i));
+            for (int j = 0; j < expected.getSiteCount(); j++) {
+                assertEquals(expected.getState(i, j), actual.getState(i, j));
+            }
+        }
+        for (int j = 0; j < expected.getSiteCount(); j++) {
+            assertTrue(Arrays.equals(expected.getSitePattern(j), actual.getSitePattern(j)));
+        }
+    }
+}
@@ -0,0 +1,149 @@
+/*
+ * SitePatternsTest.java
+ *
+ * Copyright (c) 2002-2017 Alexei Drummond, Andrew Rambaut and Marc Suchard
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ */
+
+package test.dr.evolution.alignment;
+
+import dr.evolution.alignment.Patterns;
+import dr.evolution.alignment.SimpleAlignment;
+import dr.evolution.alignment.SitePatterns;
+import dr.evolution.datatype.Nucleotides;
+import dr.evolution.sequence.Sequence;
+import dr.evolution.util.Taxon;
+import dr.math.MathUtils;
+import junit.framework.TestCase;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Checks that the patterns are the same (in the same order with the same weights) whether
+ * the sites are compressed on one thread or several.
+ */
+public class SitePatternsTest extends TestCase {
+
+    private static final int TAXON_COUNT = 8;
+    private static final int SITE_COUNT = 40000;
+
+    private SimpleAlignment alignment;
+
+    public void setUp() throws Exception {
+        super.setUp();
+
+        MathUtils.setSeed(666);
+
+        // mostly invariant sites with some variation and some gaps and ambiguities
+        final char[] states = {'A', 'C', 'G', 'T', '-', 'N'};
+        char[][] sequences = new char[TAXON_COUNT][SITE_COUNT];
+        for (int j = 0; j < SITE_COUNT; j++) {
+            char state = states[MathUtils.nextInt(4)];
+            for (int i = 0; i < TAXON_COUNT; i++) {
+                sequences[i][j] = (MathUtils.nextDouble() < 0.2 ? states[MathUtils.nextInt(states.length)] : state);
+            }
+        }
+
+        alignment = new SimpleAlignment();
+        alignment.setDataType(Nucleotides.INSTANCE);
+        for (int i = 0; i < TAXON_COUNT; i++) {
+            alignment.addSequence(new Sequence(new Taxon("taxon" + i), new String(sequences[i])));
+        }
+    }
+
+    public void tearDown() throws Exception {
+        System.clearProperty(SitePatterns.PATTERN_THREADS);
+        super.tearDown();
+    }
+
+    public void testConcurrentCompression() {
+        SitePatterns sequential = createSitePatterns(1);
+        SitePatterns concurrent = createSitePatterns(4);
+
+        assertTrue(sequential.getPatternCount() > 100);
+        assertEquals(sequential.getPatternCount(), concurrent.getPatternCount());
+        assertEquals(sequential.getInvariantCount(), concurrent.getInvariantCount());
+        for (int i = 0; i < sequential.getPatternCount(); i++) {
+            assertTrue(Arrays.equals(sequential.getPattern(i), concurrent.getPattern(i)));
+            assertEquals(sequential.getPatternWeight(i), concurrent.getPatternWeight(i));
+        }
+        for (int i = 0; i < SITE_COUNT; i++) {
+            assertEquals(sequential.getPatternIndex(i), concurrent.getPatternIndex(i));
+        }
+    }
+
+    public void testFirstOccurrenceOrder() {
+        SitePatterns patterns = createSitePatterns(4);
+
+        // each pattern is first used by a later site than the one before
+        int[] firstSite = new int[patterns.getPatternCount()];
+        Arrays.fill(firstSite, -1);
+        double[] weights = new double[patterns.getPatternCount()];
+        for (int i = 0; i < SITE_COUNT; i++) {
+            int index = patterns.getPatternIndex(i);
+            if (index != -1) {
+                assertTrue(Arrays.equals(alignment.getSitePattern(i), patterns.getPattern(index)));
+                if (firstSite[index] == -1) {
+                    firstSite[index] = i;
+                }
+                weights[index] += 1.0;
+            }
+        }
+        for (int i = 0; i < patterns.getPatternCount(); i++) {
+            if (i > 0) {
+                assertTrue(firstSite[i] > firstSite[i - 1]);
+            }
+            assertEquals(weights[i], patterns.getPatternWeight(i));
+        }
+
+        Patterns unique = new Patterns(alignment);
+        assertEquals(patterns.getPatternCount(), unique.getPatternCount());
+    }
+
+    public void testOtherSiteListsOnOneThread() {
+        final Set<Thread> threads = new HashSet<Thread>();
+        SimpleAlignment recording = new SimpleAlignment() {
+            public int[] getSitePattern(int siteIndex) {
+                synchronized (threads) {
+                    threads.add(Thread.currentThread());
+                }
+                return super.getSitePattern(siteIndex);
+            }
+        };
+        recording.setDataType(Nucleotides.INSTANCE);
+        for (int i = 0; i < alignment.getSequenceCount(); i++) {
+            recording.addSequence(alignment.getSequence(i));
+        }
+
+        System.setProperty(SitePatterns.PATTERN_THREADS, "4");
+        SitePatterns patterns = new SitePatterns(recording, null, 0, -1, 1, true);
+
+        assertEquals(1, threads.size());
+        assertEquals(createSitePatterns(1).getPatternCount(), patterns.getPatternCount());
+    }
+
+    private SitePatterns createSitePatterns(int threadCount) {
+        System.setProperty(SitePatterns.PATTERN_THREADS, Integer.toString(threadCount));
+        return new SitePatterns(alignment, null, 0, -1, 1, true);
+    }
+}
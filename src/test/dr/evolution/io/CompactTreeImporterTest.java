@@ -0,0 +1,108 @@
+/*
+ * CompactTreeImporterTest.java
+ *
+ * Copyright (c) 2002-2017 Alexei Drummond, Andrew Rambaut and Marc Suchard
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ */
+
+package test.dr.evolution.io;
+
+import dr.evolution.io.CompactTreeImporter;
+import dr.evolution.io.NexusImporter;
+import dr.evolution.tree.NodeRef;
+import dr.evolution.tree.Tree;
+import dr.evolution.tree.TreeUtils;
+import junit.framework.TestCase;
+
+import java.io.ByteArrayInputStream;
+import java.io.StringReader;
+
+public class CompactTreeImporterTest extends TestCase {
+
+    private static final String NEXUS =
+            "#NEXUS\n" +
+            "[a comment]\n" +
+            "Begin taxa;\n" +
+            "\tDimensions ntax=4;\n" +
+            "\tTaxlabels A 'taxon B' C D;\n" +
+            "End;\n" +
+            "Begin trees;\n" +
+            "\tTranslate\n" +
+            "\t\t1 A,\n" +
+            "\t\t2 'taxon B',\n" +
+            "\t\t3 C,\n" +
+            "\t\t4 D\n" +
+            "\t\t;\n" +
+            "tree STATE_0 [&lnP=-12.5] = [&R] ((1[&rate=1.5]:0.1,2[&rate=0.5]:0.2)[&rate=1.0,state=\"X\"]:0.3," +
+            "(3:1.5E-1,4:0.25)[&rate={0.1,0.2}]:0.05);\n" +
+            "tree STATE_1000 [&lnP=-11.25] = [&R] (1:0.4,((2:0.1,3:0.125):0.2,4:0.3):0.1)[&rate=2];\n" +
+            "End;\n";
+
+    public void testSameAsNexusImporter() throws Exception {
+        Tree[] expected = new NexusImporter(new StringReader(NEXUS)).importTrees(null);
+        Tree[] trees = new CompactTreeImporter(new ByteArrayInputStream(NEXUS.getBytes("UTF-8")), false).importTrees(null);
+
+        assertEquals(expected.length, trees.length);
+        for (int i = 0; i < trees.length; i++) {
+            assertSameTree(expected[i], trees[i]);
+            assertEquals(expected[i].getAttribute("lnP"), trees[i].getAttribute("lnP"));
+        }
+        assertEquals("taxon B", trees[0].getTaxon(1).getId());
+    }
+
+    public void testIgnoreMetaComments() throws Exception {
+        Tree[] trees = new CompactTreeImporter(new ByteArrayInputStream(NEXUS.getBytes("UTF-8")), true).importTrees(null);
+        assertEquals(2, trees.length);
+        for (Tree tree : trees) {
+            for (int i = 0; i < tree.getNodeCount(); i++) {
+                assertNull(tree.getNodeAttribute(tree.getNode(i), "rate"));
+            }
+        }
+        assertEquals(0.425, trees[1].getNodeHeight(trees[1].getRoot()), 1E-12);
+    }
+
+    public void testNewick() throws Exception {
+        String newick = "((A:1,B:1):1,(C:0.5,D:0.5):1.5);\n(A:2,(B:1,(C:0.5,D:0.5):0.5):1);\n";
+        Tree[] trees = new CompactTreeImporter(new ByteArrayInputStream(newick.getBytes("UTF-8")), false).importTrees(null);
+        assertEquals(2, trees.length);
+        assertEquals(2.0, trees[0].getNodeHeight(trees[0].getRoot()), 0.0);
+        assertEquals(4, trees[1].getExternalNodeCount());
+        assertEquals("(A:2.0,(B:1.0,(C:0.5,D:0.5):0.5):1.0);", TreeUtils.newick(trees[1]));
+    }
+
+    private void assertSameTree(Tree expected, Tree tree) {
+        assertEquals(expected.getNodeCount(), tree.getNodeCount());
+        assertEquals(TreeUtils.newick(expected), TreeUtils.newick(tree));
+        for (int i = 0; i < tree.getNodeCount(); i++) {
+            NodeRef expectedNode = expected.getNode(i);
+            NodeRef node = tree.getNode(i);
+            assertEquals(expected.getNodeHeight(expectedNode), tree.getNodeHeight(node), 0.0);
+            assertEquals(expected.getBranchLength(expectedNode), tree.getBranchLength(node), 0.0);
+            Object rate = expected.getNodeAttribute(expectedNode, "rate");
+            Object actual = tree.getNodeAttribute(node, "rate");
+            if (rate instanceof Object[]) {
+                assertTrue(java.util.Arrays.equals((Object[]) rate, (Object[]) actual));
+            } else {
+                assertEquals(rate, actual);
+            }
+        }
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * LazyTreeListTest.java
+ *
+ * Copyright (c) 2002-2017 Alexei Drummond, Andrew Rambaut and Marc Suchard
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ */
+
+package test.dr.evolution.io;
+
+import dr.evolution.io.LazyTreeList;
+import dr.evolution.io.NexusImporter;
+import dr.evolution.io.TreeFileIndex;
+import dr.evolution.tree.NodeRef;
+import dr.evolution.tree.Tree;
+import dr.evolution.util.Taxa;
+import dr.evolution.util.Taxon;
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.StringReader;
+
+public class LazyTreeListTest extends TestCase {
+
+    private static final String NEXUS =
+            "#NEXUS\n" +
+            "Begin trees;\n" +
+            "\tTranslate\n" +
+            "\t\t1 A,\n" +
+            "\t\t2 B,\n" +
+            "\t\t3 C,\n" +
+            "\t\t4 D,\n" +
+            "\t\t5 E\n" +
+            "\t\t;\n" +
+            "tree STATE_0 = [&R] ((1[&rate=1.5]:0.1,2:0.2):0.3,((3:0.15,4:0.25):0.05,5:0.1):0.2);\n" +
+            "tree STATE_100 = [&R] (1:0.4,((2:0.1,3:0.125):0.2,(4:0.3,5:0.1):0.05):0.1);\n" +
+            "tree STATE_200 = [&R] ((5:1.0,(4:0.5,3:0.5):0.5):0.25,(2:0.75,1:0.75):0.5);\n" +
+            "tree STATE_300 = [&R] (((1:0.1,5:0.1):0.1,4:0.2):0.3,(3:0.3,2:0.3):0.2);\n" +
+            "End;\n";
+
+    private File treeFile;
+    private Taxa taxa;
+    private Tree[] expected;
+
+    public void setUp() throws Exception {
+        treeFile = File.createTempFile("LazyTreeListTest", ".trees");
+        treeFile.deleteOnExit();
+        TreeFileIndex.getIndexFile(treeFile).deleteOnExit();
+        FileWriter writer = new FileWriter(treeFile);
+        writer.write(NEXUS);
+        writer.close();
+
+        // a taxon list in a different order to the translate table
+        taxa = new Taxa();
+        for (String id : new String[]{"D", "B", "E", "A", "C"}) {
+            taxa.addTaxon(new Taxon(id));
+        }
+
+        expected = new NexusImporter(new StringReader(NEXUS)).importTrees(taxa, true);
+    }
+
+    public void testCompactList() throws Exception {
+        assertSameTrees(LazyTreeList.createCompactList(treeFile, taxa, true, 2));
+    }
+
+    public void testIndexedList() throws Exception {
+        LazyTreeList trees = LazyTreeList.createIndexedList(treeFile, taxa, true, 2);
+        assertSameTrees(trees);
+        assertEquals(1.5, trees.get(0).getNodeAttribute(trees.get(0).getExternalNode(3), "rate"));
+    }
+
+    private void assertSameTrees(LazyTreeList trees) {
+        assertEquals(expected.length, trees.size());
+        // visit the trees out of order so some are dropped from the cache and rebuilt
+        int[] order = {2, 0, 3, 1, 2, 0, 0, 3};
+        for (int i : order) {
+            Tree tree = trees.get(i);
+            assertEquals(expected[i].getId(), tree.getId());
+            assertEquals(expected[i].getNodeCount(), tree.getNodeCount());
+            for (int j = 0; j < tree.getNodeCount(); j++) {
+                NodeRef expectedNode = expected[i].getNode(j);
+                NodeRef node = tree.getNode(j);
+                assertEquals(expected[i].getNodeHeight(expectedNode), tree.getNodeHeight(node), 0.0);
+                assertEquals(expected[i].getNodeTaxon(expectedNode), tree.getNodeTaxon(node));
+                if (!expected[i].isRoot(expectedNode)) {
+                    assertEquals(expected[i].getParent(expectedNode).getNumber(), tree.getParent(node).getNumber());
+                }
+            }
+        }
+    }
+}
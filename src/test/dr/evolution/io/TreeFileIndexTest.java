@@ -0,0 +1,119 @@
+/*
+ * TreeFileIndexTest.java
+ *
+ * Copyright (c) 2002-2017 Alexei Drummond, Andrew Rambaut and Marc Suchard
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ */
+
+package test.dr.evolution.io;
+
+import dr.evolution.io.CompactTreeImporter;
+import dr.evolution.io.NewickImporter;
+import dr.evolution.io.TreeFileIndex;
+import dr.evolution.tree.Tree;
+import dr.evolution.tree.TreeUtils;
+import dr.evomodel.tree.TreeLogger;
+import dr.inference.loggers.TabDelimitedFormatter;
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.PrintWriter;
+
+public class TreeFileIndexTest extends TestCase {
+
+    private static final int TREE_COUNT = 25;
+
+    private File treeFile;
+    private Tree[] trees;
+
+    public void setUp() throws Exception {
+        treeFile = File.createTempFile("TreeFileIndexTest", ".trees");
+        treeFile.deleteOnExit();
+        TreeFileIndex.getIndexFile(treeFile).deleteOnExit();
+
+        Tree tree = new NewickImporter("(('taxon A':1.0,B:1.0):0.5,(C:0.25,D:0.25):1.25);").importTree(null);
+
+        TreeLogger logger = new TreeLogger(tree, new TabDelimitedFormatter(new PrintWriter(new FileOutputStream(treeFile))),
+                100, true, true, true);
+        logger.setIndexWriter(new TreeFileIndex.Writer(treeFile));
+        logger.startLogging();
+        for (long state = 0; state < TREE_COUNT * 100; state += 100) {
+            logger.log(state);
+        }
+        logger.stopLogging();
+
+        trees = new CompactTreeImporter(treeFile, false).importTrees(null);
+    }
+
+    public void testLoggedIndex() throws Exception {
+        TreeFileIndex logged = TreeFileIndex.getIndex(treeFile);
+        TreeFileIndex scanned = TreeFileIndex.createIndex(treeFile);
+
+        assertEquals(TREE_COUNT, logged.getTreeCount());
+        assertEquals(TREE_COUNT, scanned.getTreeCount());
+        for (int i = 0; i < TREE_COUNT; i++) {
+            assertEquals(i * 100, logged.getState(i));
+            assertEquals(scanned.getState(i), logged.getState(i));
+            assertEquals(scanned.getOffset(i), logged.getOffset(i));
+        }
+
+        assertEquals(10, logged.getBurninTreeCount(10, -1));
+        assertEquals(5, logged.getBurninTreeCount(0, 450));
+        assertEquals(TREE_COUNT, logged.getBurninTreeCount(0, 1000000));
+
+        int[] bounds = logged.split(5, TREE_COUNT, 3);
+        assertEquals(5, bounds[0]);
+        assertEquals(TREE_COUNT, bounds[3]);
+    }
+
+    public void testSkipTrees() throws Exception {
+        TreeFileIndex index = TreeFileIndex.getIndex(treeFile);
+
+        CompactTreeImporter indexed = new CompactTreeImporter(treeFile, false);
+        indexed.setIndex(index);
+        CompactTreeImporter unindexed = new CompactTreeImporter(treeFile, false);
+
+        int tree = 0;
+        int[] skips = {3, 0, 5, 1, 7};
+        for (int skip : skips) {
+            assertEquals(skip, indexed.skipTrees(skip));
+            assertEquals(skip, unindexed.skipTrees(skip));
+            tree += skip;
+            assertSameTree(trees[tree], indexed.importNextTree());
+            assertSameTree(trees[tree], unindexed.importNextTree());
+            tree++;
+            assertEquals(tree, indexed.getTreeNumber());
+            assertEquals(tree, unindexed.getTreeNumber());
+        }
+
+        indexed.seekToTree(2);
+        assertSameTree(trees[2], indexed.importNextTree());
+
+        assertEquals(TREE_COUNT - 3, indexed.skipTrees(TREE_COUNT));
+        assertFalse(indexed.hasTree());
+    }
+
+    private void assertSameTree(Tree expected, Tree tree) {
+        assertEquals(expected.getId(), tree.getId());
+        assertEquals(TreeUtils.newick(expected), TreeUtils.newick(tree));
+    }
+}
@@ -31,6 +31,7 @@ import dr.evomodel.substmodel.FrequencyModel;
 import dr.evomodel.substmodel.MarkovJumpsSubstitutionModel;
 import dr.evomodel.substmodel.SubstitutionModel;
 import dr.evomodel.substmodel.UniformizedSubstitutionModel;
+import dr.inference.markovjumps.BranchStateChanges;
 import dr.inference.markovjumps.MarkovJumpsCore;
 import dr.inference.markovjumps.StateHistory;
 import dr.math.LogTricks;
@@ -38,6 +39,12 @@ import dr.math.MathUtils;
 import dr.math.matrixAlgebra.Vector;
 import test.dr.math.MathTestCase;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
 /**
  * @author Marc A. Suchard
  */
@@ -209,6 +216,43 @@ public class StateHistoryTest extends MathTestCase {
         System.out.println("End of Counts test\n");
     }
 
+    public void testBranchStateChanges() throws IOException {
+
+        System.out.println("Start of BranchStateChanges test");
+        double duration = 2.0;
+        int siteCount = 20;
+
+        double[] probs = new double[stateCount * stateCount];
+        baseModel.getTransitionProbabilities(duration, probs);
+
+        UniformizedSubstitutionModel uSM = new UniformizedSubstitutionModel(baseModel);
+        uSM.setSaveCompleteHistory(true);
+
+        BranchStateChanges changes = new BranchStateChanges(2);
+        String[] text = new String[siteCount];
+        for (int site = 0; site < siteCount; site++) {
+            int startingState = site % stateCount;
+            int endingState = (site / stateCount) % stateCount;
+            uSM.computeCondStatMarkovJumps(startingState, endingState, duration,
+                    probs[startingState * stateCount + endingState]);
+            text[site] = uSM.getStateHistory().toStringChanges(site + 1, Nucleotides.INSTANCE);
+            uSM.getStateHistory().addChangesTo(changes, 1, site);
+        }
+
+        // write and read back the changes
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        changes.write(new DataOutputStream(bytes), 1);
+        changes.read(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())), 0);
+
+        for (int site = 0; site < siteCount; site++) {
+            assertEquals(text[site], changes.toString(1, site, site + 1, Nucleotides.INSTANCE));
+            assertEquals(text[site], changes.toString(0, site, site + 1, Nucleotides.INSTANCE));
+        }
+        assertTrue(changes.getChangeCount(1) > 0);
+        assertEquals(changes.getChangeCount(1), changes.getChangeCount(0));
+        System.out.println("End of BranchStateChanges test\n");
+    }
+
     double[] lambda;
     FrequencyModel freqModel;
     SubstitutionModel baseModel;
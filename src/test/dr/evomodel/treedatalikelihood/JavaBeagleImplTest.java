@@ -0,0 +1,400 @@
+package test.dr.evomodel.treedatalikelihood;
+
+import dr.evolution.alignment.PatternList;
+import dr.evolution.alignment.SimpleAlignment;
+import dr.evolution.alignment.SitePatterns;
+import dr.evolution.datatype.AminoAcids;
+import dr.evolution.datatype.Nucleotides;
+import dr.evolution.sequence.Sequence;
+import dr.evolution.tree.NodeRef;
+import dr.evomodel.branchmodel.BranchModel;
+import dr.evomodel.branchmodel.EpochBranchModel;
+import dr.evomodel.branchmodel.HomogeneousBranchModel;
+import dr.evomodel.branchratemodel.ArbitraryBranchRates;
+import dr.evomodel.branchratemodel.BranchRateModel;
+import dr.evomodel.branchratemodel.StrictClockBranchRates;
+import dr.evomodel.siteratemodel.GammaSiteRateModel;
+import dr.evomodel.substmodel.FrequencyModel;
+import dr.evomodel.substmodel.SubstitutionModel;
+import dr.evomodel.substmodel.aminoacid.EmpiricalAminoAcidModel;
+import dr.evomodel.substmodel.aminoacid.WAG;
+import dr.evomodel.substmodel.nucleotide.HKY;
+import dr.evomodel.tree.TreeModel;
+import dr.evomodel.treedatalikelihood.BeagleDataLikelihoodDelegate;
+import dr.evomodel.treedatalikelihood.JavaBeagleImpl;
+import dr.evomodel.treedatalikelihood.PartitionThreadPlanner;
+import dr.evomodel.treedatalikelihood.TreeDataLikelihood;
+import dr.evomodel.treedatalikelihood.discrete.BranchRateGradient;
+import dr.evomodel.treelikelihood.PartialsRescalingScheme;
+import dr.inference.model.Parameter;
+import dr.oldevomodel.sitemodel.GammaSiteModel;
+import dr.oldevomodel.treelikelihood.TreeLikelihood;
+import test.dr.inference.trace.TraceCorrelationAssert;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Checks BeagleDataLikelihoodDelegate with JavaBeagleImpl against the likelihoods of testLikelihood.xml (as in
+ * LikelihoodTest) and against the old TreeLikelihood for amino acids.
+ */
+public class JavaBeagleImplTest extends TraceCorrelationAssert {
+
+    private static final String AMINO_ACIDS = "ACDEFGHIKLMNPQRS";
+
+    private TreeModel treeModel;
+
+    public JavaBeagleImplTest(String name) {
+        super(name);
+    }
+
+    public void setUp() throws Exception {
+        super.setUp();
+
+        createAlignment(PRIMATES_TAXON_SEQUENCE, Nucleotides.INSTANCE);
+
+        treeModel = createPrimateTreeModel();
+    }
+
+    public void testLikelihoodJC69() {
+        assertEquals(-1992.20564, getHKYLikelihood(new double[]{0.25, 0.25, 0.25, 0.25}, 1.0, -1.0, 0.0,
+                PartialsRescalingScheme.NONE, 1), 1E-5);
+    }
+
+    public void testLikelihoodK80() {
+        assertEquals(-1856.30305, getHKYLikelihood(new double[]{0.25, 0.25, 0.25, 0.25}, 27.402591, -1.0, 0.0,
+                PartialsRescalingScheme.NONE, 1), 1E-5);
+    }
+
+    public void testLikelihoodHKY85G() {
+        assertEquals(-1789.75936, getHKYLikelihood(alignment.getStateFrequencies(), 38.829740, 0.137064, 0.0,
+                PartialsRescalingScheme.NONE, 1), 1E-5);
+    }
+
+    public void testLikelihoodHKY85GI() {
+        assertEquals(-1789.63923, getHKYLikelihood(alignment.getStateFrequencies(), 39.464538, 0.587649, 0.486548,
+                PartialsRescalingScheme.NONE, 1), 1E-5);
+    }
+
+    public void testThreadsAndRescaling() {
+        double expected = getHKYLikelihood(alignment.getStateFrequencies(), 38.829740, 0.137064, 0.0,
+                PartialsRescalingScheme.NONE, 1);
+        for (int threadCount : new int[]{2, 4}) {
+            assertEquals(expected, getHKYLikelihood(alignment.getStateFrequencies(), 38.829740, 0.137064, 0.0,
+                    PartialsRescalingScheme.NONE, threadCount), 1E-10);
+        }
+        for (PartialsRescalingScheme scheme : new PartialsRescalingScheme[]{
+                PartialsRescalingScheme.ALWAYS, PartialsRescalingScheme.DYNAMIC, PartialsRescalingScheme.DELAYED}) {
+            assertEquals(scheme.getText(), expected, getHKYLikelihood(alignment.getStateFrequencies(), 38.829740,
+                    0.137064, 0.0, scheme, 4), 1E-8);
+        }
+    }
+
+    public void testAmbiguities() {
+        // the gaps as tip partials rather than states
+        SitePatterns patterns = new SitePatterns(alignment, null, 0, -1, 1, true);
+        HKY hky = new HKY(38.829740, new FrequencyModel(Nucleotides.INSTANCE, alignment.getStateFrequencies()));
+        GammaSiteRateModel siteRateModel = new GammaSiteRateModel("siteModel", 0.137064, 4);
+        siteRateModel.setSubstitutionModel(hky);
+
+        BeagleDataLikelihoodDelegate delegate = createDelegate(patterns,
+                new HomogeneousBranchModel(hky), siteRateModel, true, PartialsRescalingScheme.NONE, false, 2);
+        TreeDataLikelihood likelihood = new TreeDataLikelihood(delegate, treeModel,
+                new StrictClockBranchRates(new Parameter.Default(1.0)));
+
+        assertEquals(-1789.75936, likelihood.getLogLikelihood(), 1E-5);
+    }
+
+    public void testThreadPlanner() {
+        List<BeagleDataLikelihoodDelegate> delegates = new ArrayList<BeagleDataLikelihoodDelegate>();
+        List<TreeDataLikelihood> likelihoods = new ArrayList<TreeDataLikelihood>();
+        for (int i = 0; i < 2; i++) {
+            TreeDataLikelihood likelihood = createHKYLikelihood(alignment.getStateFrequencies(), 38.829740,
+                    0.137064, 0.0, PartialsRescalingScheme.DYNAMIC, 1);
+            likelihoods.add(likelihood);
+            delegates.add((BeagleDataLikelihoodDelegate) likelihood.getDataLikelihoodDelegate());
+        }
+
+        PartitionThreadPlanner planner = new PartitionThreadPlanner(delegates, likelihoods, 4, 20);
+
+        // the thread counts are cycled for 20 evaluations and then the plan is remade
+        for (int k = 0; k < 30; k++) {
+            for (TreeDataLikelihood likelihood : likelihoods) {
+                likelihood.makeDirty();
+                assertEquals(-1789.75936, likelihood.getLogLikelihood(), 1E-5);
+            }
+        }
+        for (int i = 0; i < delegates.size(); i++) {
+            assertEquals(planner.getThreadCount(i), delegates.get(i).getThreadCount());
+        }
+    }
+
+    public void testEpochModelUpdates() {
+        Parameter kappa1 = new Parameter.Default(2.0);
+        Parameter kappa2 = new Parameter.Default(20.0);
+        TreeDataLikelihood likelihood = createEpochLikelihood(kappa1, kappa2);
+        likelihood.getLogLikelihood();
+
+        // changing the older model should only update the branches that reach past the epoch time
+        long branchesUpdated = getBranchesUpdated(likelihood);
+        likelihood.storeModelState();
+        kappa2.setParameterValue(0, 30.0);
+        double logL = likelihood.getLogLikelihood();
+        assertEquals(createEpochLikelihood(kappa1, kappa2).getLogLikelihood(), logL, 1E-10);
+        long updated = getBranchesUpdated(likelihood) - branchesUpdated;
+        assertTrue(updated > 0 && updated < treeModel.getNodeCount() - 1);
+
+        // and back again
+        likelihood.restoreModelState();
+        kappa2.setParameterValue(0, 20.0);
+        likelihood.storeModelState();
+        kappa1.setParameterValue(0, 4.0);
+        assertEquals(createEpochLikelihood(kappa1, kappa2).getLogLikelihood(), likelihood.getLogLikelihood(), 1E-10);
+
+        // a node height change moves branches between epochs
+        treeModel.setNodeHeight(treeModel.getRoot(), treeModel.getNodeHeight(treeModel.getRoot()) * 1.2);
+        assertEquals(createEpochLikelihood(kappa1, kappa2).getLogLikelihood(), likelihood.getLogLikelihood(), 1E-10);
+    }
+
+    public void testRepeatedEpochModelUpdates() {
+        // the first model is used again by the oldest epoch (A, B, A)
+        Parameter kappa1 = new Parameter.Default(2.0);
+        Parameter kappa2 = new Parameter.Default(20.0);
+        TreeDataLikelihood likelihood = createRepeatedEpochLikelihood(kappa1, kappa2);
+        likelihood.getLogLikelihood();
+
+        // changing the repeated model should update the branches of both of its epochs
+        likelihood.storeModelState();
+        kappa1.setParameterValue(0, 4.0);
+        assertEquals(createRepeatedEpochLikelihood(kappa1, kappa2).getLogLikelihood(),
+                likelihood.getLogLikelihood(), 1E-10);
+
+        likelihood.acceptModelState();
+        likelihood.storeModelState();
+        kappa2.setParameterValue(0, 30.0);
+        assertEquals(createRepeatedEpochLikelihood(kappa1, kappa2).getLogLikelihood(),
+                likelihood.getLogLikelihood(), 1E-10);
+    }
+
+    private long getBranchesUpdated(TreeDataLikelihood likelihood) {
+        Matcher matcher = Pattern.compile("branches updated = (\\d+)").matcher(likelihood.getReport());
+        assertTrue(matcher.find());
+        return Long.parseLong(matcher.group(1));
+    }
+
+    private TreeDataLikelihood createEpochLikelihood(Parameter kappa1, Parameter kappa2) {
+        FrequencyModel frequencies = new FrequencyModel(Nucleotides.INSTANCE, alignment.getStateFrequencies());
+        List<SubstitutionModel> models = new ArrayList<SubstitutionModel>();
+        models.add(new HKY(kappa1, frequencies));
+        models.add(new HKY(kappa2, frequencies));
+        EpochBranchModel branchModel = new EpochBranchModel(treeModel, models, new Parameter.Default(0.03));
+
+        GammaSiteRateModel siteRateModel = new GammaSiteRateModel("siteModel", 0.5, 4);
+        SitePatterns patterns = new SitePatterns(alignment, null, 0, -1, 1, true);
+
+        BeagleDataLikelihoodDelegate delegate = createDelegate(patterns,
+                branchModel, siteRateModel, false, PartialsRescalingScheme.NONE, false, 1);
+        return new TreeDataLikelihood(delegate, treeModel, new StrictClockBranchRates(new Parameter.Default(1.0)));
+    }
+
+    private TreeDataLikelihood createRepeatedEpochLikelihood(Parameter kappa1, Parameter kappa2) {
+        FrequencyModel frequencies = new FrequencyModel(Nucleotides.INSTANCE, alignment.getStateFrequencies());
+        SubstitutionModel model1 = new HKY(kappa1, frequencies);
+        List<SubstitutionModel> models = new ArrayList<SubstitutionModel>();
+        models.add(model1);
+        models.add(new HKY(kappa2, frequencies));
+        models.add(model1);
+        EpochBranchModel branchModel = new EpochBranchModel(treeModel, models, new Parameter.Default(new double[]{0.01, 0.03}));
+
+        GammaSiteRateModel siteRateModel = new GammaSiteRateModel("siteModel", 0.5, 4);
+        SitePatterns patterns = new SitePatterns(alignment, null, 0, -1, 1, true);
+
+        BeagleDataLikelihoodDelegate delegate = createDelegate(patterns,
+                branchModel, siteRateModel, false, PartialsRescalingScheme.NONE, false, 1);
+        return new TreeDataLikelihood(delegate, treeModel, new StrictClockBranchRates(new Parameter.Default(1.0)));
+    }
+
+    public void testStoreRestore() {
+        TreeDataLikelihood likelihood = createHKYLikelihood(alignment.getStateFrequencies(), 38.829740, 0.137064,
+                0.0, PartialsRescalingScheme.ALWAYS, 2);
+        double logL = likelihood.getLogLikelihood();
+
+        treeModel.storeModelState();
+        likelihood.storeModelState();
+        treeModel.setNodeHeight(treeModel.getRoot(), treeModel.getNodeHeight(treeModel.getRoot()) * 1.5);
+        double proposedLogL = likelihood.getLogLikelihood();
+        assertFalse(logL == proposedLogL);
+
+        // the proposed value should match a fresh evaluation
+        TreeDataLikelihood fresh = createHKYLikelihood(alignment.getStateFrequencies(), 38.829740, 0.137064,
+                0.0, PartialsRescalingScheme.ALWAYS, 2);
+        assertEquals(fresh.getLogLikelihood(), proposedLogL, 1E-8);
+
+        treeModel.restoreModelState();
+        likelihood.restoreModelState();
+        assertEquals(logL, likelihood.getLogLikelihood(), 1E-10);
+    }
+
+    public void testRateOnlyUpdates() {
+        final double[] frequencies = alignment.getStateFrequencies();
+        final int rateCount = treeModel.getNodeCount() - 1;
+
+        Parameter rates = new Parameter.Default(rateCount, 1.0);
+        ArbitraryBranchRates branchRates = new ArbitraryBranchRates(treeModel, rates, false, false, false);
+        TreeDataLikelihood likelihood = createHKYLikelihood(frequencies, 38.829740, 0.137064, 0.0,
+                PartialsRescalingScheme.DYNAMIC, 1, branchRates);
+        double logL = likelihood.getLogLikelihood();
+
+        // change the rate of a tip branch and then of an internal branch (only the paths from
+        // these to the root should be recomputed) and check against fresh evaluations
+        NodeRef tip = treeModel.getExternalNode(2);
+        NodeRef internal = treeModel.getInternalNode(treeModel.getRoot().getNumber() == treeModel.getExternalNodeCount() ? 1 : 0);
+        for (NodeRef node : new NodeRef[]{tip, internal}) {
+            treeModel.storeModelState();
+            likelihood.storeModelState();
+
+            branchRates.setBranchRate(treeModel, node, 2.5);
+            double proposedLogL = likelihood.getLogLikelihood();
+            assertFalse(logL == proposedLogL);
+
+            Parameter freshRates = new Parameter.Default(rates.getParameterValues());
+            TreeDataLikelihood fresh = createHKYLikelihood(frequencies, 38.829740, 0.137064, 0.0,
+                    PartialsRescalingScheme.DYNAMIC, 1,
+                    new ArbitraryBranchRates(treeModel, freshRates, false, false, false));
+            assertEquals(fresh.getLogLikelihood(), proposedLogL, 1E-8);
+
+            treeModel.restoreModelState();
+            likelihood.restoreModelState();
+            branchRates.setBranchRate(treeModel, node, 1.0);
+            assertEquals(logL, likelihood.getLogLikelihood(), 1E-10);
+        }
+    }
+
+    public void testBranchRateGradient() {
+        final double[] frequencies = alignment.getStateFrequencies();
+
+        for (PartialsRescalingScheme scheme : new PartialsRescalingScheme[]{
+                PartialsRescalingScheme.NONE, PartialsRescalingScheme.ALWAYS}) {
+            Parameter rates = new Parameter.Default(treeModel.getNodeCount() - 1, 1.0);
+            for (int i = 0; i < rates.getDimension(); i++) {
+                rates.setParameterValue(i, 0.5 + 0.1 * (i % 7));
+            }
+            ArbitraryBranchRates branchRates = new ArbitraryBranchRates(treeModel, rates, false, false, false);
+            TreeDataLikelihood likelihood = createHKYLikelihood(frequencies, 38.829740, 0.137064, 0.0,
+                    scheme, 1, branchRates);
+
+            BranchRateGradient gradient = new BranchRateGradient(likelihood);
+            double[] analytic = gradient.getGradientLogDensity();
+
+            // central differences
+            for (int i = 0; i < rates.getDimension(); i++) {
+                double value = rates.getParameterValue(i);
+                double h = 1E-6 * value;
+                rates.setParameterValue(i, value + h);
+                double plus = likelihood.getLogLikelihood();
+                rates.setParameterValue(i, value - h);
+                double minus = likelihood.getLogLikelihood();
+                rates.setParameterValue(i, value);
+
+                double numeric = (plus - minus) / (2.0 * h);
+                assertEquals(numeric, analytic[i], 1E-4 * Math.max(1.0, Math.abs(numeric)));
+            }
+
+            // the gradient is recomputed after a change
+            rates.setParameterValue(3, 2.0);
+            assertFalse(analytic[3] == gradient.getGradientLogDensity()[3]);
+        }
+    }
+
+    public void testAminoAcidLikelihood() {
+        // an arbitrary amino acid alignment made from pairs of nucleotides
+        SimpleAlignment aminoAcids = new SimpleAlignment();
+        aminoAcids.setDataType(AminoAcids.INSTANCE);
+        for (int i = 0; i < alignment.getSequenceCount(); i++) {
+            String nucleotides = alignment.getAlignedSequenceString(i);
+            StringBuilder sb = new StringBuilder();
+            for (int j = 0; j + 1 < nucleotides.length(); j += 2) {
+                int a = "ACGT".indexOf(nucleotides.charAt(j));
+                int b = "ACGT".indexOf(nucleotides.charAt(j + 1));
+                sb.append(a < 0 || b < 0 ? '-' : AMINO_ACIDS.charAt(a * 4 + b));
+            }
+            Sequence sequence = new Sequence(sb.toString());
+            sequence.setTaxon(alignment.getTaxon(i));
+            sequence.setDataType(AminoAcids.INSTANCE);
+            aminoAcids.addSequence(sequence);
+        }
+        SitePatterns patterns = new SitePatterns(aminoAcids, null, 0, -1, 1, true);
+
+        double[] frequencies = new double[20];
+        java.util.Arrays.fill(frequencies, 0.05);
+
+        dr.oldevomodel.substmodel.EmpiricalAminoAcidModel oldWag = new dr.oldevomodel.substmodel.EmpiricalAminoAcidModel(
+                dr.oldevomodel.substmodel.WAG.INSTANCE,
+                new dr.oldevomodel.substmodel.FrequencyModel(AminoAcids.INSTANCE, new Parameter.Default(frequencies)));
+        GammaSiteModel oldSiteModel = new GammaSiteModel(oldWag, new Parameter.Default(1.0),
+                new Parameter.Default(0.5), 4, null);
+        TreeLikelihood treeLikelihood = new TreeLikelihood(patterns, treeModel, oldSiteModel, null, null,
+                false, false, true, false, false);
+
+        EmpiricalAminoAcidModel wag = new EmpiricalAminoAcidModel(WAG.INSTANCE,
+                new FrequencyModel(AminoAcids.INSTANCE, frequencies));
+        GammaSiteRateModel siteRateModel = new GammaSiteRateModel("siteModel", 0.5, 4);
+        siteRateModel.setSubstitutionModel(wag);
+
+        for (int threadCount : new int[]{1, 3}) {
+            BeagleDataLikelihoodDelegate delegate = createDelegate(patterns,
+                    new HomogeneousBranchModel(wag), siteRateModel, false, PartialsRescalingScheme.DYNAMIC,
+                    false, threadCount);
+            TreeDataLikelihood likelihood = new TreeDataLikelihood(delegate, treeModel,
+                    new StrictClockBranchRates(new Parameter.Default(1.0)));
+
+            assertEquals(treeLikelihood.getLogLikelihood(), likelihood.getLogLikelihood(), 1E-8);
+        }
+    }
+
+    private double getHKYLikelihood(double[] frequencies, double kappa, double shape, double pInvar,
+                                    PartialsRescalingScheme scheme, int threadCount) {
+        return createHKYLikelihood(frequencies, kappa, shape, pInvar, scheme, threadCount).getLogLikelihood();
+    }
+
+    private TreeDataLikelihood createHKYLikelihood(double[] frequencies, double kappa, double shape, double pInvar,
+                                                   PartialsRescalingScheme scheme, int threadCount) {
+        return createHKYLikelihood(frequencies, kappa, shape, pInvar, scheme, threadCount,
+                new StrictClockBranchRates(new Parameter.Default(1.0)));
+    }
+
+    private TreeDataLikelihood createHKYLikelihood(double[] frequencies, double kappa, double shape, double pInvar,
+                                                   PartialsRescalingScheme scheme, int threadCount,
+                                                   BranchRateModel branchRateModel) {
+        HKY hky = new HKY(kappa, new FrequencyModel(Nucleotides.INSTANCE, frequencies));
+
+        GammaSiteRateModel siteRateModel;
+        if (shape <= 0.0) {
+            siteRateModel = new GammaSiteRateModel("siteModel");
+        } else if (pInvar > 0.0) {
+            siteRateModel = new GammaSiteRateModel("siteModel", shape, 4, pInvar);
+        } else {
+            siteRateModel = new GammaSiteRateModel("siteModel", shape, 4);
+        }
+        siteRateModel.setSubstitutionModel(hky);
+
+        SitePatterns patterns = new SitePatterns(alignment, null, 0, -1, 1, true);
+
+        BeagleDataLikelihoodDelegate delegate = createDelegate(patterns,
+                new HomogeneousBranchModel(hky), siteRateModel, false, scheme, false, threadCount);
+
+        return new TreeDataLikelihood(delegate, treeModel, branchRateModel);
+    }
+
+    private BeagleDataLikelihoodDelegate createDelegate(PatternList patterns, BranchModel branchModel,
+                                                        GammaSiteRateModel siteRateModel, boolean useAmbiguities,
+                                                        PartialsRescalingScheme scheme, boolean delayRescaling,
+                                                        int threadCount) {
+        BeagleDataLikelihoodDelegate delegate = new BeagleDataLikelihoodDelegate(treeModel, patterns, branchModel,
+                siteRateModel, useAmbiguities, scheme, delayRescaling, JavaBeagleImpl.FACTORY);
+        delegate.setThreadCount(threadCount);
+        return delegate;
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * Histogram2DTest.java
+ *
+ * Copyright (c) 2002-2017 Alexei Drummond, Andrew Rambaut and Marc Suchard
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ */
+
+package test.dr.geo;
+
+import dr.geo.Histogram2D;
+import dr.geo.KernelDensityEstimator2D;
+import dr.stats.DiscreteStatistics;
+import junit.framework.TestCase;
+
+import java.util.Random;
+
+public class Histogram2DTest extends TestCase {
+
+    private static final int POINT_COUNT = 5000;
+
+    private double[] x;
+    private double[] y;
+
+    public void setUp() {
+        Random random = new Random(42);
+        x = new double[POINT_COUNT];
+        y = new double[POINT_COUNT];
+        for (int i = 0; i < POINT_COUNT; i++) {
+            // a spreading cloud so the grid has to move and grow as the points are added
+            double scale = 1.0 + 10.0 * i / POINT_COUNT;
+            x[i] = 40.0 + random.nextGaussian() * scale;
+            y[i] = -5.0 + random.nextGaussian() * scale * 2;
+        }
+    }
+
+    public void testMerge() {
+        Histogram2D histogram = new Histogram2D(64);
+        for (int i = 0; i < POINT_COUNT; i++) {
+            histogram.add(x[i], y[i]);
+        }
+
+        // the same points added in reverse to three histograms which are then merged
+        Histogram2D merged = new Histogram2D(64);
+        int[] bounds = {0, 10, 2000, POINT_COUNT};
+        for (int part = 0; part < 3; part++) {
+            Histogram2D partHistogram = new Histogram2D(64);
+            for (int i = bounds[part + 1] - 1; i >= bounds[part]; i--) {
+                partHistogram.add(x[i], y[i]);
+            }
+            merged.add(partHistogram);
+        }
+
+        assertEquals(POINT_COUNT, histogram.getCount());
+        assertEquals(POINT_COUNT, merged.getCount());
+        for (int d = 0; d < 2; d++) {
+            assertEquals(histogram.getBinWidth(d), merged.getBinWidth(d));
+            assertEquals(histogram.getMin(d), merged.getMin(d));
+            assertEquals(histogram.getMax(d), merged.getMax(d));
+            assertEquals(histogram.getMean(d), merged.getMean(d), 1E-10);
+            assertEquals(histogram.getVariance(d), merged.getVariance(d), 1E-8);
+            assertTrue(histogram.getBinStart(d, histogram.getFirstBin(d)) <= histogram.getMin(d));
+            assertTrue(histogram.getBinStart(d, histogram.getLastBin(d) + 1) > histogram.getMax(d));
+        }
+        assertEquals(DiscreteStatistics.mean(x), histogram.getMean(0), 1E-10);
+        assertEquals(DiscreteStatistics.variance(y), histogram.getVariance(1), 1E-8);
+
+        int total = 0;
+        for (int i = histogram.getFirstBin(0); i <= histogram.getLastBin(0); i++) {
+            for (int j = histogram.getFirstBin(1); j <= histogram.getLastBin(1); j++) {
+                double startX = histogram.getBinStart(0, i);
+                double startY = histogram.getBinStart(1, j);
+                int mergedI = (int) Math.round((startX - merged.getBinStart(0, 0)) / merged.getBinWidth(0));
+                int mergedJ = (int) Math.round((startY - merged.getBinStart(1, 0)) / merged.getBinWidth(1));
+                assertEquals(histogram.getCount(i, j), merged.getCount(mergedI, mergedJ));
+                total += histogram.getCount(i, j);
+            }
+        }
+        assertEquals(POINT_COUNT, total);
+    }
+
+    public void testBinnedDensity() {
+        Histogram2D histogram = new Histogram2D(256);
+        for (int i = 0; i < POINT_COUNT; i++) {
+            histogram.add(x[i], y[i]);
+        }
+
+        KernelDensityEstimator2D kde = new KernelDensityEstimator2D(x, y, true);
+        KernelDensityEstimator2D binnedKDE = new KernelDensityEstimator2D(histogram, null, 50, kde.getLims(), true);
+
+        double[][] z = kde.getKDE();
+        double[][] binnedZ = binnedKDE.getKDE();
+        double maxDensity = 0.0;
+        double maxDifference = 0.0;
+        for (int i = 0; i < z.length; i++) {
+            for (int j = 0; j < z[i].length; j++) {
+                maxDensity = Math.max(maxDensity, z[i][j]);
+                maxDifference = Math.max(maxDifference, Math.abs(z[i][j] - binnedZ[i][j]));
+            }
+        }
+        assertTrue("binned density differs by " + maxDifference, maxDifference < 0.05 * maxDensity);
+
+        assertEquals(kde.findLevelCorrespondingToMass(0.8), binnedKDE.findLevelCorrespondingToMass(0.8),
+                0.05 * kde.findLevelCorrespondingToMass(0.8));
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ * KernelDensityEstimator2DTest.java
+ *
+ * Copyright (c) 2002-2017 Alexei Drummond, Andrew Rambaut and Marc Suchard
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ */
+
+package test.dr.geo;
+
+import dr.geo.KernelDensityEstimator2D;
+import junit.framework.TestCase;
+
+import java.util.Random;
+
+public class KernelDensityEstimator2DTest extends TestCase {
+
+    private static final int POINT_COUNT = 20000;
+
+    private double[] x;
+    private double[] y;
+
+    public void setUp() {
+        Random random = new Random(17);
+        x = new double[POINT_COUNT];
+        y = new double[POINT_COUNT];
+        for (int i = 0; i < POINT_COUNT; i++) {
+            // two overlapping clouds of different shapes
+            if (random.nextBoolean()) {
+                x[i] = 3.0 + random.nextGaussian();
+                y[i] = 2.0 + random.nextGaussian() * 0.7;
+            } else {
+                x[i] = -2.0 + random.nextGaussian() * 0.5;
+                y[i] = -2.0 + random.nextGaussian() * 2.0;
+            }
+        }
+    }
+
+    public void testBinnedDensity() {
+        KernelDensityEstimator2D kde = new KernelDensityEstimator2D(x, y, null, 50, null, true, false);
+        KernelDensityEstimator2D binnedKDE = new KernelDensityEstimator2D(x, y, null, 50, null, true, true);
+
+        assertEquals(kde.getXGrid()[0], binnedKDE.getXGrid()[0]);
+        assertEquals(kde.getYGrid()[49], binnedKDE.getYGrid()[49]);
+
+        double[][] z = kde.getKDE();
+        double[][] binnedZ = binnedKDE.getKDE();
+        double maxDensity = 0.0;
+        double maxDifference = 0.0;
+        for (int i = 0; i < z.length; i++) {
+            for (int j = 0; j < z[i].length; j++) {
+                maxDensity = Math.max(maxDensity, z[i][j]);
+                maxDifference = Math.max(maxDifference, Math.abs(z[i][j] - binnedZ[i][j]));
+            }
+        }
+        assertTrue("binned density differs by " + maxDifference, maxDifference < 0.005 * maxDensity);
+
+        assertEquals(kde.findLevelCorrespondingToMass(0.8), binnedKDE.findLevelCorrespondingToMass(0.8),
+                0.005 * kde.findLevelCorrespondingToMass(0.8));
+    }
+
+    public void testBinnedWithBandwidth() {
+        // with the bandwidth given the only difference is from the binning
+        double[] h = {0.3, 0.4};
+        double[] lims = {-4.0, 6.0, -6.0, 5.0};
+        KernelDensityEstimator2D kde = new KernelDensityEstimator2D(x, y, h, 40, lims, false, false);
+        KernelDensityEstimator2D binnedKDE = new KernelDensityEstimator2D(x, y, h, 40, lims, false, true);
+
+        double[][] z = kde.getKDE();
+        double[][] binnedZ = binnedKDE.getKDE();
+        double maxDensity = 0.0;
+        double maxDifference = 0.0;
+        for (int i = 0; i < z.length; i++) {
+            for (int j = 0; j < z[i].length; j++) {
+                maxDensity = Math.max(maxDensity, z[i][j]);
+                maxDifference = Math.max(maxDifference, Math.abs(z[i][j] - binnedZ[i][j]));
+            }
+        }
+        assertTrue("binned density differs by " + maxDifference, maxDifference < 0.001 * maxDensity);
+    }
+}
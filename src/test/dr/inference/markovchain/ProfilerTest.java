@@ -0,0 +1,197 @@
+/*
+ * ProfilerTest.java
+ *
+ * Copyright (c) 2002-2017 Alexei Drummond, Andrew Rambaut and Marc Suchard
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ */
+
+package test.dr.inference.markovchain;
+
+import dr.inference.markovchain.Profiler;
+import dr.inference.markovchain.ProfilerDumper;
+import dr.inference.model.Parameter;
+import dr.inference.operators.MCMCOperator;
+import dr.inference.operators.ScaleOperator;
+import junit.framework.TestCase;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Checks that Profiler sections accumulate correctly when timed from several threads at once,
+ * that operators sharing a name are timed separately and that ProfilerDumper writes snapshots
+ * of the sections.
+ */
+public class ProfilerTest extends TestCase {
+
+    private static final long MILLIS = 1000000;
+
+    public void testOverlappingThreads() throws Exception {
+        final Profiler.Section section = Profiler.getSection("test.overlapping");
+        section.reset();
+
+        final CountDownLatch begun = new CountDownLatch(1);
+
+        // the first thread times 200ms and the second begins 100ms later and times 50ms
+        Thread first = new Thread() {
+            public void run() {
+                section.begin();
+                begun.countDown();
+                pause(200);
+                section.end();
+            }
+        };
+        Thread second = new Thread() {
+            public void run() {
+                awaitLatch(begun);
+                pause(100);
+                section.begin();
+                pause(50);
+                section.end();
+            }
+        };
+        first.start();
+        second.start();
+        first.join();
+        second.join();
+
+        assertEquals(2, section.getCount());
+        // with a single start time the first thread would only be charged from the second's begin
+        assertTrue("wall time " + section.getWallTime() / MILLIS + "ms", section.getWallTime() >= 250 * MILLIS);
+    }
+
+    public void testConcurrentCounts() throws Exception {
+        final Profiler.Section section = Profiler.getSection("test.counts");
+        section.reset();
+
+        final int threadCount = 4;
+        final int callCount = 20000;
+
+        Thread[] threads = new Thread[threadCount];
+        for (int i = 0; i < threadCount; i++) {
+            threads[i] = new Thread() {
+                public void run() {
+                    for (int j = 0; j < callCount; j++) {
+                        section.begin();
+                        section.end();
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(threadCount * callCount, section.getCount());
+        assertTrue(section.getWallTime() >= 0);
+    }
+
+    public void testOperatorsWithTheSameName() {
+        MCMCOperator operator1 = new ScaleOperator(new Parameter.Default("profilerTest.x", 1.0), 0.5);
+        MCMCOperator operator2 = new ScaleOperator(new Parameter.Default("profilerTest.x", 1.0), 0.5);
+        assertEquals(operator1.getOperatorName(), operator2.getOperatorName());
+
+        Profiler.Section section1 = Profiler.getOperatorSection(operator1);
+        Profiler.Section section2 = Profiler.getOperatorSection(operator2);
+
+        assertNotSame(section1, section2);
+        assertSame(section1, Profiler.getOperatorSection(operator1));
+        assertEquals(Profiler.OPERATOR_PREFIX + operator1.getOperatorName(), section1.getName());
+        assertEquals(section1.getName() + "#2", section2.getName());
+
+        section1.reset();
+        section2.reset();
+        section1.begin();
+        section1.end();
+        assertEquals(1, section1.getCount());
+        assertEquals(0, section2.getCount());
+    }
+
+    public void testDumper() throws Exception {
+        Profiler.Section section = Profiler.getSection("test.dumper");
+        section.reset();
+        section.begin();
+        section.end();
+
+        File file = File.createTempFile("profile", ".json");
+        file.delete();
+        try {
+            ProfilerDumper dumper = new ProfilerDumper(file.getPath(), 10);
+
+            dumper.currentState(5, null, null);
+            assertFalse(file.exists());
+
+            dumper.currentState(10, null, null);
+            String json = read(file);
+            assertTrue(json, json.contains("\"state\": 10,"));
+            assertTrue(json, json.contains("{\"name\": \"test.dumper\", \"count\": 1, \"wallNanos\": " +
+                    section.getWallTime() + ", \"cpuNanos\": " + section.getCpuTime() + "}"));
+
+            // the snapshot is replaced each time
+            section.begin();
+            section.end();
+            dumper.finished(25, null);
+            json = read(file);
+            assertTrue(json, json.contains("\"state\": 25,"));
+            assertFalse(json, json.contains("\"state\": 10,"));
+            assertTrue(json, json.contains("{\"name\": \"test.dumper\", \"count\": 2,"));
+            assertFalse(new File(file.getPath() + ".tmp").exists());
+        } finally {
+            file.delete();
+        }
+    }
+
+    public void testDumperFromProperties() {
+        System.clearProperty(Profiler.PROFILE_FILE);
+        assertNull(ProfilerDumper.createFromProperties());
+    }
+
+    private static void pause(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException ie) {
+            throw new RuntimeException(ie);
+        }
+    }
+
+    private static void awaitLatch(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException ie) {
+            throw new RuntimeException(ie);
+        }
+    }
+
+    private static String read(File file) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        BufferedReader reader = new BufferedReader(new FileReader(file));
+        String line;
+        while ((line = reader.readLine()) != null) {
+            sb.append(line).append("\n");
+        }
+        reader.close();
+        return sb.toString();
+    }
+}
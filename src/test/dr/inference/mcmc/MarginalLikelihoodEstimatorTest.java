@@ -0,0 +1,177 @@
+/*
+ * MarginalLikelihoodEstimatorTest.java
+ *
+ * Copyright (c) 2002-2017 Alexei Drummond, Andrew Rambaut and Marc Suchard
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ */
+
+package test.dr.inference.mcmc;
+
+import dr.app.beast.BeastParser;
+import dr.inference.mcmc.MarginalLikelihoodEstimator;
+import dr.math.MathUtils;
+import dr.xml.XMLObject;
+import junit.framework.TestCase;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Checks that running the path steps of a marginal likelihood estimator concurrently on copies of
+ * the chain gives a log laid out as that of a sequential run and that it is reproducible from a
+ * seed.
+ */
+public class MarginalLikelihoodEstimatorTest extends TestCase {
+
+    private static final int CHAIN_LENGTH = 200;
+    private static final int PATH_STEPS = 10;
+    private static final long SEED = 42;
+
+    private static final String XML =
+            "<beast>\n" +
+            "  <distributionLikelihood id=\"samplingDensity\">\n" +
+            "    <distribution>\n" +
+            "      <normalDistributionModel>\n" +
+            "        <mean><parameter id=\"mu\" value=\"0\"/></mean>\n" +
+            "        <precision><parameter id=\"tau\" value=\"1\"/></precision>\n" +
+            "      </normalDistributionModel>\n" +
+            "    </distribution>\n" +
+            "    <data><parameter id=\"x\" value=\"5\"/></data>\n" +
+            "  </distributionLikelihood>\n" +
+            "  <normalPrior id=\"meanPrior\" mean=\"0\" stdev=\"1\">\n" +
+            "    <parameter idref=\"mu\"/>\n" +
+            "  </normalPrior>\n" +
+            "  <operators id=\"operators\">\n" +
+            "    <randomWalkOperator windowSize=\"0.75\" weight=\"1\">\n" +
+            "      <parameter idref=\"mu\"/>\n" +
+            "    </randomWalkOperator>\n" +
+            "  </operators>\n" +
+            "  <mcmc id=\"mcmc\" chainLength=\"1000\" autoOptimize=\"true\">\n" +
+            "    <posterior id=\"posterior\">\n" +
+            "      <likelihood id=\"likelihood\"><distributionLikelihood idref=\"samplingDensity\"/></likelihood>\n" +
+            "      <prior id=\"prior\"><normalPrior idref=\"meanPrior\"/></prior>\n" +
+            "    </posterior>\n" +
+            "    <operators idref=\"operators\"/>\n" +
+            "    <log logEvery=\"1000\"><parameter idref=\"mu\"/></log>\n" +
+            "  </mcmc>\n" +
+            "  <marginalLikelihoodEstimator id=\"mle\" chainLength=\"" + CHAIN_LENGTH + "\" pathSteps=\"" + PATH_STEPS + "\"\n" +
+            "      pathScheme=\"betaQuantile\" alpha=\"0.3\" threads=\"%d\">\n" +
+            "    <samplers><mcmc idref=\"mcmc\"/></samplers>\n" +
+            "    <pathLikelihood id=\"pathLikelihood\">\n" +
+            "      <source><posterior idref=\"posterior\"/></source>\n" +
+            "      <destination><prior idref=\"prior\"/></destination>\n" +
+            "    </pathLikelihood>\n" +
+            "    <log logEvery=\"10\" fileName=\"%s\" overwrite=\"true\">\n" +
+            "      <pathLikelihood idref=\"pathLikelihood\"/>\n" +
+            "      <parameter idref=\"mu\"/>\n" +
+            "    </log>\n" +
+            "  </marginalLikelihoodEstimator>\n" +
+            "</beast>\n";
+
+    private int[] randomState;
+    private File logFile;
+
+    public void setUp() throws Exception {
+        super.setUp();
+        // the runs are seeded so the state of the shared stream is put back afterwards
+        randomState = MathUtils.getRandomState();
+        logFile = File.createTempFile("mle", ".log");
+    }
+
+    public void tearDown() throws Exception {
+        MathUtils.setRandomState(randomState);
+        logFile.delete();
+        super.tearDown();
+    }
+
+    public void testConcurrentLogLayout() throws Exception {
+        List<String[]> sequential = run(1);
+        List<String[]> concurrent = run(3);
+
+        assertEquals(Arrays.asList(sequential.get(0)), Arrays.asList(concurrent.get(0)));
+        assertEquals(sequential.size(), concurrent.size());
+
+        int thetaColumn = Arrays.asList(sequential.get(0)).indexOf("pathLikelihood.theta");
+        assertTrue(thetaColumn > 0);
+
+        LinkedHashSet<String> thetas = new LinkedHashSet<String>();
+        for (int i = 1; i < sequential.size(); i++) {
+            // the same states at the same path parameters
+            assertEquals(sequential.get(i)[0], concurrent.get(i)[0]);
+            assertEquals(sequential.get(i)[thetaColumn], concurrent.get(i)[thetaColumn]);
+            thetas.add(sequential.get(i)[thetaColumn]);
+        }
+        assertEquals(PATH_STEPS + 1, thetas.size());
+    }
+
+    public void testConcurrentRunIsReproducible() throws Exception {
+        List<String[]> first = run(3);
+        List<String[]> second = run(3);
+        // the steps are given the same streams however many chains they are shared between
+        List<String[]> fewerChains = run(2);
+
+        assertEquals(first.size(), second.size());
+        assertEquals(first.size(), fewerChains.size());
+        for (int i = 0; i < first.size(); i++) {
+            assertEquals(Arrays.asList(first.get(i)), Arrays.asList(second.get(i)));
+            assertEquals(Arrays.asList(first.get(i)), Arrays.asList(fewerChains.get(i)));
+        }
+    }
+
+    /**
+     * Parses and runs the estimator from the seed.
+     *
+     * @return the rows of its log (the labels first)
+     */
+    private List<String[]> run(int threadCount) throws Exception {
+        MathUtils.setSeed(SEED);
+
+        String xml = String.format(XML, threadCount, logFile.getAbsolutePath());
+        BeastParser parser = new BeastParser(new String[0], null, false, false, false, null);
+        Map<String, XMLObject> store = parser.parse(new StringReader(xml), false);
+
+        MarginalLikelihoodEstimator mle = (MarginalLikelihoodEstimator) store.get("mle").getNativeObject();
+        mle.run();
+
+        return readLog(logFile);
+    }
+
+    private static List<String[]> readLog(File file) throws IOException {
+        List<String[]> rows = new ArrayList<String[]>();
+        BufferedReader reader = new BufferedReader(new FileReader(file));
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if (line.length() > 0 && !line.startsWith("#")) {
+                rows.add(line.split("\t"));
+            }
+        }
+        reader.close();
+        return rows;
+    }
+}
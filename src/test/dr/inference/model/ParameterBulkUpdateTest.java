@@ -0,0 +1,120 @@
+package test.dr.inference.model;
+
+import dr.inference.model.CompoundParameter;
+import dr.inference.model.Parameter;
+import dr.inference.model.Variable;
+import dr.inference.model.VariableListener;
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+public class ParameterBulkUpdateTest extends TestCase {
+
+    public void testSingleEvent() {
+        Parameter parameter = new Parameter.Default(new double[]{1.0, 2.0, 3.0, 4.0});
+        EventRecorder recorder = new EventRecorder();
+        parameter.addParameterListener(recorder);
+
+        parameter.beginBulkUpdate();
+        parameter.setParameterValue(0, 10.0);
+        parameter.setParameterValue(2, 30.0);
+        assertEquals(0, recorder.indices.size());
+        parameter.endBulkUpdate();
+
+        assertEquals(1, recorder.indices.size());
+        assertEquals(-1, (int) recorder.indices.get(0));
+        assertEquals(Parameter.ChangeType.ALL_VALUES_CHANGED, recorder.types.get(0));
+        BitSet expected = new BitSet();
+        expected.set(0);
+        expected.set(2);
+        assertEquals(expected, recorder.changed.get(0));
+        assertNull(parameter.getChangedIndices());
+
+        // one change is sent with its index as normal
+        parameter.beginBulkUpdate();
+        parameter.setParameterValue(3, 40.0);
+        parameter.endBulkUpdate();
+        assertEquals(2, recorder.indices.size());
+        assertEquals(3, (int) recorder.indices.get(1));
+        assertEquals(Parameter.ChangeType.VALUE_CHANGED, recorder.types.get(1));
+
+        // nothing changed so nothing is sent
+        parameter.beginBulkUpdate();
+        parameter.endBulkUpdate();
+        assertEquals(2, recorder.indices.size());
+
+        assertEquals(30.0, parameter.getParameterValue(2));
+    }
+
+    public void testNested() {
+        Parameter parameter = new Parameter.Default(3, 1.0);
+        EventRecorder recorder = new EventRecorder();
+        parameter.addParameterListener(recorder);
+
+        parameter.beginBulkUpdate();
+        parameter.setParameterValue(0, 2.0);
+        parameter.beginBulkUpdate();
+        parameter.setParameterValue(1, 2.0);
+        parameter.endBulkUpdate();
+        assertEquals(0, recorder.indices.size());
+        parameter.endBulkUpdate();
+        assertEquals(1, recorder.indices.size());
+
+        try {
+            parameter.endBulkUpdate();
+            fail("unmatched endBulkUpdate should throw");
+        } catch (IllegalStateException ise) {
+            // expected
+        }
+    }
+
+    public void testCompound() {
+        Parameter pA = new Parameter.Default(new double[]{0.0, 1.0});
+        Parameter pB = new Parameter.Default(new double[]{2.0, 3.0, 4.0});
+        CompoundParameter compound = new CompoundParameter("compound", new Parameter[]{pA, pB});
+
+        EventRecorder recorderA = new EventRecorder();
+        EventRecorder recorderB = new EventRecorder();
+        EventRecorder recorder = new EventRecorder();
+        pA.addParameterListener(recorderA);
+        pB.addParameterListener(recorderB);
+        compound.addParameterListener(recorder);
+
+        compound.beginBulkUpdate();
+        compound.setParameterValue(1, 10.0);
+        compound.setParameterValue(3, 30.0);
+        compound.setParameterValue(4, 40.0);
+        compound.endBulkUpdate();
+
+        assertEquals(1, recorderA.indices.size());
+        assertEquals(1, (int) recorderA.indices.get(0));
+        assertEquals(1, recorderB.indices.size());
+        assertEquals(-1, (int) recorderB.indices.get(0));
+        assertEquals(Parameter.ChangeType.ALL_VALUES_CHANGED, recorderB.types.get(0));
+
+        assertEquals(1, recorder.indices.size());
+        assertEquals(Parameter.ChangeType.ALL_VALUES_CHANGED, recorder.types.get(0));
+        BitSet expected = new BitSet();
+        expected.set(1);
+        expected.set(3);
+        expected.set(4);
+        assertEquals(expected, recorder.changed.get(0));
+
+        assertEquals(40.0, pB.getParameterValue(2));
+    }
+
+    private static class EventRecorder implements VariableListener {
+        public void variableChangedEvent(Variable variable, int index, Parameter.ChangeType type) {
+            indices.add(index);
+            types.add(type);
+            BitSet bits = ((Parameter) variable).getChangedIndices();
+            changed.add(bits == null ? null : (BitSet) bits.clone());
+        }
+
+        final List<Integer> indices = new ArrayList<Integer>();
+        final List<Parameter.ChangeType> types = new ArrayList<Parameter.ChangeType>();
+        final List<BitSet> changed = new ArrayList<BitSet>();
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * MassPreconditionerTest.java
+ *
+ * Copyright (c) 2002-2017 Alexei Drummond, Andrew Rambaut and Marc Suchard
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ */
+
+package test.dr.inference.operators;
+
+import dr.inference.operators.hmc.MassPreconditioner;
+import dr.math.MathUtils;
+import junit.framework.TestCase;
+
+public class MassPreconditionerTest extends TestCase {
+
+    private static final int SAMPLE_COUNT = 1000;
+
+    public void testDiagonalAdaptation() {
+        MathUtils.setSeed(666);
+
+        MassPreconditioner diagonal = MassPreconditioner.Type.DIAGONAL.factory(2, 1.0, SAMPLE_COUNT, SAMPLE_COUNT);
+
+        double[] momentum = new double[]{1.0, 1.0};
+        double[] velocity = new double[2];
+
+        // before adaptation the mass is the identity
+        diagonal.updateVelocity(momentum, velocity);
+        assertEquals(1.0, velocity[0], 1E-12);
+        assertEquals(1.0, diagonal.getKineticEnergy(momentum, velocity), 1E-12);
+
+        double[] position = new double[2];
+        for (int i = 0; i < SAMPLE_COUNT; i++) {
+            position[0] = MathUtils.nextGaussian() * 2.0;
+            position[1] = MathUtils.nextGaussian() * 0.1;
+            diagonal.addSample(position);
+        }
+
+        // the inverse mass is the (slightly shrunk) variance of the samples
+        diagonal.updateVelocity(momentum, velocity);
+        assertEquals(4.0, velocity[0], 0.5);
+        assertEquals(0.01, velocity[1], 0.002);
+    }
+
+    public void testDenseMatchesDiagonal() {
+        MassPreconditioner diagonal = MassPreconditioner.Type.DIAGONAL.factory(3, 1.0, 100, 100);
+        MassPreconditioner dense = MassPreconditioner.Type.DENSE.factory(3, 1.0, 100, 100);
+
+        MathUtils.setSeed(666);
+        double[] position = new double[3];
+        for (int i = 0; i < 100; i++) {
+            for (int j = 0; j < 3; j++) {
+                position[j] = MathUtils.nextGaussian() * (j + 1);
+            }
+            diagonal.addSample(position);
+            dense.addSample(position);
+        }
+
+        // the kinetic energies differ only through the off-diagonal covariances
+        double[] momentum = new double[]{0.3, -1.2, 0.7};
+        double[] velocity = new double[3];
+        double diagonalEnergy = diagonal.getKineticEnergy(momentum, velocity);
+        double denseEnergy = dense.getKineticEnergy(momentum, velocity);
+        assertEquals(diagonalEnergy, denseEnergy, 0.25 * diagonalEnergy);
+
+        // momenta drawn with the dense mass have covariance M so p' M^-1 p has mean dim / 2
+        double total = 0.0;
+        for (int i = 0; i < 10000; i++) {
+            dense.drawMomentum(momentum);
+            total += dense.getKineticEnergy(momentum, velocity);
+        }
+        assertEquals(1.5, total / 10000, 0.1);
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ * MultiThreadedMDSTest.java
+ *
+ * Copyright (c) 2002-2017 Alexei Drummond, Andrew Rambaut and Marc Suchard
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ */
+
+package test.dr.multidimensionalscaling;
+
+import dr.inference.multidimensionalscaling.MultiDimensionalScalingCore;
+import dr.inference.multidimensionalscaling.MultiDimensionalScalingCoreImpl;
+import dr.inference.multidimensionalscaling.MultiThreadedMDSImpl;
+import junit.framework.TestCase;
+
+import java.util.Random;
+
+/**
+ * Checks the multi-threaded core against the original one through a random sequence of moves
+ * that are accepted or rejected.
+ */
+public class MultiThreadedMDSTest extends TestCase {
+
+    private static final int DIMENSION = 2;
+    private static final int LOCATION_COUNT = 150;
+
+    public void testUntruncated() {
+        checkAgainstOriginal(0);
+    }
+
+    public void testTruncated() {
+        checkAgainstOriginal(MultiDimensionalScalingCore.LEFT_TRUNCATION);
+    }
+
+    private void checkAgainstOriginal(long flags) {
+        System.setProperty(MultiThreadedMDSImpl.THREAD_COUNT_PROPERTY, "3");
+
+        Random random = new Random(666);
+
+        double[] observations = new double[LOCATION_COUNT * LOCATION_COUNT];
+        for (int i = 0; i < LOCATION_COUNT; i++) {
+            for (int j = i + 1; j < LOCATION_COUNT; j++) {
+                observations[i * LOCATION_COUNT + j] = observations[j * LOCATION_COUNT + i] = 1.0 + 4.0 * random.nextDouble();
+            }
+        }
+        double[] locations = new double[LOCATION_COUNT * DIMENSION];
+        for (int i = 0; i < locations.length; i++) {
+            locations[i] = random.nextGaussian() * 2.0;
+        }
+        double[] precision = {1.5};
+
+        MultiDimensionalScalingCore original = new MultiDimensionalScalingCoreImpl();
+        MultiDimensionalScalingCore threaded = new MultiThreadedMDSImpl();
+        for (MultiDimensionalScalingCore core : new MultiDimensionalScalingCore[]{original, threaded}) {
+            core.initialize(DIMENSION, LOCATION_COUNT, flags);
+            core.setParameters(precision);
+            core.setPairwiseData(observations);
+            core.updateLocation(-1, locations);
+            core.makeDirty();
+        }
+        assertEquals(original.calculateLogLikelihood(), threaded.calculateLogLikelihood(), 1E-8);
+
+        for (int step = 0; step < 500; step++) {
+            original.storeState();
+            threaded.storeState();
+
+            int move = random.nextInt(10);
+            if (move < 6) {
+                // move one or two locations
+                int count = (move < 4 ? 1 : 2);
+                for (int k = 0; k < count; k++) {
+                    int index = random.nextInt(LOCATION_COUNT);
+                    double[] location = new double[DIMENSION];
+                    for (int d = 0; d < DIMENSION; d++) {
+                        location[d] = locations[index * DIMENSION + d] + random.nextGaussian() * 0.2;
+                    }
+                    original.updateLocation(index, location);
+                    threaded.updateLocation(index, location);
+                    if (random.nextBoolean()) {
+                        assertEquals(original.calculateLogLikelihood(), threaded.calculateLogLikelihood(), 1E-8);
+                    }
+                }
+            } else if (move < 8) {
+                double[] newPrecision = {precision[0] * Math.exp(random.nextGaussian() * 0.1)};
+                original.setParameters(newPrecision);
+                threaded.setParameters(newPrecision);
+            } else {
+                double[] newLocations = locations.clone();
+                for (int i = 0; i < newLocations.length; i++) {
+                    newLocations[i] += random.nextGaussian() * 0.05;
+                }
+                original.updateLocation(-1, newLocations);
+                threaded.updateLocation(-1, newLocations);
+            }
+
+            assertEquals("step " + step, original.calculateLogLikelihood(), threaded.calculateLogLikelihood(), 1E-8);
+
+            if (random.nextBoolean()) {
+                original.acceptState();
+                threaded.acceptState();
+            } else {
+                original.restoreState();
+                threaded.restoreState();
+            }
+            assertEquals("step " + step, original.calculateLogLikelihood(), threaded.calculateLogLikelihood(), 1E-8);
+        }
+    }
+}
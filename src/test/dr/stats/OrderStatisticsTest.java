@@ -0,0 +1,86 @@
+/*
+ * OrderStatisticsTest.java
+ *
+ * Copyright (c) 2002-2017 Alexei Drummond, Andrew Rambaut and Marc Suchard
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ */
+
+package test.dr.stats;
+
+import dr.stats.DiscreteStatistics;
+import dr.stats.OrderStatistics;
+import dr.util.HeapSort;
+import junit.framework.TestCase;
+
+import java.util.Random;
+
+public class OrderStatisticsTest extends TestCase {
+
+    private static final double[] QUANTILES = {0.0, 0.025, 0.25, 0.5, 0.75, 0.975, 1.0};
+    private static final double[] PROPORTIONS = {0.5, 0.95};
+
+    public void testContinuous() {
+        Random random = new Random(1);
+        for (int n : new int[]{1, 2, 7, 100, 10001}) {
+            double[] values = new double[n];
+            for (int i = 0; i < n; i++) {
+                values[i] = random.nextGaussian();
+            }
+            checkAgainstSort(values);
+        }
+    }
+
+    public void testHeavyTailed() {
+        Random random = new Random(2);
+        double[] values = new double[5000];
+        for (int i = 0; i < values.length; i++) {
+            // most of the values fall in one bucket
+            values[i] = Math.exp(random.nextGaussian() * 5);
+        }
+        checkAgainstSort(values);
+    }
+
+    public void testDiscrete() {
+        Random random = new Random(3);
+        double[] values = new double[2000];
+        for (int i = 0; i < values.length; i++) {
+            // lots of ties so the first of equal intervals has to be found
+            values[i] = random.nextInt(5) + (random.nextInt(4) == 0 ? 10 : 0);
+        }
+        checkAgainstSort(values);
+    }
+
+    private void checkAgainstSort(double[] values) {
+        int[] indices = new int[values.length];
+        HeapSort.sort(values, indices);
+
+        OrderStatistics orderStatistics = new OrderStatistics(values.clone());
+        for (double q : QUANTILES) {
+            assertEquals(DiscreteStatistics.quantile(q, values, indices), orderStatistics.getQuantile(q));
+        }
+        for (double proportion : PROPORTIONS) {
+            double[] hpd = DiscreteStatistics.HPDInterval(proportion, values, indices);
+            double[] interval = orderStatistics.getHPDInterval(proportion);
+            assertEquals(hpd[0], interval[0]);
+            assertEquals(hpd[1], interval[1]);
+        }
+    }
+}
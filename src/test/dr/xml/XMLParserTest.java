@@ -0,0 +1,402 @@
+/*
+ * XMLParserTest.java
+ *
+ * Copyright (c) 2002-2017 Alexei Drummond, Andrew Rambaut and Marc Suchard
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ */
+
+package test.dr.xml;
+
+import dr.app.beast.BeastParser;
+import dr.evolution.alignment.Alignment;
+import dr.evolution.alignment.PatternList;
+import dr.evomodel.tree.TreeModel;
+import dr.inference.ml.MLOptimizer;
+import dr.inference.model.Likelihood;
+import dr.inference.model.LikelihoodProfile;
+import dr.inference.model.Parameter;
+import dr.math.MathUtils;
+import dr.xml.*;
+import junit.framework.TestCase;
+
+import java.io.StringReader;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Checks that building the data elements concurrently gives the same objects as building them in
+ * turn, and the copies of model graphs made by XMLObject.createCopies and the likelihood profiles
+ * and optimizers that evaluate points on them.
+ */
+public class XMLParserTest extends TestCase {
+
+    private static final String HEADER =
+            "<beast>\n" +
+            "  <taxa id=\"taxa\">\n" +
+            "    <taxon id=\"A\"/><taxon id=\"B\"/><taxon id=\"C\"/><taxon id=\"D\"/>\n" +
+            "  </taxa>\n" +
+            "  <alignment id=\"alignment\" dataType=\"nucleotide\">\n" +
+            "    <sequence><taxon idref=\"A\"/>ACGTACGTAAACCCGGGTTTACGTAGCTAGCTAACGATCGGCTA</sequence>\n" +
+            "    <sequence><taxon idref=\"B\"/>ACGTACGTAGACCCGGCTTTACGTAGCTAGCTAACGATCGGCTA</sequence>\n" +
+            "    <sequence><taxon idref=\"C\"/>ACGCACGTAAACTCGGGTTTGCGTAGCTAACTAACGATCGGATA</sequence>\n" +
+            "    <sequence><taxon idref=\"D\"/>ACGCACGTAAACTCGGGTGTGCGTAGTTAACTAACGATCGGTTA</sequence>\n" +
+            "  </alignment>\n" +
+            "  <patterns id=\"patterns\" from=\"1\">\n" +
+            "    <alignment idref=\"alignment\"/>\n" +
+            "  </patterns>\n" +
+            "  <newick id=\"startingTree\">((A:0.1,B:0.1):0.2,(C:0.15,D:0.15):0.15);</newick>\n" +
+            "  <treeModel id=\"treeModel\">\n" +
+            "    <newick idref=\"startingTree\"/>\n" +
+            "    <rootHeight><parameter id=\"treeModel.rootHeight\"/></rootHeight>\n" +
+            "    <nodeHeights internalNodes=\"true\"><parameter id=\"treeModel.internalNodeHeights\"/></nodeHeights>\n" +
+            "  </treeModel>\n" +
+            "  <strictClockBranchRates id=\"branchRates\">\n" +
+            "    <rate><parameter id=\"clock.rate\" value=\"1.0\"/></rate>\n" +
+            "  </strictClockBranchRates>\n" +
+            "  <HKYModel id=\"hky\">\n" +
+            "    <frequencies>\n" +
+            "      <frequencyModel dataType=\"nucleotide\">\n" +
+            "        <frequencies><parameter id=\"frequencies\" value=\"0.25 0.25 0.25 0.25\"/></frequencies>\n" +
+            "      </frequencyModel>\n" +
+            "    </frequencies>\n" +
+            "    <kappa><parameter id=\"kappa\" value=\"2.0\" lower=\"0.1\" upper=\"50.0\"/></kappa>\n" +
+            "  </HKYModel>\n" +
+            "  <siteModel id=\"siteModel\">\n" +
+            "    <substitutionModel><HKYModel idref=\"hky\"/></substitutionModel>\n" +
+            "  </siteModel>\n" +
+            "  <treeDataLikelihood id=\"treeLikelihood\" useAmbiguities=\"false\">\n" +
+            "    <patterns idref=\"patterns\"/>\n" +
+            "    <treeModel idref=\"treeModel\"/>\n" +
+            "    <siteModel idref=\"siteModel\"/>\n" +
+            "    <strictClockBranchRates idref=\"branchRates\"/>\n" +
+            "  </treeDataLikelihood>\n";
+
+    private static final String FOOTER = "</beast>\n";
+
+    private static final String COPIES = "copies";
+
+    private BeastParser parser;
+
+    public void setUp() throws Exception {
+        super.setUp();
+
+        // the tree likelihood is made without a native BEAGLE library
+        System.setProperty("java.only", "true");
+
+        parser = new BeastParser(new String[0], null, false, false, false, null);
+        parser.addXMLObjectParser(COPIES_PARSER);
+    }
+
+    public void tearDown() throws Exception {
+        System.clearProperty("java.only");
+        super.tearDown();
+    }
+
+    private Map<String, XMLObject> parse(String body) throws Exception {
+        return parser.parse(new StringReader(HEADER + body + FOOTER), false);
+    }
+
+    private static Object getObject(Map<String, XMLObject> objects, String id) throws XMLParseException {
+        return objects.get(id).getNativeObject();
+    }
+
+    public void testCopiesDoNotShareState() throws Exception {
+        Map<String, XMLObject> objects = parse(
+                "  <" + COPIES + " id=\"copies\" count=\"2\">\n" +
+                "    <treeDataLikelihood idref=\"treeLikelihood\"/>\n" +
+                "    <parameter idref=\"kappa\"/>\n" +
+                "  </" + COPIES + ">\n");
+
+        Likelihood likelihood = (Likelihood) getObject(objects, "treeLikelihood");
+        Parameter kappa = (Parameter) getObject(objects, "kappa");
+        TreeModel treeModel = (TreeModel) getObject(objects, "treeModel");
+        List<Object[]> copies = (List<Object[]>) getObject(objects, "copies");
+
+        assertEquals(2, copies.size());
+        assertNotSame(copies.get(0)[0], copies.get(1)[0]);
+        assertNotSame(copies.get(0)[1], copies.get(1)[1]);
+
+        final double logL = likelihood.getLogLikelihood();
+        for (Object[] copy : copies) {
+            Likelihood copyLikelihood = (Likelihood) copy[0];
+            Parameter copyKappa = (Parameter) copy[1];
+
+            assertNotSame(likelihood, copyLikelihood);
+            assertNotSame(kappa, copyKappa);
+            assertEquals(logL, copyLikelihood.getLogLikelihood(), 1E-10);
+        }
+
+        // the parameter of each copy belongs to the likelihood of that copy only
+        Parameter copyKappa = (Parameter) copies.get(0)[1];
+        copyKappa.setParameterValue(0, 10.0);
+        assertEquals(logL, likelihood.getLogLikelihood(), 0.0);
+        assertEquals(logL, ((Likelihood) copies.get(1)[0]).getLogLikelihood(), 0.0);
+        assertTrue(Math.abs(((Likelihood) copies.get(0)[0]).getLogLikelihood() - logL) > 1E-6);
+        copyKappa.setParameterValue(0, 2.0);
+
+        // as does the tree (which was copied with the likelihood)
+        treeModel.setNodeHeight(treeModel.getRoot(), treeModel.getNodeHeight(treeModel.getRoot()) * 2.0);
+        assertTrue(Math.abs(likelihood.getLogLikelihood() - logL) > 1E-6);
+        for (Object[] copy : copies) {
+            assertEquals(logL, ((Likelihood) copy[0]).getLogLikelihood(), 1E-10);
+        }
+    }
+
+    public void testLikelihoodProfileThreads() throws Exception {
+        Map<String, XMLObject> objects = parse(
+                "  <likelihoodProfile id=\"profile1\" lower=\"0.5\" upper=\"10.0\" points=\"12\" threads=\"1\">\n" +
+                "    <treeDataLikelihood idref=\"treeLikelihood\"/>\n" +
+                "    <parameter idref=\"kappa\"/>\n" +
+                "  </likelihoodProfile>\n" +
+                "  <likelihoodProfile id=\"profile3\" lower=\"0.5\" upper=\"10.0\" points=\"12\" threads=\"3\">\n" +
+                "    <treeDataLikelihood idref=\"treeLikelihood\"/>\n" +
+                "    <parameter idref=\"kappa\"/>\n" +
+                "  </likelihoodProfile>\n");
+
+        String report1 = ((LikelihoodProfile) getObject(objects, "profile1")).getReport();
+        String report3 = ((LikelihoodProfile) getObject(objects, "profile3")).getReport();
+
+        assertEquals(13, report1.split(LikelihoodProfile.ENDL).length);
+        assertEquals(report1, report3);
+    }
+
+    public void testDifferentialEvolutionThreads() throws Exception {
+        Map<String, XMLObject> objects = parse(
+                "  <optimizer id=\"optimizer1\" chainLength=\"300\" method=\"differentialEvolution\" threads=\"1\">\n" +
+                "    <treeDataLikelihood idref=\"treeLikelihood\"/>\n" +
+                "    <parameter idref=\"kappa\"/>\n" +
+                "    <log logEvery=\"1000\"><parameter idref=\"kappa\"/></log>\n" +
+                "  </optimizer>\n" +
+                "  <optimizer id=\"optimizer3\" chainLength=\"300\" method=\"differentialEvolution\" threads=\"3\">\n" +
+                "    <treeDataLikelihood idref=\"treeLikelihood\"/>\n" +
+                "    <parameter idref=\"kappa\"/>\n" +
+                "    <log logEvery=\"1000\"><parameter idref=\"kappa\"/></log>\n" +
+                "  </optimizer>\n" +
+                "  <optimizer id=\"optimizer\" chainLength=\"300\" method=\"conjugateDirection\">\n" +
+                "    <treeDataLikelihood idref=\"treeLikelihood\"/>\n" +
+                "    <parameter idref=\"kappa\"/>\n" +
+                "    <log logEvery=\"1000\"><parameter idref=\"kappa\"/></log>\n" +
+                "  </optimizer>\n");
+
+        Likelihood likelihood = (Likelihood) getObject(objects, "treeLikelihood");
+        Parameter kappa = (Parameter) getObject(objects, "kappa");
+
+        MathUtils.setSeed(1234);
+        ((MLOptimizer) getObject(objects, "optimizer1")).run();
+        double kappa1 = kappa.getParameterValue(0);
+        double logL1 = likelihood.getLogLikelihood();
+        // the maximum is within the bounds
+        assertTrue(kappa1 > 1.0 && kappa1 < 20.0);
+
+        kappa.setParameterValue(0, 2.0);
+        MathUtils.setSeed(1234);
+        ((MLOptimizer) getObject(objects, "optimizer3")).run();
+        assertEquals(kappa1, kappa.getParameterValue(0), 0.0);
+        assertEquals(logL1, likelihood.getLogLikelihood(), 0.0);
+
+        // the conjugate direction search (with the cache) should find the same maximum
+        kappa.setParameterValue(0, 2.0);
+        ((MLOptimizer) getObject(objects, "optimizer")).run();
+        assertEquals(kappa1, kappa.getParameterValue(0), 1E-3);
+        assertTrue(likelihood.getLogLikelihood() >= logL1 - 1E-6);
+    }
+
+    private static final String MORE_DATA =
+            "  <alignment id=\"alignment2\" dataType=\"nucleotide\">\n" +
+            "    <sequence><taxon idref=\"A\"/>ACGTTCGTAAACCCGGGTTTACGTAG</sequence>\n" +
+            "    <sequence><taxon idref=\"B\"/>ACGTTCGTAAACCCGGATTTACGTAG</sequence>\n" +
+            "    <sequence><taxon idref=\"C\"/>ACGAACGTAATCCCGGGTTTACCTTG</sequence>\n" +
+            "    <sequence><taxon idref=\"D\"/>ACGAACGTAATCCAGGGTTTAGCTTG</sequence>\n" +
+            "  </alignment>\n" +
+            "  <alignment id=\"alignment3\" dataType=\"nucleotide\">\n" +
+            "    <sequence><taxon idref=\"A\"/>TTGTACGTAAACCCGGGTTTACG</sequence>\n" +
+            "    <sequence><taxon idref=\"B\"/>TTGTACGTAAACCCGGATTTACG</sequence>\n" +
+            "    <sequence><taxon idref=\"C\"/>TTGAACGTAATCCCGGGTTTACG</sequence>\n" +
+            "    <sequence><taxon idref=\"D\"/>ATGAACGTAATCCAGGGTTTAGG</sequence>\n" +
+            "  </alignment>\n" +
+            "  <patterns id=\"patterns2\" from=\"1\">\n" +
+            "    <alignment idref=\"alignment2\"/>\n" +
+            "  </patterns>\n" +
+            "  <patterns id=\"patterns3\" from=\"1\" every=\"2\">\n" +
+            "    <alignment idref=\"alignment3\"/>\n" +
+            "  </patterns>\n" +
+            "  <mergePatterns id=\"merged\">\n" +
+            "    <patterns idref=\"patterns2\"/>\n" +
+            "    <patterns idref=\"patterns3\"/>\n" +
+            "  </mergePatterns>\n" +
+            "  <treeDataLikelihood id=\"treeLikelihood2\" useAmbiguities=\"false\">\n" +
+            "    <patterns idref=\"merged\"/>\n" +
+            "    <treeModel idref=\"treeModel\"/>\n" +
+            "    <siteModel idref=\"siteModel\"/>\n" +
+            "    <strictClockBranchRates idref=\"branchRates\"/>\n" +
+            "  </treeDataLikelihood>\n";
+
+    private Map<String, XMLObject> parseOnThreads(String body, int threadCount) throws Exception {
+        return parseOnThreads(body, threadCount, XMLParser.DEFAULT_CONCURRENT_ELEMENTS);
+    }
+
+    private Map<String, XMLObject> parseOnThreads(String body, int threadCount, String concurrentElements) throws Exception {
+        System.setProperty(XMLParser.PARSER_THREADS, Integer.toString(threadCount));
+        System.setProperty(XMLParser.PARSER_CONCURRENT_ELEMENTS, concurrentElements);
+        try {
+            BeastParser parser = new BeastParser(new String[0], null, false, false, false, null);
+            parser.addXMLObjectParser(SLOW_PARSER);
+            return parser.parse(new StringReader(HEADER + body + FOOTER), false);
+        } finally {
+            System.clearProperty(XMLParser.PARSER_THREADS);
+            System.clearProperty(XMLParser.PARSER_CONCURRENT_ELEMENTS);
+        }
+    }
+
+    public void testConcurrentParse() throws Exception {
+        Map<String, XMLObject> serial = parseOnThreads(MORE_DATA, 1);
+        Map<String, XMLObject> concurrent = parseOnThreads(MORE_DATA, 3);
+
+        assertEquals(serial.keySet(), concurrent.keySet());
+        for (String id : serial.keySet()) {
+            Object obj = getObject(serial, id);
+            Object other = getObject(concurrent, id);
+            assertEquals(id, obj.getClass(), other.getClass());
+            assertEquals(id, serial.get(id).getName(), concurrent.get(id).getName());
+
+            if (obj instanceof PatternList) {
+                PatternList patterns = (PatternList) obj;
+                PatternList otherPatterns = (PatternList) other;
+                assertEquals(id, patterns.getPatternCount(), otherPatterns.getPatternCount());
+                assertTrue(id, Arrays.equals(patterns.getPatternWeights(), otherPatterns.getPatternWeights()));
+                for (int i = 0; i < patterns.getPatternCount(); i++) {
+                    assertTrue(id, Arrays.equals(patterns.getPattern(i), otherPatterns.getPattern(i)));
+                }
+            }
+            if (obj instanceof Alignment) {
+                for (int i = 0; i < ((Alignment) obj).getSequenceCount(); i++) {
+                    assertEquals(id, ((Alignment) obj).getAlignedSequenceString(i),
+                            ((Alignment) other).getAlignedSequenceString(i));
+                }
+            }
+        }
+
+        // the taxa of the alignments are the objects declared before them
+        Alignment alignment = (Alignment) getObject(concurrent, "alignment3");
+        assertSame(getObject(concurrent, "A"), alignment.getTaxon(0));
+
+        assertEquals(((Likelihood) getObject(serial, "treeLikelihood2")).getLogLikelihood(),
+                ((Likelihood) getObject(concurrent, "treeLikelihood2")).getLogLikelihood(), 0.0);
+    }
+
+    public void testConcurrentDuplicateIds() throws Exception {
+        // the same id declared in two alignments that are built at the same time
+        assertDuplicateId(
+                "  <alignment id=\"alignment2\" dataType=\"nucleotide\">\n" +
+                "    <sequence><taxon id=\"E\"/>ACGT</sequence>\n" +
+                "  </alignment>\n" +
+                "  <alignment id=\"alignment3\" dataType=\"nucleotide\">\n" +
+                "    <sequence><taxon id=\"E\"/>ACGA</sequence>\n" +
+                "  </alignment>\n",
+                XMLParser.DEFAULT_CONCURRENT_ELEMENTS);
+
+        // and in two elements that take long enough to build that both are checked before either
+        // is stored
+        assertDuplicateId(
+                "  <" + SLOW + " id=\"slow1\"><" + SLOW + " id=\"E\"/></" + SLOW + ">\n" +
+                "  <" + SLOW + " id=\"slow2\"><" + SLOW + " id=\"E\"/></" + SLOW + ">\n",
+                SLOW);
+    }
+
+    private void assertDuplicateId(String body, String concurrentElements) throws Exception {
+        for (int threadCount = 1; threadCount <= 3; threadCount += 2) {
+            try {
+                parseOnThreads(body, threadCount, concurrentElements);
+                fail("A duplicate id was stored");
+            } catch (XMLParseException xpe) {
+                assertTrue(xpe.getMessage(), xpe.getMessage().contains("Id=E already exists"));
+            }
+        }
+    }
+
+    private static final String SLOW = "slow";
+
+    /**
+     * Takes a while to build (so that elements built at the same time overlap).
+     */
+    private static final XMLObjectParser SLOW_PARSER = new AbstractXMLObjectParser() {
+
+        public String getParserName() {
+            return SLOW;
+        }
+
+        public Object parseXMLObject(XMLObject xo) throws XMLParseException {
+            try {
+                Thread.sleep(100);
+            } catch (InterruptedException ie) {
+                // built anyway
+            }
+            return new Object();
+        }
+
+        public String getParserDescription() {
+            return "An object that takes a while to build";
+        }
+
+        public Class getReturnType() {
+            return Object.class;
+        }
+
+        public XMLSyntaxRule[] getSyntaxRules() {
+            return new XMLSyntaxRule[]{
+                    new ElementRule(Object.class, 0, Integer.MAX_VALUE)
+            };
+        }
+    };
+
+    /**
+     * Returns copies of its child likelihood and parameter.
+     */
+    private static final XMLObjectParser COPIES_PARSER = new AbstractXMLObjectParser() {
+
+        public String getParserName() {
+            return COPIES;
+        }
+
+        public Object parseXMLObject(XMLObject xo) throws XMLParseException {
+            Likelihood likelihood = (Likelihood) xo.getChild(Likelihood.class);
+            Parameter parameter = (Parameter) xo.getChild(Parameter.class);
+            return xo.createCopies(new Object[]{likelihood, parameter}, xo.getIntegerAttribute("count"));
+        }
+
+        public String getParserDescription() {
+            return "Copies of a likelihood and a parameter";
+        }
+
+        public Class getReturnType() {
+            return List.class;
+        }
+
+        public XMLSyntaxRule[] getSyntaxRules() {
+            return new XMLSyntaxRule[]{
+                    AttributeRule.newIntegerRule("count"),
+                    new ElementRule(Likelihood.class),
+                    new ElementRule(Parameter.class)
+            };
+        }
+    };
+}